@@ -0,0 +1,104 @@
+package com.example.android.inventory;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Decodes a large synthetic photo with {@link BitmapDecoder} and checks that the decoded bitmap
+ * is no bigger than the requested size, and that the largest bitmap the decode allocates on the
+ * way is the subsampled photo, not the full one.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BitmapDecoderTest {
+
+    private static final int PHOTO_WIDTH = 4000;
+    private static final int PHOTO_HEIGHT = 3000;
+
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 450;
+
+    private Context context;
+    private File photo;
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getTargetContext();
+        photo = new File(context.getCacheDir(), "decoder-test.jpg");
+
+        // A 12MP photo: 48MB as ARGB_8888 when decoded at full size
+        Bitmap large = Bitmap.createBitmap(PHOTO_WIDTH, PHOTO_HEIGHT, Bitmap.Config.ARGB_8888);
+        new Canvas(large).drawColor(Color.BLUE);
+        FileOutputStream out = new FileOutputStream(photo);
+        try {
+            large.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } finally {
+            out.close();
+            large.recycle();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        photo.delete();
+    }
+
+    @Test
+    public void decode_fitsTheView() throws Exception {
+        Bitmap image = BitmapDecoder.decode(context.getContentResolver(), Uri.fromFile(photo),
+                VIEW_WIDTH, VIEW_HEIGHT);
+        assertNotNull(image);
+
+        assertEquals(600, image.getWidth());
+        assertEquals(450, image.getHeight());
+
+        // the bitmap that is kept is bounded by the view, not the photo
+        assertTrue(image.getByteCount() + " bytes",
+                image.getByteCount() <= VIEW_WIDTH * VIEW_HEIGHT * 4);
+    }
+
+    @Test
+    public void decode_allocatesNoMoreThanTheSubsampledPhoto() throws Exception {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(photo.getPath(), options);
+        BitmapDecoder.setScaling(options, options.outWidth, options.outHeight, VIEW_WIDTH,
+                VIEW_HEIGHT);
+
+        /*
+         * The decoder allocates the photo at inSampleSize, then the density scaling makes it
+         * smaller: the subsampled bitmap is the peak. Its bounds are what the decoder sees, with
+         * the sample size alone.
+         */
+        BitmapFactory.Options sampled = new BitmapFactory.Options();
+        sampled.inJustDecodeBounds = true;
+        sampled.inSampleSize = options.inSampleSize;
+        BitmapFactory.decodeFile(photo.getPath(), sampled);
+
+        assertEquals(4, options.inSampleSize);
+        assertEquals(PHOTO_WIDTH / 4, sampled.outWidth);
+        assertEquals(PHOTO_HEIGHT / 4, sampled.outHeight);
+
+        // 3MB rather than the 48MB of the full photo
+        long peakBytes = (long) sampled.outWidth * sampled.outHeight * 4;
+        long fullBytes = (long) PHOTO_WIDTH * PHOTO_HEIGHT * 4;
+        assertTrue(peakBytes + " bytes", peakBytes * 16 <= fullBytes);
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.android.inventory;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.content.Loader;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract;
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+import com.example.android.inventory.data.TestProducts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sells one Product of a 100k-row catalog that has been scrolled through a few pages, and checks
+ * that only the page holding the Product is queried again. Reports the time from the sale to the
+ * reloaded page, next to the time a full requery of the catalog takes, to logcat under
+ * {@link #LOG_TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CatalogRowUpdateBenchmark {
+
+    private static final String LOG_TAG = CatalogRowUpdateBenchmark.class.getSimpleName();
+
+    private static final int ROWS = 100000;
+
+    /** Rows the catalog is scrolled through before the sale */
+    private static final int SCROLLED_ROWS = 1000;
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public final ActivityTestRule<CatalogActivity> activityRule =
+            new ActivityTestRule<>(CatalogActivity.class, false, false);
+
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+
+        TestProducts.insert(resolver, ROWS, new TestProducts.Columns() {
+            @Override
+            public void put(int i, ContentValues values) {
+                values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 100);
+                values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 10);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void sale_reloadsOnlyItsPage() throws Exception {
+        final CatalogActivity activity = activityRule.launchActivity(null);
+        final RecyclerView list = (RecyclerView) activity.findViewById(R.id.list);
+        final ProductCursorAdapter adapter = (ProductCursorAdapter) list.getAdapter();
+
+        // Scroll until enough pages are loaded
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (itemCount(adapter) < SCROLLED_ROWS) {
+            assertTrue("catalog didn't page in", System.currentTimeMillis() < deadline);
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    list.scrollToPosition(adapter.getItemCount() - 1);
+                }
+            });
+            Thread.sleep(50);
+        }
+        Thread.sleep(500);
+
+        final AtomicLong id = new AtomicLong();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                id.set(adapter.getItemId(SCROLLED_ROWS / 2));
+            }
+        });
+
+        int loadsBefore = totalLoads(activity, adapter);
+        int pages = adapter.getPageCount();
+
+        long start = System.nanoTime();
+        resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_SELL,
+                String.valueOf(id.get()), null);
+        deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (totalLoads(activity, adapter) == loadsBefore) {
+            assertTrue("page was not reloaded", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        long reloadMillis = (System.nanoTime() - start) / 1000000;
+
+        // Give any other page that was going to reload the time to do so
+        Thread.sleep(1000);
+        int queries = totalLoads(activity, adapter) - loadsBefore;
+
+        long fullStart = System.nanoTime();
+        Cursor all = resolver.query(ProductEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(ROWS, all.getCount());
+        all.close();
+        long fullMillis = (System.nanoTime() - fullStart) / 1000000;
+
+        Log.i(LOG_TAG, "sale with " + pages + " pages loaded: " + queries + " page queries, "
+                + reloadMillis + " ms to reload; full requery of " + ROWS + " rows: "
+                + fullMillis + " ms");
+        assertEquals(1, queries);
+    }
+
+    private static int itemCount(final ProductCursorAdapter adapter) {
+        final AtomicInteger count = new AtomicInteger();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                count.set(adapter.getItemCount());
+            }
+        });
+        return count.get();
+    }
+
+    /*
+     * The number of queries run by all the page loaders so far. The page loader IDs are the
+     * page numbers.
+     */
+    private static int totalLoads(final CatalogActivity activity,
+                                  final ProductCursorAdapter adapter) {
+        final AtomicInteger loads = new AtomicInteger();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int page = 0; page < adapter.getPageCount(); page++) {
+                    Loader<Cursor> loader = activity.getSupportLoaderManager().getLoader(page);
+                    if (loader != null)
+                        loads.addAndGet(((ProductPageLoader) loader).getLoadCount());
+                }
+            }
+        });
+        return loads.get();
+    }
+}
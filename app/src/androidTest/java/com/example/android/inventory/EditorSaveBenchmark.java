@@ -0,0 +1,132 @@
+package com.example.android.inventory;
+
+import android.app.Instrumentation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.widget.EditText;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+import com.example.android.inventory.data.TestProducts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times how long the editor takes to close after "Save": with the save queued on the writer
+ * thread as the editor does it, and with the same update run on the main thread first, as the
+ * editor used to. Reports the medians to logcat under {@link #LOG_TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EditorSaveBenchmark {
+
+    private static final String LOG_TAG = EditorSaveBenchmark.class.getSimpleName();
+
+    /** Rows in the inventory, so that the update touches a realistic database */
+    private static final int ROWS = 10000;
+
+    private static final int RUNS = 20;
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public final ActivityTestRule<EditorActivity> activityRule =
+            new ActivityTestRule<>(EditorActivity.class, false, false);
+
+    private ContentResolver resolver;
+    private Uri productUri;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+
+        TestProducts.insert(resolver, ROWS, new TestProducts.Columns() {
+            @Override
+            public void put(int i, ContentValues values) {
+                values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 100);
+                values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 10);
+            }
+        });
+
+        // The editor only saves a Product with an image; this one is never decoded
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Edited");
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 100);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 10);
+        values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, "content://missing/image.jpg");
+        productUri = resolver.insert(ProductEntry.CONTENT_URI, values);
+    }
+
+    @After
+    public void tearDown() {
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void saveToClose() throws Exception {
+        long[] queued = new long[RUNS];
+        long[] onMainThread = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            queued[i] = saveAndClose(false);
+            onMainThread[i] = saveAndClose(true);
+        }
+        Arrays.sort(queued);
+        Arrays.sort(onMainThread);
+
+        Log.i(LOG_TAG, "save to close, median of " + RUNS + ": queued "
+                + queued[RUNS / 2] / 1000 + " us, update on the main thread first "
+                + onMainThread[RUNS / 2] / 1000 + " us");
+    }
+
+    /*
+     * Open the editor on the Product, tap "Save" once it is loaded and return the nanoseconds
+     * until the editor is destroyed. If updateOnMainThread is set, the update the editor used to
+     * run on the main thread is done right before the tap.
+     */
+    private long saveAndClose(final boolean updateOnMainThread) throws InterruptedException {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        final EditorActivity activity = activityRule.launchActivity(
+                new Intent(Intent.ACTION_EDIT, productUri));
+
+        final EditText name = (EditText) activity.findViewById(R.id.edit_product_name);
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        while (name.getText().length() == 0) {
+            assertTrue("The Product did not load", SystemClock.uptimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        instrumentation.waitForIdleSync();
+
+        long start = System.nanoTime();
+        if (updateOnMainThread) {
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    ContentValues values = new ContentValues();
+                    values.put(ProductEntry.COLUMN_PRODUCT_NAME, name.getText().toString());
+                    resolver.update(productUri, values, null, null);
+                }
+            });
+        }
+        instrumentation.invokeMenuActionSync(activity, R.id.action_save, 0);
+
+        while (!activity.isDestroyed()) {
+            assertTrue("The editor did not close", SystemClock.uptimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        return System.nanoTime() - start;
+    }
+}
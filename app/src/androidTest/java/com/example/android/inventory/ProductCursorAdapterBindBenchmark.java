@@ -0,0 +1,172 @@
+package com.example.android.inventory;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.widget.FrameLayout;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+import com.example.android.inventory.data.TestProducts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Binds 10k rows of Product data, the way a scroll through the whole catalog would, and reports
+ * the time and the number of allocations per bind to logcat under {@link #LOG_TAG}. With images
+ * turned on, the {@link ThumbnailCache} hit rate is reported as well.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductCursorAdapterBindBenchmark {
+
+    private static final String LOG_TAG = ProductCursorAdapterBindBenchmark.class.getSimpleName();
+
+    private static final int ROWS = 10000;
+
+    /** Number of view holders recycled during the scroll, about one screen worth of rows */
+    private static final int HOLDERS = 12;
+
+    /** Number of different thumbnails over the rows */
+    private static final int THUMBNAILS = 200;
+
+    private File image;
+
+    private ContentResolver resolver;
+
+    private final ArrayList<Cursor> pages = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        resolver = context.getContentResolver();
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+
+        // One product photo the thumbnails are generated from
+        image = new File(context.getCacheDir(), "bind-benchmark.jpg");
+        Bitmap photo = Bitmap.createBitmap(1600, 1200, Bitmap.Config.ARGB_8888);
+        new Canvas(photo).drawColor(Color.RED);
+        FileOutputStream out = new FileOutputStream(image);
+        try {
+            photo.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } finally {
+            out.close();
+            photo.recycle();
+        }
+        final String imageUri = Uri.fromFile(image).toString();
+        final String run = ThumbnailCache.newKey();
+
+        TestProducts.insert(resolver, ROWS, new TestProducts.Columns() {
+            @Override
+            public void put(int i, ContentValues values) {
+                values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, imageUri);
+                values.put(ProductEntry.COLUMN_PRODUCT_THUMBNAIL, run + "-" + (i % THUMBNAILS));
+            }
+        });
+
+        String[] projection = {
+                ProductEntry._ID,
+                ProductEntry.COLUMN_PRODUCT_NAME,
+                ProductEntry.COLUMN_PRODUCT_PRICE,
+                ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                ProductEntry.COLUMN_PRODUCT_IMAGE,
+                ProductEntry.COLUMN_PRODUCT_THUMBNAIL};
+
+        long after = 0;
+        int rows = 0;
+        while (rows < ROWS) {
+            Cursor page = resolver.query(ProductEntry.buildPageUri(after, -1,
+                    ProductEntry.MAX_PAGE_SIZE), projection, null, null, null);
+            page.moveToLast();
+            after = page.getLong(0);
+            rows += page.getCount();
+            pages.add(page);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (Cursor page : pages)
+            page.close();
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+        image.delete();
+    }
+
+    @Test
+    public void bind_withoutImages() {
+        bind(null);
+    }
+
+    @Test
+    public void bind_withImages() throws Exception {
+        ThumbnailCache thumbnails =
+                ThumbnailCache.getInstance(InstrumentationRegistry.getTargetContext());
+        bind(thumbnails);
+
+        // let the background loads finish before reading the counters
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) thumbnails.getExecutor();
+        while (executor.getActiveCount() > 0 || !executor.getQueue().isEmpty())
+            Thread.sleep(10);
+        Log.i(LOG_TAG, "thumbnails: " + thumbnails.getStats());
+    }
+
+    private void bind(final ThumbnailCache thumbnails) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                ProductCursorAdapter adapter = new ProductCursorAdapter(
+                        new ProductCursorAdapter.OnProductClickListener() {
+                            @Override
+                            public void onProductClick(long id) {
+                            }
+
+                            @Override
+                            public void onSelectionChanged(int count) {
+                            }
+                        }, thumbnails);
+                for (int i = 0; i < pages.size(); i++)
+                    adapter.swapPage(i, pages.get(i));
+                assertEquals(ROWS, adapter.getItemCount());
+
+                FrameLayout parent = new FrameLayout(InstrumentationRegistry.getTargetContext());
+                ProductCursorAdapter.ViewHolder[] holders =
+                        new ProductCursorAdapter.ViewHolder[HOLDERS];
+                for (int i = 0; i < HOLDERS; i++) {
+                    holders[i] = adapter.onCreateViewHolder(parent, 0);
+                    // warm up the buffers and the page windows
+                    adapter.onBindViewHolder(holders[i], i);
+                }
+
+                Debug.startAllocCounting();
+                Debug.resetThreadAllocCount();
+                long start = System.nanoTime();
+                for (int position = 0; position < ROWS; position++)
+                    adapter.onBindViewHolder(holders[position % HOLDERS], position);
+                long elapsed = System.nanoTime() - start;
+                int allocations = Debug.getThreadAllocCount();
+                Debug.stopAllocCounting();
+
+                Log.i(LOG_TAG, ROWS + " binds, images " + (thumbnails == null ? "off" : "on")
+                        + ": " + (elapsed / ROWS) + " ns/bind, "
+                        + ((float) allocations / ROWS) + " allocations/bind");
+            }
+        });
+    }
+}
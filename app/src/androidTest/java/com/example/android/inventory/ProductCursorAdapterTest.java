@@ -0,0 +1,70 @@
+package com.example.android.inventory;
+
+import android.database.MatrixCursor;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Finds rows across the pages of a {@link ProductCursorAdapter}, with pages still loading and
+ * empty pages in between.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductCursorAdapterTest {
+
+    private static final String[] COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_PRICE};
+
+    @Test
+    public void getItemId_acrossPages() {
+        ProductCursorAdapter adapter = new ProductCursorAdapter(
+                new ProductCursorAdapter.OnProductClickListener() {
+                    @Override
+                    public void onProductClick(long id) {
+                    }
+
+                    @Override
+                    public void onSelectionChanged(int count) {
+                    }
+                }, null);
+
+        // Page 1 is still loading, page 3 is empty
+        adapter.swapPage(0, page(1, 3));
+        adapter.swapPage(2, page(10, 2));
+        adapter.swapPage(3, page(20, 0));
+        adapter.swapPage(4, page(30, 1));
+
+        assertEquals(6, adapter.getItemCount());
+        long[] ids = {1, 2, 3, 10, 11, 30};
+        for (int position = 0; position < ids.length; position++)
+            assertEquals(ids[position], adapter.getItemId(position));
+
+        // Page 1 arrives: the rows after it move down
+        adapter.swapPage(1, page(5, 2));
+        assertEquals(8, adapter.getItemCount());
+        assertEquals(5, adapter.getItemId(3));
+        assertEquals(10, adapter.getItemId(5));
+        assertEquals(30, adapter.getItemId(7));
+
+        adapter.clear();
+        assertEquals(0, adapter.getItemCount());
+    }
+
+    /*
+     * A page of the given number of Products, with consecutive IDs from the first one.
+     */
+    private static MatrixCursor page(long firstId, int rows) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, rows);
+        for (int i = 0; i < rows; i++)
+            cursor.addRow(new Object[]{firstId + i, "Product " + (firstId + i), 1, 1});
+        return cursor;
+    }
+}
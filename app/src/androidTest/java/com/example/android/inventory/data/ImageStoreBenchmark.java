@@ -0,0 +1,133 @@
+package com.example.android.inventory.data;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stores 1k photo-sized images the way the editor used to (decoded at full size and written as
+ * quality 100 JPEGs) and with {@link ImageStore}, and reports the bytes on disk and the encode
+ * time of both to logcat under {@link #LOG_TAG}. Every tenth image is a repeat, as when several
+ * Products share a photo.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImageStoreBenchmark {
+
+    private static final String LOG_TAG = ImageStoreBenchmark.class.getSimpleName();
+
+    private static final int IMAGES = 1000;
+
+    /** Number of different images, the rest are repeats */
+    private static final int DISTINCT_IMAGES = IMAGES * 9 / 10;
+
+    private static final int WIDTH = 2048;
+    private static final int HEIGHT = 1536;
+
+    private File sourceDir;
+    private File legacyDir;
+    private File storeDir;
+
+    @Before
+    public void setUp() throws IOException {
+        Context context = InstrumentationRegistry.getTargetContext();
+        sourceDir = new File(context.getCacheDir(), "image-benchmark-sources");
+        legacyDir = new File(context.getCacheDir(), "image-benchmark-legacy");
+        storeDir = new File(context.getFilesDir(), "images/benchmark");
+        sourceDir.mkdirs();
+        legacyDir.mkdirs();
+
+        // Noisy gradients, so the images compress like photos rather than flat colours
+        Random random = new Random(42);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        for (int i = 0; i < DISTINCT_IMAGES; i++) {
+            int tint = random.nextInt(0x1000000);
+            for (int p = 0; p < pixels.length; p++)
+                pixels[p] = 0xff000000 | ((tint + p % WIDTH + random.nextInt(32)) & 0xffffff);
+            bitmap.setPixels(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+
+            FileOutputStream out = new FileOutputStream(source(i));
+            try {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, 95, out);
+            } finally {
+                out.close();
+            }
+        }
+        bitmap.recycle();
+    }
+
+    @After
+    public void tearDown() {
+        deleteAll(sourceDir);
+        deleteAll(legacyDir);
+        deleteAll(storeDir);
+    }
+
+    @Test
+    public void store_1kImages() throws IOException {
+        // Before: full-size decode, quality 100, one file per pick
+        long legacyStart = System.nanoTime();
+        for (int i = 0; i < IMAGES; i++) {
+            Bitmap bitmap = BitmapFactory.decodeFile(source(i % DISTINCT_IMAGES).getPath());
+            FileOutputStream out = new FileOutputStream(new File(legacyDir, i + ".jpg"));
+            try {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, 100, out);
+            } finally {
+                out.close();
+                bitmap.recycle();
+            }
+        }
+        long legacyNanos = System.nanoTime() - legacyStart;
+        long legacyBytes = sizeOf(legacyDir);
+
+        // After: content-addressed, adaptively encoded, deduplicated
+        ImageStore store = new ImageStore(InstrumentationRegistry.getTargetContext(), storeDir,
+                Long.MAX_VALUE);
+        long storeStart = System.nanoTime();
+        for (int i = 0; i < IMAGES; i++)
+            store.put(Uri.fromFile(source(i % DISTINCT_IMAGES)));
+        long storeNanos = System.nanoTime() - storeStart;
+        long storeBytes = store.getSizeOnDisk();
+
+        Log.i(LOG_TAG, IMAGES + " images, before: " + legacyBytes / 1024 + " KB, "
+                + legacyNanos / 1000000 / IMAGES + " ms/image; after: " + storeBytes / 1024
+                + " KB, " + storeNanos / 1000000 / IMAGES + " ms/image");
+
+        assertTrue(storeBytes < legacyBytes);
+    }
+
+    private File source(int i) {
+        return new File(sourceDir, i + ".jpg");
+    }
+
+    private static long sizeOf(File dir) {
+        long size = 0;
+        for (File file : dir.listFiles())
+            size += file.length();
+        return size;
+    }
+
+    private static void deleteAll(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        dir.delete();
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link ImageStore} stores identical images once, scales them down, and deletes an
+ * image only when no Product refers to it any more.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImageStoreTest {
+
+    private Context context;
+
+    private ContentResolver resolver;
+
+    private File directory;
+
+    private ImageStore store;
+
+    private File source;
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getTargetContext();
+        resolver = context.getContentResolver();
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+
+        // A directory of its own, served by the same FileProvider path, with no grace period
+        directory = new File(context.getFilesDir(), "images/test");
+        store = new ImageStore(context, directory, 0);
+
+        source = writeImage(new File(context.getCacheDir(), "image-store-test.png"), 3000, 2000,
+                Color.BLUE);
+    }
+
+    @After
+    public void tearDown() {
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        directory.delete();
+        source.delete();
+    }
+
+    @Test
+    public void put_scalesDownAndStaysUnderTarget() throws IOException {
+        Uri stored = store.put(Uri.fromFile(source));
+        assertTrue(store.contains(stored));
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        InputStream in = resolver.openInputStream(stored);
+        assertNotNull(in);
+        try {
+            BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+        assertEquals(ImageStore.MAX_IMAGE_SIZE, Math.max(options.outWidth, options.outHeight));
+        assertTrue(store.getSizeOnDisk() <= ImageStore.TARGET_BYTES);
+    }
+
+    @Test
+    public void put_deduplicatesIdenticalImages() throws Exception {
+        File copy = writeImage(new File(context.getCacheDir(), "image-store-test-copy.png"),
+                3000, 2000, Color.BLUE);
+        try {
+            Uri first = store.put(Uri.fromFile(source));
+            Uri second = store.put(Uri.fromFile(copy));
+
+            assertEquals(first, second);
+            assertEquals(1, directory.listFiles().length);
+        } finally {
+            copy.delete();
+        }
+    }
+
+    @Test
+    public void release_deletesOnlyUnreferencedImages() throws Exception {
+        String image = store.put(Uri.fromFile(source)).toString();
+        insert(image);
+        insert(image);
+
+        // Still referenced by both Products
+        store.release(Collections.singletonList(image));
+        assertEquals(0, (int) store.collectGarbage().get());
+
+        // Deleting one Product leaves a reference
+        resolver.delete(ProductEntry.CONTENT_URI, ProductEntry._ID + " = (SELECT MIN("
+                + ProductEntry._ID + ") FROM " + ProductEntry.TABLE_NAME + ")", null);
+        store.release(Collections.singletonList(image));
+        assertEquals(0, (int) store.collectGarbage().get());
+        assertEquals(1, directory.listFiles().length);
+
+        // Deleting the last one lets the image go
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+        store.release(Collections.singletonList(image));
+        store.collectGarbage().get();
+        assertFalse(directory.exists() && directory.listFiles().length > 0);
+    }
+
+    @Test
+    public void collectGarbage_keepsPinnedImages() throws Exception {
+        Uri image = store.put(Uri.fromFile(source));
+        String name = image.getLastPathSegment();
+
+        // Pinned twice, as by two restores: unreferenced, but kept until both let go
+        store.pin(name);
+        store.pin(name);
+        assertEquals(0, (int) store.collectGarbage().get());
+        store.unpin(Collections.singletonList(name));
+        store.release(Collections.singletonList(image.toString()));
+        assertEquals(0, (int) store.collectGarbage().get());
+
+        store.unpin(Collections.singletonList(name));
+        assertEquals(1, (int) store.collectGarbage().get());
+    }
+
+    @Test
+    public void release_ignoresImagesOutsideTheStore() throws Exception {
+        store.put(Uri.fromFile(source));
+        store.release(Collections.singletonList(Uri.fromFile(source).toString()));
+        store.collectGarbage().get();
+        assertTrue(source.exists());
+    }
+
+    private void insert(String image) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Mugs");
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 1);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 8);
+        values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, image);
+        resolver.insert(ProductEntry.CONTENT_URI, values);
+    }
+
+    static File writeImage(File file, int width, int height, int color) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        new Canvas(bitmap).drawColor(color);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } finally {
+            out.close();
+            bitmap.recycle();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.android.inventory.data;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+import java.util.List;
+
+/**
+ * Fails a test that did database or disk I/O on the main thread. The recorded events are
+ * cleared before the test and checked after it; a test that passes but left events behind
+ * fails with the first of them. Plain JUnit, so it works under Robolectric too.
+ */
+public class MainThreadIoRule implements TestRule {
+
+    @Override
+    public Statement apply(final Statement base, Description description) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                MainThreadIo.clear();
+                base.evaluate();
+
+                List<MainThreadIo.Event> events = MainThreadIo.getEvents();
+                if (!events.isEmpty()) {
+                    AssertionError error = new AssertionError(events.size()
+                            + " operations on the main thread, the first: " + events.get(0));
+                    error.setStackTrace(events.get(0).stack);
+                    throw error;
+                }
+            }
+        };
+    }
+}
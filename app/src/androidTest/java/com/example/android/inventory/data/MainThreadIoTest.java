@@ -0,0 +1,124 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Provider operations on and off the main thread, as seen by {@link MainThreadIo}, and the
+ * {@link MainThreadIoRule} that keeps the other tests off it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MainThreadIoTest {
+
+    @Rule
+    public final MainThreadIoRule mainThreadIo = new MainThreadIoRule();
+
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+
+        // The provider enables the detector in debuggable builds, which the test build is
+        query();
+        assertTrue(MainThreadIo.isEnabled());
+    }
+
+    @After
+    public void tearDown() {
+        MainThreadIo.setFailOnViolation(false);
+    }
+
+    @Test
+    public void query_offMainThread_isNotRecorded() {
+        query();
+        assertEquals(0, MainThreadIo.getCount());
+    }
+
+    @Test
+    public void query_onMainThread_isRecordedWithCallSite() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                query();
+            }
+        });
+
+        List<MainThreadIo.Event> events = MainThreadIo.getEvents();
+        assertEquals(1, events.size());
+        assertEquals("query items", events.get(0).operation);
+        assertTrue(events.get(0).callSite,
+                events.get(0).callSite.startsWith(MainThreadIoTest.class.getSimpleName()));
+
+        // Leave nothing for the rule
+        MainThreadIo.clear();
+    }
+
+    @Test
+    public void query_onMainThread_failsOnViolation() {
+        MainThreadIo.setFailOnViolation(true);
+        final Throwable[] thrown = new Throwable[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    query();
+                } catch (MainThreadIo.ViolationException e) {
+                    thrown[0] = e;
+                }
+            }
+        });
+
+        if (!(thrown[0] instanceof MainThreadIo.ViolationException))
+            fail("A query on the main thread did not fail");
+        assertEquals(1, MainThreadIo.getCount());
+        MainThreadIo.clear();
+    }
+
+    @Test
+    public void failingInsert_onMainThread_throwsItsOwnException() {
+        MainThreadIo.setFailOnViolation(true);
+        final Throwable[] thrown = new Throwable[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // No name: the provider rejects it
+                    resolver.insert(ProductEntry.CONTENT_URI, new ContentValues());
+                } catch (RuntimeException e) {
+                    thrown[0] = e;
+                }
+            }
+        });
+
+        // The violation is recorded, but doesn't hide why the insert failed
+        if (!(thrown[0] instanceof IllegalArgumentException))
+            fail("The insert threw " + thrown[0]);
+        assertEquals(1, MainThreadIo.getCount());
+        MainThreadIo.clear();
+    }
+
+    private void query() {
+        Cursor cursor = resolver.query(ProductEntry.CONTENT_URI,
+                new String[]{ProductEntry._ID}, null, null, null);
+        if (cursor != null)
+            cursor.close();
+    }
+}
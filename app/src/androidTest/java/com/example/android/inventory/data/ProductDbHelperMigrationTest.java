@@ -0,0 +1,183 @@
+package com.example.android.inventory.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+import com.example.android.inventory.data.ProductContract.StockMovementEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a populated version 1 database with {@link ProductDbHelper} and checks the data, the
+ * full-text index and the query plans of the upgraded schema.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductDbHelperMigrationTest {
+
+    private static final String TEST_DATABASE = "migration-test.db";
+
+    private static final int ROWS = 1000;
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void upgradeFromVersion1_keepsDataAndAddsIndexes() {
+        createVersion1();
+
+        ProductDbHelper helper = new ProductDbHelper(context, TEST_DATABASE);
+        SQLiteDatabase db = helper.getReadableDatabase();
+        try {
+            assertEquals(ProductDbHelper.DATABASE_VERSION, db.getVersion());
+
+            Cursor cursor = db.rawQuery("SELECT COUNT(*), SUM(" + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                    + "), SUM(" + ProductEntry.COLUMN_PRODUCT_PRICE + ") FROM "
+                    + ProductEntry.TABLE_NAME, null);
+            cursor.moveToFirst();
+            assertEquals(ROWS, cursor.getInt(0));
+            assertEquals(expectedQuantitySum(), cursor.getLong(1));
+            assertEquals(expectedPriceSum(), cursor.getLong(2));
+            cursor.close();
+
+            // the running totals start out from the rows that existed before the upgrade
+            cursor = db.rawQuery("SELECT " + ProductEntry.COLUMN_STATS_COUNT + ", "
+                    + ProductEntry.COLUMN_STATS_UNITS + ", " + ProductEntry.COLUMN_STATS_VALUE
+                    + ", (SELECT SUM(" + ProductEntry.COLUMN_PRODUCT_PRICE + " * "
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + ") FROM " + ProductEntry.TABLE_NAME
+                    + ") FROM " + ProductEntry.STATS_TABLE_NAME, null);
+            cursor.moveToFirst();
+            assertEquals(ROWS, cursor.getInt(0));
+            assertEquals(expectedQuantitySum(), cursor.getLong(1));
+            assertEquals(cursor.getLong(3), cursor.getLong(2));
+            cursor.close();
+
+            // the rows that existed before the upgrade are in the full-text index
+            cursor = db.rawQuery("SELECT docid FROM " + ProductEntry.SEARCH_TABLE_NAME
+                    + " WHERE " + ProductEntry.SEARCH_TABLE_NAME + " MATCH 'product*'", null);
+            assertEquals(ROWS, cursor.getCount());
+            cursor.close();
+
+            // the ledger starts out empty, so the current quantities are the stored ones
+            cursor = db.rawQuery("SELECT SUM(" + ProductEntry.COLUMN_PRODUCT_QUANTITY + "), (SELECT "
+                    + "COUNT(*) FROM " + StockMovementEntry.TABLE_NAME + ") FROM "
+                    + ProductDbHelper.CURRENT_VIEW, null);
+            cursor.moveToFirst();
+            assertEquals(expectedQuantitySum(), cursor.getLong(0));
+            assertEquals(0, cursor.getInt(1));
+            cursor.close();
+
+            assertPlanUses(db, "SELECT " + ProductEntry._ID + " FROM " + ProductEntry.TABLE_NAME
+                    + " WHERE " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " < 5",
+                    ProductDbHelper.QUANTITY_INDEX);
+            assertPlanUses(db, "SELECT * FROM " + ProductEntry.TABLE_NAME
+                    + " ORDER BY " + ProductEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE",
+                    ProductDbHelper.NAME_INDEX);
+            assertPlanUses(db, "SELECT * FROM " + ProductEntry.TABLE_NAME
+                    + " ORDER BY " + ProductEntry.COLUMN_PRODUCT_PRICE,
+                    ProductDbHelper.PRICE_INDEX);
+            assertPlanUses(db, "SELECT " + ProductEntry._ID + " FROM " + ProductEntry.TABLE_NAME
+                    + " WHERE " + ProductEntry.COLUMN_PRODUCT_IMAGE + " = 'x'",
+                    ProductDbHelper.IMAGE_INDEX);
+            assertPlanUses(db, "SELECT * FROM " + ProductDbHelper.CURRENT_VIEW
+                    + " WHERE " + ProductEntry._ID + " = 1",
+                    ProductDbHelper.MOVEMENTS_INDEX);
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void newDatabase_matchesUpgradedSchema() {
+        createVersion1();
+        List<String> upgraded = schema();
+        context.deleteDatabase(TEST_DATABASE);
+
+        ProductDbHelper helper = new ProductDbHelper(context, TEST_DATABASE);
+        helper.getReadableDatabase();
+        helper.close();
+
+        assertEquals(upgraded, schema());
+    }
+
+    /*
+     * Create the database the way version 1 of the app did, with some Products in it.
+     */
+    private void createVersion1() {
+        SQLiteDatabase db = context.openOrCreateDatabase(TEST_DATABASE, 0, null);
+        db.execSQL("CREATE TABLE inventory (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "name TEXT NOT NULL, quantity INTEGER, price INTEGER, image TEXT);");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++)
+                db.execSQL("INSERT INTO inventory (name, quantity, price) VALUES (?, ?, ?)",
+                        new Object[]{"Product " + i, i % 50, i % 100});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.setVersion(1);
+        db.close();
+    }
+
+    /*
+     * The schema of the test database after opening it with ProductDbHelper.
+     */
+    private List<String> schema() {
+        ProductDbHelper helper = new ProductDbHelper(context, TEST_DATABASE);
+        List<String> schema = new ArrayList<>();
+        Cursor cursor = helper.getReadableDatabase().rawQuery(
+                "SELECT type, name, sql FROM sqlite_master ORDER BY type, name", null);
+        while (cursor.moveToNext())
+            schema.add(cursor.getString(0) + " " + cursor.getString(1) + " " + cursor.getString(2));
+        cursor.close();
+        helper.close();
+        return schema;
+    }
+
+    private static void assertPlanUses(SQLiteDatabase db, String query, String index) {
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query, null);
+        StringBuilder plan = new StringBuilder();
+        while (cursor.moveToNext())
+            plan.append(cursor.getString(cursor.getColumnIndex("detail"))).append('\n');
+        cursor.close();
+        assertTrue(query + " does not use " + index + ":\n" + plan,
+                plan.toString().contains(index));
+    }
+
+    private static long expectedQuantitySum() {
+        long sum = 0;
+        for (int i = 0; i < ROWS; i++)
+            sum += i % 50;
+        return sum;
+    }
+
+    private static long expectedPriceSum() {
+        long sum = 0;
+        for (int i = 0; i < ROWS; i++)
+            sum += i % 100;
+        return sum;
+    }
+}
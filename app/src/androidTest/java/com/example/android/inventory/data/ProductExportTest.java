@@ -0,0 +1,190 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Exports the Products through the provider's pipe, as CSV and JSON, and checks that a large
+ * export streams in bounded memory.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductExportTest {
+
+    private static final String LOG_TAG = ProductExportTest.class.getSimpleName();
+
+    /** Number of Products of the large export */
+    private static final int LARGE_ROWS = 1000000;
+
+    /** The heap may grow by this much at most while the large export is read */
+    private static final long MAX_HEAP_GROWTH = 8 * 1024 * 1024;
+
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void getStreamTypes() {
+        assertArrayEquals(new String[]{ProductEntry.EXPORT_CSV_TYPE, ProductEntry.EXPORT_JSON_TYPE},
+                resolver.getStreamTypes(ProductEntry.CONTENT_URI, "*/*"));
+        assertArrayEquals(new String[]{ProductEntry.EXPORT_JSON_TYPE},
+                resolver.getStreamTypes(ProductEntry.CONTENT_URI, "application/*"));
+        assertNull(resolver.getStreamTypes(ProductEntry.CONTENT_URI, "image/*"));
+    }
+
+    @Test
+    public void exportCsv_readsBackWithTheImporterFormat() throws IOException {
+        insert("Mugs, \"blue\"", 3, 8);
+        insert("Plates\nwhite", null, 5);
+
+        CsvReader csv = new CsvReader(new InputStreamReader(
+                open(ProductEntry.EXPORT_CSV_TYPE), "UTF-8"));
+        try {
+            assertEquals(Arrays.asList("_id", "name", "quantity", "price", "image"),
+                    csv.readRecord());
+
+            List<String> mugs = csv.readRecord();
+            assertEquals("Mugs, \"blue\"", mugs.get(1));
+            assertEquals("3", mugs.get(2));
+            assertEquals("8", mugs.get(3));
+            assertEquals("", mugs.get(4));
+
+            List<String> plates = csv.readRecord();
+            assertEquals("Plates\nwhite", plates.get(1));
+            assertEquals("", plates.get(2));
+
+            assertNull(csv.readRecord());
+        } finally {
+            csv.close();
+        }
+    }
+
+    @Test
+    public void exportJson() throws Exception {
+        insert("Mugs \"blue\"\t\\", 3, 8);
+        insert("Plates", null, 5);
+
+        JSONArray products = new JSONArray(new String(
+                readFully(open(ProductEntry.EXPORT_JSON_TYPE)), "UTF-8"));
+
+        assertEquals(2, products.length());
+        JSONObject mugs = products.getJSONObject(0);
+        assertEquals("Mugs \"blue\"\t\\", mugs.getString("name"));
+        assertEquals(3, mugs.getInt("quantity"));
+        assertTrue(mugs.isNull("image"));
+        assertTrue(products.getJSONObject(1).isNull("quantity"));
+    }
+
+    @Test
+    public void exportJson_emptyTable() throws Exception {
+        assertEquals(0, new JSONArray(new String(
+                readFully(open(ProductEntry.EXPORT_JSON_TYPE)), "UTF-8")).length());
+    }
+
+    @Test
+    public void exportCsv_largeTableInBoundedMemory() throws IOException {
+        TestProducts.insert(resolver, LARGE_ROWS, 500, TestProducts.PRICES);
+
+        long heapBefore = usedHeap();
+        long maxHeap = heapBefore;
+
+        long start = System.nanoTime();
+        long bytes = 0;
+        long lines = 0;
+        InputStream in = open(ProductEntry.EXPORT_CSV_TYPE);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes += read;
+                for (int i = 0; i < read; i++)
+                    if (buffer[i] == '\n')
+                        lines++;
+
+                // Sample the heap every few MB
+                if (bytes % (4 * 1024 * 1024) < read)
+                    maxHeap = Math.max(maxHeap, usedHeap());
+            }
+        } finally {
+            in.close();
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        double megabytes = bytes / (1024.0 * 1024.0);
+        Log.i(LOG_TAG, LARGE_ROWS + " rows, " + String.format("%.1f", megabytes) + " MB in "
+                + millis + " ms: " + String.format("%.1f", megabytes * 1000 / millis)
+                + " MB/s, heap growth " + (maxHeap - heapBefore) / 1024 + " KB");
+
+        // The header and one line per Product
+        assertEquals(LARGE_ROWS + 1, lines);
+        assertTrue("heap grew by " + (maxHeap - heapBefore) + " bytes",
+                maxHeap - heapBefore < MAX_HEAP_GROWTH);
+    }
+
+    private InputStream open(String mimeType) throws IOException {
+        return resolver.openTypedAssetFileDescriptor(ProductEntry.CONTENT_URI, mimeType, null)
+                .createInputStream();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    /*
+     * The heap in use after a collection, so garbage doesn't count.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private void insert(String name, Integer quantity, int price) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        resolver.insert(ProductEntry.CONTENT_URI, values);
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Imports CSV files through {@link ProductImporter}: line errors, cancelling and resuming, the
+ * progress saved with each batch, and the throughput on a large supplier catalog.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductImporterTest {
+
+    private static final String LOG_TAG = ProductImporterTest.class.getSimpleName();
+
+    /** Number of lines of the large catalog */
+    private static final int LARGE_LINES = 100000;
+
+    private Context context;
+    private ContentResolver resolver;
+    private ProductImporter importer;
+    private File file;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        resolver = context.getContentResolver();
+        importer = ProductImporter.getInstance(context);
+        file = new File(context.getCacheDir(), "import-test.csv");
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+        file.delete();
+    }
+
+    @Test
+    public void importCsv_reportsBadLines() throws Exception {
+        write("Price,Name,Quantity,Supplier\n"
+                + "8,Mugs,3,ACME\n"
+                + "5,\"Plates, white\",10,ACME\n"
+                + "2,,4,ACME\n"
+                + "-1,Cups,4,ACME\n"
+                + "1,Spoons,many,ACME\n"
+                + "\n"
+                + ",Forks,,ACME\n");
+
+        ProductImporter.Progress result = importer.importCsv(Uri.fromFile(file))
+                .get(30, TimeUnit.SECONDS);
+
+        assertEquals(3, result.imported);
+        assertEquals(3, result.rejected);
+        assertEquals(3, result.errors.size());
+        assertEquals(4, result.errors.get(0).line);
+        assertEquals(5, result.errors.get(1).line);
+        assertEquals(6, result.errors.get(2).line);
+        assertFalse(result.cancelled);
+        assertNull(importer.getResumableImport());
+
+        assertEquals(3, count(null));
+        assertEquals(1, count(ProductEntry.COLUMN_PRODUCT_NAME + "='Plates, white'"));
+    }
+
+    @Test
+    public void importCsv_resumesAfterCancel() throws Exception {
+        writeLarge(LARGE_LINES);
+        final Uri source = Uri.fromFile(file);
+
+        final AtomicReference<ProductImporter.Progress> finished = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        setListener(new ProductImporter.Listener() {
+            @Override
+            public void onProgress(ProductImporter.Progress progress) {
+                importer.cancel();
+            }
+
+            @Override
+            public void onFinished(ProductImporter.Progress progress) {
+                finished.set(progress);
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                done.countDown();
+            }
+        });
+
+        Future<ProductImporter.Progress> first = importer.importCsv(source);
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        setListener(null);
+
+        assertTrue(first.get().cancelled);
+        assertTrue(finished.get().cancelled);
+        assertTrue(finished.get().imported < LARGE_LINES);
+        assertEquals(source, importer.getResumableImport());
+
+        ProductImporter.Progress result = importer.importCsv(source).get(120, TimeUnit.SECONDS);
+
+        // Every line imported exactly once
+        assertEquals(LARGE_LINES, result.imported);
+        assertEquals(LARGE_LINES, count(null));
+        assertEquals(LARGE_LINES, countDistinctNames());
+        assertNull(importer.getResumableImport());
+    }
+
+    @Test
+    public void importBatch_savesProgressWithTheProducts() {
+        Bundle result = importBatch("first", 10, 4, 1, product("Mugs"), product("Plates"));
+        assertEquals(2, result.getInt(ProductContract.EXTRA_ROWS));
+
+        Bundle saved = checkpoint("first");
+        assertEquals(10, saved.getLong(ProductContract.EXTRA_LINES));
+        assertEquals(6, saved.getLong(ProductContract.EXTRA_IMPORTED));
+        assertEquals(1, saved.getLong(ProductContract.EXTRA_REJECTED));
+        assertNull(checkpoint("second"));
+
+        // A batch that is rolled back saves no progress either
+        try {
+            importBatch("first", 20, 6, 1, product("Cups"), product(null));
+            fail("A Product without a name was imported");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(10, checkpoint("first").getLong(ProductContract.EXTRA_LINES));
+        assertEquals(2, count(null));
+    }
+
+    @Test
+    public void importCsv_throughput() throws Exception {
+        writeLarge(LARGE_LINES);
+
+        long start = System.nanoTime();
+        ProductImporter.Progress result = importer.importCsv(Uri.fromFile(file))
+                .get(300, TimeUnit.SECONDS);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Log.i(LOG_TAG, LARGE_LINES + " lines (" + file.length() / 1024 + " KB) imported in "
+                + millis + " ms: " + result.rowsPerSecond + " rows/s");
+        assertEquals(LARGE_LINES, result.imported);
+        assertEquals(file.length(), result.bytesRead);
+    }
+
+    private void setListener(final ProductImporter.Listener listener) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                importer.setListener(listener);
+            }
+        });
+    }
+
+    private Bundle importBatch(String importId, long lines, long imported, long rejected,
+                               ContentValues... values) {
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(ProductContract.EXTRA_VALUES, values);
+        extras.putLong(ProductContract.EXTRA_LINES, lines);
+        extras.putLong(ProductContract.EXTRA_IMPORTED, imported);
+        extras.putLong(ProductContract.EXTRA_REJECTED, rejected);
+        return resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_IMPORT_BATCH,
+                importId, extras);
+    }
+
+    private Bundle checkpoint(String importId) {
+        return resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_IMPORT_CHECKPOINT,
+                importId, null);
+    }
+
+    private static ContentValues product(String name) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        return values;
+    }
+
+    private void writeLarge(int lines) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8"));
+        try {
+            writer.write("name,quantity,price\n");
+            for (int i = 0; i < lines; i++)
+                writer.write("Product " + i + "," + i % 50 + "," + i % 100 + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void write(String csv) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(csv);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private int count(String selection) {
+        Cursor cursor = resolver.query(ProductEntry.CONTENT_URI, new String[]{"COUNT(*)"},
+                selection, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countDistinctNames() {
+        Cursor cursor = resolver.query(ProductEntry.CONTENT_URI,
+                new String[]{"COUNT(DISTINCT " + ProductEntry.COLUMN_PRODUCT_NAME + ")"},
+                null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
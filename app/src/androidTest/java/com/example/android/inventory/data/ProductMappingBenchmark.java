@@ -0,0 +1,116 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Maps 10k rows from a Cursor to a Product and back to ContentValues, once the way the editor
+ * used to (String attributes, parsed again on the way out) and once with {@link Product}, and
+ * reports the time and the number of allocations per row to logcat under {@link #LOG_TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductMappingBenchmark {
+
+    private static final String LOG_TAG = ProductMappingBenchmark.class.getSimpleName();
+
+    private static final int ROWS = 10000;
+
+    private ContentResolver resolver;
+
+    private Cursor cursor;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+
+        ContentValues[] values = new ContentValues[ROWS];
+        for (int i = 0; i < ROWS; i++)
+            values[i] = new Product(Product.NO_ID, "Product " + i, 1000 + i, 100 + i % 900,
+                    "content://images/" + i, null).toContentValues();
+        resolver.bulkInsert(ProductEntry.CONTENT_URI, values);
+
+        cursor = resolver.query(ProductEntry.CONTENT_URI, null, null, null, null);
+        // fill the window before measuring
+        cursor.moveToLast();
+    }
+
+    @After
+    public void tearDown() {
+        cursor.close();
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void map_legacyStrings() {
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        long start = System.nanoTime();
+        for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext())
+            legacyValues(legacyProduct(cursor));
+        report("legacy", System.nanoTime() - start, Debug.getThreadAllocCount());
+        Debug.stopAllocCounting();
+    }
+
+    @Test
+    public void map_primitiveProduct() {
+        ContentValues values = new ContentValues();
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        long start = System.nanoTime();
+        Product.Columns columns = new Product.Columns(cursor);
+        for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext())
+            columns.read(cursor).writeTo(values);
+        report("primitive", System.nanoTime() - start, Debug.getThreadAllocCount());
+        Debug.stopAllocCounting();
+    }
+
+    private static void report(String mapping, long nanos, int allocations) {
+        Log.i(LOG_TAG, ROWS + " rows, " + mapping + ": " + nanos / ROWS + " ns/row, "
+                + ((float) allocations / ROWS) + " allocations/row");
+    }
+
+    /*
+     * What Database.getProduct() used to do for every row: look the columns up again and turn
+     * the numbers into Strings.
+     */
+    private static String[] legacyProduct(Cursor cursor) {
+        int nameColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_NAME);
+        int priceColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PRICE);
+        int quantityColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        int imageColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_IMAGE);
+
+        return new String[]{
+                cursor.getString(nameColumnIndex),
+                String.valueOf(cursor.getInt(priceColumnIndex)),
+                String.valueOf(cursor.getInt(quantityColumnIndex)),
+                cursor.getString(imageColumnIndex)};
+    }
+
+    /*
+     * What Database.getValues() used to do: put the Strings, parse them, and put them again.
+     */
+    private static ContentValues legacyValues(String[] product) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, product[0]);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, product[1]);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, product[2]);
+        values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, product[3]);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, Integer.parseInt(product[2]));
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, Integer.parseInt(product[1]));
+        return values;
+    }
+}
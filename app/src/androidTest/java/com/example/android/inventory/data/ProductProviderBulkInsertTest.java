@@ -0,0 +1,121 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares per-row inserts against {@link ProductProvider#bulkInsert} and
+ * {@link ProductProvider#applyBatch}. Timings are written to logcat under {@link #LOG_TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductProviderBulkInsertTest {
+
+    private static final String LOG_TAG = ProductProviderBulkInsertTest.class.getSimpleName();
+
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void bulkInsert_insertsEveryRow() {
+        assertEquals(100, resolver.bulkInsert(ProductEntry.CONTENT_URI, products(100)));
+        assertEquals(100, count());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bulkInsert_rejectsInvalidRow() {
+        ContentValues[] values = products(10);
+        values[5].put(ProductEntry.COLUMN_PRODUCT_QUANTITY, -1);
+        try {
+            resolver.bulkInsert(ProductEntry.CONTENT_URI, values);
+        } finally {
+            // the whole batch has been rolled back
+            assertEquals(0, count());
+        }
+    }
+
+    @Test
+    public void throughput_1k() throws Exception {
+        compare(1000);
+    }
+
+    @Test
+    public void throughput_10k() throws Exception {
+        compare(10000);
+    }
+
+    @Test
+    public void throughput_100k() throws Exception {
+        compare(100000);
+    }
+
+    private void compare(int rows) throws Exception {
+        ContentValues[] values = products(rows);
+
+        long start = SystemClock.elapsedRealtime();
+        for (ContentValues value : values)
+            resolver.insert(ProductEntry.CONTENT_URI, value);
+        long perRow = SystemClock.elapsedRealtime() - start;
+        assertEquals(rows, count());
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+
+        start = SystemClock.elapsedRealtime();
+        resolver.bulkInsert(ProductEntry.CONTENT_URI, values);
+        long bulk = SystemClock.elapsedRealtime() - start;
+        assertEquals(rows, count());
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(rows);
+        for (ContentValues value : values)
+            operations.add(ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI)
+                    .withValues(value).build());
+
+        start = SystemClock.elapsedRealtime();
+        resolver.applyBatch(ProductContract.CONTENT_AUTHORITY, operations);
+        long batch = SystemClock.elapsedRealtime() - start;
+        assertEquals(rows, count());
+
+        Log.i(LOG_TAG, rows + " rows: per-row " + perRow + " ms, bulkInsert " + bulk
+                + " ms, applyBatch " + batch + " ms");
+    }
+
+    private int count() {
+        Cursor cursor = resolver.query(ProductEntry.CONTENT_URI,
+                new String[]{ProductEntry._ID}, null, null, null);
+        try {
+            return cursor == null ? 0 : cursor.getCount();
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    private static ContentValues[] products(int rows) {
+        return TestProducts.products(0, rows);
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks {@link ProductContract#METHOD_BULK_UPDATE} over IDs and selections, and compares
+ * repricing many Products with it against one update per Product. Timings are written to logcat
+ * under {@link #LOG_TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductProviderBulkUpdateTest {
+
+    private static final String LOG_TAG = ProductProviderBulkUpdateTest.class.getSimpleName();
+
+    /** More than two chunks, the last one partial */
+    private static final int ROWS = 2 * BulkUpdate.CHUNK_SIZE + 100;
+
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void scale_allChunksOfIdsOneNotification() throws Exception {
+        long[] ids = insert(ROWS);
+
+        HandlerThread thread = new HandlerThread(LOG_TAG);
+        thread.start();
+        final AtomicInteger notifications = new AtomicInteger();
+        ContentObserver observer = new ContentObserver(new Handler(thread.getLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                notifications.incrementAndGet();
+            }
+        };
+        resolver.registerContentObserver(ProductEntry.CONTENT_URI, true, observer);
+        try {
+            Bundle extras = expression(ProductEntry.COLUMN_PRODUCT_PRICE,
+                    ProductContract.OPERATION_SCALE, 150);
+            extras.putLongArray(ProductContract.EXTRA_IDS, ids);
+            // Price 0 stays 0, so that row doesn't count as changed
+            assertEquals(ROWS - 1, bulkUpdate(extras));
+
+            // Notifications are delivered asynchronously
+            SystemClock.sleep(500);
+        } finally {
+            resolver.unregisterContentObserver(observer);
+            thread.quit();
+        }
+
+        assertEquals(1, notifications.get());
+        for (int i = 0; i < ROWS; i++)
+            assertEquals(Math.round(i * 1.5), value(ids[i], ProductEntry.COLUMN_PRODUCT_PRICE));
+    }
+
+    @Test
+    public void addAndClamp_bySelection() {
+        long[] ids = insert(10);
+
+        Bundle extras = expression(ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                ProductContract.OPERATION_ADD, -5);
+        extras.putString(ProductContract.EXTRA_SELECTION,
+                ProductEntry.COLUMN_PRODUCT_PRICE + " < ?");
+        extras.putStringArray(ProductContract.EXTRA_SELECTION_ARGS, new String[]{"4"});
+        bulkUpdate(extras);
+
+        // Quantities were 2 * i: the first four lost 5 units, never going below 0
+        assertEquals(0, value(ids[0], ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        assertEquals(1, value(ids[3], ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        assertEquals(8, value(ids[4], ProductEntry.COLUMN_PRODUCT_QUANTITY));
+
+        extras = expression(ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                ProductContract.OPERATION_CLAMP, 0);
+        extras.putInt(ProductContract.EXTRA_MIN, 2);
+        extras.putInt(ProductContract.EXTRA_MAX, 10);
+        bulkUpdate(extras);
+
+        assertEquals(2, value(ids[0], ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        assertEquals(8, value(ids[4], ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        assertEquals(10, value(ids[9], ProductEntry.COLUMN_PRODUCT_QUANTITY));
+    }
+
+    @Test
+    public void add_countsTheSalesNotFoldedIn() {
+        long[] ids = insert(2);
+        Bundle sale = new Bundle();
+        sale.putInt(ProductContract.EXTRA_UNITS, 2);
+        resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_SELL,
+                String.valueOf(ids[1]), sale);
+
+        Bundle extras = expression(ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                ProductContract.OPERATION_ADD, 10);
+        extras.putLongArray(ProductContract.EXTRA_IDS, new long[]{ids[1]});
+        bulkUpdate(extras);
+
+        // 2 in stock, 2 sold, 10 added
+        assertEquals(10, value(ids[1], ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        assertEquals(0, resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_COMPACT,
+                null, null).getInt(ProductContract.EXTRA_MOVEMENTS));
+    }
+
+    @Test
+    public void selection_seesTheSalesNotFoldedIn() {
+        long[] ids = insert(4);
+        Bundle sale = new Bundle();
+        sale.putInt(ProductContract.EXTRA_UNITS, 5);
+        resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_SELL,
+                String.valueOf(ids[3]), sale);
+
+        // Quantities were 0, 2, 4 and 6: the sale leaves 1 on the last one
+        Bundle extras = expression(ProductEntry.COLUMN_PRODUCT_PRICE,
+                ProductContract.OPERATION_SET, 7);
+        extras.putString(ProductContract.EXTRA_SELECTION,
+                ProductEntry.COLUMN_PRODUCT_QUANTITY + " < ?");
+        extras.putStringArray(ProductContract.EXTRA_SELECTION_ARGS, new String[]{"2"});
+        assertEquals(2, bulkUpdate(extras));
+
+        assertEquals(7, value(ids[0], ProductEntry.COLUMN_PRODUCT_PRICE));
+        assertEquals(7, value(ids[3], ProductEntry.COLUMN_PRODUCT_PRICE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeSet_throws() {
+        bulkUpdate(expression(ProductEntry.COLUMN_PRODUCT_PRICE, ProductContract.OPERATION_SET,
+                -1));
+    }
+
+    @Test
+    public void reprice_50k() {
+        int rows = 50000;
+        long[] ids = insert(rows);
+
+        // The per-row path: what the editor does for each Product, read it and write it back
+        long start = SystemClock.elapsedRealtime();
+        ContentValues values = new ContentValues();
+        for (long id : ids) {
+            Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE,
+                    Math.round(value(id, ProductEntry.COLUMN_PRODUCT_PRICE) * 1.1));
+            resolver.update(uri, values, null, null);
+        }
+        long perRow = SystemClock.elapsedRealtime() - start;
+
+        Bundle extras = expression(ProductEntry.COLUMN_PRODUCT_PRICE,
+                ProductContract.OPERATION_SCALE, 110);
+        extras.putLongArray(ProductContract.EXTRA_IDS, ids);
+
+        start = SystemClock.elapsedRealtime();
+        bulkUpdate(extras);
+        long bulk = SystemClock.elapsedRealtime() - start;
+
+        Log.i(LOG_TAG, rows + " rows repriced: per-row " + perRow + " ms, bulk update " + bulk
+                + " ms");
+    }
+
+    private int bulkUpdate(Bundle extras) {
+        return resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_BULK_UPDATE, null,
+                extras).getInt(ProductContract.EXTRA_ROWS);
+    }
+
+    private static Bundle expression(String column, String operation, int value) {
+        Bundle extras = new Bundle();
+        extras.putString(ProductContract.EXTRA_COLUMN, column);
+        extras.putString(ProductContract.EXTRA_OPERATION, operation);
+        extras.putInt(ProductContract.EXTRA_VALUE, value);
+        return extras;
+    }
+
+    /*
+     * Insert Products with price i and quantity 2 * i, and return their IDs in that order.
+     */
+    private long[] insert(int rows) {
+        TestProducts.insert(resolver, rows, new TestProducts.Columns() {
+            @Override
+            public void put(int i, ContentValues values) {
+                values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 2 * i);
+                values.put(ProductEntry.COLUMN_PRODUCT_PRICE, i);
+            }
+        });
+
+        long[] ids = new long[rows];
+        Cursor cursor = resolver.query(ProductEntry.CONTENT_URI, new String[]{ProductEntry._ID},
+                null, null, ProductEntry._ID + " ASC");
+        try {
+            for (int i = 0; cursor.moveToNext(); i++)
+                ids[i] = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private long value(long id, String column) {
+        Cursor cursor = resolver.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                new String[]{column}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
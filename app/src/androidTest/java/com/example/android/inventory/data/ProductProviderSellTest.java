@@ -0,0 +1,151 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link ProductContract#METHOD_SELL} never loses a sale and never sells below 0,
+ * even when many threads sell the same Product at once.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductProviderSellTest {
+
+    private static final int STOCK = 100;
+    private static final int THREADS = 16;
+    private static final int SALES_PER_THREAD = 10;
+
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void sell_decrementsAndClampsAtZero() {
+        long id = insert(1);
+
+        Bundle first = sell(id);
+        assertTrue(first.getBoolean(ProductContract.EXTRA_SOLD));
+        assertEquals(0, first.getInt(ProductContract.EXTRA_QUANTITY));
+
+        Bundle second = sell(id);
+        assertFalse(second.getBoolean(ProductContract.EXTRA_SOLD));
+        assertEquals(0, second.getInt(ProductContract.EXTRA_QUANTITY));
+    }
+
+    @Test
+    public void sell_unitsAreClampedToStock() {
+        long id = insert(5);
+
+        Bundle first = sell(id, 3);
+        assertEquals(3, first.getInt(ProductContract.EXTRA_UNITS));
+        assertEquals(2, first.getInt(ProductContract.EXTRA_QUANTITY));
+
+        Bundle second = sell(id, 4);
+        assertTrue(second.getBoolean(ProductContract.EXTRA_SOLD));
+        assertEquals(2, second.getInt(ProductContract.EXTRA_UNITS));
+        assertEquals(0, quantity(id));
+
+        Bundle third = sell(id, 1);
+        assertFalse(third.getBoolean(ProductContract.EXTRA_SOLD));
+        assertEquals(0, third.getInt(ProductContract.EXTRA_UNITS));
+    }
+
+    @Test
+    public void sell_unknownProductReturnsNull() {
+        assertNull(sell(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void sell_concurrentSalesAreNotLost() throws Exception {
+        final long id = insert(STOCK);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            results.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    int sold = 0;
+                    for (int i = 0; i < SALES_PER_THREAD; i++)
+                        if (sell(id).getBoolean(ProductContract.EXTRA_SOLD))
+                            sold++;
+                    return sold;
+                }
+            }));
+        }
+
+        int sold = 0;
+        for (Future<Integer> result : results)
+            sold += result.get();
+        executor.shutdown();
+
+        // THREADS * SALES_PER_THREAD is more than the stock, so exactly STOCK units are sold.
+        assertEquals(STOCK, sold);
+        assertEquals(0, quantity(id));
+    }
+
+    private Bundle sell(long id) {
+        return resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_SELL,
+                String.valueOf(id), null);
+    }
+
+    private Bundle sell(long id, int units) {
+        Bundle extras = new Bundle();
+        extras.putInt(ProductContract.EXTRA_UNITS, units);
+        return resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_SELL,
+                String.valueOf(id), extras);
+    }
+
+    private long insert(int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Mugs");
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 8);
+        return ContentUris.parseId(resolver.insert(ProductEntry.CONTENT_URI, values));
+    }
+
+    private int quantity(long id) {
+        Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+        Cursor cursor = resolver.query(uri,
+                new String[]{ProductEntry.COLUMN_PRODUCT_QUANTITY}, null, null, null);
+        try {
+            assertTrue(cursor != null && cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that single-Product queries served from the provider's row cache see every change, and
+ * compares their latency with and without the cache on a skewed (Zipfian) access pattern, the
+ * way a few popular products are opened again and again.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductRowCacheTest {
+
+    private static final String LOG_TAG = ProductRowCacheTest.class.getSimpleName();
+
+    /** Number of Products in the benchmark inventory */
+    private static final int PRODUCTS = 10000;
+
+    /** Number of timed queries per run */
+    private static final int QUERIES = 20000;
+
+    /** Skew of the Zipfian distribution, 1 is the classic "popular few" */
+    private static final double ZIPF_EXPONENT = 1.0;
+
+    private static final String[] PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_IMAGE};
+
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void cachedRow_followsEveryChange() {
+        Uri mugs = insert("Mugs", 3, 8);
+
+        assertEquals(3, quantity(mugs));
+        assertEquals(3, quantity(mugs));
+
+        resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_SELL,
+                String.valueOf(ContentUris.parseId(mugs)), null);
+        assertEquals(2, quantity(mugs));
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 7);
+        resolver.update(mugs, values, null, null);
+        assertEquals(7, quantity(mugs));
+
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 9);
+        resolver.update(ProductEntry.CONTENT_URI, values, null, null);
+        assertEquals(9, quantity(mugs));
+
+        resolver.delete(mugs, null, null);
+        Cursor cursor = resolver.query(mugs, PROJECTION, null, null, null);
+        try {
+            assertFalse(cursor.moveToFirst());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void cachedRow_servesAnyProjection() {
+        Uri mugs = insert("Mugs", 3, 8);
+
+        // Caches the row
+        quantity(mugs);
+
+        Cursor cursor = resolver.query(mugs, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Mugs", cursor.getString(
+                    cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_NAME)));
+        } finally {
+            cursor.close();
+        }
+
+        // Expressions are left to SQLite
+        cursor = resolver.query(mugs, new String[]{"price * quantity"}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(24, cursor.getInt(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void zipfianLatency() {
+        TestProducts.insert(resolver, PRODUCTS);
+
+        long firstId = firstId();
+        long[] ids = zipfianIds(firstId, new Random(42));
+
+        Bundle before = resolver.call(ProductEntry.CONTENT_URI,
+                ProductContract.METHOD_CACHE_STATS, null, null);
+
+        // The same ID sequence both ways, the uncached one through a selection on the list URI
+        long[] uncached = new long[QUERIES];
+        long[] cached = new long[QUERIES];
+        String selection = ProductEntry._ID + "=?";
+        for (int i = 0; i < QUERIES; i++) {
+            long start = System.nanoTime();
+            read(resolver.query(ProductEntry.CONTENT_URI, PROJECTION, selection,
+                    new String[]{String.valueOf(ids[i])}, null));
+            uncached[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            read(resolver.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, ids[i]),
+                    PROJECTION, null, null, null));
+            cached[i] = System.nanoTime() - start;
+        }
+
+        Bundle after = resolver.call(ProductEntry.CONTENT_URI,
+                ProductContract.METHOD_CACHE_STATS, null, null);
+        long hits = after.getLong(ProductContract.EXTRA_CACHE_HITS)
+                - before.getLong(ProductContract.EXTRA_CACHE_HITS);
+        long misses = after.getLong(ProductContract.EXTRA_CACHE_MISSES)
+                - before.getLong(ProductContract.EXTRA_CACHE_MISSES);
+        long evictions = after.getLong(ProductContract.EXTRA_CACHE_EVICTIONS)
+                - before.getLong(ProductContract.EXTRA_CACHE_EVICTIONS);
+
+        Arrays.sort(uncached);
+        Arrays.sort(cached);
+        Log.i(LOG_TAG, QUERIES + " Zipfian queries over " + PRODUCTS + " rows:"
+                + " uncached p50 " + micros(uncached, 50) + " us, p99 " + micros(uncached, 99)
+                + " us; cached p50 " + micros(cached, 50) + " us, p99 " + micros(cached, 99)
+                + " us; " + hits + " hits, " + misses + " misses, " + evictions + " evictions");
+
+        assertEquals(QUERIES, hits + misses);
+        assertTrue("hits " + hits + " misses " + misses, hits > misses);
+    }
+
+    /*
+     * IDs drawn with probability proportional to 1 / rank^s, by binary search over the
+     * cumulative distribution.
+     */
+    private static long[] zipfianIds(long firstId, Random random) {
+        double[] cumulative = new double[PRODUCTS];
+        double sum = 0;
+        for (int rank = 0; rank < PRODUCTS; rank++) {
+            sum += 1 / Math.pow(rank + 1, ZIPF_EXPONENT);
+            cumulative[rank] = sum;
+        }
+
+        long[] ids = new long[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            if (rank < 0)
+                rank = -rank - 1;
+            ids[i] = firstId + Math.min(rank, PRODUCTS - 1);
+        }
+        return ids;
+    }
+
+    private static long micros(long[] sortedNanos, int percentile) {
+        return sortedNanos[(sortedNanos.length - 1) * percentile / 100] / 1000;
+    }
+
+    private static void read(Cursor cursor) {
+        try {
+            assertTrue(cursor.moveToFirst());
+            cursor.getString(1);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long firstId() {
+        Cursor cursor = resolver.query(ProductEntry.buildPageUri(0, -1, 1),
+                new String[]{ProductEntry._ID}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int quantity(Uri uri) {
+        Cursor cursor = resolver.query(uri, PROJECTION, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(cursor.getColumnIndexOrThrow(
+                    ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Uri insert(String name, int quantity, int price) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        return resolver.insert(ProductEntry.CONTENT_URI, values);
+    }
+}
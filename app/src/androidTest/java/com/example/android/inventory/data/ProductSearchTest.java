@@ -0,0 +1,146 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the full-text search on {@link ProductEntry#SEARCH_URI} and keeps the index in sync with
+ * inserts, renames and deletes. Prefix searches over 500k Products are checked against
+ * {@link #MAX_SEARCH_MILLIS}, and their timings written to logcat under {@link #LOG_TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductSearchTest {
+
+    private static final String LOG_TAG = ProductSearchTest.class.getSimpleName();
+
+    private static final String[] WORDS = {"Blue", "Red", "Green", "Mug", "Plate", "Bowl", "Cup",
+            "Spoon", "Fork", "Knife", "Glass", "Jar", "Tea", "Coffee", "Large", "Small"};
+
+    /** Prefix searches over 500k Products have to take single-digit milliseconds */
+    private static final double MAX_SEARCH_MILLIS = 10;
+
+    /** Number of timed runs of each search */
+    private static final int SEARCH_RUNS = 5;
+
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void search_matchesWordPrefixes() {
+        insert("Blue Mugs");
+        insert("Red Mugs");
+        insert("Blue Plates");
+
+        assertEquals(2, count("mu"));
+        assertEquals(2, count("BLUE"));
+        assertEquals(1, count("blue mug"));
+        assertEquals(0, count("green"));
+        assertEquals(0, count("  "));
+
+        // FTS operators typed by the user are searched for as plain words
+        assertEquals(0, count("\"blue OR red\""));
+        assertEquals(1, count("blue -mugs"));
+    }
+
+    @Test
+    public void search_followsRenamesAndDeletes() {
+        Uri uri = insert("Blue Mugs");
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Green Cups");
+        resolver.update(uri, values, null, null);
+        assertEquals(0, count("mug"));
+        assertEquals(1, count("cup"));
+
+        resolver.delete(uri, null, null);
+        assertEquals(0, count("cup"));
+    }
+
+    @Test
+    public void search_prefixOver500k() {
+        ContentValues[] values = new ContentValues[10000];
+        for (int batch = 0; batch < 50; batch++) {
+            for (int i = 0; i < values.length; i++) {
+                int n = batch * values.length + i;
+                values[i] = new ContentValues();
+                values[i].put(ProductEntry.COLUMN_PRODUCT_NAME, WORDS[n % WORDS.length] + " "
+                        + WORDS[(n / WORDS.length) % WORDS.length] + " " + n);
+                values[i].put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 1);
+                values[i].put(ProductEntry.COLUMN_PRODUCT_PRICE, 1);
+            }
+            resolver.bulkInsert(ProductEntry.CONTENT_URI, values);
+        }
+
+        String[] queries = {"12345", "blu", "cof sma", "gla 4999"};
+        for (String query : queries) {
+            Uri page = ProductEntry.buildPageUri(ProductEntry.buildSearchUri(query), 0, -1, 100);
+
+            // The first run warms the page cache, the median of the others is checked
+            long[] elapsed = new long[SEARCH_RUNS];
+            int rows = 0;
+            for (int run = -1; run < SEARCH_RUNS; run++) {
+                long start = System.nanoTime();
+                Cursor cursor = resolver.query(page, new String[]{ProductEntry._ID}, null, null,
+                        null);
+                rows = cursor.getCount();
+                if (run >= 0)
+                    elapsed[run] = System.nanoTime() - start;
+                cursor.close();
+            }
+            Arrays.sort(elapsed);
+            double median = elapsed[SEARCH_RUNS / 2] / 1e6;
+
+            Log.i(LOG_TAG, "\"" + query + "\" over 500k products: " + rows + " rows in "
+                    + median + " ms");
+            assertTrue("\"" + query + "\" took " + median + " ms",
+                    median < MAX_SEARCH_MILLIS);
+        }
+    }
+
+    private Uri insert(String name) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 1);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 1);
+        Uri uri = resolver.insert(ProductEntry.CONTENT_URI, values);
+        return ContentUris.withAppendedId(ProductEntry.CONTENT_URI, ContentUris.parseId(uri));
+    }
+
+    private int count(String searchText) {
+        Cursor cursor = resolver.query(ProductEntry.buildSearchUri(searchText),
+                new String[]{ProductEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link ProductEntry#STATS_URI} returns the same aggregates from the running totals
+ * as from a scan of the inventory, through inserts, sales, updates and deletes, and times it on a
+ * large inventory.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductStatsTest {
+
+    private static final String LOG_TAG = ProductStatsTest.class.getSimpleName();
+
+    /** Size of the inventory for the timing */
+    private static final int LARGE_ROWS = 500000;
+
+    /** The statistics have to be ready within this time at LARGE_ROWS */
+    private static final long BUDGET_MILLIS = 20;
+
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void stats_followEveryChange() {
+        assertArrayEquals(new long[]{0, 0, 0, 0}, stats(null, null));
+
+        Uri mugs = insert("Mugs", 3, 8);
+        insert("Plates", 10, 5);
+        insert("Spoons", null, 2);
+        assertArrayEquals(new long[]{3, 13, 74, 1}, stats(null, null));
+
+        resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_SELL,
+                String.valueOf(ContentUris.parseId(mugs)), null);
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 20);
+        resolver.update(mugs, values, null, null);
+        assertArrayEquals(new long[]{3, 12, 90, 1}, stats(null, null));
+
+        resolver.delete(mugs, null, null);
+        assertArrayEquals(new long[]{2, 10, 50, 0}, stats(null, null));
+
+        // The running totals agree with a scan of the rows
+        assertArrayEquals(stats(null, null), stats("1", null));
+    }
+
+    @Test
+    public void stats_filtered() {
+        insert("Blue mugs", 3, 8);
+        insert("Red mugs", 4, 8);
+        insert("Plates", 10, 5);
+
+        assertArrayEquals(new long[]{2, 7, 56, 2},
+                stats(ProductEntry.COLUMN_PRODUCT_NAME + " LIKE ?", new String[]{"%mugs"}));
+    }
+
+    @Test
+    public void stats_largeInventory() {
+        TestProducts.insert(resolver, LARGE_ROWS, 500, TestProducts.PRICES);
+
+        // warm up
+        stats(null, null);
+
+        long start = System.nanoTime();
+        long[] stats = stats(null, null);
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        long scanStart = System.nanoTime();
+        long[] scanned = stats("1", null);
+        long scanMillis = (System.nanoTime() - scanStart) / 1000000;
+
+        Log.i(LOG_TAG, LARGE_ROWS + " rows: stats " + millis + " ms, full scan " + scanMillis
+                + " ms");
+        assertArrayEquals(scanned, stats);
+        assertTrue("stats took " + millis + " ms", millis < BUDGET_MILLIS);
+    }
+
+    private Uri insert(String name, Integer quantity, int price) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        return resolver.insert(ProductEntry.CONTENT_URI, values);
+    }
+
+    /*
+     * Count, units, value and low-stock count, in that order.
+     */
+    private long[] stats(String selection, String[] selectionArgs) {
+        Cursor cursor = resolver.query(
+                ProductEntry.buildStatsUri(ProductEntry.DEFAULT_LOW_STOCK_THRESHOLD),
+                null, selection, selectionArgs, null);
+        try {
+            assertTrue(cursor != null && cursor.moveToFirst());
+            return new long[]{
+                    cursor.getLong(cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_STATS_COUNT)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_STATS_UNITS)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_STATS_VALUE)),
+                    cursor.getLong(
+                            cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_STATS_LOW_STOCK))};
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a {@link Product} survives the round trip through the provider unchanged.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductTest {
+
+    @After
+    public void tearDown() {
+        InstrumentationRegistry.getTargetContext().getContentResolver()
+                .delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void roundTripThroughProvider() {
+        Product product = new Product(Product.NO_ID, "Mugs", 8, 12, "content://images/1", "key");
+
+        Uri uri = InstrumentationRegistry.getTargetContext().getContentResolver()
+                .insert(ProductEntry.CONTENT_URI, product.toContentValues());
+        Cursor cursor = InstrumentationRegistry.getTargetContext().getContentResolver()
+                .query(uri, null, null, null, null);
+        try {
+            assertTrue(cursor != null && cursor.moveToFirst());
+            Product read = Product.fromCursor(cursor);
+
+            assertEquals(ContentUris.parseId(uri), read.getId());
+            assertEquals(new Product(read.getId(), "Mugs", 8, 12, "content://images/1", "key"),
+                    read);
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    @Test
+    public void columnsMissingFromTheProjectionReadAsDefaults() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{ProductEntry.COLUMN_PRODUCT_NAME});
+        cursor.addRow(new Object[]{"Mugs"});
+        cursor.moveToFirst();
+
+        Product product = Product.fromCursor(cursor);
+        assertEquals(Product.NO_ID, product.getId());
+        assertEquals(0, product.getPrice());
+        assertEquals(0, product.getQuantity());
+        assertNull(product.getImageUri());
+    }
+
+    @Test
+    public void writeTo_replacesTheValuesOfTheLastProduct() {
+        ContentValues values = new ContentValues();
+        new Product(1, "Mugs", 8, 12, "image", "key").writeTo(values);
+        new Product(2, "Cups", 3, 4, null, null).writeTo(values);
+
+        assertEquals("Cups", values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME));
+        assertEquals(Integer.valueOf(4), values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        assertNull(values.getAsString(ProductEntry.COLUMN_PRODUCT_IMAGE));
+        assertFalse(values.containsKey(ProductEntry._ID));
+    }
+
+    @Test
+    public void isBlank() {
+        assertTrue(new Product(Product.NO_ID, "", 0, 0, null, null).isBlank());
+        assertFalse(new Product(Product.NO_ID, "Mugs", 0, 0, null, null).isBlank());
+    }
+}
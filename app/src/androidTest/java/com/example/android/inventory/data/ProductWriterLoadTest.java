@@ -0,0 +1,185 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs catalog reads while {@link ProductWriter} is busy with writes, and reports how long the
+ * writes waited in the queue and how long the reads took, to logcat under {@link #LOG_TAG}.
+ * Checks that a write that finds the queue full fails.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductWriterLoadTest {
+
+    private static final String LOG_TAG = ProductWriterLoadTest.class.getSimpleName();
+
+    private static final int PRODUCTS = 5000;
+    private static final int WRITES = 2000;
+
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+
+        TestProducts.insert(resolver, PRODUCTS, new TestProducts.Columns() {
+            @Override
+            public void put(int i, ContentValues values) {
+                values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, WRITES);
+                values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 1);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void mixedLoad_readsDoNotWaitForWrites() throws Exception {
+        final long id = firstId();
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final List<Long> readNanos = new ArrayList<>();
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (writing.get()) {
+                    long start = System.nanoTime();
+                    Cursor cursor = resolver.query(ProductEntry.buildPageUri(0, -1,
+                            ProductEntry.MAX_PAGE_SIZE), null, null, null, null);
+                    cursor.getCount();
+                    cursor.close();
+                    readNanos.add(System.nanoTime() - start);
+                }
+            }
+        });
+        reader.start();
+
+        ProductWriter writer = ProductWriter.getInstance(InstrumentationRegistry.getTargetContext());
+        ProductWriter.Stats before = writer.getStats();
+
+        List<Future<?>> pending = new ArrayList<>();
+        for (int i = 0; i < WRITES; i++) {
+            // Stay within the queue, which rejects the writes beyond it
+            if (i >= ProductWriter.QUEUE_CAPACITY)
+                pending.get(i - ProductWriter.QUEUE_CAPACITY).get();
+
+            if (i % 2 == 0) {
+                pending.add(writer.sell(id, null));
+            } else {
+                ContentValues values = new ContentValues();
+                values.put(ProductEntry.COLUMN_PRODUCT_PRICE, i);
+                pending.add(writer.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI,
+                        id + 1), values, null));
+            }
+        }
+        for (Future<?> future : pending)
+            future.get();
+
+        writing.set(false);
+        reader.join();
+
+        ProductWriter.Stats after = writer.getStats();
+        assertEquals(WRITES, after.writes - before.writes);
+
+        Long[] reads = readNanos.toArray(new Long[readNanos.size()]);
+        Arrays.sort(reads);
+        Log.i(LOG_TAG, "writer: " + after);
+        Log.i(LOG_TAG, reads.length + " reads during the writes: p50 "
+                + TimeUnit.NANOSECONDS.toMicros(reads[reads.length / 2]) + " us, p99 "
+                + TimeUnit.NANOSECONDS.toMicros(reads[reads.length * 99 / 100]) + " us, max "
+                + TimeUnit.NANOSECONDS.toMicros(reads[reads.length - 1]) + " us");
+    }
+
+    @Test
+    public void submit_fullQueue_failsTheWrite() throws Exception {
+        ProductWriter writer = ProductWriter.getInstance(InstrumentationRegistry.getTargetContext());
+
+        // Hold the writer thread, then fill the queue behind it
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Callable<Void> held = new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                started.countDown();
+                release.await();
+                return null;
+            }
+        };
+        List<Future<Void>> queued = new ArrayList<>();
+        queued.add(writer.submit(held, null));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < ProductWriter.QUEUE_CAPACITY; i++)
+            queued.add(writer.submit(held, null));
+
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final CountDownLatch failed = new CountDownLatch(1);
+        Future<Void> rejected = writer.submit(held, new ProductWriter.Callback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                failure.set(e);
+                failed.countDown();
+            }
+        });
+        release.countDown();
+
+        try {
+            rejected.get();
+            fail("The write beyond the queue ran");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        assertTrue(failure.get() instanceof RejectedExecutionException);
+
+        // The queued writes still run
+        for (Future<Void> future : queued)
+            future.get();
+    }
+
+    private long firstId() {
+        Cursor cursor = resolver.query(ProductEntry.buildPageUri(0, -1, 1),
+                new String[]{ProductEntry._ID}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Saves through {@link ProductWriter#save}: inserts, and updates of the same Product that
+ * coalesce while the writer thread is busy.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductWriterSaveTest {
+
+    private ContentResolver resolver;
+    private ProductWriter writer;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        writer = ProductWriter.getInstance(InstrumentationRegistry.getTargetContext());
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void save_withoutUri_inserts() throws Exception {
+        Uri productUri = writer.save(null, values("Product", 5, 10), null).get();
+
+        assertNotNull(productUri);
+        assertEquals(5, quantityOf(productUri));
+    }
+
+    @Test
+    public void save_queuedSavesOfOneProduct_writeOnce() throws Exception {
+        Uri first = writer.save(null, values("First", 1, 10), null).get();
+        Uri second = writer.save(null, values("Second", 1, 10), null).get();
+
+        // Hold the writer thread, so that the saves below wait in the queue together
+        final CountDownLatch release = new CountDownLatch(1);
+        writer.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                release.await();
+                return null;
+            }
+        }, null);
+
+        ProductWriter.Stats before = writer.getStats();
+        Future<Uri> a = writer.save(first, values("First", 2, 10), null);
+        Future<Uri> b = writer.save(second, values("Second", 7, 10), null);
+        ContentValues priceOnly = new ContentValues();
+        priceOnly.put(ProductEntry.COLUMN_PRODUCT_PRICE, 20);
+        Future<Uri> c = writer.save(first, priceOnly, null);
+        Future<Uri> d = writer.save(first, values("First", 3, 10), null);
+        release.countDown();
+
+        assertEquals(first, a.get());
+        assertEquals(first, c.get());
+        assertEquals(first, d.get());
+        assertEquals(second, b.get());
+
+        // The held write, one write for the first Product and one for the second
+        ProductWriter.Stats after = writer.getStats();
+        assertEquals(3, after.writes - before.writes);
+        assertEquals(2, after.coalescedSaves - before.coalescedSaves);
+
+        // The later values win, the merged ones are kept
+        assertEquals(3, quantityOf(first));
+        assertEquals(20, priceOf(first));
+        assertEquals(7, quantityOf(second));
+
+        // Once the write has started, a new save writes again
+        assertEquals(first, writer.save(first, values("First", 4, 10), null).get());
+        assertEquals(4, quantityOf(first));
+    }
+
+    @Test
+    public void save_deletedProduct_returnsNull() throws Exception {
+        Uri productUri = writer.save(null, values("Product", 1, 10), null).get();
+        resolver.delete(productUri, null, null);
+
+        assertNull(writer.save(productUri, values("Product", 2, 10), null).get());
+    }
+
+    private static ContentValues values(String name, int quantity, int price) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        return values;
+    }
+
+    private int quantityOf(Uri productUri) {
+        return intColumn(productUri, ProductEntry.COLUMN_PRODUCT_QUANTITY);
+    }
+
+    private int priceOf(Uri productUri) {
+        return intColumn(productUri, ProductEntry.COLUMN_PRODUCT_PRICE);
+    }
+
+    private int intColumn(Uri productUri, String column) {
+        Cursor cursor = resolver.query(productUri, new String[]{column}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
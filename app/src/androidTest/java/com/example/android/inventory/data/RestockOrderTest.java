@@ -0,0 +1,204 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.provider.OpenableColumns;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads the restock order through the provider's pipe, checks its groups and lines, that its
+ * queries run on the quantity index, and how long a large order takes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RestockOrderTest {
+
+    private static final String LOG_TAG = RestockOrderTest.class.getSimpleName();
+
+    private static final String TEST_DATABASE = "restock-test.db";
+
+    /** Number of Products of the large inventory */
+    private static final int LARGE_ROWS = 500000;
+
+    private Context context;
+
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        resolver = context.getContentResolver();
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void getStreamTypes() {
+        assertArrayEquals(new String[]{ProductEntry.RESTOCK_ORDER_TYPE},
+                resolver.getStreamTypes(ProductEntry.RESTOCK_URI, "text/*"));
+        assertEquals(ProductEntry.RESTOCK_ORDER_TYPE, resolver.getType(ProductEntry.RESTOCK_URI));
+    }
+
+    @Test
+    public void query_answersOpenableColumns() {
+        Cursor cursor = resolver.query(ProductEntry.RESTOCK_URI, null, null, null, null);
+        try {
+            assertArrayEquals(new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE},
+                    cursor.getColumnNames());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("restock-order.txt", cursor.getString(0));
+            assertTrue(cursor.isNull(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void restockOrder_rejectsBadParameters() throws IOException {
+        resolver.openInputStream(ProductEntry.RESTOCK_URI.buildUpon()
+                .appendQueryParameter(ProductEntry.QUERY_PARAMETER_LOW_STOCK, "five").build());
+    }
+
+    @Test
+    public void restockOrder_groupsByStockAndCountsSales() throws IOException {
+        insert("Cups", 2, 3);
+        insert("Mugs", 0, 8);
+        insert("Plates", 9, 5);
+        insert("Bowls", 2, 4);
+        insert("Forks", null, 1);
+        long spoons = insert("Spoons", 6, 2);
+
+        // A sale not folded in yet takes the spoons below the threshold
+        Bundle extras = new Bundle();
+        extras.putInt(ProductContract.EXTRA_UNITS, 2);
+        resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_SELL,
+                String.valueOf(spoons), extras);
+
+        List<String> lines = read(ProductEntry.buildRestockUri(5, 10));
+
+        assertEquals(Arrays.asList(
+                "Restock order",
+                "Products with fewer than 5 units in stock, ordered up to 10 units",
+                "",
+                "Out of stock",
+                "    10  Mugs",
+                "",
+                "2 in stock",
+                "     8  Cups",
+                "     8  Bowls",
+                "",
+                "4 in stock",
+                "     6  Spoons",
+                "",
+                "4 products, 32 units, value 148"), lines);
+    }
+
+    @Test
+    public void restockOrder_nothingLow() throws IOException {
+        insert("Plates", 9, 5);
+
+        List<String> lines = read(ProductEntry.buildRestockUri(5, 10));
+        assertEquals("No products to restock.", lines.get(lines.size() - 1));
+    }
+
+    @Test
+    public void restockOrder_queriesUseQuantityIndex() {
+        ProductDbHelper helper = new ProductDbHelper(context, TEST_DATABASE);
+        SQLiteDatabase db = helper.getReadableDatabase();
+        try {
+            assertIndexedPlan(db, "SELECT MIN(" + ProductEntry.COLUMN_PRODUCT_QUANTITY + ") FROM "
+                    + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                    + " > 1 AND " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " < 5");
+            assertIndexedPlan(db, "SELECT " + ProductEntry._ID + ", "
+                    + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_PRICE
+                    + " FROM " + ProductEntry.TABLE_NAME + " WHERE "
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + " = 3 AND " + ProductEntry._ID
+                    + " > 100 ORDER BY " + ProductEntry._ID + " ASC LIMIT 1000");
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void restockOrder_largeInventory() throws IOException {
+        TestProducts.insert(resolver, LARGE_ROWS, 500, TestProducts.PRICES);
+
+        long start = System.nanoTime();
+        List<String> lines = read(ProductEntry.buildRestockUri(5, 20));
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        // Quantities 0 to 4 are low, 5 of every 500 Products
+        int products = LARGE_ROWS / 500 * 5;
+        Log.i(LOG_TAG, LARGE_ROWS + " rows, " + products + " to restock in " + millis + " ms");
+
+        // The title and criteria, a blank line and a heading per group, the lines, the totals
+        assertEquals(2 + 5 * 2 + products + 2, lines.size());
+        assertTrue(lines.get(lines.size() - 1).startsWith(products + " products"));
+    }
+
+    private List<String> read(Uri uri) throws IOException {
+        InputStream in = resolver.openTypedAssetFileDescriptor(uri,
+                ProductEntry.RESTOCK_ORDER_TYPE, null).createInputStream();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            List<String> lines = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null)
+                lines.add(line);
+            return lines;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void assertIndexedPlan(SQLiteDatabase db, String query) {
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query, null);
+        StringBuilder plan = new StringBuilder();
+        while (cursor.moveToNext())
+            plan.append(cursor.getString(cursor.getColumnIndex("detail"))).append('\n');
+        cursor.close();
+        assertTrue(query + " does not use " + ProductDbHelper.QUANTITY_INDEX + ":\n" + plan,
+                plan.toString().contains(ProductDbHelper.QUANTITY_INDEX));
+        assertFalse(query + " sorts:\n" + plan, plan.toString().contains("TEMP B-TREE"));
+    }
+
+    private long insert(String name, Integer quantity, int price) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        return ContentUris.parseId(resolver.insert(ProductEntry.CONTENT_URI, values));
+    }
+}
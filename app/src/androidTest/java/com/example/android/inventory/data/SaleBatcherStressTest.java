@@ -0,0 +1,161 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Taps sale buttons 50 times a second across 20 Products through a {@link SaleBatcher}, and
+ * counts the writes it takes. One Product runs out of stock on the way. Reports the taps and
+ * writes to logcat under {@link #LOG_TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SaleBatcherStressTest {
+
+    private static final String LOG_TAG = SaleBatcherStressTest.class.getSimpleName();
+
+    private static final int PRODUCTS = 20;
+    private static final int TAPS_PER_SECOND = 50;
+    private static final int SECONDS = 5;
+    private static final int TAPS = TAPS_PER_SECOND * SECONDS;
+
+    /** Stock of every Product but the first, more than can be tapped */
+    private static final int STOCK = TAPS;
+
+    /** Stock of the first Product, which runs out */
+    private static final int SMALL_STOCK = 3;
+
+    private ContentResolver resolver;
+    private ProductWriter writer;
+    private final long[] ids = new long[PRODUCTS];
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        writer = ProductWriter.getInstance(InstrumentationRegistry.getTargetContext());
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+
+        for (int i = 0; i < PRODUCTS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Product " + i);
+            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i == 0 ? SMALL_STOCK : STOCK);
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 1);
+            ids[i] = ContentUris.parseId(resolver.insert(ProductEntry.CONTENT_URI, values));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void rapidTaps_areWrittenInBatches() throws Exception {
+        final SaleBatcher sales = new SaleBatcher(writer);
+        final AtomicInteger unsold = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+        final int[] taps = new int[PRODUCTS];
+        final AtomicInteger tapped = new AtomicInteger();
+
+        // The first Product gets a tap every PRODUCTS taps, so it surely runs out of stock
+        Random random = new Random(22);
+        final int[] schedule = new int[TAPS];
+        for (int i = 0; i < TAPS; i++) {
+            schedule[i] = i % PRODUCTS == 0 ? 0 : 1 + random.nextInt(PRODUCTS - 1);
+            taps[schedule[i]]++;
+        }
+        assertTrue(taps[0] > SMALL_STOCK);
+
+        sales.setListener(new SaleBatcher.Listener() {
+            @Override
+            public void onPendingChanged(long id) {
+                if (tapped.get() < TAPS)
+                    return;
+                for (long productId : ids)
+                    if (sales.getPendingUnits(productId) != 0)
+                        return;
+                done.countDown();
+            }
+
+            @Override
+            public void onOutOfStock(long id, int units) {
+                assertEquals(ids[0], id);
+                unsold.addAndGet(units);
+            }
+
+            @Override
+            public void onFailure(long id, Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+
+        ProductWriter.Stats before = writer.getStats();
+
+        // Tap on the main thread, like the sale buttons
+        Handler handler = new Handler(Looper.getMainLooper());
+        long start = SystemClock.uptimeMillis() + 100;
+        for (int i = 0; i < TAPS; i++) {
+            final long id = ids[schedule[i]];
+            handler.postAtTime(new Runnable() {
+                @Override
+                public void run() {
+                    sales.sell(id);
+                    tapped.incrementAndGet();
+                }
+            }, start + i * 1000L / TAPS_PER_SECOND);
+        }
+
+        assertTrue("The sales were not written",
+                done.await(SECONDS + 10, TimeUnit.SECONDS));
+        long writes = writer.getStats().writes - before.writes;
+
+        Log.i(LOG_TAG, TAPS + " taps on " + PRODUCTS + " Products in " + SECONDS + " s: "
+                + writes + " writes");
+
+        // Nothing is lost, and the first Product stops at 0
+        assertEquals(taps[0] - SMALL_STOCK, unsold.get());
+        assertEquals(0, quantity(ids[0]));
+        for (int i = 1; i < PRODUCTS; i++)
+            assertEquals(STOCK - taps[i], quantity(ids[i]));
+
+        // At most one write per Product for every longest delay of a batch, plus the last batch
+        long batches = SECONDS * 1000 / SaleBatcher.MAX_DELAY_MILLIS + 1;
+        assertTrue(writes + " writes", writes <= batches * PRODUCTS);
+        assertTrue(writes + " writes", writes < TAPS);
+    }
+
+    private int quantity(long id) {
+        Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+        Cursor cursor = resolver.query(uri,
+                new String[]{ProductEntry.COLUMN_PRODUCT_QUANTITY}, null, null, null);
+        try {
+            assertTrue(cursor != null && cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+}
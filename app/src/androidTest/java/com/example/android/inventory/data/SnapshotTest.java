@@ -0,0 +1,210 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.content.FileProvider;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Backs the inventory up and restores it through the provider: a round trip with images, a
+ * damaged archive, and the times for a large inventory.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SnapshotTest {
+
+    private static final String LOG_TAG = SnapshotTest.class.getSimpleName();
+
+    /** Number of Products and images of the large snapshot */
+    private static final int LARGE_ROWS = 500000;
+    private static final int LARGE_IMAGES = 5000;
+
+    /** Size of each generated image */
+    private static final int IMAGE_BYTES = 16 * 1024;
+
+    private Context context;
+    private ContentResolver resolver;
+    private File archive;
+    private final List<File> images = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        resolver = context.getContentResolver();
+        archive = new File(context.getCacheDir(), "snapshot-test.snapshot");
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+        for (File image : images)
+            image.delete();
+        archive.delete();
+    }
+
+    @Test
+    public void backupAndRestore_roundTrip() throws IOException {
+        String image = createImages(1, new Random(1)).get(0);
+        insert(0, 3, image);
+        insert(1, 5, null);
+
+        Bundle backup = call(ProductContract.METHOD_BACKUP);
+        assertEquals(archive.length(), backup.getLong(ProductContract.EXTRA_SNAPSHOT_BYTES));
+        assertEquals(1, backup.getInt(ProductContract.EXTRA_SNAPSHOT_IMAGES));
+
+        // Change the inventory after the backup, and lose the image
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+        insert(2, 7, null);
+        images.get(0).delete();
+
+        Bundle restore = call(ProductContract.METHOD_RESTORE);
+        assertEquals(1, restore.getInt(ProductContract.EXTRA_SNAPSHOT_IMAGES));
+
+        assertEquals(2, count(null));
+        assertEquals(1, count(ProductEntry.COLUMN_PRODUCT_IMAGE + "='" + image + "'"));
+        assertEquals(0, count(ProductEntry.COLUMN_PRODUCT_NAME + "='Product 2'"));
+        assertEquals(IMAGE_BYTES, images.get(0).length());
+
+        // The restored database takes writes as usual
+        insert(3, 1, null);
+        assertEquals(3, count(null));
+    }
+
+    @Test
+    public void restore_rejectsDamagedArchive() throws IOException {
+        for (int i = 0; i < 100; i++)
+            insert(i, i, null);
+        call(ProductContract.METHOD_BACKUP);
+
+        // Flip a byte inside the database entry
+        RandomAccessFile file = new RandomAccessFile(archive, "rw");
+        try {
+            long position = archive.length() / 2;
+            file.seek(position);
+            int b = file.read();
+            file.seek(position);
+            file.write(b ^ 0xff);
+        } finally {
+            file.close();
+        }
+
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+        insert(0, 1, null);
+        try {
+            call(ProductContract.METHOD_RESTORE);
+            fail("A damaged snapshot was restored");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        // The inventory is the one from before the restore
+        assertEquals(1, count(null));
+    }
+
+    @Test
+    public void backupAndRestore_largeInventory() throws IOException {
+        final List<String> imageUris = createImages(LARGE_IMAGES, new Random(2));
+
+        TestProducts.insert(resolver, LARGE_ROWS, 500, TestProducts.PRICES,
+                new TestProducts.Columns() {
+                    @Override
+                    public void put(int i, ContentValues values) {
+                        values.put(ProductEntry.COLUMN_PRODUCT_IMAGE,
+                                imageUris.get(i % imageUris.size()));
+                    }
+                });
+
+        Bundle backup = call(ProductContract.METHOD_BACKUP);
+        Bundle restore = call(ProductContract.METHOD_RESTORE);
+
+        Log.i(LOG_TAG, LARGE_ROWS + " rows, " + LARGE_IMAGES + " images, "
+                + backup.getLong(ProductContract.EXTRA_SNAPSHOT_BYTES) / (1024 * 1024)
+                + " MB: backup " + backup.getLong(ProductContract.EXTRA_SNAPSHOT_MILLIS)
+                + " ms, restore " + restore.getLong(ProductContract.EXTRA_SNAPSHOT_MILLIS)
+                + " ms");
+
+        assertEquals(LARGE_IMAGES, backup.getInt(ProductContract.EXTRA_SNAPSHOT_IMAGES));
+        assertEquals(LARGE_IMAGES, restore.getInt(ProductContract.EXTRA_SNAPSHOT_IMAGES));
+        assertEquals(LARGE_ROWS, count(null));
+    }
+
+    private Bundle call(String method) {
+        return resolver.call(ProductEntry.CONTENT_URI, method, Uri.fromFile(archive).toString(),
+                null);
+    }
+
+    /*
+     * Write images of random bytes into the image store, named like stored images, and return
+     * their URIs.
+     */
+    private List<String> createImages(int count, Random random) throws IOException {
+        File directory = ImageStore.getInstance(context).getFileForName(
+                String.format(Locale.US, "%064x", 0) + ".jpg").getParentFile();
+        assertTrue(directory.isDirectory() || directory.mkdirs());
+
+        List<String> uris = new ArrayList<>(count);
+        byte[] content = new byte[IMAGE_BYTES];
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(content);
+            File image = new File(directory,
+                    String.format(Locale.US, "%016x", random.nextLong()) + "000000000000000000000000"
+                            + String.format(Locale.US, "%024x", i) + ".jpg");
+            assertFalse(image.exists());
+            FileOutputStream out = new FileOutputStream(image);
+            try {
+                out.write(content);
+            } finally {
+                out.close();
+            }
+            images.add(image);
+            uris.add(FileProvider.getUriForFile(context, ImageStore.AUTHORITY, image).toString());
+        }
+        return uris;
+    }
+
+    private void insert(int number, int quantity, String image) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Product " + number);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 10);
+        values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, image);
+        resolver.insert(ProductEntry.CONTENT_URI, values);
+    }
+
+    private int count(String selection) {
+        Cursor cursor = resolver.query(ProductEntry.CONTENT_URI, new String[]{"COUNT(*)"},
+                selection, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
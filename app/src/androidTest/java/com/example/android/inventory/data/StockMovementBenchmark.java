@@ -0,0 +1,118 @@
+package com.example.android.inventory.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+import com.example.android.inventory.data.ProductContract.StockMovementEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Sells one unit at a time from a populated inventory, once by updating the quantity of the
+ * Product in place and once by appending a stock movement, each sale in a transaction of its
+ * own, and reports the sales per second to logcat under {@link #LOG_TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StockMovementBenchmark {
+
+    private static final String LOG_TAG = StockMovementBenchmark.class.getSimpleName();
+
+    private static final String TEST_DATABASE = "movement-benchmark.db";
+
+    private static final int ROWS = 10000;
+
+    private static final int SALES = 2000;
+
+    private Context context;
+
+    private ProductDbHelper helper;
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        helper = new ProductDbHelper(context, TEST_DATABASE);
+        db = helper.getWritableDatabase();
+
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++)
+                db.execSQL("INSERT INTO " + ProductEntry.TABLE_NAME + " ("
+                                + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                                + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                                + ProductEntry.COLUMN_PRODUCT_PRICE + ") VALUES (?, ?, ?)",
+                        new Object[]{"Product " + i, 1000 + i, 100 + i % 900});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void sell_updateInPlace() {
+        SQLiteStatement update = db.compileStatement("UPDATE " + ProductEntry.TABLE_NAME
+                + " SET " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " = "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + " - 1 WHERE " + ProductEntry._ID + " = ?");
+
+        long start = System.nanoTime();
+        for (int i = 0; i < SALES; i++) {
+            db.beginTransaction();
+            try {
+                update.bindLong(1, 1 + i % ROWS);
+                update.executeUpdateDelete();
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        report("update in place", System.nanoTime() - start);
+        update.close();
+    }
+
+    @Test
+    public void sell_appendMovement() {
+        SQLiteStatement append = db.compileStatement("INSERT INTO "
+                + StockMovementEntry.TABLE_NAME + " ("
+                + StockMovementEntry.COLUMN_PRODUCT_ID + ", "
+                + StockMovementEntry.COLUMN_DELTA + ", "
+                + StockMovementEntry.COLUMN_REASON + ", "
+                + StockMovementEntry.COLUMN_TIMESTAMP + ") VALUES (?, -1, ?, ?)");
+
+        long start = System.nanoTime();
+        for (int i = 0; i < SALES; i++) {
+            db.beginTransaction();
+            try {
+                append.bindLong(1, 1 + i % ROWS);
+                append.bindString(2, StockMovementEntry.REASON_SALE);
+                append.bindLong(3, System.currentTimeMillis());
+                append.executeInsert();
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        report("append movement", System.nanoTime() - start);
+        append.close();
+    }
+
+    private static void report(String write, long nanos) {
+        Log.i(LOG_TAG, ROWS + " rows, " + SALES + " sales, " + write + ": "
+                + (long) (SALES * 1e9 / nanos) + " sales/s");
+    }
+}
@@ -0,0 +1,254 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the sales recorded as stock movements give the right quantities and totals while
+ * {@link ProductContract#METHOD_COMPACT} folds them in concurrently, and after, and that filters
+ * on the quantity see the movements.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StockMovementTest {
+
+    private static final int PRODUCTS = 4;
+    private static final int STOCK = 50;
+    private static final int THREADS = 8;
+    private static final int SALES_PER_THREAD = 40;
+
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void sell_concurrentWithCompaction() throws Exception {
+        final long[] ids = new long[PRODUCTS];
+        for (int i = 0; i < PRODUCTS; i++)
+            ids[i] = insert(STOCK);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+
+        // Compact over and over while the sales are appended
+        final AtomicBoolean selling = new AtomicBoolean(true);
+        Future<?> compactions = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                while (selling.get())
+                    compact();
+                return null;
+            }
+        });
+
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            results.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    int sold = 0;
+                    for (int i = 0; i < SALES_PER_THREAD; i++) {
+                        Bundle result = sell(ids[(thread + i) % PRODUCTS], 1 + i % 3);
+                        sold += result.getInt(ProductContract.EXTRA_UNITS);
+                    }
+                    return sold;
+                }
+            }));
+        }
+
+        int sold = 0;
+        for (Future<Integer> result : results)
+            sold += result.get();
+        selling.set(false);
+        compactions.get();
+        executor.shutdown();
+
+        // The taps ask for more than the stock, so all of it is sold and none twice
+        assertEquals(PRODUCTS * STOCK, sold);
+        assertCurrent(ids, 0);
+
+        compact();
+        assertEquals(0, compact());
+        assertCurrent(ids, 0);
+    }
+
+    @Test
+    public void compact_keepsQuantitiesAndStats() {
+        long id = insert(10);
+        sell(id, 3);
+        sell(id, 2);
+
+        assertEquals(5, quantity(id));
+        assertEquals(5, statsUnits());
+
+        // A scheduled compaction may have folded them in already
+        compact();
+        assertEquals(0, compact());
+        assertEquals(5, quantity(id));
+        assertEquals(5, statsUnits());
+    }
+
+    @Test
+    public void filter_seesMovements() {
+        long full = insert(10);
+        long low = insert(3);
+        insert(2);
+
+        // One drops below the threshold, one rises above it
+        sell(full, 8);
+        adjust(low, 5);
+
+        String lowStock = ProductEntry.COLUMN_PRODUCT_QUANTITY + " < ?";
+        String[] threshold = {"3"};
+        Cursor cursor = resolver.query(ProductEntry.CONTENT_URI,
+                new String[]{ProductEntry._ID}, lowStock, threshold, null);
+        try {
+            assertTrue(cursor != null);
+            assertEquals(2, cursor.getCount());
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+
+        cursor = resolver.query(ProductEntry.buildStatsUri(3), null, lowStock, threshold, null);
+        try {
+            assertTrue(cursor != null && cursor.moveToFirst());
+            assertEquals(2, cursor.getLong(
+                    cursor.getColumnIndex(ProductEntry.COLUMN_STATS_COUNT)));
+            assertEquals(4, cursor.getLong(
+                    cursor.getColumnIndex(ProductEntry.COLUMN_STATS_UNITS)));
+            assertEquals(2, cursor.getLong(
+                    cursor.getColumnIndex(ProductEntry.COLUMN_STATS_LOW_STOCK)));
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    @Test
+    public void update_quantityKeepsMovements() {
+        long id = insert(10);
+        sell(id, 4);
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 20);
+        assertEquals(1, resolver.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                values, null, null));
+
+        assertEquals(20, quantity(id));
+        assertEquals(20, statsUnits());
+
+        // The sale and the adjustment are folded in, not dropped
+        compact();
+        assertEquals(20, quantity(id));
+        assertEquals(20, statsUnits());
+    }
+
+    @Test
+    public void adjust_keepsConcurrentSales() {
+        long id = insert(10);
+
+        // An editor loaded 10 and adds 5, while 3 are sold
+        sell(id, 3);
+        Bundle result = adjust(id, 5);
+
+        assertEquals(12, result.getInt(ProductContract.EXTRA_QUANTITY));
+        assertEquals(5, result.getInt(ProductContract.EXTRA_UNITS));
+        assertEquals(12, quantity(id));
+
+        // Never below 0
+        result = adjust(id, -20);
+        assertEquals(0, result.getInt(ProductContract.EXTRA_QUANTITY));
+        assertEquals(-12, result.getInt(ProductContract.EXTRA_UNITS));
+
+        compact();
+        assertEquals(0, quantity(id));
+        assertEquals(0, statsUnits());
+    }
+
+    private void assertCurrent(long[] ids, int quantity) {
+        for (long id : ids)
+            assertEquals(quantity, quantity(id));
+        assertEquals(ids.length * quantity, statsUnits());
+    }
+
+    private Bundle sell(long id, int units) {
+        Bundle extras = new Bundle();
+        extras.putInt(ProductContract.EXTRA_UNITS, units);
+        return resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_SELL,
+                String.valueOf(id), extras);
+    }
+
+    private Bundle adjust(long id, int units) {
+        Bundle extras = new Bundle();
+        extras.putInt(ProductContract.EXTRA_UNITS, units);
+        return resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_ADJUST,
+                String.valueOf(id), extras);
+    }
+
+    private int compact() {
+        return resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_COMPACT, null, null)
+                .getInt(ProductContract.EXTRA_MOVEMENTS);
+    }
+
+    private long insert(int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Mugs");
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 8);
+        return ContentUris.parseId(resolver.insert(ProductEntry.CONTENT_URI, values));
+    }
+
+    private int quantity(long id) {
+        Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+        Cursor cursor = resolver.query(uri,
+                new String[]{ProductEntry.COLUMN_PRODUCT_QUANTITY}, null, null, null);
+        try {
+            assertTrue(cursor != null && cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    private long statsUnits() {
+        Cursor cursor = resolver.query(ProductEntry.STATS_URI,
+                new String[]{ProductEntry.COLUMN_STATS_UNITS}, null, null, null);
+        try {
+            assertTrue(cursor != null && cursor.moveToFirst());
+            return cursor.getLong(cursor.getColumnIndex(ProductEntry.COLUMN_STATS_UNITS));
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+/**
+ * The inventory the tests and benchmarks fill the provider with: Product i is named
+ * "Product i", has i % quantities units in stock and costs i % prices, 50 and 100 unless a test
+ * asks for others. The rows are bulk inserted in batches of {@link #BATCH_ROWS}, so even large
+ * inventories take little memory.
+ */
+public final class TestProducts {
+
+    /** Number of rows per bulk insert */
+    public static final int BATCH_ROWS = 10000;
+
+    /** Number of different quantities and prices, unless a test asks for others */
+    public static final int QUANTITIES = 50;
+    public static final int PRICES = 100;
+
+    /**
+     * Changes or adds columns of the rows, after the name, the quantity and the price are set.
+     */
+    public interface Columns {
+
+        /**
+         * @param i      the number of the Product
+         * @param values its columns
+         */
+        void put(int i, ContentValues values);
+    }
+
+    private TestProducts() {
+    }
+
+    /**
+     * @return Products from to from + count - 1, with the usual quantities and prices
+     */
+    public static ContentValues[] products(int from, int count) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++)
+            values[i] = product(from + i, QUANTITIES, PRICES, null);
+        return values;
+    }
+
+    /**
+     * Insert Products 0 to rows - 1, with the usual quantities and prices.
+     */
+    public static void insert(ContentResolver resolver, int rows) {
+        insert(resolver, rows, QUANTITIES, PRICES, null);
+    }
+
+    /**
+     * Insert Products 0 to rows - 1, with the given numbers of quantities and prices.
+     */
+    public static void insert(ContentResolver resolver, int rows, int quantities, int prices) {
+        insert(resolver, rows, quantities, prices, null);
+    }
+
+    /**
+     * Insert Products 0 to rows - 1, with the usual quantities and prices and the columns the
+     * test puts.
+     */
+    public static void insert(ContentResolver resolver, int rows, Columns columns) {
+        insert(resolver, rows, QUANTITIES, PRICES, columns);
+    }
+
+    /**
+     * Insert Products 0 to rows - 1.
+     *
+     * @param quantities number of different quantities
+     * @param prices     number of different prices
+     * @param columns    puts the other columns of the test, null for none
+     */
+    public static void insert(ContentResolver resolver, int rows, int quantities, int prices,
+                              Columns columns) {
+        ContentValues[] batch = new ContentValues[Math.min(rows, BATCH_ROWS)];
+        for (int inserted = 0; inserted < rows; inserted += batch.length) {
+            if (rows - inserted < batch.length)
+                batch = new ContentValues[rows - inserted];
+            for (int i = 0; i < batch.length; i++)
+                batch[i] = product(inserted + i, quantities, prices, columns);
+            resolver.bulkInsert(ProductEntry.CONTENT_URI, batch);
+        }
+    }
+
+    private static ContentValues product(int i, int quantities, int prices, Columns columns) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Product " + i);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i % quantities);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, i % prices);
+        if (columns != null)
+            columns.put(i, values);
+        return values;
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.android.inventory;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import com.example.android.inventory.data.MainThreadIo;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * Decodes images no larger than the view that shows them. A phone photo decoded at full
+ * resolution takes tens of MB; decoding to the size of the view keeps it to a few hundred KB.
+ * <p>
+ * The decode blocks, so call it from a background thread.
+ */
+public final class BitmapDecoder {
+
+    private BitmapDecoder() {
+    }
+
+    /**
+     * Decode the image at the given URI so that it fits into the requested size, keeping its
+     * aspect ratio. Images that already fit are decoded as they are, never scaled up.
+     *
+     * @param resolver  to open the image with
+     * @param uri       of the image
+     * @param reqWidth  the width the image has to fit into, in pixels
+     * @param reqHeight the height the image has to fit into, in pixels
+     * @return the decoded image, or null if the image could not be decoded
+     * @throws IOException if the image could not be opened
+     */
+    public static Bitmap decode(ContentResolver resolver, Uri uri, int reqWidth, int reqHeight)
+            throws IOException {
+
+        long start = MainThreadIo.start();
+        ParcelFileDescriptor parcelFileDescriptor = resolver.openFileDescriptor(uri, "r");
+        if (parcelFileDescriptor == null)
+            return null;
+
+        Bitmap bitmap = null;
+        MainThreadIo.ViolationException violation;
+        try {
+            FileDescriptor fileDescriptor = parcelFileDescriptor.getFileDescriptor();
+
+            // First pass: only read the dimensions of the image, without allocating any pixels.
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
+
+            if (options.outWidth > 0 && options.outHeight > 0) {
+                setScaling(options, options.outWidth, options.outHeight, reqWidth, reqHeight);
+
+                // Second pass: decode the pixels at the reduced size.
+                options.inJustDecodeBounds = false;
+                bitmap = BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
+            }
+
+        } finally {
+            parcelFileDescriptor.close();
+            violation = MainThreadIo.record("BitmapDecoder.decode", start);
+        }
+
+        if (violation != null) {
+            if (bitmap != null)
+                bitmap.recycle();
+            throw violation;
+        }
+        return bitmap;
+    }
+
+    /*
+     * Set up the options to decode a width x height image into the requested size. inSampleSize
+     * does the bulk of the reduction cheaply while decoding, but only by powers of 2, so
+     * inDensity/inTargetDensity scale the rest of the way to the exact size.
+     */
+    static void setScaling(BitmapFactory.Options options, int width, int height,
+                           int reqWidth, int reqHeight) {
+        int targetWidth = fitWidth(width, height, reqWidth, reqHeight);
+
+        options.inSampleSize = calculateInSampleSize(width, targetWidth);
+
+        if (targetWidth < width) {
+            options.inScaled = true;
+            options.inDensity = width;
+            options.inTargetDensity = targetWidth * options.inSampleSize;
+        }
+    }
+
+    /**
+     * The width a width x height image has once it is scaled down to fit into
+     * reqWidth x reqHeight, keeping its aspect ratio.
+     */
+    static int fitWidth(int width, int height, int reqWidth, int reqHeight) {
+        if (reqWidth <= 0 || reqHeight <= 0 || (width <= reqWidth && height <= reqHeight))
+            return width;
+
+        // Scale by whichever side is furthest over its limit:
+        if ((long) width * reqHeight >= (long) height * reqWidth)
+            return reqWidth;
+        return Math.max(1, (int) ((long) width * reqHeight / height));
+    }
+
+    /**
+     * The largest power of 2 the image can be subsampled by while staying at least targetWidth
+     * wide.
+     */
+    static int calculateInSampleSize(int width, int targetWidth) {
+        int inSampleSize = 1;
+        while (width / (inSampleSize * 2) >= targetWidth)
+            inSampleSize *= 2;
+        return inSampleSize;
+    }
+}
@@ -1,26 +1,57 @@
 package com.example.android.inventory;
 
+import android.app.ProgressDialog;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.res.AssetFileDescriptor;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
+import android.support.v4.view.MenuItemCompat;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.view.ActionMode;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.EditText;
+import android.widget.Spinner;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.inventory.data.ImageStore;
+import com.example.android.inventory.data.MainThreadIo;
+import com.example.android.inventory.data.ProductContract;
 import com.example.android.inventory.data.ProductContract.ProductEntry;
+import com.example.android.inventory.data.ProductImporter;
+import com.example.android.inventory.data.ProductWriter;
+import com.example.android.inventory.data.SaleBatcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Displays list of Products that were entered and stored in the app.
@@ -28,12 +59,199 @@ import com.example.android.inventory.data.ProductContract.ProductEntry;
 public class CatalogActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor> {
 
-    /** Identifier for the product data loader */
+    /**
+     * Identifier for the first product page loader. Page n of the catalog is loaded by the loader
+     * with the ID PRODUCT_LOADER + n.
+     */
     private static final int PRODUCT_LOADER = 0;
 
-    /** Adapter for the ListView */
+    /** Identifier for the loader of the catalog statistics, clear of the page loader IDs */
+    private static final int STATS_LOADER = -1;
+
+    /** Number of Products fetched per page */
+    private static final int PAGE_SIZE = 100;
+
+    /** The next page is fetched when the user scrolls this close to the end of the loaded rows */
+    private static final int PREFETCH_DISTANCE = 30;
+
+    /** Key for the page boundaries in the saved instance state */
+    private static final String STATE_PAGE_STARTS = "pageStarts";
+
+    /** Key for the search text in the saved instance state */
+    private static final String STATE_SEARCH_TEXT = "searchText";
+
+    /** Key for the IDs of the selected Products in the saved instance state */
+    private static final String STATE_SELECTED_IDS = "selectedIds";
+
+    /** Key for the restock order being saved in the saved instance state */
+    private static final String STATE_RESTOCK_URI = "restockUri";
+
+    /** Loader argument: ID after which the page starts */
+    private static final String ARG_AFTER = "after";
+
+    /** Loader argument: ID of the last Product of the page, or -1 if it is not known yet */
+    private static final String ARG_UP_TO = "upTo";
+
+    /** Request code of the file picker for the CSV import */
+    private static final int IMPORT_REQUEST = 1;
+
+    /** Request codes of the file pickers for the CSV and the JSON export */
+    private static final int EXPORT_CSV_REQUEST = 2;
+    private static final int EXPORT_JSON_REQUEST = 3;
+
+    /** Request codes of the file pickers for the snapshot backup and restore */
+    private static final int BACKUP_REQUEST = 4;
+    private static final int RESTORE_REQUEST = 5;
+
+    /** Request code of the file picker for saving the restock order */
+    private static final int RESTOCK_REQUEST = 6;
+
+    /** MIME type of the snapshot archives */
+    private static final String SNAPSHOT_MIME_TYPE = "application/octet-stream";
+
+    /** The columns of the bulk update, in the order of R.array.bulk_columns */
+    private static final String[] BULK_COLUMNS = {
+            ProductEntry.COLUMN_PRODUCT_PRICE, ProductEntry.COLUMN_PRODUCT_QUANTITY};
+
+    /** The operations of the bulk update, in the order of R.array.bulk_operations */
+    private static final String[] BULK_OPERATIONS = {
+            ProductContract.OPERATION_SET, ProductContract.OPERATION_ADD,
+            ProductContract.OPERATION_SCALE, ProductContract.OPERATION_CLAMP};
+
+    /** MIME types a CSV file may be offered with */
+    private static final String[] CSV_MIME_TYPES = {
+            "text/csv", "text/comma-separated-values", "application/csv", "text/plain"};
+
+    /** Adapter for the RecyclerView */
     private ProductCursorAdapter cursorAdapter;
 
+    /** The list of Products */
+    private RecyclerView productListView;
+
+    /** Collects the sale taps, which are written in batches */
+    private SaleBatcher sales;
+
+    /** Layout manager of the RecyclerView, used to find out how far the user has scrolled */
+    private LinearLayoutManager layoutManager;
+
+    /** Shown instead of the RecyclerView while the catalog is empty */
+    private View emptyView;
+
+    /** The contextual app bar shown while Products are selected, null if none are */
+    private ActionMode selectionMode;
+
+    /** Runs the contextual app bar of the selected Products */
+    private final ActionMode.Callback selectionCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.menu_catalog_selection, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            if (item.getItemId() == R.id.action_bulk_update) {
+                showBulkUpdateDialog(cursorAdapter.getSelectedIds());
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            // Closed by the user, or because nothing is selected any more
+            selectionMode = null;
+            cursorAdapter.clearSelection();
+        }
+    };
+
+    /** The restock order to save once the user has picked the file, null if none */
+    private Uri restockUri;
+
+    /** Shows the number of Products, units and stock value above the list */
+    private TextView statsHeader;
+
+    /**
+     * Receives the change notifications of the inventory. The page loaders don't reload on their
+     * own: a change to one Product only reloads the page that holds it.
+     */
+    private final ContentObserver inventoryObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            onInventoryChanged(uri);
+        }
+    };
+
+    /**
+     * The ID after which each page starts. Page n holds the Products with an ID greater than
+     * pageStarts[n] and at most pageStarts[n + 1]. The last page is only bounded by PAGE_SIZE.
+     */
+    private ArrayList<Long> pageStarts = new ArrayList<>();
+
+    /** Number of pages whose loader has been started */
+    private int startedPages;
+
+    /** The text the catalog is filtered by, empty to show all Products */
+    private String searchText = "";
+
+    /** Shows the progress of a running CSV import, null if none is shown */
+    private ProgressDialog importDialog;
+
+    /** Shows the outcome of the batched sales */
+    private final SaleBatcher.Listener saleListener = new SaleBatcher.Listener() {
+        @Override
+        public void onPendingChanged(long id) {
+            RecyclerView.ViewHolder holder = productListView.findViewHolderForItemId(id);
+            if (holder != null && holder.getAdapterPosition() != RecyclerView.NO_POSITION)
+                cursorAdapter.notifyQuantityChanged(holder.getAdapterPosition());
+        }
+
+        @Override
+        public void onOutOfStock(long id, int unsold) {
+            // The stock ran out before all the taps were written, the list shows what is left
+            Toast.makeText(CatalogActivity.this, getString(R.string.cannot_have_negative_quanity),
+                    Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        public void onFailure(long id, Exception e) {
+            Toast.makeText(CatalogActivity.this, getString(R.string.sale_failed),
+                    Toast.LENGTH_SHORT).show();
+        }
+    };
+
+    /** Receives the progress of the CSV import while the activity is started */
+    private final ProductImporter.Listener importListener = new ProductImporter.Listener() {
+        @Override
+        public void onProgress(ProductImporter.Progress progress) {
+            showImportProgress(progress);
+        }
+
+        @Override
+        public void onFinished(ProductImporter.Progress progress) {
+            dismissImportProgress();
+            showImportResult(progress);
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            dismissImportProgress();
+            Toast.makeText(CatalogActivity.this, getString(R.string.import_failed, e.getMessage()),
+                    Toast.LENGTH_LONG).show();
+            supportInvalidateOptionsMenu();
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
 
@@ -50,24 +268,22 @@ public class CatalogActivity extends AppCompatActivity implements
             }
         });
 
-        // Find the ListView which will be populated with the Product data
-        ListView productListView = (ListView) findViewById(R.id.list);
+        // Find the RecyclerView which will be populated with the Product data
+        productListView = (RecyclerView) findViewById(R.id.list);
+        layoutManager = new LinearLayoutManager(this);
+        productListView.setLayoutManager(layoutManager);
 
-        // find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        productListView.setEmptyView(emptyView);
+        // find the empty view, so that it only shows when the list has 0 items.
+        emptyView = findViewById(R.id.empty_view);
 
         /*
-         * Setup an Adapter to create a list item for each row of inventory data in the Cursor.
-         * There is no inventory data yet (until the loader finishes) so pass in null of the Cursor
+         * Setup an Adapter to create a list item for each row of inventory data in the pages.
+         * There is no inventory data yet (until the loaders finish). Clicking an item opens it in
+         * the editor. The rows show the product thumbnails.
          */
-        cursorAdapter = new ProductCursorAdapter(this, null);
-        productListView.setAdapter(cursorAdapter);
-
-        // Setup the item click listener
-        productListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        cursorAdapter = new ProductCursorAdapter(new ProductCursorAdapter.OnProductClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onProductClick(long id) {
                 // Create new intent to go to {@link EditorActivity}
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
 
@@ -87,57 +303,217 @@ public class CatalogActivity extends AppCompatActivity implements
                 // Launch the {@link EditorActivity} to display the data for the current Product.
                 startActivity(intent);
             }
+
+            @Override
+            public void onSelectionChanged(int count) {
+                showSelection(count);
+            }
+        }, ThumbnailCache.getInstance(this));
+        productListView.setAdapter(cursorAdapter);
+
+        // Sale taps show in the list at once and are written in batches
+        sales = new SaleBatcher(ProductWriter.getInstance(this));
+        sales.setListener(saleListener);
+        cursorAdapter.setSaleBatcher(sales);
+
+        // Fetch the next page on demand, while the user scrolls towards the end of the list
+        productListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                loadMoreIfNeeded();
+            }
         });
 
-        // Kick off the loader
-        getSupportLoaderManager().initLoader(PRODUCT_LOADER, null, this);
+        // Restore the search and the page boundaries, so the same pages are loaded again after a
+        // rotation
+        if (savedInstanceState != null) {
+            searchText = savedInstanceState.getString(STATE_SEARCH_TEXT, "");
+            restockUri = savedInstanceState.getParcelable(STATE_RESTOCK_URI);
+
+            long[] selectedIds = savedInstanceState.getLongArray(STATE_SELECTED_IDS);
+            if (selectedIds != null && selectedIds.length != 0) {
+                cursorAdapter.setSelectedIds(selectedIds);
+                showSelection(selectedIds.length);
+            }
+        }
+
+        long[] savedPageStarts = savedInstanceState == null
+                ? null : savedInstanceState.getLongArray(STATE_PAGE_STARTS);
+        if (savedPageStarts == null) {
+            pageStarts.add(0L);
+        } else {
+            for (long pageStart : savedPageStarts)
+                pageStarts.add(pageStart);
+        }
+
+        // Kick off the page loaders
+        while (startedPages < pageStarts.size())
+            startNextPage();
+
+        getContentResolver().registerContentObserver(ProductEntry.CONTENT_URI, true,
+                inventoryObserver);
 
+        // The statistics header follows the whole catalog, whatever is searched for
+        statsHeader = (TextView) findViewById(R.id.stats_header);
+        getSupportLoaderManager().initLoader(STATS_LOADER, null, this);
+
+        // Sweep up the images of Products that were never saved, once per launch
+        if (savedInstanceState == null)
+            ImageStore.getInstance(this).collectGarbage();
     }
 
-    /**
-     * The onSale method hooks up the onSale button in list_item.xml to CatalogActivity.
-     */
-    public void onSale(View view) {
-        ContentResolver resolver = getContentResolver();
-        int currentItemId = view.getId();
+    @Override
+    protected void onStart() {
+        super.onStart();
+        ProductImporter.getInstance(this).setListener(importListener);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        SaveReporter.onResume(this);
+    }
+
+    @Override
+    protected void onPause() {
+        // Write the pending sale taps before the user goes elsewhere
+        sales.flush();
+        SaveReporter.onPause(this);
+        super.onPause();
+    }
+
+    @Override
+    protected void onStop() {
+        ProductImporter.getInstance(this).setListener(null);
+        dismissImportProgress();
+        super.onStop();
+    }
 
-        Uri uri = Uri.parse("content://com.example.android.inventory/items/"
-                + String.valueOf(currentItemId));
+    @Override
+    protected void onDestroy() {
+        getContentResolver().unregisterContentObserver(inventoryObserver);
+        sales.setListener(null);
+        super.onDestroy();
+    }
 
-        Cursor cursor = resolver.query(uri, null, null, null, null);
-        if (cursor != null) cursor.moveToFirst();
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
 
-        int quantityColumnIndex = 0;
+        long[] savedPageStarts = new long[pageStarts.size()];
+        for (int i = 0; i < savedPageStarts.length; i++)
+            savedPageStarts[i] = pageStarts.get(i);
+        outState.putLongArray(STATE_PAGE_STARTS, savedPageStarts);
+        outState.putString(STATE_SEARCH_TEXT, searchText);
+        outState.putParcelable(STATE_RESTOCK_URI, restockUri);
+        outState.putLongArray(STATE_SELECTED_IDS, cursorAdapter.getSelectedIds());
+    }
 
-        if (cursor != null)
-            quantityColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+    /*
+     * Filter the catalog by the given search text. All the pages are dropped and the list is
+     * paged again from the start, through the search URI.
+     */
+    private void setSearchText(String text) {
+        text = text.trim();
+        if (text.equals(searchText))
+            return;
 
-        String value = null;
+        searchText = text;
 
-        if (cursor != null) value = cursor.getString(quantityColumnIndex);
+        for (int page = 0; page < startedPages; page++)
+            getSupportLoaderManager().destroyLoader(PRODUCT_LOADER + page);
+        cursorAdapter.clear();
 
-        if (cursor != null) cursor.close();
+        pageStarts.clear();
+        pageStarts.add(0L);
+        startedPages = 0;
+        startNextPage();
+    }
 
-        int quantity = Integer.parseInt(value);
+    /*
+     * Start the loader of the next page whose boundary is known, if the user is close enough to
+     * the end of the rows loaded so far.
+     */
+    private void loadMoreIfNeeded() {
+        if (startedPages == pageStarts.size())
+            return;
 
-        ContentValues values = new ContentValues();
+        int lastVisible = layoutManager.findLastVisibleItemPosition();
+        if (lastVisible >= cursorAdapter.getItemCount() - PREFETCH_DISTANCE)
+            startNextPage();
+    }
 
-        // subtracts 1 from Quantity and display in the TextView
-        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity - 1);
+    private void startNextPage() {
+        int page = startedPages++;
 
-        // Negative quantity of products is not allowed:
-        if (quantity <= 0) {
-            // inform the user
-            Toast.makeText(this, getString(R.string.cannot_have_negative_quanity),
-                    Toast.LENGTH_SHORT).show();
+        Bundle args = new Bundle();
+        args.putLong(ARG_AFTER, pageStarts.get(page));
+        args.putLong(ARG_UP_TO, page + 1 < pageStarts.size() ? pageStarts.get(page + 1) : -1);
 
-            // set the quantity to 0 and display
-            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 0);
+        getSupportLoaderManager().initLoader(PRODUCT_LOADER + page, args, this);
+    }
 
+    /*
+     * Reload the pages affected by a change to the inventory. A row URI names the one Product that
+     * changed, so only the page whose ID range holds it is loaded again. Any other URI may stand
+     * for many rows, so every page is.
+     */
+    private void onInventoryChanged(Uri uri) {
+        long id = rowId(uri);
+        if (id < 0) {
+            for (int page = 0; page < startedPages; page++)
+                reloadPage(page);
+            return;
         }
 
-        resolver.update(uri, values, null, null);
+        // Page n holds the IDs after pageStarts[n], up to and including pageStarts[n + 1]
+        int index = Collections.binarySearch(pageStarts, id);
+        int page = (index >= 0 ? index : -index - 1) - 1;
+        if (page < startedPages)
+            reloadPage(page);
+    }
 
+    private void reloadPage(int page) {
+        Loader<Cursor> loader = getSupportLoaderManager().getLoader(PRODUCT_LOADER + page);
+        if (loader != null)
+            ((ProductPageLoader) loader).reload();
+    }
+
+    /*
+     * The ID of the Product a content URI such as content://com.example.android.inventory/items/7
+     * stands for, or -1 if it is not the URI of a single Product.
+     */
+    private static long rowId(Uri uri) {
+        if (uri == null)
+            return -1;
+
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2 || !ProductContract.PATH_INVENTORY.equals(segments.get(0))
+                || !TextUtils.isDigitsOnly(segments.get(1)) || segments.get(1).isEmpty())
+            return -1;
+        return ContentUris.parseId(uri);
+    }
+
+    /**
+     * The onSale method hooks up the onSale button in list_item.xml to CatalogActivity.
+     * The tap is queued with the other taps of the Product and shows in the list right away; the
+     * batch is sold on the writer thread once the taps stop, with one atomic write per Product.
+     * A Product whose shown quantity is 0 can't be sold.
+     */
+    public void onSale(View view) {
+        RecyclerView.ViewHolder holder = productListView.findContainingViewHolder(view);
+        if (holder == null || holder.getAdapterPosition() == RecyclerView.NO_POSITION)
+            return;
+
+        // Negative quantity of products is not allowed, inform the user:
+        if (((ProductCursorAdapter.ViewHolder) holder).shownQuantity == 0) {
+            Toast.makeText(this, getString(R.string.cannot_have_negative_quanity),
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        sales.sell((Long) view.getTag());
+        cursorAdapter.notifyQuantityChanged(holder.getAdapterPosition());
     }
 
     /**
@@ -157,9 +533,9 @@ public class CatalogActivity extends AppCompatActivity implements
          * Insert a new row for the Product into the provider using the ContentResolver.
          * Use the {@link ItemEntry#CONTENT_URI} to indicate that we want to insert into the
          * inventory database table. Receive the new content URI that will allow us to access the
-         * Product's data in the future.
+         * Product's data in the future. The insert runs on the writer thread.
          */
-        Uri newUri = getContentResolver().insert(ProductEntry.CONTENT_URI, values);
+        ProductWriter.getInstance(this).insert(values, null);
     }
 
     /**
@@ -167,23 +543,418 @@ public class CatalogActivity extends AppCompatActivity implements
      */
     private void deleteInventory() {
 
-        int rowsDeleted = getContentResolver().delete(ProductEntry.CONTENT_URI, null, null);
+        ProductWriter.getInstance(this).delete(ProductEntry.CONTENT_URI,
+                new ProductWriter.Callback<Integer>() {
+                    @Override
+                    public void onSuccess(Integer rowsDeleted) {
+                        Log.v("CatalogActivity", rowsDeleted + " rows deleted from inventory");
 
-        Log.v("CatalogActivity", rowsDeleted + " rows deleted from inventory");
+                        // Display Delete toast message.
+                        switch (rowsDeleted) {
+                            // no rows deleted toast message:
+                            case 0:
+                                Toast.makeText(CatalogActivity.this,
+                                        getString(R.string.editor_delete_product_failed),
+                                        Toast.LENGTH_SHORT).show();
+                                break;
+                            // rows successfully deleted toast message:
+                            default:
+                                Toast.makeText(CatalogActivity.this,
+                                        rowsDeleted + getString(R.string.rows_deleted),
+                                        Toast.LENGTH_SHORT).show();
+                                break;
+                        }
+                    }
 
-        // Display Delete toast message.
-        switch (rowsDeleted) {
-            // no rows deleted toast message:
-            case 0:
-                Toast.makeText(this, getString(R.string.editor_delete_product_failed),
-                        Toast.LENGTH_SHORT).show();
-                break;
-            // rows successfully deleted toast message:
-            default:
-                Toast.makeText(this, rowsDeleted + getString(R.string.rows_deleted),
-                        Toast.LENGTH_SHORT).show();
-                break;
+                    @Override
+                    public void onFailure(Exception e) {
+                        Toast.makeText(CatalogActivity.this,
+                                getString(R.string.editor_delete_product_failed),
+                                Toast.LENGTH_SHORT).show();
+                    }
+                });
+    }
+
+    /*
+     * Show the contextual app bar with the number of selected Products, or close it once none
+     * are selected.
+     */
+    private void showSelection(int count) {
+        if (count == 0) {
+            if (selectionMode != null)
+                selectionMode.finish();
+            return;
         }
+
+        if (selectionMode == null)
+            selectionMode = startSupportActionMode(selectionCallback);
+        selectionMode.setTitle(getString(R.string.selected_count, count));
+    }
+
+    /*
+     * Ask for the update expression, then apply it to the given Products in one write. The
+     * selection is done with once the update is on its way.
+     */
+    private void showBulkUpdateDialog(final long[] ids) {
+        View view = getLayoutInflater().inflate(R.layout.dialog_bulk_update, null);
+        final Spinner columnSpinner = (Spinner) view.findViewById(R.id.bulk_column);
+        final Spinner operationSpinner = (Spinner) view.findViewById(R.id.bulk_operation);
+        final EditText valueText = (EditText) view.findViewById(R.id.bulk_value);
+        final EditText maxText = (EditText) view.findViewById(R.id.bulk_max);
+
+        // A clamp takes two bounds, the other operations one value
+        operationSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                boolean clamp = ProductContract.OPERATION_CLAMP.equals(BULK_OPERATIONS[position]);
+                valueText.setHint(clamp ? R.string.bulk_min : R.string.bulk_value);
+                maxText.setVisibility(clamp ? View.VISIBLE : View.GONE);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_bulk_update)
+                .setView(view)
+                .setPositiveButton(R.string.bulk_update, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String operation =
+                                BULK_OPERATIONS[operationSpinner.getSelectedItemPosition()];
+                        Integer value = parseInteger(valueText);
+                        Integer max = parseInteger(maxText);
+
+                        Bundle extras = new Bundle();
+                        extras.putString(ProductContract.EXTRA_COLUMN,
+                                BULK_COLUMNS[columnSpinner.getSelectedItemPosition()]);
+                        extras.putString(ProductContract.EXTRA_OPERATION, operation);
+                        extras.putLongArray(ProductContract.EXTRA_IDS, ids);
+
+                        if (ProductContract.OPERATION_CLAMP.equals(operation)) {
+                            if (value == null && max == null) {
+                                Toast.makeText(CatalogActivity.this, R.string.bulk_update_invalid,
+                                        Toast.LENGTH_SHORT).show();
+                                return;
+                            }
+                            if (value != null)
+                                extras.putInt(ProductContract.EXTRA_MIN, value);
+                            if (max != null)
+                                extras.putInt(ProductContract.EXTRA_MAX, max);
+                        } else {
+                            if (value == null) {
+                                Toast.makeText(CatalogActivity.this, R.string.bulk_update_invalid,
+                                        Toast.LENGTH_SHORT).show();
+                                return;
+                            }
+                            extras.putInt(ProductContract.EXTRA_VALUE, value);
+                        }
+
+                        bulkUpdate(extras);
+                        if (selectionMode != null)
+                            selectionMode.finish();
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    private static Integer parseInteger(EditText text) {
+        try {
+            return Integer.valueOf(text.getText().toString().trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Apply the update expression in the extras, on the writer thread. The catalog reloads on
+     * the change notification; the number of Products changed is shown when the write is done.
+     */
+    private void bulkUpdate(Bundle extras) {
+        final Context appContext = getApplicationContext();
+        ProductWriter.getInstance(this).bulkUpdate(extras,
+                new ProductWriter.Callback<Bundle>() {
+                    @Override
+                    public void onSuccess(Bundle result) {
+                        Toast.makeText(appContext, appContext.getString(
+                                R.string.bulk_update_finished,
+                                result.getInt(ProductContract.EXTRA_ROWS)),
+                                Toast.LENGTH_SHORT).show();
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        Toast.makeText(appContext, appContext.getString(
+                                R.string.bulk_update_failed, e.getMessage()),
+                                Toast.LENGTH_LONG).show();
+                    }
+                });
+    }
+
+    /*
+     * Let the user pick a CSV file to import Products from.
+     */
+    private void pickImportFile() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES, CSV_MIME_TYPES);
+        startActivityForResult(intent, IMPORT_REQUEST);
+    }
+
+    /*
+     * Offer the ways to export the catalog: save it as CSV or JSON, or share it as CSV.
+     */
+    private void showExportOptions() {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_export)
+                .setItems(R.array.export_options, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        switch (which) {
+                            case 0:
+                                pickExportFile(ProductEntry.EXPORT_CSV_TYPE, "inventory.csv",
+                                        EXPORT_CSV_REQUEST);
+                                break;
+                            case 1:
+                                pickExportFile(ProductEntry.EXPORT_JSON_TYPE, "inventory.json",
+                                        EXPORT_JSON_REQUEST);
+                                break;
+                            default:
+                                shareCatalog();
+                                break;
+                        }
+                    }
+                })
+                .show();
+    }
+
+    private void pickExportFile(String mimeType, String fileName, int requestCode) {
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(mimeType);
+        intent.putExtra(Intent.EXTRA_TITLE, fileName);
+        startActivityForResult(intent, requestCode);
+    }
+
+    /*
+     * Hand the catalog to another app as CSV. The app reads it straight from the provider, which
+     * streams it while it is read.
+     */
+    private void shareCatalog() {
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType(ProductEntry.EXPORT_CSV_TYPE);
+        intent.putExtra(Intent.EXTRA_STREAM, ProductEntry.CONTENT_URI);
+        intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.export_subject));
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+
+        if (intent.resolveActivity(getPackageManager()) != null)
+            startActivity(Intent.createChooser(intent, getString(R.string.action_export)));
+    }
+
+    /*
+     * Ask for the low-stock threshold and the units to order up to, then share the restock order
+     * or save it to a file.
+     */
+    private void showRestockOptions() {
+        View view = getLayoutInflater().inflate(R.layout.dialog_restock, null);
+        final EditText thresholdText = (EditText) view.findViewById(R.id.restock_threshold);
+        final EditText orderUpToText = (EditText) view.findViewById(R.id.restock_order_up_to);
+        thresholdText.setText(String.valueOf(ProductEntry.DEFAULT_LOW_STOCK_THRESHOLD));
+        orderUpToText.setText(String.valueOf(2 * ProductEntry.DEFAULT_LOW_STOCK_THRESHOLD));
+
+        DialogInterface.OnClickListener listener = new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                int threshold = parseCount(thresholdText, ProductEntry.DEFAULT_LOW_STOCK_THRESHOLD);
+                Uri order = ProductEntry.buildRestockUri(threshold,
+                        parseCount(orderUpToText, threshold));
+
+                if (which == DialogInterface.BUTTON_POSITIVE) {
+                    shareRestockOrder(order);
+                } else {
+                    restockUri = order;
+                    pickExportFile(ProductEntry.RESTOCK_ORDER_TYPE, "restock-order.txt",
+                            RESTOCK_REQUEST);
+                }
+            }
+        };
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_restock)
+                .setView(view)
+                .setPositiveButton(R.string.restock_share, listener)
+                .setNeutralButton(R.string.restock_save, listener)
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    private static int parseCount(EditText text, int defaultCount) {
+        try {
+            return Integer.parseInt(text.getText().toString().trim());
+        } catch (NumberFormatException e) {
+            return defaultCount;
+        }
+    }
+
+    /*
+     * Hand the restock order to another app, such as a mail app. The app reads it straight from
+     * the provider, which streams it while it is read.
+     */
+    private void shareRestockOrder(Uri order) {
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType(ProductEntry.RESTOCK_ORDER_TYPE);
+        intent.putExtra(Intent.EXTRA_STREAM, order);
+        intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.restock_subject));
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+
+        if (intent.resolveActivity(getPackageManager()) != null)
+            startActivity(Intent.createChooser(intent, getString(R.string.action_restock)));
+    }
+
+    /*
+     * Let the user pick the file to restore a snapshot from, after a warning that it replaces the
+     * whole inventory.
+     */
+    private void pickRestoreFile() {
+        new AlertDialog.Builder(this)
+                .setMessage(R.string.restore_dialog_msg)
+                .setPositiveButton(R.string.action_restore, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                        intent.addCategory(Intent.CATEGORY_OPENABLE);
+                        intent.setType("*/*");
+                        startActivityForResult(intent, RESTORE_REQUEST);
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode != IMPORT_REQUEST && requestCode != EXPORT_CSV_REQUEST
+                && requestCode != EXPORT_JSON_REQUEST && requestCode != BACKUP_REQUEST
+                && requestCode != RESTORE_REQUEST && requestCode != RESTOCK_REQUEST) {
+            super.onActivityResult(requestCode, resultCode, data);
+            return;
+        }
+
+        if (resultCode != RESULT_OK || data == null || data.getData() == null)
+            return;
+
+        if (requestCode == BACKUP_REQUEST || requestCode == RESTORE_REQUEST) {
+            String method = requestCode == BACKUP_REQUEST
+                    ? ProductContract.METHOD_BACKUP : ProductContract.METHOD_RESTORE;
+            new SnapshotTask(this, method).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
+                    data.getData());
+            return;
+        }
+
+        if (requestCode == RESTOCK_REQUEST) {
+            if (restockUri != null)
+                new ExportTask(this, restockUri, ProductEntry.RESTOCK_ORDER_TYPE)
+                        .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, data.getData());
+            restockUri = null;
+            return;
+        }
+
+        if (requestCode != IMPORT_REQUEST) {
+            String mimeType = requestCode == EXPORT_CSV_REQUEST
+                    ? ProductEntry.EXPORT_CSV_TYPE : ProductEntry.EXPORT_JSON_TYPE;
+            new ExportTask(this, ProductEntry.CONTENT_URI, mimeType)
+                    .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, data.getData());
+            return;
+        }
+
+        Uri source = data.getData();
+
+        // Keep the permission, so an interrupted import can be resumed after a restart
+        try {
+            getContentResolver().takePersistableUriPermission(source,
+                    Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        } catch (SecurityException e) {
+            Log.w("CatalogActivity", "No persistable permission for " + source, e);
+        }
+
+        importProducts(source);
+    }
+
+    /*
+     * Import the Products in the given CSV file, or resume the import if it was interrupted.
+     */
+    private void importProducts(Uri source) {
+        ProductImporter importer = ProductImporter.getInstance(this);
+        if (importer.isRunning())
+            return;
+
+        importer.importCsv(source);
+        showImportProgress(null);
+        supportInvalidateOptionsMenu();
+    }
+
+    private void showImportProgress(ProductImporter.Progress progress) {
+        // Stopped by the user, the result follows
+        if (!ProductImporter.getInstance(this).isRunning())
+            return;
+
+        if (importDialog == null) {
+            importDialog = new ProgressDialog(this);
+            importDialog.setTitle(R.string.import_title);
+            importDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            importDialog.setMax(100);
+            importDialog.setCancelable(false);
+            importDialog.setButton(DialogInterface.BUTTON_NEGATIVE, getString(R.string.import_stop),
+                    new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            ProductImporter.getInstance(CatalogActivity.this).cancel();
+                            importDialog = null;
+                        }
+                    });
+            importDialog.setMessage(getString(R.string.import_reading));
+            importDialog.show();
+        }
+
+        if (progress == null)
+            return;
+
+        int percent = progress.getPercent();
+        importDialog.setIndeterminate(percent < 0);
+        if (percent >= 0)
+            importDialog.setProgress(percent);
+        importDialog.setMessage(getString(R.string.import_progress, progress.lines,
+                progress.imported, progress.rejected, progress.rowsPerSecond));
+    }
+
+    private void dismissImportProgress() {
+        if (importDialog != null) {
+            importDialog.dismiss();
+            importDialog = null;
+        }
+    }
+
+    /*
+     * Tell the user how the import went, and which lines were not imported.
+     */
+    private void showImportResult(ProductImporter.Progress result) {
+        StringBuilder message = new StringBuilder(getString(R.string.import_result,
+                result.imported, result.rejected, result.rowsPerSecond));
+        for (ProductImporter.LineError error : result.errors)
+            message.append('\n').append(getString(R.string.import_line_error, error.line,
+                    error.message));
+
+        new AlertDialog.Builder(this)
+                .setTitle(result.cancelled ? R.string.import_cancelled : R.string.import_finished)
+                .setMessage(message)
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
+
+        supportInvalidateOptionsMenu();
     }
 
     @Override
@@ -193,9 +964,45 @@ public class CatalogActivity extends AppCompatActivity implements
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
 
+        // Filter the catalog while the user types in the search box
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+
+        if (!searchText.isEmpty()) {
+            MenuItemCompat.expandActionView(searchItem);
+            searchView.setQuery(searchText, false);
+        }
+
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                setSearchText(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                setSearchText(newText);
+                return true;
+            }
+        });
+
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        ProductImporter importer = ProductImporter.getInstance(this);
+        boolean idle = !importer.isRunning();
+
+        menu.findItem(R.id.action_import_csv).setEnabled(idle);
+        menu.findItem(R.id.action_resume_import)
+                .setVisible(idle && importer.getResumableImport() != null);
+
+        menu.findItem(R.id.action_main_thread_io).setVisible(MainThreadIo.isEnabled());
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -208,37 +1015,264 @@ public class CatalogActivity extends AppCompatActivity implements
             case R.id.action_delete_all_entries:
                 deleteInventory();
                 return true;
+            // Respond to a click on the "Import CSV" menu option
+            case R.id.action_import_csv:
+                pickImportFile();
+                return true;
+            // Respond to a click on the "Resume import" menu option
+            case R.id.action_resume_import:
+                importProducts(ProductImporter.getInstance(this).getResumableImport());
+                return true;
+            // Respond to a click on the "Export" menu option
+            case R.id.action_export:
+                showExportOptions();
+                return true;
+            // Respond to a click on the "Restock order" menu option
+            case R.id.action_restock:
+                showRestockOptions();
+                return true;
+            // Respond to a click on the debug "Main-thread I/O" menu option
+            case R.id.action_main_thread_io:
+                startActivity(new Intent(this, MainThreadIoActivity.class));
+                return true;
+            // Respond to a click on the "Back up" menu option
+            case R.id.action_backup:
+                pickExportFile(SNAPSHOT_MIME_TYPE, "inventory.snapshot", BACKUP_REQUEST);
+                return true;
+            // Respond to a click on the "Restore" menu option
+            case R.id.action_restore:
+                pickRestoreFile();
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        if (id == STATS_LOADER)
+            return new CursorLoader(this,
+                    ProductEntry.buildStatsUri(ProductEntry.DEFAULT_LOW_STOCK_THRESHOLD),
+                    null, null, null, null);
+
         // Define a projection that specifies the columns from the table we care about.
         String[] projection = {
                 ProductEntry._ID,
                 ProductEntry.COLUMN_PRODUCT_NAME,
                 ProductEntry.COLUMN_PRODUCT_PRICE,
-                ProductEntry.COLUMN_PRODUCT_QUANTITY };
+                ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                ProductEntry.COLUMN_PRODUCT_IMAGE,
+                ProductEntry.COLUMN_PRODUCT_THUMBNAIL };
 
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,  // Parent activity context
-                ProductEntry.CONTENT_URI, // Provider content URI to query
-                projection,            // Columns to include in the resulting Cursor
-                null,                  // No selection clause
-                null,                  // No selection arguments
-                null);                 // Default sort order
+        // Only query the range of IDs that belongs to this page, of the search results if the
+        // catalog is filtered
+        Uri pageUri = ProductEntry.buildPageUri(listUri(), args.getLong(ARG_AFTER),
+                args.getLong(ARG_UP_TO), PAGE_SIZE);
+
+        // This loader will execute the ContentProvider's query method on a background thread, in
+        // ID order, and compare the page with the one it loaded before
+        return new ProductPageLoader(this, pageUri, projection);
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        if (loader.getId() == STATS_LOADER) {
+            showStats(data);
+            return;
+        }
+
+        int page = loader.getId() - PRODUCT_LOADER;
+
         // Update {@link ProductCursorAdapter} with this new cursor containing updated Product data
-        cursorAdapter.swapCursor(data);
+        cursorAdapter.swapPage(page, data);
+
+        /*
+         * A full last page means there may be more Products after it. Its last ID becomes the
+         * boundary of the next page, and the page itself is pinned to that range so a reload
+         * never overlaps with the next page.
+         */
+        if (page == pageStarts.size() - 1 && data != null && data.getCount() >= PAGE_SIZE
+                && data.moveToLast()) {
+            long lastId = data.getLong(data.getColumnIndex(ProductEntry._ID));
+            ((CursorLoader) loader).setUri(
+                    ProductEntry.buildPageUri(listUri(), pageStarts.get(page), lastId, PAGE_SIZE));
+            pageStarts.add(lastId);
+        }
+
+        emptyView.setVisibility(cursorAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+
+        loadMoreIfNeeded();
+    }
+
+    /*
+     * Show the single row of the statistics query in the header.
+     */
+    private void showStats(Cursor stats) {
+        if (stats == null || !stats.moveToFirst()) {
+            statsHeader.setText(null);
+            return;
+        }
+
+        statsHeader.setText(getString(R.string.catalog_stats,
+                stats.getLong(stats.getColumnIndexOrThrow(ProductEntry.COLUMN_STATS_COUNT)),
+                stats.getLong(stats.getColumnIndexOrThrow(ProductEntry.COLUMN_STATS_UNITS)),
+                stats.getLong(stats.getColumnIndexOrThrow(ProductEntry.COLUMN_STATS_VALUE)),
+                stats.getLong(stats.getColumnIndexOrThrow(ProductEntry.COLUMN_STATS_LOW_STOCK))));
+    }
+
+    /*
+     * The URI of the list of Products the catalog pages through.
+     */
+    private Uri listUri() {
+        return searchText.isEmpty()
+                ? ProductEntry.CONTENT_URI : ProductEntry.buildSearchUri(searchText);
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         // Callback called when the data needs to be deleted.
-        cursorAdapter.swapCursor(null);
+        if (loader.getId() == STATS_LOADER) {
+            showStats(null);
+            return;
+        }
+        cursorAdapter.swapPage(loader.getId() - PRODUCT_LOADER, null);
+    }
+
+    /*
+     * Copies the export of the catalog, or the restock order, from the provider's pipe into the
+     * file the user picked. Holds the activity weakly, it only needs it to show the result.
+     */
+    private static final class ExportTask extends AsyncTask<Uri, Void, Long> {
+
+        private final WeakReference<CatalogActivity> activityReference;
+
+        private final ContentResolver resolver;
+
+        /** The provider URI that is exported */
+        private final Uri source;
+
+        private final String mimeType;
+
+        private long millis;
+
+        ExportTask(CatalogActivity activity, Uri source, String mimeType) {
+            activityReference = new WeakReference<>(activity);
+            resolver = activity.getContentResolver();
+            this.source = source;
+            this.mimeType = mimeType;
+        }
+
+        /*
+         * Returns the number of bytes exported, or -1 if the export failed.
+         */
+        @Override
+        protected Long doInBackground(Uri... destinations) {
+            long start = SystemClock.elapsedRealtime();
+            long bytes = 0;
+            try {
+                AssetFileDescriptor export = resolver.openTypedAssetFileDescriptor(source,
+                        mimeType, null);
+                if (export == null)
+                    throw new IOException("No " + mimeType + " export of " + source);
+
+                InputStream in = export.createInputStream();
+                try {
+                    OutputStream out = resolver.openOutputStream(destinations[0]);
+                    if (out == null)
+                        throw new IOException("Cannot write to " + destinations[0]);
+                    try {
+                        byte[] buffer = new byte[64 * 1024];
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            out.write(buffer, 0, read);
+                            bytes += read;
+                        }
+                    } finally {
+                        out.close();
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException | RuntimeException e) {
+                // A provider that is gone or refuses the destination fails like a full disk
+                Log.e("CatalogActivity", "Export to " + destinations[0] + " failed", e);
+                return -1L;
+            }
+            millis = SystemClock.elapsedRealtime() - start;
+            return bytes;
+        }
+
+        @Override
+        protected void onPostExecute(Long bytes) {
+            CatalogActivity activity = activityReference.get();
+            if (activity == null || activity.isFinishing())
+                return;
+
+            if (bytes < 0) {
+                Toast.makeText(activity, R.string.export_failed, Toast.LENGTH_SHORT).show();
+                return;
+            }
+
+            Log.i("CatalogActivity", "Exported " + bytes + " bytes in " + millis + " ms");
+            Toast.makeText(activity, activity.getString(R.string.export_finished,
+                    bytes / 1024), Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /*
+     * Backs the inventory up to, or restores it from, the snapshot file the user picked. The
+     * provider does the work; the catalog reloads by itself after a restore.
+     */
+    private static final class SnapshotTask extends AsyncTask<Uri, Void, Bundle> {
+
+        private final WeakReference<CatalogActivity> activityReference;
+
+        private final ContentResolver resolver;
+
+        /** ProductContract.METHOD_BACKUP or ProductContract.METHOD_RESTORE */
+        private final String method;
+
+        SnapshotTask(CatalogActivity activity, String method) {
+            activityReference = new WeakReference<>(activity);
+            resolver = activity.getContentResolver();
+            this.method = method;
+        }
+
+        /*
+         * Returns the result of the provider, or null if the backup or restore failed.
+         */
+        @Override
+        protected Bundle doInBackground(Uri... archives) {
+            try {
+                return resolver.call(ProductEntry.CONTENT_URI, method, archives[0].toString(),
+                        null);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                Log.e("CatalogActivity", "Snapshot " + method + " of " + archives[0]
+                        + " failed", e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Bundle result) {
+            CatalogActivity activity = activityReference.get();
+            if (activity == null || activity.isFinishing())
+                return;
+
+            boolean backup = ProductContract.METHOD_BACKUP.equals(method);
+            if (result == null) {
+                Toast.makeText(activity, backup ? R.string.backup_failed : R.string.restore_failed,
+                        Toast.LENGTH_SHORT).show();
+                return;
+            }
+
+            long kilobytes = result.getLong(ProductContract.EXTRA_SNAPSHOT_BYTES) / 1024;
+            int images = result.getInt(ProductContract.EXTRA_SNAPSHOT_IMAGES);
+            long millis = result.getLong(ProductContract.EXTRA_SNAPSHOT_MILLIS);
+            Log.i("CatalogActivity", "Snapshot " + method + ": " + kilobytes + " KB, " + images
+                    + " images in " + millis + " ms");
+            Toast.makeText(activity, activity.getString(
+                    backup ? R.string.backup_finished : R.string.restore_finished,
+                    kilobytes, images), Toast.LENGTH_SHORT).show();
+        }
     }
 }
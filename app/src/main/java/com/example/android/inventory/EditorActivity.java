@@ -2,20 +2,23 @@ package com.example.android.inventory;
 
 import android.app.Activity;
 import android.app.LoaderManager;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
-import android.os.ParcelFileDescriptor;
-import android.provider.OpenableColumns;
+import android.os.SystemClock;
 import android.support.v4.app.NavUtils;
-import android.support.v4.content.FileProvider;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.text.TextUtils;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
@@ -27,11 +30,12 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.android.inventory.data.Database;
+import com.example.android.inventory.data.ImageStore;
+import com.example.android.inventory.data.Product;
+import com.example.android.inventory.data.ProductWriter;
 
-import java.io.File;
-import java.io.FileDescriptor;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 
 /**
  * Allows user to create a new Product or edit an existing one.
@@ -39,6 +43,9 @@ import java.io.IOException;
 public class EditorActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor> {
 
+    /** Tag for the log messages */
+    private static final String LOG_TAG = EditorActivity.class.getSimpleName();
+
     /** Identifier for the Product data loader */
     private static final int EXISTING_INVENTORY_LOADER = 0;
 
@@ -51,22 +58,33 @@ public class EditorActivity extends AppCompatActivity implements
     /** EditText field to enter product price */
     private EditText priceEditText;
 
-    private static final String FILE_PROVIDER_AUTHORITY =
-            "com.example.inventory.data.ProductContract.ItemEntry";
-
     private static final int IMAGE_REQUEST = 0;
 
     /** Product Image variables */
     private ImageView productImage;
     private Bitmap bitmap;
     private Uri uri;
-    private boolean galleryImage = false;
     private String uriString;
 
+    /** Key of the catalog thumbnail of the current image, see {@link ThumbnailCache} */
+    private String thumbnailKey;
+
+    /** Decodes the product image in the background, null when no decode is running */
+    private DecodeImageTask decodeTask;
+
+    /** Copies a picked image into the image store, null when no copy is running */
+    private StoreImageTask storeTask;
+
     private TextView productQuantityText;
 
+    /** Quantity of the Product as last loaded, a save stores the change from it */
+    private int loadedQuantity;
+
     private Database database = new Database();
 
+    /** When the user tapped "Save", 0 if not, to log how long the editor takes to close */
+    private long saveRequestedAt;
+
     /**
      * Boolean flag that keeps track of whether the Product has been edited (true) or not (false)
      */
@@ -214,114 +232,175 @@ public class EditorActivity extends AppCompatActivity implements
 
         if (resultCodes == Activity.RESULT_OK && resultData != null) {
             uri = resultData.getData();
-            bitmap = getBitmapFromCurrentProductURI(uri);
-            productImage.setImageBitmap(bitmap);
-            uriString = getShareableImageUri().toString();
-            galleryImage = true;
-
+            decodeImage(uri, true);
         }
     }
 
-    private Bitmap getBitmapFromCurrentProductURI(Uri uri) {
-
-        ParcelFileDescriptor parcelFileDescriptor = null;
-
-        try {
-
-            parcelFileDescriptor = getContentResolver().openFileDescriptor(uri, "r");
-            FileDescriptor fileDescriptor = null;
+    @Override
+    protected void onResume() {
+        super.onResume();
+        SaveReporter.onResume(this);
+    }
 
-            if (parcelFileDescriptor != null)
-                fileDescriptor = parcelFileDescriptor.getFileDescriptor();
+    @Override
+    protected void onPause() {
+        SaveReporter.onPause(this);
+        super.onPause();
+    }
 
-            Bitmap image = BitmapFactory.decodeFileDescriptor(fileDescriptor);
+    @Override
+    protected void onDestroy() {
+        if (saveRequestedAt != 0)
+            Log.d(LOG_TAG, "Save to close: " + (SystemClock.elapsedRealtime() - saveRequestedAt)
+                    + " ms");
+
+        // Nothing is left to show a pending image in:
+        if (decodeTask != null)
+            decodeTask.cancel(true);
+        if (storeTask != null)
+            storeTask.cancel(true);
+
+        super.onDestroy();
+    }
 
-            if (parcelFileDescriptor != null) parcelFileDescriptor.close();
+    /*
+     * Decode the image at the given URI in the background, at the size of the product ImageView,
+     * and show it once it is ready. A decode that is still running is cancelled.
+     *
+     * picked is true for an image the user has just chosen, which is also stored with the
+     * Product.
+     */
+    private void decodeImage(Uri imageUri, boolean picked) {
+        if (decodeTask != null)
+            decodeTask.cancel(true);
+
+        // The ImageView may not be laid out yet, e.g. right after a rotation. Its width then
+        // follows the screen and its height is fixed by the layout.
+        int width = productImage.getWidth();
+        if (width == 0)
+            width = getResources().getDisplayMetrics().widthPixels;
+        int height = productImage.getHeight();
+        if (height == 0)
+            height = getResources().getDimensionPixelSize(R.dimen.image_height);
+
+        decodeTask = new DecodeImageTask(this, imageUri, picked, width, height);
+        decodeTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
 
-            return image;
+    private void onImageDecoded(Bitmap image, boolean picked) {
+        decodeTask = null;
+        productImage.setImageBitmap(image);
 
-        } catch (Exception e) {
+        if (picked && image != null) {
+            bitmap = image;
+            storeImage(uri);
 
-            return null;
+            // The image changed, so the thumbnail gets a new key when the Product is saved
+            thumbnailKey = null;
+        }
+    }
 
-        } finally {
+    /**
+     * Decodes a product image off the main thread with {@link BitmapDecoder}. The activity is
+     * only held weakly, and a task that is cancelled never delivers its image.
+     */
+    private static class DecodeImageTask extends AsyncTask<Void, Void, Bitmap> {
+
+        private final WeakReference<EditorActivity> activityReference;
+        private final ContentResolver resolver;
+        private final Uri imageUri;
+        private final boolean picked;
+        private final int width;
+        private final int height;
+
+        DecodeImageTask(EditorActivity activity, Uri imageUri, boolean picked,
+                        int width, int height) {
+            this.activityReference = new WeakReference<>(activity);
+            this.resolver = activity.getContentResolver();
+            this.imageUri = imageUri;
+            this.picked = picked;
+            this.width = width;
+            this.height = height;
+        }
 
+        @Override
+        protected Bitmap doInBackground(Void... params) {
             try {
-
-                if (parcelFileDescriptor != null) parcelFileDescriptor.close();
-
-            } catch (IOException e) {
-
-                e.printStackTrace();
+                return BitmapDecoder.decode(resolver, imageUri, width, height);
+            } catch (IOException | RuntimeException e) {
+                Log.e(LOG_TAG, "Failed to decode " + imageUri, e);
+                return null;
             }
         }
-    }
-
-    public Uri getShareableImageUri() {
-
-        Uri imagesUri;
-
-        if (galleryImage) {
-            String filename = PathFinder();
-            savingInFile(getCacheDir(), filename, bitmap, Bitmap.CompressFormat.JPEG, 100);
-            File imagesFile = new File(getCacheDir(), filename);
 
-            imagesUri = FileProvider.getUriForFile(this, FILE_PROVIDER_AUTHORITY, imagesFile);
-        } else {
-
-            imagesUri = uri;
+        @Override
+        protected void onPostExecute(Bitmap image) {
+            EditorActivity activity = activityReference.get();
+            if (activity != null && !activity.isFinishing())
+                activity.onImageDecoded(image, picked);
         }
-        return imagesUri;
     }
 
-    public String PathFinder() {
-
-        Cursor returnCursor =
-                getContentResolver().query
-                        (uri, new String[]{OpenableColumns.DISPLAY_NAME}, null, null, null);
-
-        if (returnCursor != null) returnCursor.moveToFirst();
-
-        String fileNames = null;
-
-        if (returnCursor != null) fileNames = returnCursor.getString
-                (returnCursor.getColumnIndex(OpenableColumns.DISPLAY_NAME));
-
-        if (returnCursor != null) returnCursor.close();
+    /*
+     * Copy the picked image into the image store in the background. The Product refers to the
+     * stored copy, which stays readable after the picker's permission has expired.
+     */
+    private void storeImage(Uri imageUri) {
+        if (storeTask != null)
+            storeTask.cancel(true);
 
-        return fileNames;
+        storeTask = new StoreImageTask(this, imageUri);
+        storeTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
     }
 
-    public boolean savingInFile(File dir, String fileName, Bitmap bm, Bitmap.CompressFormat format,
-                                int quality) {
-
-        File imagesFile = new File(dir, fileName);
-
-        FileOutputStream fileOutputStream = null;
+    private void onImageStored(Uri storedUri) {
+        storeTask = null;
 
-        try {
-
-            fileOutputStream = new FileOutputStream(imagesFile);
-            bm.compress(format, quality, fileOutputStream);
-            fileOutputStream.close();
-
-            return true;
-
-        } catch (IOException e) {
+        if (storedUri == null)
+            Toast.makeText(this, R.string.image_store_failed, Toast.LENGTH_SHORT).show();
+        else
+            uriString = storedUri.toString();
+    }
 
-            if (fileOutputStream != null) try {
+    /**
+     * Stores a picked image with {@link ImageStore} off the main thread. Like
+     * {@link DecodeImageTask}, it only holds the activity weakly.
+     */
+    private static class StoreImageTask extends AsyncTask<Void, Void, Uri> {
 
-                fileOutputStream.close();
+        private final WeakReference<EditorActivity> activityReference;
+        private final ImageStore imageStore;
+        private final Uri imageUri;
 
-            } catch (IOException e1) {
+        StoreImageTask(EditorActivity activity, Uri imageUri) {
+            this.activityReference = new WeakReference<>(activity);
+            this.imageStore = ImageStore.getInstance(activity);
+            this.imageUri = imageUri;
+        }
 
-                e1.printStackTrace();
+        @Override
+        protected Uri doInBackground(Void... params) {
+            try {
+                return imageStore.put(imageUri);
+            } catch (IOException | RuntimeException e) {
+                Log.e(LOG_TAG, "Failed to store " + imageUri, e);
+                return null;
             }
         }
-        return false;
+
+        @Override
+        protected void onPostExecute(Uri storedUri) {
+            EditorActivity activity = activityReference.get();
+            if (activity != null && !activity.isFinishing())
+                activity.onImageStored(storedUri);
+        }
     }
 
-    private void saveProduct() {
+    /*
+     * Queue the Product for saving. Returns false, after telling the user why, if the input is
+     * not complete and the editor has to stay open.
+     */
+    private boolean saveProduct() {
         /*
          * Read from input fields.
          * Use trim to eliminate leading or trailing white space.
@@ -330,66 +409,67 @@ public class EditorActivity extends AppCompatActivity implements
         String nameString = nameEditText.getText().toString().trim();
         if (nameString.matches("")){
             Toast.makeText(this, R.string.product_name_required, Toast.LENGTH_SHORT).show();
-            return;
+            return false;
         }
 
         String priceString = priceEditText.getText().toString().trim();
         if (priceString.matches("")){
             Toast.makeText(this, R.string.price_amount_required, Toast.LENGTH_SHORT).show();
-            return;
+            return false;
         }
 
         String quantityString = productQuantityText.getText().toString().trim();
         if (quantityString.matches("")){
             Toast.makeText(this, R.string.product_requires_quantity, Toast.LENGTH_SHORT).show();
-            return;
+            return false;
+        }
+
+        if (storeTask != null) {
+            Toast.makeText(this, R.string.image_still_saving, Toast.LENGTH_SHORT).show();
+            return false;
         }
 
         String imageString = uriString;
         if (imageString == null){
             Toast.makeText(this, R.string.product_requires_image, Toast.LENGTH_SHORT).show();
-            return;
+            return false;
         }
 
-        Product newProduct = new Product(nameString, priceString, quantityString, imageString);
-
-        if (currentProductUri == null) {
-            // Insert a new Product into the provider, returning the content URI for the new Product
+        int price;
+        try {
+            price = Integer.parseInt(priceString);
+        } catch (NumberFormatException e) {
+            Toast.makeText(this, R.string.price_amount_required, Toast.LENGTH_SHORT).show();
+            return false;
+        }
 
-            Uri uri = database.addProduct(getContentResolver(), newProduct);
+        int quantity;
+        try {
+            quantity = Integer.parseInt(quantityString);
+        } catch (NumberFormatException e) {
+            Toast.makeText(this, R.string.quantity_amount_required, Toast.LENGTH_SHORT).show();
+            return false;
+        }
 
-            // Show a toast message depending on whether or not the insertion was successful
-            // If the new content URI is null, then there was an error with insertion.
-            // Otherwise, the insertion wsa successful and we can display a toast to inform user.
-            if (uri == null) Toast.makeText(this, getString(R.string.editor_insert_failed),
-                    Toast.LENGTH_SHORT).show();
+        // Generate the catalog thumbnail of a newly picked image once, now:
+        if (thumbnailKey == null && bitmap != null) {
+            thumbnailKey = ThumbnailCache.newKey();
+            ThumbnailCache.getInstance(this).storeAsync(thumbnailKey, bitmap);
+        }
 
-            else Toast.makeText(this, getString(R.string.editor_insert_successful),
-                    Toast.LENGTH_SHORT).show();
+        long id = currentProductUri == null
+                ? Product.NO_ID : ContentUris.parseId(currentProductUri);
+        Product newProduct =
+                new Product(id, nameString, price, quantity, imageString, thumbnailKey);
 
-        } else {
-            /*
-             * Otherwise this is an EXISTING Product, so update the Product with content URI:
-             * currentProductUri and pass in the new ContentValues. Pass in null for the selection and
-             * selection args because currentProductUri will already identify the correct row in the
-             * database that we want to modify.
-             */
-            int rowsAffected = database.updateProduct(getContentResolver(), newProduct, currentProductUri);
-
-            // Show a toast message depending on whether or not the update was successful:
-            switch (rowsAffected) {
-                case 0:
-                    // If no rows were affected, then there was an error with the update:
-                    Toast.makeText(this, getString(R.string.editor_insert_failed),
-                            Toast.LENGTH_SHORT).show();
-                    break;
-                default:
-                    // Otherwise, the update was successful and we can display a toast:
-                    Toast.makeText(this, getString(R.string.editor_insert_successful),
-                            Toast.LENGTH_SHORT).show();
-                    break;
-            }
-        }
+        /*
+         * The write runs on the writer thread and the editor closes right away. The result is
+         * reported in whichever activity is showing by the time it arrives. A second save of
+         * the same Product that is still queued joins this one.
+         */
+        database.saveProduct(ProductWriter.getInstance(this), newProduct, loadedQuantity,
+                currentProductUri, SaveReporter.newCallback(this));
+        return true;
     }
 
     @Override
@@ -439,16 +519,21 @@ public class EditorActivity extends AppCompatActivity implements
             return;
 
         String itemUri = product.getImageUri();
-        if (itemUri != null) {
+        if (!TextUtils.isEmpty(itemUri)) {
 
             Uri imgUri = Uri.parse(product.getImageUri());
-            productImage.setImageURI(imgUri);
+            decodeImage(imgUri, false);
         }
 
+        // Saving the Product again keeps its image unless a new one is picked
+        uriString = itemUri;
+        thumbnailKey = product.getThumbnailKey();
+
         // Update the view on the screen with the values from the database
         nameEditText.setText(product.getName());
-        priceEditText.setText(product.getPrice());
-        productQuantityText.setText(product.getQuantity());
+        priceEditText.setText(String.valueOf(product.getPrice()));
+        productQuantityText.setText(String.valueOf(product.getQuantity()));
+        loadedQuantity = product.getQuantity();
 
     }
 
@@ -456,7 +541,9 @@ public class EditorActivity extends AppCompatActivity implements
     public void onLoaderReset(Loader<Cursor> loader) {
 
         // If the loader is invalidated, clear out all the data from the input fields:
-        setProduct(new Product());
+        nameEditText.setText("");
+        priceEditText.setText("");
+        productQuantityText.setText("");
     }
 
     @Override
@@ -467,10 +554,16 @@ public class EditorActivity extends AppCompatActivity implements
 
             // respond to a click on the "Save" menu option
             case R.id.action_save:
-                // save Product to database
-                saveProduct();
-                // exit activity
-                finish();
+                // A second tap while the editor is closing must not save again
+                if (isFinishing())
+                    return true;
+
+                // save Product to database and exit activity, unless the input is incomplete
+                saveRequestedAt = SystemClock.elapsedRealtime();
+                if (saveProduct())
+                    finish();
+                else
+                    saveRequestedAt = 0;
                 return true;
 
             // Respond to a click on the "Delete" menu option
@@ -576,74 +669,39 @@ public class EditorActivity extends AppCompatActivity implements
     private void deleteProduct() {
         // Only perform the delete if this is an existing Product.
         if (currentProductUri != null) {
+            final Context appContext = getApplicationContext();
+
             /*
-             * Call the ContentResolver to delete the Product at the given content URI.
-             * Pass in null for the selection and selection args because the currentProductUri
-             * content URI already identifies the Product that we want.
+             * Delete the Product at the given content URI on the writer thread. The
+             * currentProductUri content URI already identifies the Product that we want.
              */
-            int rowsDeleted = getContentResolver().delete(currentProductUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0)
-                // if no rows were deleted, then there was an error with the delete:
-                Toast.makeText(this, getString(R.string.editor_delete_product_failed),
-                        Toast.LENGTH_SHORT).show();
-                // Otherwise, the delete was successful:
-            else Toast.makeText(this, getString(R.string.editor_delete_product_successful),
-                    Toast.LENGTH_SHORT).show();
+            ProductWriter.getInstance(this).delete(currentProductUri,
+                    new ProductWriter.Callback<Integer>() {
+                        @Override
+                        public void onSuccess(Integer rowsDeleted) {
+                            // Show a toast message depending on whether or not the delete was
+                            // successful.
+                            if (rowsDeleted == 0)
+                                // if no rows were deleted, then there was an error with the delete:
+                                Toast.makeText(appContext,
+                                        appContext.getString(R.string.editor_delete_product_failed),
+                                        Toast.LENGTH_SHORT).show();
+                                // Otherwise, the delete was successful:
+                            else Toast.makeText(appContext,
+                                    appContext.getString(R.string.editor_delete_product_successful),
+                                    Toast.LENGTH_SHORT).show();
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+                            Toast.makeText(appContext,
+                                    appContext.getString(R.string.editor_delete_product_failed),
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    });
         }
         // Close the activity
         finish();
     }
-
-    public static class Product {
-
-        private String name = "";
-        private String price = "";
-        private String quantity = "";
-        private String imageUri = "";
-
-        public String getName() {
-            return this.name;
-        }
-
-        public void setName(String name) {
-            this.name = name;
-        }
-
-        public String getPrice() {
-            return this.price;
-        }
-
-        private void setPrice(String price) {
-            this.price = price;
-        }
-
-        public String getQuantity() {
-            return this.quantity;
-        }
-
-        public void setQuantity(String quantity) {
-            this.quantity = quantity;
-        }
-
-        public String getImageUri() {
-            return this.imageUri;
-        }
-
-        private void setImageUri(String imageUri) {
-            this.imageUri = imageUri;
-        }
-
-        public Product(String name, String price, String quantity, String imageUri) {
-            setName(name);
-            setPrice(price);
-            setQuantity(quantity);
-            setImageUri(imageUri);
-        }
-
-        public Product() {
-        }
-    }
 }
 
@@ -0,0 +1,46 @@
+package com.example.android.inventory;
+
+/**
+ * Formats int values into a caller-owned char array, so numbers can be shown in a TextView
+ * (see {@link android.widget.TextView#setText(char[], int, int)}) without creating a String.
+ */
+public final class IntChars {
+
+    /** Number of chars needed for any int, including the sign of {@link Integer#MIN_VALUE} */
+    public static final int MAX_LENGTH = 11;
+
+    private IntChars() {
+    }
+
+    /**
+     * Write the decimal representation of the value to the start of the buffer.
+     *
+     * @param value  the value to format
+     * @param buffer the buffer to write to, at least {@link #MAX_LENGTH} chars long
+     * @return the number of chars written
+     */
+    public static int format(int value, char[] buffer) {
+        if (value == Integer.MIN_VALUE) {
+            "-2147483648".getChars(0, MAX_LENGTH, buffer, 0);
+            return MAX_LENGTH;
+        }
+
+        int length = 0;
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+
+        // Count the digits, then fill them in from the last one:
+        int digits = 1;
+        for (int rest = value / 10; rest != 0; rest /= 10)
+            digits++;
+
+        int end = length + digits;
+        for (int i = end - 1; i >= length; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+}
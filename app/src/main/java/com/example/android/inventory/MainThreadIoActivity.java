@@ -0,0 +1,148 @@
+package com.example.android.inventory;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.v7.app.AppCompatActivity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import com.example.android.inventory.data.MainThreadIo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Debug screen with the database and disk I/O that ran on the main thread: a summary per
+ * operation and call site, the costliest first, then the recent events with their stacks.
+ */
+public class MainThreadIoActivity extends AppCompatActivity {
+
+    /** Prefix of the stack frames of the app, the only ones shown */
+    private static final String APP_PACKAGE = "com.example.android.inventory.";
+
+    /** The report */
+    private TextView reportTextView;
+
+    /**
+     * Totals of one operation at one call site.
+     */
+    private static final class Summary {
+        final String operation;
+        final String callSite;
+        int count;
+        long totalNanos;
+        long maxNanos;
+
+        Summary(String operation, String callSite) {
+            this.operation = operation;
+            this.callSite = callSite;
+        }
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_main_thread_io);
+
+        reportTextView = (TextView) findViewById(R.id.main_thread_io_report);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showReport();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+
+        // Inflate the menu options from the res/menu/menu_main_thread_io.xml file.
+        // This adds menu items to the app bar.
+        getMenuInflater().inflate(R.menu.menu_main_thread_io, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        // User clicked on a menu option in the app bar overflow menu
+        switch (item.getItemId()) {
+            // Respond to a click on the "Clear" menu option
+            case R.id.action_clear_main_thread_io:
+                MainThreadIo.clear();
+                showReport();
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void showReport() {
+        List<MainThreadIo.Event> events = MainThreadIo.getEvents();
+        if (events.isEmpty()) {
+            reportTextView.setText(R.string.main_thread_io_none);
+            return;
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.US, "%d operations on the main thread, last %d kept%n%n",
+                MainThreadIo.getCount(), events.size()));
+
+        report.append(String.format(Locale.US, "%6s %10s %9s  %s%n",
+                "count", "total_ms", "max_ms", "operation @ call site"));
+        for (Summary summary : summarize(events)) {
+            report.append(String.format(Locale.US, "%6d %10.1f %9.1f  %s @ %s%n",
+                    summary.count, millis(summary.totalNanos), millis(summary.maxNanos),
+                    summary.operation, summary.callSite));
+        }
+
+        // The recent events, the latest first
+        long now = SystemClock.elapsedRealtime();
+        for (int i = events.size() - 1; i >= 0; i--) {
+            MainThreadIo.Event event = events.get(i);
+            report.append(String.format(Locale.US, "%n%s, %.1f ms, %d s ago%n", event.operation,
+                    millis(event.durationNanos), (now - event.elapsedRealtime) / 1000));
+            for (StackTraceElement frame : event.stack) {
+                if (frame.getClassName().startsWith(APP_PACKAGE))
+                    report.append("    at ").append(frame).append('\n');
+            }
+        }
+
+        reportTextView.setText(report);
+    }
+
+    /*
+     * Group the events by operation and call site, the highest total time first.
+     */
+    private static List<Summary> summarize(List<MainThreadIo.Event> events) {
+        Map<String, Summary> summaries = new LinkedHashMap<>();
+        for (MainThreadIo.Event event : events) {
+            String key = event.operation + '\n' + event.callSite;
+            Summary summary = summaries.get(key);
+            if (summary == null) {
+                summary = new Summary(event.operation, event.callSite);
+                summaries.put(key, summary);
+            }
+            summary.count++;
+            summary.totalNanos += event.durationNanos;
+            summary.maxNanos = Math.max(summary.maxNanos, event.durationNanos);
+        }
+
+        List<Summary> sorted = new ArrayList<>(summaries.values());
+        Collections.sort(sorted, new Comparator<Summary>() {
+            @Override
+            public int compare(Summary a, Summary b) {
+                return a.totalNanos < b.totalNanos ? 1 : a.totalNanos > b.totalNanos ? -1 : 0;
+            }
+        });
+        return sorted;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -1,94 +1,542 @@
 package com.example.android.inventory;
 
-import android.content.Context;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
-import android.text.TextUtils;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
 import android.widget.ImageButton;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.example.android.inventory.data.ProductContract.ProductEntry;
+import com.example.android.inventory.data.SaleBatcher;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Future;
 
 /**
- * {@link ProductCursorAdapter} is an adapter for a list or grid view
- * that uses a {@link Cursor} of Product data as its data source. This adapter knows
- * how to create list items for each row of Product data in the {@link Cursor}.
+ * {@link ProductCursorAdapter} is an adapter for a {@link RecyclerView} that uses pages of
+ * Product data as its data source. Each page is a {@link Cursor} holding a range of rows of the
+ * inventory table, as returned by a paged query (see {@link ProductEntry#buildPageUri}). The pages
+ * are laid out one after the other, so only the pages the user scrolled to are held in memory.
+ * <p>
+ * A long click selects a Product. While any Product is selected, a click selects or deselects
+ * one instead of opening it. The selection is kept by ID, so it survives the pages reloading.
  */
-public class ProductCursorAdapter extends CursorAdapter {
+public class ProductCursorAdapter extends RecyclerView.Adapter<ProductCursorAdapter.ViewHolder> {
+
+    /**
+     * Interface definition for a callback to be invoked when a Product in the list is clicked.
+     */
+    public interface OnProductClickListener {
+
+        /**
+         * @param id the ID of the Product that was clicked on
+         */
+        void onProductClick(long id);
+
+        /**
+         * @param count the number of Products selected now, 0 once the selection is cleared
+         */
+        void onSelectionChanged(int count);
+    }
+
+    /** Payload of a rebind that only updates the quantity shown, see notifyQuantityChanged() */
+    private static final Object PAYLOAD_QUANTITY = new Object();
+
+    /** Payload of a rebind that only updates whether the row shows as selected */
+    private static final Object PAYLOAD_SELECTION = new Object();
+
+    /** The loaded pages, in ID order. A page that is still loading is null. */
+    private final ArrayList<Cursor> pages = new ArrayList<>();
+
+    /** Listener for clicks on the list items */
+    private final OnProductClickListener listener;
+
+    /** Source of the product thumbnails, or null to show the list without images */
+    private final ThumbnailCache thumbnails;
+
+    /** Delivers loaded thumbnails to the main thread */
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** IDs of the selected Products */
+    private final HashSet<Long> selectedIds = new HashSet<>();
+
+    /** Sales tapped but not written yet, taken off the quantities shown; null if none */
+    private SaleBatcher sales;
+
+    /** Total number of rows over all the loaded pages */
+    private int itemCount;
+
+    /**
+     * Position of the first row of each page, and {@link #itemCount} last. A page that is still
+     * loading starts where the next one does. Rebuilt whenever a page is swapped, so finding the
+     * page of a row is a binary search rather than a walk over the pages.
+     */
+    private int[] pageStarts = {0};
+
+    /*
+     * Indices of the columns of Product attributes that we're interested in. Every page comes
+     * from the same projection, so they are resolved once when a page is swapped in instead of on
+     * every bind.
+     */
+    private int idColumnIndex;
+    private int nameColumnIndex;
+    private int quantityColumnIndex;
+    private int priceColumnIndex;
+    private int imageColumnIndex;
+    private int thumbnailColumnIndex;
 
     /**
      * Constructs a new {@link ProductCursorAdapter}
      *
-     * @param context The context
-     * @param c       The cursor from which to get the data.
+     * @param listener   receives clicks on the list items
+     * @param thumbnails source of the product thumbnails, or null to show no images
+     */
+    public ProductCursorAdapter(OnProductClickListener listener, ThumbnailCache thumbnails) {
+        this.listener = listener;
+        this.thumbnails = thumbnails;
+        setHasStableIds(true);
+    }
+
+    /**
+     * @param sales the pending sales, to show the quantities they will leave in stock; null to
+     *              show the stored quantities
+     */
+    public void setSaleBatcher(SaleBatcher sales) {
+        this.sales = sales;
+    }
+
+    /**
+     * Show the quantity of the row at the given position again, after its pending sales
+     * changed. Only the quantity is rebound.
+     */
+    public void notifyQuantityChanged(int position) {
+        notifyItemChanged(position, PAYLOAD_QUANTITY);
+    }
+
+    /**
+     * @return the IDs of the selected Products, in no particular order
+     */
+    public long[] getSelectedIds() {
+        long[] ids = new long[selectedIds.size()];
+        int i = 0;
+        for (long id : selectedIds)
+            ids[i++] = id;
+        return ids;
+    }
+
+    /**
+     * Select the given Products instead of the selected ones, as when the selection is restored.
+     * The listener is not told.
+     */
+    public void setSelectedIds(long[] ids) {
+        selectedIds.clear();
+        for (long id : ids)
+            selectedIds.add(id);
+        notifyItemRangeChanged(0, itemCount, PAYLOAD_SELECTION);
+    }
+
+    /**
+     * Deselect all the Products.
+     */
+    public void clearSelection() {
+        if (selectedIds.isEmpty())
+            return;
+
+        selectedIds.clear();
+        notifyItemRangeChanged(0, itemCount, PAYLOAD_SELECTION);
+        listener.onSelectionChanged(0);
+    }
+
+    /**
+     * Swap in a new cursor for the given page. The old cursor is returned and not closed.
+     * <p>
+     * If the new cursor is a {@link ProductPageLoader.Page} that was compared with the page shown
+     * now, only the rows that changed are rebound; the rest of the list is left alone.
+     *
+     * @param page   index of the page
+     * @param cursor the new data of the page, or null to clear the page
+     * @return the previously set cursor of the page, or null if there wasn't one
+     */
+    public Cursor swapPage(int page, Cursor cursor) {
+        while (pages.size() <= page)
+            pages.add(null);
+
+        Cursor oldCursor = pages.set(page, cursor);
+
+        if (cursor != null) {
+            idColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry._ID);
+            nameColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_NAME);
+            quantityColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+            priceColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_PRICE);
+            imageColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_IMAGE);
+            thumbnailColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_THUMBNAIL);
+        }
+
+        updatePageStarts();
+
+        // Position of the first row of the page
+        int offset = pageStarts[page];
+
+        if (cursor instanceof ProductPageLoader.Page && oldCursor instanceof ProductPageLoader.Page
+                && ((ProductPageLoader.Page) cursor).previousSerial
+                == ((ProductPageLoader.Page) oldCursor).serial) {
+            // The loader has worked out the changes already, off the main thread:
+            ((ProductPageLoader.Page) cursor).diff.dispatchUpdatesTo(new OffsetCallback(offset));
+        } else if (oldCursor == null && cursor != null) {
+            notifyItemRangeInserted(offset, cursor.getCount());
+        } else if (oldCursor != null && cursor == null) {
+            notifyItemRangeRemoved(offset, oldCursor.getCount());
+        } else {
+            notifyDataSetChanged();
+        }
+        return oldCursor;
+    }
+
+    /**
+     * @return the number of pages this adapter knows about, loaded or not
      */
-    public ProductCursorAdapter(Context context, Cursor c) {
-        super(context, c, 0 /* flags */);
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * Drop all the pages, for instance when a new list is about to be paged in.
+     * The cursors are not closed.
+     */
+    public void clear() {
+        pages.clear();
+        updatePageStarts();
+        notifyDataSetChanged();
+    }
+
+    /*
+     * Recount the rows of the pages into pageStarts and itemCount.
+     */
+    private void updatePageStarts() {
+        int count = pages.size();
+        if (pageStarts.length != count + 1)
+            pageStarts = new int[count + 1];
+
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            pageStarts[i] = start;
+            Cursor cursor = pages.get(i);
+            if (cursor != null)
+                start += cursor.getCount();
+        }
+        pageStarts[count] = start;
+        itemCount = start;
     }
 
     /**
      * Makes a new blank list item view. No data is set (or bound) to the views yet.
      *
-     * @param context app context
-     * @param cursor  the cursor from which to get the data. The cursor is already moved to the
-     *                correct position
-     * @param parent  the parent to which the new view is attached to
-     * @return the newly created list item view
+     * @param parent   the parent to which the new view is attached to
+     * @param viewType the view type of the new view
+     * @return the view holder of the newly created list item view
      */
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
 
         // Inflate a list item view using the layout specified in list_item.xml
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.list_item, parent, false);
+        return new ViewHolder(view);
     }
 
     /**
-     * This method binds the inventory data (in the current row pointed to by cursor) to the given
+     * This method binds the inventory data (in the row at the given position) to the given
      * list item layout. for example, the name for the current Product can be set on the name TextView
      * in the list item layout.
+     * <p>
+     * The attributes are copied into buffers owned by the view holder and the numbers are read as
+     * primitives, so binding a row does not allocate once the buffers have grown to size.
      *
-     * @param view    Existing view, returned earlier by newView() method.
-     * @param context App context.
-     * @param cursor  The cursor from which to get the data.
-     *                The cursor is already moved to the correct row.
+     * @param holder   Existing view holder, returned earlier by onCreateViewHolder() method.
+     * @param position The position of the row across all the loaded pages.
      */
     @Override
-    public void bindView(View view, Context context, final Cursor cursor) {
-        // Find individual views that we want to modify in the list item layout
-        TextView nameTextView = (TextView) view.findViewById(R.id.name);
-        TextView quantityTextView = (TextView) view.findViewById(R.id.product_quantity);
-        TextView priceTextView = (TextView) view.findViewById(R.id.product_price);
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        Cursor cursor = moveToPosition(position);
 
-        ImageButton saleButton = (ImageButton) view.findViewById(R.id.sale_button);
+        long id = cursor.getLong(idColumnIndex);
+        if (holder.id != id) {
+            holder.id = id;
+            holder.saleButton.setTag(id);
+        }
+        holder.itemView.setActivated(selectedIds.contains(id));
 
-        // Find the columns of Product attributes that we're interested in:
-        int nameColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_NAME);
-        int quantityColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
-        int priceColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PRICE);
-        int id = cursor.getInt(0);
+        // Read the Product attributes from the Cursor for the current Product. A missing quantity
+        // or price is read as 0, which is also what is displayed for it:
+        cursor.copyStringToBuffer(nameColumnIndex, holder.name);
+        int priceLength = IntChars.format(cursor.getInt(priceColumnIndex), holder.price);
 
-        if (saleButton != null)
-            saleButton.setId(id);
+        // Update the Text Views with the attributes for the current Product:
+        holder.nameTextView.setText(holder.name.data, 0, holder.name.sizeCopied);
+        holder.priceTextView.setText(holder.price, 0, priceLength);
+        bindQuantity(holder, cursor);
+
+        bindThumbnail(holder, cursor);
+    }
 
-        // Read the Product attributes from the Cursor for the current Product:
-        String productName = cursor.getString(nameColumnIndex);
-        String productQuantity = cursor.getString(quantityColumnIndex);
-        String productPrice = cursor.getString(priceColumnIndex);
+    /**
+     * Rebinds only the quantity, or the selection, when that is all that changed, see
+     * {@link #notifyQuantityChanged}.
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position, List<Object> payloads) {
+        for (Object payload : payloads) {
+            if (payload != PAYLOAD_QUANTITY && payload != PAYLOAD_SELECTION) {
+                onBindViewHolder(holder, position);
+                return;
+            }
+        }
 
-        //If Product Quantity is empty display 0:
-        if (TextUtils.isEmpty(productQuantity))
-            productQuantity = "0";
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
 
-        //If Product Price is empty display 0:
-        if (TextUtils.isEmpty(productPrice))
-            productPrice = "0";
+        if (payloads.contains(PAYLOAD_QUANTITY))
+            bindQuantity(holder, moveToPosition(position));
+        if (payloads.contains(PAYLOAD_SELECTION))
+            holder.itemView.setActivated(selectedIds.contains(holder.id));
+    }
 
-        // Update the Text Views with the attributes for the current Product:
-        nameTextView.setText(productName);
-        quantityTextView.setText(productQuantity);
-        priceTextView.setText(productPrice);
+    /*
+     * Select the Product of the holder, or deselect it if it is selected.
+     */
+    private void toggleSelection(ViewHolder holder) {
+        int position = holder.getAdapterPosition();
+        if (position == RecyclerView.NO_POSITION)
+            return;
+
+        if (!selectedIds.remove(holder.id))
+            selectedIds.add(holder.id);
+        notifyItemChanged(position, PAYLOAD_SELECTION);
+        listener.onSelectionChanged(selectedIds.size());
+    }
+
+    /*
+     * Show the quantity that is left once the pending sales of the Product are written. Sales
+     * written after the page was loaded are still taken off, until the reloaded page is bound.
+     * The provider never sells below 0, so neither does the list.
+     */
+    private void bindQuantity(ViewHolder holder, Cursor cursor) {
+        int quantity = cursor.getInt(quantityColumnIndex);
+        if (sales != null) {
+            // A page that isn't from a ProductPageLoader counts as up to date
+            long loadedAt = cursor instanceof ProductPageLoader.Page
+                    ? ((ProductPageLoader.Page) cursor).loadedAt : Long.MAX_VALUE;
+            quantity = Math.max(0, quantity - sales.getPendingUnits(holder.id, loadedAt));
+        }
+
+        holder.shownQuantity = quantity;
+        int quantityLength = IntChars.format(quantity, holder.quantity);
+        holder.quantityTextView.setText(holder.quantity, 0, quantityLength);
+    }
+
+    /*
+     * Show the thumbnail of the Product. A thumbnail in memory is shown right away; otherwise a
+     * placeholder is shown and the thumbnail is loaded in the background. A pending load for the
+     * Product previously bound to the holder is cancelled.
+     */
+    private void bindThumbnail(final ViewHolder holder, Cursor cursor) {
+        if (thumbnails == null || imageColumnIndex < 0)
+            return;
+
+        String image = cursor.getString(imageColumnIndex);
+
+        // Products saved before thumbnails existed fall back to their image as the key
+        String key = thumbnailColumnIndex < 0 ? null : cursor.getString(thumbnailColumnIndex);
+        if (key == null)
+            key = image;
+
+        if (key != null && key.equals(holder.thumbnailKey))
+            return;
+
+        holder.cancelThumbnail();
+        holder.thumbnailKey = key;
+
+        if (key == null) {
+            holder.thumbnailView.setImageResource(R.mipmap.ic_launcher);
+            return;
+        }
+
+        Bitmap thumbnail = thumbnails.getFromMemory(key);
+        if (thumbnail != null) {
+            holder.thumbnailView.setImageBitmap(thumbnail);
+            return;
+        }
+
+        holder.thumbnailView.setImageResource(R.mipmap.ic_launcher);
+
+        final String thumbnailKey = key;
+        final Uri imageUri = image == null ? null : Uri.parse(image);
+        holder.pendingThumbnail = thumbnails.getExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap loaded = thumbnails.load(thumbnailKey, imageUri);
+                if (loaded == null)
+                    return;
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // The holder may show another Product by now
+                        if (thumbnailKey.equals(holder.thumbnailKey))
+                            holder.thumbnailView.setImageBitmap(loaded);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        holder.cancelThumbnail();
+        holder.thumbnailKey = null;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return moveToPosition(position).getLong(idColumnIndex);
+    }
+
+    @Override
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    /*
+     * Find the page holding the row at the given position and move its cursor to that row.
+     */
+    private Cursor moveToPosition(int position) {
+        if (position < 0 || position >= itemCount)
+            throw new IllegalStateException("No row at position " + position);
+
+        // The last page starting at or before the position: the pages after it start later
+        int low = 0;
+        int high = pages.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (pageStarts[middle] <= position)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+
+        Cursor cursor = pages.get(low);
+        cursor.moveToPosition(position - pageStarts[low]);
+        return cursor;
+    }
+
+    /*
+     * Applies the changes within a page to the positions of the whole list.
+     */
+    private class OffsetCallback implements ListUpdateCallback {
+
+        private final int offset;
+
+        OffsetCallback(int offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(offset + position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(offset + position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(offset + fromPosition, offset + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            notifyItemRangeChanged(offset + position, count, payload);
+        }
+    }
+
+    /**
+     * Caches the views of a list item, so they are only looked up once when the item is created.
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener,
+            View.OnLongClickListener {
+
+        final TextView nameTextView;
+        final TextView quantityTextView;
+        final TextView priceTextView;
+        final ImageButton saleButton;
+        final ImageView thumbnailView;
+
+        /*
+         * Text buffers of the bound Product. A TextView keeps showing the char array it was given,
+         * so every view has a buffer of its own.
+         */
+        final CharArrayBuffer name = new CharArrayBuffer(32);
+        final char[] quantity = new char[IntChars.MAX_LENGTH];
+        final char[] price = new char[IntChars.MAX_LENGTH];
+
+        /** ID of the Product currently bound to this item */
+        long id = -1;
+
+        /** The quantity shown, pending sales taken off */
+        int shownQuantity;
+
+        /** Key of the thumbnail shown, or being loaded, for the bound Product */
+        String thumbnailKey;
+
+        /** Background load of the thumbnail, null if none is pending */
+        Future<?> pendingThumbnail;
+
+        ViewHolder(View view) {
+            super(view);
+            nameTextView = (TextView) view.findViewById(R.id.name);
+            quantityTextView = (TextView) view.findViewById(R.id.product_quantity);
+            priceTextView = (TextView) view.findViewById(R.id.product_price);
+            saleButton = (ImageButton) view.findViewById(R.id.sale_button);
+            thumbnailView = (ImageView) view.findViewById(R.id.product_thumbnail);
+
+            view.setOnClickListener(this);
+            view.setOnLongClickListener(this);
+        }
+
+        void cancelThumbnail() {
+            if (pendingThumbnail != null) {
+                pendingThumbnail.cancel(false);
+                pendingThumbnail = null;
+            }
+        }
+
+        @Override
+        public void onClick(View view) {
+            if (selectedIds.isEmpty())
+                listener.onProductClick(id);
+            else
+                toggleSelection(this);
+        }
+
+        @Override
+        public boolean onLongClick(View view) {
+            toggleSelection(this);
+            return true;
+        }
     }
-}
\ No newline at end of file
+}
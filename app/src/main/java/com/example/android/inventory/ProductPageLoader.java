@@ -0,0 +1,203 @@
+package com.example.android.inventory;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.v4.content.CursorLoader;
+import android.support.v7.util.DiffUtil;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads one page of the catalog (see {@link ProductCursorAdapter}) and works out, on the loader
+ * thread, how the page differs from the one it loaded before. The adapter then only rebinds the
+ * rows that changed.
+ * <p>
+ * The loader does not reload itself when the inventory changes. Change notifications name the
+ * row that changed, so CatalogActivity reloads only the page holding that row, with
+ * {@link #reload()}.
+ */
+public class ProductPageLoader extends CursorLoader {
+
+    /** The page delivered last, which the next load is compared with */
+    private volatile Page delivered;
+
+    /** Number of times the page has been queried, for instrumentation */
+    private final AtomicInteger loads = new AtomicInteger();
+
+    public ProductPageLoader(Context context, Uri uri, String[] projection) {
+        super(context, uri, projection, null, null, null);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        long loadedAt = SystemClock.uptimeMillis();
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null)
+            return null;
+
+        loads.incrementAndGet();
+        return new Page(cursor, delivered, loadedAt);
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (!isReset() && cursor instanceof Page)
+            delivered = (Page) cursor;
+        super.deliverResult(cursor);
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        delivered = null;
+    }
+
+    /**
+     * Ignores the change notifications of the cursor, see {@link #reload()}.
+     */
+    @Override
+    public void onContentChanged() {
+    }
+
+    /**
+     * Load the page again because rows in it have changed. If the loader is stopped, the page is
+     * loaded once it is started again.
+     */
+    public void reload() {
+        super.onContentChanged();
+    }
+
+    /**
+     * @return the number of times the page has been queried
+     */
+    public int getLoadCount() {
+        return loads.get();
+    }
+
+    /**
+     * A loaded page: the cursor, plus the ID and the contents of every row when it was queried,
+     * and the difference to the page it replaces. A page is never changed once it is made, as the
+     * main thread may be binding it while the next page is compared with it.
+     */
+    static final class Page extends CursorWrapper {
+
+        /** Source of {@link #serial} */
+        private static final AtomicLong SERIALS = new AtomicLong();
+
+        /** Tells the pages apart, see {@link #previousSerial} */
+        final long serial = SERIALS.incrementAndGet();
+
+        /** IDs of the rows, in cursor order */
+        final long[] ids;
+
+        /** Values of all the columns of each row, to tell whether a row has changed */
+        final Object[][] rows;
+
+        /**
+         * {@link SystemClock#uptimeMillis()} when the query started: the page reflects every
+         * write committed before
+         */
+        final long loadedAt;
+
+        /** Serial of the page this one was compared with, 0 if there was none */
+        final long previousSerial;
+
+        /** The changes from the previous page to this one, null if there was no previous page */
+        final DiffUtil.DiffResult diff;
+
+        Page(Cursor cursor, Page previous, long loadedAt) {
+            super(cursor);
+            this.loadedAt = loadedAt;
+
+            int count = cursor.getCount();
+            ids = new long[count];
+            rows = new Object[count][];
+
+            int idColumnIndex = cursor.getColumnIndexOrThrow(ProductEntry._ID);
+            for (int row = 0; cursor.moveToPosition(row); row++) {
+                ids[row] = cursor.getLong(idColumnIndex);
+                rows[row] = readRow(cursor);
+            }
+            cursor.moveToPosition(-1);
+
+            if (previous != null) {
+                // The diff holds on to the IDs and values of the previous page, not to the page
+                // itself, so the pages do not chain up
+                previousSerial = previous.serial;
+                diff = DiffUtil.calculateDiff(
+                        new PageDiff(previous.ids, previous.rows, ids, rows), false);
+            } else {
+                previousSerial = 0;
+                diff = null;
+            }
+        }
+
+        private static Object[] readRow(Cursor cursor) {
+            Object[] values = new Object[cursor.getColumnCount()];
+            for (int column = 0; column < values.length; column++) {
+                switch (cursor.getType(column)) {
+                    case Cursor.FIELD_TYPE_NULL:
+                        break;
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        values[column] = cursor.getLong(column);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        values[column] = cursor.getDouble(column);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        values[column] = cursor.getBlob(column);
+                        break;
+                    default:
+                        values[column] = cursor.getString(column);
+                        break;
+                }
+            }
+            return values;
+        }
+    }
+
+    /*
+     * Compares two pages by the IDs and the values of their rows.
+     */
+    private static final class PageDiff extends DiffUtil.Callback {
+
+        private final long[] oldIds;
+        private final Object[][] oldRows;
+        private final long[] newIds;
+        private final Object[][] newRows;
+
+        PageDiff(long[] oldIds, Object[][] oldRows, long[] newIds, Object[][] newRows) {
+            this.oldIds = oldIds;
+            this.oldRows = oldRows;
+            this.newIds = newIds;
+            this.newRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldIds.length;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newIds.length;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldIds[oldItemPosition] == newIds[newItemPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return Arrays.deepEquals(oldRows[oldItemPosition], newRows[newItemPosition]);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.android.inventory;
+
+import android.app.Activity;
+import android.content.Context;
+import android.net.Uri;
+import android.support.design.widget.Snackbar;
+import android.widget.Toast;
+
+import com.example.android.inventory.data.ProductWriter;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Reports the results of Product saves, which usually arrive after the editor that started them
+ * has finished. A result is shown in the activity of the app that is in the foreground when it
+ * arrives, or as a toast when none is.
+ * <p>
+ * Activities that can show results call {@link #onResume(Activity)} and
+ * {@link #onPause(Activity)} from their own. Everything here runs on the main thread.
+ */
+final class SaveReporter {
+
+    /** The activity in the foreground, if it shows results */
+    private static WeakReference<Activity> resumedActivity;
+
+    private SaveReporter() {
+    }
+
+    static void onResume(Activity activity) {
+        resumedActivity = new WeakReference<>(activity);
+    }
+
+    static void onPause(Activity activity) {
+        if (resumedActivity != null && resumedActivity.get() == activity)
+            resumedActivity = null;
+    }
+
+    /**
+     * @param context any context of the app, only its application context is kept
+     * @return a callback for {@link ProductWriter#save} that reports the result
+     */
+    static ProductWriter.Callback<Uri> newCallback(Context context) {
+        final Context appContext = context.getApplicationContext();
+
+        return new ProductWriter.Callback<Uri>() {
+            @Override
+            public void onSuccess(Uri productUri) {
+                // A null URI means the Product was not written
+                show(appContext, productUri == null
+                        ? R.string.editor_insert_failed : R.string.editor_insert_successful);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                show(appContext, R.string.editor_insert_failed);
+            }
+        };
+    }
+
+    private static void show(Context appContext, int message) {
+        Activity activity = resumedActivity == null ? null : resumedActivity.get();
+        if (activity != null && !activity.isFinishing())
+            Snackbar.make(activity.findViewById(android.R.id.content), message,
+                    Snackbar.LENGTH_SHORT).show();
+        else
+            Toast.makeText(appContext, message, Toast.LENGTH_SHORT).show();
+    }
+}
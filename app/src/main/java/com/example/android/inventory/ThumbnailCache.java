@@ -0,0 +1,351 @@
+package com.example.android.inventory;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.example.android.inventory.data.MainThreadIo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-level cache of the small product images shown in the catalog: decoded bitmaps in memory,
+ * backed by JPEG files in a size-bounded directory of the cache dir. A thumbnail that is in
+ * neither is generated from the full product image.
+ * <p>
+ * Thumbnails are looked up by key. A Product stores the key of its thumbnail in
+ * {@link com.example.android.inventory.data.ProductContract.ProductEntry#COLUMN_PRODUCT_THUMBNAIL};
+ * a new key is made whenever its image changes, so a cached thumbnail never goes stale.
+ */
+public final class ThumbnailCache implements ComponentCallbacks2 {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = ThumbnailCache.class.getSimpleName();
+
+    /** Size of the longest side of a thumbnail, in pixels */
+    public static final int THUMBNAIL_SIZE = 128;
+
+    /** Fraction of the heap the decoded thumbnails may take */
+    private static final int MEMORY_CACHE_HEAP_DIVISOR = 8;
+
+    /** Maximum size of the thumbnail files on disk */
+    private static final long DISK_CACHE_BYTES = 20 * 1024 * 1024;
+
+    /** Name of the thumbnail directory in the cache dir */
+    private static final String DISK_CACHE_DIR = "thumbnails";
+
+    private static final int JPEG_QUALITY = 85;
+
+    /** Number of threads loading thumbnails */
+    private static final int LOADER_THREADS = 2;
+
+    private static ThumbnailCache instance;
+
+    private final ContentResolver resolver;
+
+    private final LruCache<String, Bitmap> memoryCache;
+
+    private final File diskCacheDir;
+
+    /** Bytes used on disk, -1 until the directory has been measured */
+    private final AtomicLong diskBytes = new AtomicLong(-1);
+
+    private final ExecutorService executor;
+
+    /*
+     * Hit-rate counters: requests answered from memory, from disk, and by generating the
+     * thumbnail from the product image.
+     */
+    private final AtomicInteger memoryHits = new AtomicInteger();
+    private final AtomicInteger diskHits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * @param context of the app
+     * @return the thumbnail cache of the app
+     */
+    public static synchronized ThumbnailCache getInstance(Context context) {
+        if (instance == null)
+            instance = new ThumbnailCache(context.getApplicationContext());
+        return instance;
+    }
+
+    private ThumbnailCache(Context context) {
+        resolver = context.getContentResolver();
+        diskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+
+        int maxBytes = (int) (Runtime.getRuntime().maxMemory() / MEMORY_CACHE_HEAP_DIVISOR);
+        memoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+
+        executor = Executors.newFixedThreadPool(LOADER_THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, LOG_TAG);
+            }
+        });
+
+        // Shrink the memory cache when the system runs low on memory
+        context.registerComponentCallbacks(this);
+    }
+
+    /**
+     * @return a new, unique thumbnail key for a Product whose image has changed
+     */
+    public static String newKey() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * @return the executor the thumbnails are loaded on
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Look the thumbnail up in memory only. Safe to call on the main thread.
+     *
+     * @return the thumbnail, or null if it is not in memory
+     */
+    public Bitmap getFromMemory(String key) {
+        Bitmap thumbnail = memoryCache.get(key);
+        if (thumbnail != null)
+            memoryHits.incrementAndGet();
+        return thumbnail;
+    }
+
+    /**
+     * Load the thumbnail from memory, from disk, or by generating it from the product image, in
+     * that order. Blocks, so call it on {@link #getExecutor()}.
+     *
+     * @param key   of the thumbnail
+     * @param image URI of the full product image, used if the thumbnail is not cached
+     * @return the thumbnail, or null if there is none and it can't be generated
+     */
+    public Bitmap load(String key, Uri image) {
+        Bitmap thumbnail = memoryCache.get(key);
+        if (thumbnail != null) {
+            memoryHits.incrementAndGet();
+            return thumbnail;
+        }
+
+        long start = MainThreadIo.start();
+        File file = fileFor(key);
+        thumbnail = BitmapFactory.decodeFile(file.getPath());
+        MainThreadIo.ViolationException violation = MainThreadIo.record("ThumbnailCache.load",
+                start);
+        if (violation != null) {
+            if (thumbnail != null)
+                thumbnail.recycle();
+            throw violation;
+        }
+        if (thumbnail != null) {
+            diskHits.incrementAndGet();
+            // keep recently used files out of the way of the disk trim
+            file.setLastModified(System.currentTimeMillis());
+            memoryCache.put(key, thumbnail);
+            return thumbnail;
+        }
+
+        misses.incrementAndGet();
+        if (image == null)
+            return null;
+
+        try {
+            thumbnail = BitmapDecoder.decode(resolver, image, THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+        } catch (IOException | RuntimeException e) {
+            Log.w(LOG_TAG, "Failed to generate thumbnail from " + image, e);
+            return null;
+        }
+        if (thumbnail == null)
+            return null;
+
+        writeToDisk(file, thumbnail);
+        memoryCache.put(key, thumbnail);
+        return thumbnail;
+    }
+
+    /**
+     * Generate the thumbnail of a newly picked product image in the background, so the catalog
+     * finds it cached.
+     *
+     * @param key    of the thumbnail
+     * @param source the product image, at any size
+     */
+    public void storeAsync(final String key, final Bitmap source) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int width = BitmapDecoder.fitWidth(source.getWidth(), source.getHeight(),
+                        THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+                int height = Math.max(1, source.getHeight() * width / source.getWidth());
+                Bitmap thumbnail = Bitmap.createScaledBitmap(source, width, height, true);
+
+                writeToDisk(fileFor(key), thumbnail);
+                memoryCache.put(key, thumbnail);
+            }
+        });
+    }
+
+    /**
+     * @return the hit-rate counters, for logging
+     */
+    public String getStats() {
+        int memory = memoryHits.get();
+        int disk = diskHits.get();
+        int miss = misses.get();
+        int total = memory + disk + miss;
+        return "memory hits " + memory + ", disk hits " + disk + ", misses " + miss
+                + (total == 0 ? "" : ", hit rate " + (100 * (memory + disk) / total) + "%")
+                + ", memory " + memoryCache.size() / 1024 + "/" + memoryCache.maxSize() / 1024
+                + " KB, disk " + Math.max(0, diskBytes.get()) / 1024 + " KB";
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE) {
+            // The app is in the background and likely to be killed: drop everything.
+            memoryCache.evictAll();
+        } else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW
+                || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            memoryCache.trimToSize(memoryCache.maxSize() / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        memoryCache.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    private File fileFor(String key) {
+        return new File(diskCacheDir, sha1(key) + ".jpg");
+    }
+
+    /*
+     * Write the thumbnail to the disk cache and delete the least recently used files if the
+     * cache has grown over its limit. The thumbnail is written to a temporary file first and
+     * renamed, so a concurrent load() never decodes a half-written file.
+     */
+    private void writeToDisk(File file, Bitmap thumbnail) {
+        if (!diskCacheDir.isDirectory() && !diskCacheDir.mkdirs())
+            return;
+
+        long start = MainThreadIo.start();
+        File temporary = null;
+        FileOutputStream out = null;
+        boolean written = false;
+        try {
+            // Unique, as two threads may write the same thumbnail
+            temporary = File.createTempFile(file.getName(), ".tmp", diskCacheDir);
+            out = new FileOutputStream(temporary);
+            thumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            out.close();
+            out = null;
+            written = temporary.renameTo(file);
+            if (!written)
+                Log.w(LOG_TAG, "Failed to store thumbnail " + file);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to write thumbnail " + file, e);
+        } finally {
+            if (out != null) try {
+                out.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to close thumbnail " + file, e);
+            }
+            if (!written && temporary != null)
+                temporary.delete();
+        }
+
+        MainThreadIo.ViolationException violation =
+                MainThreadIo.record("ThumbnailCache.writeToDisk", start);
+        if (violation != null)
+            throw violation;
+        if (!written)
+            return;
+
+        if (diskBytes.get() < 0)
+            diskBytes.compareAndSet(-1, directorySize());
+        if (diskBytes.addAndGet(file.length()) > DISK_CACHE_BYTES)
+            trimDisk();
+    }
+
+    private synchronized void trimDisk() {
+        File[] files = diskCacheDir.listFiles();
+        if (files == null)
+            return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+
+        // Trim to 3/4 of the limit, so not every write has to trim again
+        long size = directorySize();
+        for (int i = 0; i < files.length && size > DISK_CACHE_BYTES * 3 / 4; i++) {
+            long length = files[i].length();
+            if (files[i].delete())
+                size -= length;
+        }
+        diskBytes.set(size);
+    }
+
+    private long directorySize() {
+        long size = 0;
+        File[] files = diskCacheDir.listFiles();
+        if (files != null)
+            for (File file : files)
+                size += file.length();
+        return size;
+    }
+
+    private static String sha1(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // SHA-1 and UTF-8 are always available
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.android.inventory.data;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+/**
+ * One update expression of {@link ProductContract#METHOD_BULK_UPDATE}, checked and turned into
+ * the UPDATE statement the provider runs. The operands are ints, written into the SQL as
+ * literals; only the Products the statement applies to are bound.
+ * <p>
+ * The statement skips the rows the expression leaves as they are, so a clamp that changes a few
+ * Products writes those few only, and the triggers of the running totals fire for them alone.
+ */
+final class BulkUpdate {
+
+    /**
+     * IDs bound per statement, under SQLite's limit of 999 variables. Each chunk is one UPDATE
+     * ... WHERE _id IN (...), all of them in one transaction.
+     */
+    static final int CHUNK_SIZE = 500;
+
+    /** The column updated */
+    final String column;
+
+    /** The new value of the column, an SQL expression over the old one */
+    final String expression;
+
+    /**
+     * @param column    {@link ProductEntry#COLUMN_PRODUCT_PRICE} or
+     *                  {@link ProductEntry#COLUMN_PRODUCT_QUANTITY}
+     * @param operation one of the {@code OPERATION_*} values of {@link ProductContract}
+     * @param value     the operand of set, add and scale
+     * @param min       the lower bound of clamp, or null for none
+     * @param max       the upper bound of clamp, or null for none
+     * @throws IllegalArgumentException if the column, the operation or an operand is not valid
+     */
+    BulkUpdate(String column, String operation, int value, Integer min, Integer max) {
+        if (!ProductEntry.COLUMN_PRODUCT_PRICE.equals(column)
+                && !ProductEntry.COLUMN_PRODUCT_QUANTITY.equals(column))
+            throw new IllegalArgumentException("Cannot bulk update column " + column);
+        this.column = column;
+
+        if (ProductContract.OPERATION_SET.equals(operation)) {
+            if (value < 0)
+                throw new IllegalArgumentException("Negative " + column + " not allowed.");
+            expression = String.valueOf(value);
+        } else if (ProductContract.OPERATION_ADD.equals(operation)) {
+            // Taking off more than there is leaves 0
+            expression = "MAX(" + column + " + " + value + ", 0)";
+        } else if (ProductContract.OPERATION_SCALE.equals(operation)) {
+            if (value < 0)
+                throw new IllegalArgumentException("Negative percentage not allowed: " + value);
+            expression = "CAST(ROUND(" + column + " * " + value + " / 100.0) AS INTEGER)";
+        } else if (ProductContract.OPERATION_CLAMP.equals(operation)) {
+            if ((min != null && min < 0) || (max != null && max < 0))
+                throw new IllegalArgumentException("Negative " + column + " not allowed.");
+            if (min != null && max != null && min > max)
+                throw new IllegalArgumentException("Empty range: " + min + " to " + max);
+
+            String clamped = column;
+            if (min != null)
+                clamped = "MAX(" + clamped + ", " + min + ")";
+            if (max != null)
+                clamped = "MIN(" + clamped + ", " + max + ")";
+            expression = clamped;
+        } else {
+            throw new IllegalArgumentException("Unknown bulk update operation " + operation);
+        }
+    }
+
+    /**
+     * @param selection the Products to update, null for all of them
+     * @return the UPDATE statement, with the placeholders of the selection only
+     */
+    String toSql(String selection) {
+        // IS NOT, so a missing value that becomes one is written too
+        String changed = column + " IS NOT " + expression;
+        return "UPDATE " + ProductEntry.TABLE_NAME + " SET " + column + " = " + expression
+                + " WHERE " + (selection == null || selection.isEmpty()
+                ? changed : "(" + selection + ") AND " + changed);
+    }
+
+    /**
+     * @return the selection of the given number of IDs, {@code _id IN (?, ..., ?)}
+     */
+    static String idSelection(int count) {
+        StringBuilder selection = new StringBuilder(ProductEntry._ID).append(" IN (");
+        for (int i = 0; i < count; i++)
+            selection.append(i == 0 ? "?" : ", ?");
+        return selection.append(')').toString();
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.android.inventory.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads CSV records (RFC 4180) one at a time from a stream, so a file of any size is read in
+ * constant memory. Fields may be quoted; a quoted field can hold commas, line breaks and doubled
+ * quotes. Lines may end with LF or CRLF. A byte order mark at the start is skipped.
+ * <p>
+ * Not thread-safe.
+ */
+public final class CsvReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    private final Reader reader;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    /** The fields of the record last read, reused for every record */
+    private final ArrayList<String> fields = new ArrayList<>();
+
+    private final StringBuilder field = new StringBuilder();
+
+    /** Number of the line the next character is on, counting from 1 */
+    private long line = 1;
+
+    /** Number of the line the record last read started on */
+    private long recordLine;
+
+    private boolean started;
+
+    /**
+     * @param reader to read the CSV from, it does not need to be buffered
+     */
+    public CsvReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Read the next record.
+     *
+     * @return the fields of the record, or null at the end of the stream. The list is reused by
+     * the next call.
+     * @throws IOException if the stream can't be read, or ends inside a quoted field
+     */
+    public List<String> readRecord() throws IOException {
+        if (!started) {
+            started = true;
+            if (fill() && buffer[position] == BYTE_ORDER_MARK)
+                position++;
+        }
+
+        if (!fill())
+            return null;
+
+        fields.clear();
+        field.setLength(0);
+        recordLine = line;
+
+        boolean quoted = false;
+        boolean wasQuoted = false;
+
+        while (fill()) {
+            char c = buffer[position++];
+
+            if (quoted) {
+                if (c == '"') {
+                    if (fill() && buffer[position] == '"') {
+                        field.append('"');
+                        position++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    if (c == '\n')
+                        line++;
+                    field.append(c);
+                }
+                continue;
+            }
+
+            switch (c) {
+                case ',':
+                    endField();
+                    wasQuoted = false;
+                    break;
+                case '\r':
+                    // Part of a CRLF line break, or stray: never part of an unquoted field
+                    break;
+                case '\n':
+                    line++;
+                    endField();
+                    return fields;
+                case '"':
+                    if (field.length() == 0 && !wasQuoted) {
+                        quoted = true;
+                        wasQuoted = true;
+                        break;
+                    }
+                    // A quote in the middle of an unquoted field is taken as it is
+                    field.append(c);
+                    break;
+                default:
+                    field.append(c);
+                    break;
+            }
+        }
+
+        if (quoted)
+            throw new IOException("Line " + recordLine + ": quoted field not closed");
+
+        // The last line doesn't need a line break
+        endField();
+        return fields;
+    }
+
+    /**
+     * @return the number of the line the record last read by {@link #readRecord()} started on,
+     * counting from 1
+     */
+    public long getRecordLine() {
+        return recordLine;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void endField() {
+        fields.add(field.toString());
+        field.setLength(0);
+    }
+
+    /*
+     * Make sure there is a character to read at position. Returns false at the end of the stream.
+     */
+    private boolean fill() throws IOException {
+        if (position < limit)
+            return true;
+
+        int read;
+        do {
+            read = reader.read(buffer, 0, buffer.length);
+        } while (read == 0);
+
+        position = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+}
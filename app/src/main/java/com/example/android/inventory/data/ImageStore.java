@@ -0,0 +1,427 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Process;
+import android.support.v4.content.FileProvider;
+import android.util.Log;
+
+import com.example.android.inventory.BitmapDecoder;
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent store of the product images, in the files dir of the app so they survive the
+ * system clearing the cache.
+ * <p>
+ * Images are content-addressed: a file is named by the SHA-256 of the picked image, so the same
+ * photo picked for two Products is encoded and stored once. Images are encoded adaptively, scaled
+ * down to {@link #MAX_IMAGE_SIZE} and compressed at the highest JPEG quality that stays under
+ * {@link #TARGET_BYTES}.
+ * <p>
+ * The reference count of an image is the number of Products whose
+ * {@link ProductEntry#COLUMN_PRODUCT_IMAGE} holds its URI, looked up on the image index. The
+ * provider {@link #release releases} the images of the Products it deletes or changes, and an image
+ * nobody refers to any more is deleted in the background. {@link #collectGarbage()} sweeps up the
+ * images that were stored but never saved with a Product. Neither deletes a {@link #pin pinned}
+ * image.
+ */
+public final class ImageStore {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = ImageStore.class.getSimpleName();
+
+    /** Authority of the FileProvider that serves the stored images, see the manifest */
+    public static final String AUTHORITY = ProductContract.CONTENT_AUTHORITY + ".images";
+
+    /** Name of the image directory in the files dir, see res/xml/image_paths.xml */
+    private static final String IMAGE_DIR = "images";
+
+    /** Size of the longest side of a stored image, in pixels */
+    public static final int MAX_IMAGE_SIZE = 1280;
+
+    /** Stored images are compressed until they are no larger than this, if the quality allows */
+    public static final int TARGET_BYTES = 200 * 1024;
+
+    /** JPEG qualities tried in turn until the image fits into {@link #TARGET_BYTES} */
+    private static final int[] JPEG_QUALITIES = {90, 80, 70, 60, 50};
+
+    /**
+     * Unreferenced images younger than this are kept: an image is stored as soon as it is picked,
+     * but only referenced once the Product is saved.
+     */
+    private static final long GRACE_PERIOD_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final String EXTENSION = ".jpg";
+
+    private static ImageStore instance;
+
+    private final Context context;
+
+    private final ContentResolver resolver;
+
+    private final File directory;
+
+    private final long gracePeriodMillis;
+
+    /** Runs the releases and the garbage collection, one at a time */
+    private final ExecutorService executor;
+
+    /** Number of pins of each pinned image, by file name; guards the deletions and the reuses */
+    private final HashMap<String, Integer> pins = new HashMap<>();
+
+    /**
+     * @param context of the app
+     * @return the image store of the app
+     */
+    public static synchronized ImageStore getInstance(Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            instance = new ImageStore(appContext, new File(appContext.getFilesDir(), IMAGE_DIR),
+                    GRACE_PERIOD_MILLIS);
+        }
+        return instance;
+    }
+
+    /*
+     * The directory has to be one the FileProvider serves. Tests pass a grace period of 0 to see
+     * unreferenced images deleted right away.
+     */
+    ImageStore(Context context, File directory, long gracePeriodMillis) {
+        this.context = context;
+        this.resolver = context.getContentResolver();
+        this.directory = directory;
+        this.gracePeriodMillis = gracePeriodMillis;
+
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, LOG_TAG);
+            }
+        });
+    }
+
+    /**
+     * Store the image at the given URI. If the same image is stored already, it is reused and
+     * nothing is encoded. Blocks, so call it from a background thread.
+     *
+     * @param source URI of the picked image
+     * @return the content URI of the stored image, to save with the Product
+     * @throws IOException if the image could not be read, decoded or written
+     */
+    public Uri put(Uri source) throws IOException {
+        long start = MainThreadIo.start();
+        File file;
+        MainThreadIo.ViolationException violation;
+        try {
+            String key = hash(source);
+            file = new File(directory, key + EXTENSION);
+
+            /*
+             * Renew the grace period, the image is about to be referenced again. Under the pins,
+             * so the garbage collection either deletes the file before, and it is written again,
+             * or sees the renewed grace period when it deletes.
+             */
+            boolean stored;
+            synchronized (pins) {
+                stored = file.isFile() && file.setLastModified(System.currentTimeMillis());
+            }
+
+            if (!stored) {
+                Bitmap image = BitmapDecoder.decode(resolver, source, MAX_IMAGE_SIZE,
+                        MAX_IMAGE_SIZE);
+                if (image == null)
+                    throw new IOException("Cannot decode " + source);
+
+                byte[] encoded = encode(image);
+                image.recycle();
+
+                write(file, encoded);
+            }
+        } finally {
+            violation = MainThreadIo.record("ImageStore.put", start);
+        }
+
+        if (violation != null)
+            throw violation;
+        return getUri(file);
+    }
+
+    /**
+     * @param uri of an image
+     * @return true if the URI is that of an image in this store
+     */
+    public boolean contains(Uri uri) {
+        return uri != null && AUTHORITY.equals(uri.getAuthority()) && fileFor(uri) != null;
+    }
+
+    /**
+     * Let go of images the caller no longer refers to. Each image that no Product refers to any
+     * more is deleted in the background. Images from outside the store are ignored.
+     *
+     * @param imageUris the image column values of the Products that were deleted or changed
+     */
+    public void release(final Collection<String> imageUris) {
+        if (imageUris.isEmpty())
+            return;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (String imageUri : imageUris) {
+                    File file = imageUri == null ? null : fileFor(Uri.parse(imageUri));
+                    if (file != null && isCollectable(file, imageUri))
+                        deleteUnpinned(file);
+                }
+            }
+        });
+    }
+
+    /**
+     * Delete, in the background, every stored image that no Product refers to. Runs after the
+     * releases submitted before it.
+     *
+     * @return the pending number of images deleted
+     */
+    public Future<Integer> collectGarbage() {
+        return executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                File[] files = directory.listFiles();
+                if (files == null)
+                    return 0;
+
+                int deleted = 0;
+                long freed = 0;
+                for (File file : files) {
+                    if (!file.isFile())
+                        continue;
+                    long length = file.length();
+                    if (isCollectable(file, getUri(file).toString()) && deleteUnpinned(file)) {
+                        deleted++;
+                        freed += length;
+                    }
+                }
+                Log.i(LOG_TAG, "Collected " + deleted + " of " + files.length + " images, "
+                        + freed / 1024 + " KB freed");
+                return deleted;
+            }
+        });
+    }
+
+    /**
+     * Keep the image with the given name from being deleted, even while no Product refers to it,
+     * until it is {@link #unpin unpinned} as often as it was pinned. A restore pins the images it
+     * puts into the store, and those it finds there already, before the database that refers to
+     * them is in place. An image deleted before the pin can be seen missing right after it.
+     *
+     * @param name the name of a stored image file, see {@link #getFileForName}
+     */
+    void pin(String name) {
+        synchronized (pins) {
+            Integer count = pins.get(name);
+            pins.put(name, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Let go of pins taken by {@link #pin}, once each.
+     */
+    void unpin(Collection<String> names) {
+        synchronized (pins) {
+            for (String name : names) {
+                Integer count = pins.get(name);
+                if (count == null || count == 1)
+                    pins.remove(name);
+                else
+                    pins.put(name, count - 1);
+            }
+        }
+    }
+
+    /**
+     * @param imageUri the image column value of a Product
+     * @return the file of the image, or null if it is not an image of this store
+     */
+    File getFile(String imageUri) {
+        return imageUri == null ? null : fileFor(Uri.parse(imageUri));
+    }
+
+    /**
+     * @param name the name of a stored image file, such as one taken from a backup
+     * @return the file of the image in this store, or null if the name is not that of an image of
+     * this store
+     */
+    File getFileForName(String name) {
+        return isImageName(name) ? new File(directory, name) : null;
+    }
+
+    /**
+     * @return the number of bytes the stored images take on disk
+     */
+    public long getSizeOnDisk() {
+        long start = MainThreadIo.start();
+        long size = 0;
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                size += file.length();
+        MainThreadIo.ViolationException violation =
+                MainThreadIo.record("ImageStore.getSizeOnDisk", start);
+        if (violation != null)
+            throw violation;
+        return size;
+    }
+
+    /*
+     * Compress the image at the highest quality that fits into TARGET_BYTES, or at the lowest
+     * quality if none does.
+     */
+    private static byte[] encode(Bitmap image) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(TARGET_BYTES);
+        for (int quality : JPEG_QUALITIES) {
+            out.reset();
+            image.compress(Bitmap.CompressFormat.JPEG, quality, out);
+            if (out.size() <= TARGET_BYTES)
+                break;
+        }
+        return out.toByteArray();
+    }
+
+    /*
+     * Write to a temporary file first and rename it, so a stored image is never seen half
+     * written.
+     */
+    private void write(File file, byte[] encoded) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create " + directory);
+
+        File temporary = new File(directory, file.getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temporary);
+        try {
+            out.write(encoded);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Cannot store " + file);
+        }
+    }
+
+    private boolean isCollectable(File file, String imageUri) {
+        if (isInGracePeriod(file))
+            return false;
+
+        // The image index makes this a lookup rather than a scan
+        Cursor cursor = resolver.query(ProductEntry.CONTENT_URI, new String[]{ProductEntry._ID},
+                ProductEntry.COLUMN_PRODUCT_IMAGE + "=?", new String[]{imageUri}, null);
+        if (cursor == null)
+            return false;
+        try {
+            return cursor.getCount() == 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private boolean isInGracePeriod(File file) {
+        return System.currentTimeMillis() - file.lastModified() < gracePeriodMillis;
+    }
+
+    /*
+     * Delete the file of an image nobody refers to, unless it is pinned or put again since it
+     * was found collectable. The pins are held while deleting, so an image pinned or put first
+     * is never deleted after.
+     */
+    private boolean deleteUnpinned(File file) {
+        synchronized (pins) {
+            return !pins.containsKey(file.getName()) && !isInGracePeriod(file) && delete(file);
+        }
+    }
+
+    private static boolean delete(File file) {
+        if (file.delete())
+            return true;
+        Log.w(LOG_TAG, "Failed to delete " + file);
+        return false;
+    }
+
+    private Uri getUri(File file) {
+        return FileProvider.getUriForFile(context, AUTHORITY, file);
+    }
+
+    /*
+     * The file of a stored image, or null if the URI is not one of this store. Only the name is
+     * taken from the URI, so it cannot point outside the directory.
+     */
+    private File fileFor(Uri uri) {
+        if (!AUTHORITY.equals(uri.getAuthority()))
+            return null;
+        return getFileForName(uri.getLastPathSegment());
+    }
+
+    private static boolean isImageName(String name) {
+        return name != null && name.matches("[0-9a-f]{64}\\" + EXTENSION);
+    }
+
+    /*
+     * SHA-256 of the bytes of the image, as 64 hex digits.
+     */
+    private String hash(Uri source) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is always available
+            throw new IllegalStateException(e);
+        }
+
+        InputStream in = resolver.openInputStream(source);
+        if (in == null)
+            throw new IOException("Cannot open " + source);
+        try {
+            DigestInputStream digestIn = new DigestInputStream(in, digest);
+            byte[] buffer = new byte[16 * 1024];
+            while (digestIn.read(buffer) != -1) {
+                // the digest is updated as the bytes are read
+            }
+        } finally {
+            in.close();
+        }
+
+        byte[] bytes = digest.digest();
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        return hex.toString();
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.android.inventory.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds, with the bucket layout of an HDR histogram: every power
+ * of two is split into {@link #SUB_BUCKETS} linear buckets, so a recorded value is off by at most
+ * 1/{@link #SUB_BUCKETS} of itself, from 1 ns up to {@link #MAX_VALUE}. Larger values count into
+ * the last bucket.
+ * <p>
+ * Recording is lock-free and allocation-free: a bucket index computed with a few bit operations
+ * and atomic increments. Reading is not atomic with respect to concurrent recording; a report
+ * may miss the values recorded while it is taken.
+ */
+final class LatencyHistogram {
+
+    /** log2 of the number of buckets per power of two */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /** Number of buckets per power of two */
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Highest power of two covered, 2^36 ns is a little over a minute */
+    private static final int MAX_EXPONENT = 36;
+
+    /** The largest value recorded in a bucket of its own */
+    static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos the latency to record, negative values are recorded as 0
+     */
+    void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+
+        counts.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+
+        long current;
+        while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+            // lost the race, try again
+        }
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the largest value recorded, 0 if there is none
+     */
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the mean of the values recorded, 0 if there is none
+     */
+    long getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the highest value of the bucket the percentile falls into, never more than the
+     * largest value recorded; 0 if nothing was recorded
+     */
+    long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            total += counts.get(i);
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(highestValueOf(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /*
+     * Values below SUB_BUCKETS get a bucket each. Above, the bucket is given by the position of
+     * the highest bit and the SUB_BUCKET_BITS bits below it.
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        if (value > MAX_VALUE)
+            return BUCKETS - 1;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /*
+     * The highest value that falls into the given bucket.
+     */
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+}
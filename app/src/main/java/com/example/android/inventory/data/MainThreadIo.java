@@ -0,0 +1,245 @@
+package com.example.android.inventory.data;
+
+import android.os.Looper;
+import android.os.StrictMode;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Debug detector of database and disk I/O on the main thread. The provider operations and the
+ * file operations of the app report themselves here; once {@link #enable() enabled}, every one
+ * that ran on the main looper is kept in a bounded ring buffer of {@link Event}s, with its
+ * duration, its call site and the whole stack, for the summary screen and for tests.
+ * <p>
+ * I/O outside the app's own code (other providers, the platform) is left to StrictMode, which
+ * {@link #enable()} turns on for the main thread with a log penalty; API 19 has no way to route
+ * its violations here.
+ * <p>
+ * Off by default. The provider enables it in debuggable builds. Tests that must not do I/O on
+ * the main thread can make every violation throw, see {@link #setFailOnViolation(boolean)}. The
+ * operations report from their finally blocks, so {@link #record} returns the violation rather
+ * than throwing it: the operation throws it once it has released what it holds, and only if it
+ * did not fail on its own.
+ */
+public final class MainThreadIo {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = MainThreadIo.class.getSimpleName();
+
+    /** Number of events kept, the oldest are dropped */
+    public static final int CAPACITY = 128;
+
+    /** Prefix of the classes of the app, to find the call site in a stack */
+    private static final String APP_PACKAGE = "com.example.android.inventory.";
+
+    /**
+     * One operation that ran on the main thread.
+     */
+    public static final class Event {
+
+        /** What was done, such as "query items/#" or "ImageStore.write" */
+        public final String operation;
+
+        /** How long it took */
+        public final long durationNanos;
+
+        /** When it finished, in {@link SystemClock#elapsedRealtime()} */
+        public final long elapsedRealtime;
+
+        /** The first frame of the app outside the I/O code, "Class.method:line" */
+        public final String callSite;
+
+        /** The stack of the main thread when the operation finished */
+        public final StackTraceElement[] stack;
+
+        Event(String operation, long durationNanos, String callSite,
+              StackTraceElement[] stack) {
+            this.operation = operation;
+            this.durationNanos = durationNanos;
+            this.elapsedRealtime = SystemClock.elapsedRealtime();
+            this.callSite = callSite;
+            this.stack = stack;
+        }
+
+        @Override
+        public String toString() {
+            return operation + " for " + durationNanos / 1000 + " us at " + callSite;
+        }
+    }
+
+    /**
+     * Thrown by the operation that ran on the main thread, while
+     * {@link #setFailOnViolation(boolean)} is set, see {@link #record}.
+     */
+    public static final class ViolationException extends IllegalStateException {
+
+        private final Event event;
+
+        ViolationException(Event event) {
+            super("I/O on the main thread: " + event);
+            this.event = event;
+            setStackTrace(event.stack);
+        }
+
+        public Event getEvent() {
+            return event;
+        }
+    }
+
+    private static volatile boolean enabled;
+
+    private static volatile boolean failOnViolation;
+
+    /** The ring buffer; next is where the next event goes */
+    private static final Event[] events = new Event[CAPACITY];
+    private static int next;
+    private static long count;
+
+    private MainThreadIo() {
+    }
+
+    /**
+     * Start recording. Call on the main thread, it also turns on StrictMode's disk checks for it.
+     */
+    public static void enable() {
+        enabled = true;
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder(
+                StrictMode.getThreadPolicy())
+                .detectDiskReads()
+                .detectDiskWrites()
+                .penaltyLog()
+                .build());
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param fail true to make every operation that runs on the main thread throw a
+     *             {@link ViolationException} once it is done, for tests
+     */
+    public static void setFailOnViolation(boolean fail) {
+        failOnViolation = fail;
+    }
+
+    /**
+     * @return the start time of an operation, to pass to {@link #record}
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Report an operation that started at the given time and is done now. Does nothing off the
+     * main thread or while the detector is disabled.
+     *
+     * @param operation what was done
+     * @param start     what {@link #start()} returned, or 0 if the duration is not known
+     * @return the exception for the operation to throw, once it has released its resources and
+     * unless it is failing already, if it ran on the main thread and
+     * {@link #setFailOnViolation(boolean)} is set; null otherwise
+     */
+    public static ViolationException record(String operation, long start) {
+        if (!enabled || Looper.myLooper() != Looper.getMainLooper())
+            return null;
+        return add(operation, start);
+    }
+
+    /**
+     * Like {@link #record(String, long)}, for an operation on a target, such as a provider
+     * operation on a URI pattern; the name is only built for a violation.
+     */
+    public static ViolationException record(String operation, String target, long start) {
+        if (!enabled || Looper.myLooper() != Looper.getMainLooper())
+            return null;
+        return add(operation + " " + target, start);
+    }
+
+    /**
+     * @return the recorded events, the oldest first
+     */
+    public static List<Event> getEvents() {
+        synchronized (events) {
+            List<Event> list = new ArrayList<>(CAPACITY);
+            for (int i = 0; i < CAPACITY; i++) {
+                Event event = events[(next + i) % CAPACITY];
+                if (event != null)
+                    list.add(event);
+            }
+            return list;
+        }
+    }
+
+    /**
+     * @return the number of events recorded, including the ones dropped from the buffer
+     */
+    public static long getCount() {
+        synchronized (events) {
+            return count;
+        }
+    }
+
+    /**
+     * Forget the recorded events.
+     */
+    public static void clear() {
+        synchronized (events) {
+            for (int i = 0; i < CAPACITY; i++)
+                events[i] = null;
+            next = 0;
+            count = 0;
+        }
+    }
+
+    private static ViolationException add(String operation, long start) {
+        long duration = start == 0 ? 0 : System.nanoTime() - start;
+        StackTraceElement[] stack = new Throwable().getStackTrace();
+        Event event = new Event(operation, duration, callSite(stack), stack);
+
+        synchronized (events) {
+            events[next] = event;
+            next = (next + 1) % CAPACITY;
+            count++;
+        }
+        Log.w(LOG_TAG, event.toString());
+
+        return failOnViolation ? new ViolationException(event) : null;
+    }
+
+    /*
+     * The first frame of the app after the frames of this class and of the class that reported
+     * the operation, or the first frame at all if there is none.
+     */
+    private static String callSite(StackTraceElement[] stack) {
+        int i = 0;
+        while (i < stack.length && stack[i].getClassName().equals(MainThreadIo.class.getName()))
+            i++;
+        if (i == stack.length)
+            return "unknown";
+
+        String reporter = outerClassName(stack[i]);
+        for (int j = i; j < stack.length; j++) {
+            StackTraceElement frame = stack[j];
+            if (frame.getClassName().startsWith(APP_PACKAGE)
+                    && !outerClassName(frame).equals(reporter))
+                return format(frame);
+        }
+        return format(stack[i]);
+    }
+
+    private static String outerClassName(StackTraceElement frame) {
+        String name = frame.getClassName();
+        int inner = name.indexOf('$');
+        return inner < 0 ? name : name.substring(0, inner);
+    }
+
+    private static String format(StackTraceElement frame) {
+        String name = frame.getClassName();
+        return name.substring(name.lastIndexOf('.') + 1) + "." + frame.getMethodName() + ":"
+                + frame.getLineNumber();
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.android.inventory.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * One step of the schema history of the inventory database, from {@link #fromVersion} to
+ * fromVersion + 1. {@link ProductDbHelper} runs the steps in order, inside the transaction
+ * SQLiteOpenHelper opens around an upgrade, so a failed step leaves the database untouched.
+ */
+abstract class Migration {
+
+    /** The database version this step upgrades from */
+    final int fromVersion;
+
+    /**
+     * @param fromVersion the database version this step upgrades from
+     */
+    Migration(int fromVersion) {
+        this.fromVersion = fromVersion;
+    }
+
+    /**
+     * Bring the schema (and the data, if needed) from {@link #fromVersion} to the next version.
+     *
+     * @param db the database, at version {@link #fromVersion}
+     */
+    abstract void migrate(SQLiteDatabase db);
+}
@@ -0,0 +1,166 @@
+package com.example.android.inventory.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+import com.example.android.inventory.data.ProductContract.StockMovementEntry;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Folds the stock movements into the stored quantities of their Products and deletes them, so
+ * the ledger stays short and reading a quantity stays one index lookup. The current quantities
+ * don't change: the view of the inventory adds the same deltas before and after.
+ * <p>
+ * The provider {@link #schedule() schedules} a compaction after every append; it runs on a
+ * background thread once the append is {@link #MIN_AGE_MILLIS} old, and {@link #DELAY_MILLIS}
+ * later still, so a burst of sales is folded in at once. It folds in only the movements of that
+ * age: the newer ones stay in the ledger as the recent history of the stock, and the compaction
+ * is scheduled again for them.
+ */
+final class MovementCompactor {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = MovementCompactor.class.getSimpleName();
+
+    /** Age of the movements a background compaction folds in, the newer ones stay */
+    static final long MIN_AGE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /** Time the compaction waits for more movements to reach the age */
+    static final long DELAY_MILLIS = 5000;
+
+    private final ProductDbHelper dbHelper;
+
+    /** Held while the database is used, see ProductProvider */
+    private final Lock lock;
+
+    private final ScheduledExecutorService executor;
+
+    /** Set while a compaction is scheduled and has not started yet */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final Runnable compaction = new Runnable() {
+        @Override
+        public void run() {
+            // Appends from now on need a compaction of their own
+            scheduled.set(false);
+            try {
+                if (compactOld() > 0)
+                    schedule();
+            } catch (RuntimeException e) {
+                // The movements stay in the ledger for the next compaction
+                Log.e(LOG_TAG, "Compaction failed", e);
+            }
+        }
+    };
+
+    MovementCompactor(ProductDbHelper dbHelper, Lock lock) {
+        this.dbHelper = dbHelper;
+        this.lock = lock;
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, LOG_TAG);
+            }
+        });
+    }
+
+    /**
+     * Compact in the background soon, unless a compaction is scheduled already.
+     */
+    void schedule() {
+        if (scheduled.compareAndSet(false, true))
+            executor.schedule(compaction, MIN_AGE_MILLIS + DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * Fold in the movements older than MIN_AGE_MILLIS, and return the number of movements left
+     * in the ledger.
+     */
+    private long compactOld() {
+        lock.lock();
+        try {
+            SQLiteDatabase database = dbHelper.getWritableDatabase();
+            compact(database, System.currentTimeMillis() - MIN_AGE_MILLIS);
+            return DatabaseUtils.queryNumEntries(database, StockMovementEntry.TABLE_NAME);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Fold all the movements in now, on the calling thread.
+     *
+     * @return the number of movements folded in
+     */
+    int compact() {
+        lock.lock();
+        try {
+            return compact(dbHelper.getWritableDatabase());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Fold all the movements in, for callers that need the stored quantities to be the current
+     * ones and hold the database lock already, see {@link #compact(SQLiteDatabase, long)}.
+     *
+     * @return the number of movements folded in
+     */
+    static int compact(SQLiteDatabase database) {
+        return compact(database, Long.MAX_VALUE);
+    }
+
+    /**
+     * One transaction adds the deltas of the movements appended before the given time to the
+     * quantities of their Products and deletes those movements, so a reader sees either the
+     * movements or the folded quantities. The running totals follow the quantities through their
+     * update trigger.
+     * <p>
+     * For callers that hold the database lock already; the transaction nests in theirs.
+     *
+     * @param before the movements appended before this time, in milliseconds since the epoch,
+     *               are folded in
+     * @return the number of movements folded in
+     */
+    static int compact(SQLiteDatabase database, long before) {
+        String old = " WHERE " + StockMovementEntry.COLUMN_TIMESTAMP + " < " + before;
+
+        database.beginTransaction();
+        try {
+            database.execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + " = "
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + " + (SELECT SUM("
+                    + StockMovementEntry.COLUMN_DELTA + ") FROM " + StockMovementEntry.TABLE_NAME
+                    + old + " AND " + StockMovementEntry.COLUMN_PRODUCT_ID + " = "
+                    + ProductEntry.TABLE_NAME + "." + ProductEntry._ID + ")"
+                    + " WHERE " + ProductEntry._ID + " IN (SELECT "
+                    + StockMovementEntry.COLUMN_PRODUCT_ID + " FROM "
+                    + StockMovementEntry.TABLE_NAME + old + ")");
+
+            int folded = database.delete(StockMovementEntry.TABLE_NAME,
+                    StockMovementEntry.COLUMN_TIMESTAMP + " < " + before, null);
+
+            database.setTransactionSuccessful();
+            return folded;
+        } finally {
+            database.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+/**
+ * One row of the inventory table. Immutable; the numbers are kept as primitives, so reading a
+ * Product from a {@link Cursor} and writing it to {@link ContentValues} never goes through
+ * Strings.
+ */
+public final class Product {
+
+    /** ID of a Product that has not been inserted yet */
+    public static final long NO_ID = -1;
+
+    private final long id;
+    private final String name;
+    private final int price;
+    private final int quantity;
+    private final String imageUri;
+    private final String thumbnailKey;
+
+    /**
+     * @param id           of the Product, or {@link #NO_ID} for a new one
+     * @param name         of the Product, not null
+     * @param price        of the Product
+     * @param quantity     in stock
+     * @param imageUri     URI of the product image, may be null
+     * @param thumbnailKey key of the catalog thumbnail, may be null
+     */
+    public Product(long id, String name, int price, int quantity, String imageUri,
+                   String thumbnailKey) {
+        if (name == null)
+            throw new IllegalArgumentException("Product name required.");
+        this.id = id;
+        this.name = name;
+        this.price = price;
+        this.quantity = quantity;
+        this.imageUri = imageUri;
+        this.thumbnailKey = thumbnailKey;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPrice() {
+        return price;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public String getImageUri() {
+        return imageUri;
+    }
+
+    public String getThumbnailKey() {
+        return thumbnailKey;
+    }
+
+    /**
+     * @return true if nothing has been entered for the Product: no name and no image
+     */
+    public boolean isBlank() {
+        return TextUtils.isEmpty(name) && TextUtils.isEmpty(imageUri);
+    }
+
+    /**
+     * Read the Product in the current row of a cursor. When reading many rows, make a
+     * {@link Columns} once and read them with it instead.
+     */
+    public static Product fromCursor(Cursor cursor) {
+        return new Columns(cursor).read(cursor);
+    }
+
+    /**
+     * @return the values to insert or update the Product with. The ID is not included, it is
+     * given by the URI.
+     */
+    public ContentValues toContentValues() {
+        ContentValues values = new ContentValues(5);
+        writeTo(values);
+        return values;
+    }
+
+    /**
+     * Put the attributes of the Product into the given values, replacing what was there, so one
+     * ContentValues can be reused for many Products.
+     */
+    public void writeTo(ContentValues values) {
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, imageUri);
+        values.put(ProductEntry.COLUMN_PRODUCT_THUMBNAIL, thumbnailKey);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof Product))
+            return false;
+
+        Product other = (Product) o;
+        return id == other.id && price == other.price && quantity == other.quantity
+                && name.equals(other.name)
+                && TextUtils.equals(imageUri, other.imageUri)
+                && TextUtils.equals(thumbnailKey, other.thumbnailKey);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + name.hashCode();
+        result = 31 * result + price;
+        result = 31 * result + quantity;
+        result = 31 * result + (imageUri != null ? imageUri.hashCode() : 0);
+        result = 31 * result + (thumbnailKey != null ? thumbnailKey.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Product{id=" + id + ", name=" + name + ", price=" + price
+                + ", quantity=" + quantity + "}";
+    }
+
+    /**
+     * The column indices of the Product attributes in a cursor, looked up once for all its rows.
+     * Columns missing from the projection read as 0 or null, or as {@link #NO_ID} for the ID.
+     */
+    public static final class Columns {
+
+        private final int id;
+        private final int name;
+        private final int price;
+        private final int quantity;
+        private final int image;
+        private final int thumbnail;
+
+        /**
+         * @param cursor to read Products from, it must have the name column
+         */
+        public Columns(Cursor cursor) {
+            id = cursor.getColumnIndex(ProductEntry._ID);
+            name = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_NAME);
+            price = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PRICE);
+            quantity = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+            image = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_IMAGE);
+            thumbnail = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_THUMBNAIL);
+        }
+
+        /**
+         * @return the Product in the current row of the cursor
+         */
+        public Product read(Cursor cursor) {
+            return new Product(
+                    id < 0 ? NO_ID : cursor.getLong(id),
+                    cursor.getString(name),
+                    price < 0 ? 0 : cursor.getInt(price),
+                    quantity < 0 ? 0 : cursor.getInt(quantity),
+                    image < 0 ? null : cursor.getString(image),
+                    thumbnail < 0 ? null : cursor.getString(thumbnail));
+        }
+    }
+}
@@ -38,6 +38,295 @@ public final class ProductContract {
      */
     public static final String PATH_INVENTORY = "items";
 
+    /**
+     * Path (appended to the inventory path) for a full-text search on the Products, such as
+     * content://com.example.android.inventory/items/search?q=mug
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path (appended to the inventory path) for the aggregate statistics of the Products, such as
+     * content://com.example.android.inventory/items/stats
+     */
+    public static final String PATH_STATS = "stats";
+
+    /**
+     * Path (appended to the inventory path) for the restock order of the Products low on stock,
+     * such as content://com.example.android.inventory/items/restock?lowStock=5
+     */
+    public static final String PATH_RESTOCK = "restock";
+
+    /**
+     * Provider method (see {@link android.content.ContentResolver#call}) that sells units of a
+     * Product, one unless the extras hold {@link #EXTRA_UNITS}. The Product ID is passed as the
+     * {@code arg} String. The stock is read and decremented in one exclusive transaction, so
+     * concurrent sales never lose an update and the quantity never drops below 0: if fewer units
+     * are in stock than asked for, only those are sold.
+     * <p>
+     * The result Bundle holds {@link #EXTRA_QUANTITY}, {@link #EXTRA_SOLD}, {@link #EXTRA_UNITS}
+     * and {@link #EXTRA_WRITTEN_AT}, or is null if there is no Product with the given ID.
+     */
+    public static final String METHOD_SELL = "sell";
+
+    /**
+     * Provider method (see {@link android.content.ContentResolver#call}) that changes the stock of
+     * a Product by {@link #EXTRA_UNITS}, more units for a positive number and fewer for a negative
+     * one, and records the change as a movement with {@link StockMovementEntry#REASON_ADJUSTMENT}.
+     * The Product ID is passed as the {@code arg} String. Like a sale, the stock is read and
+     * changed in one exclusive transaction and never drops below 0. Unlike setting the quantity,
+     * the change keeps the sales that came in since the caller read the stock.
+     * <p>
+     * The result Bundle holds {@link #EXTRA_QUANTITY}, {@link #EXTRA_UNITS} and
+     * {@link #EXTRA_WRITTEN_AT}, or is null if there is no Product with the given ID.
+     */
+    public static final String METHOD_ADJUST = "adjust";
+
+    /**
+     * Extras key of {@link #METHOD_SELL}: the units to sell, at least 1. Result key: the units
+     * sold. Extras key of {@link #METHOD_ADJUST}: the change of the stock. Result key: the change
+     * made. Type: int
+     */
+    public static final String EXTRA_UNITS = "units";
+
+    /**
+     * Result key: the quantity in stock after the call. Type: int
+     */
+    public static final String EXTRA_QUANTITY = "quantity";
+
+    /**
+     * Result key: false if nothing was sold because the Product was out of stock. Type: boolean
+     */
+    public static final String EXTRA_SOLD = "sold";
+
+    /**
+     * Result key: the {@link android.os.SystemClock#uptimeMillis()} taken just before the change
+     * was committed, and before its change notification. A query started earlier does not see
+     * the change; one started later does, or is followed by the reload the notification causes.
+     * Type: long
+     */
+    public static final String EXTRA_WRITTEN_AT = "writtenAt";
+
+    /**
+     * Provider method (see {@link android.content.ContentResolver#call}) that returns the counters
+     * of the cache the provider serves single-Product queries from, in
+     * {@link #EXTRA_CACHE_HITS}, {@link #EXTRA_CACHE_MISSES} and {@link #EXTRA_CACHE_EVICTIONS}.
+     * The counters run from the start of the provider process.
+     */
+    public static final String METHOD_CACHE_STATS = "cacheStats";
+
+    /**
+     * Result key: number of single-Product queries served from the cache. Type: long
+     */
+    public static final String EXTRA_CACHE_HITS = "hits";
+
+    /**
+     * Result key: number of single-Product queries that went to the database. Type: long
+     */
+    public static final String EXTRA_CACHE_MISSES = "misses";
+
+    /**
+     * Result key: number of rows dropped from the cache to make room for others. Type: long
+     */
+    public static final String EXTRA_CACHE_EVICTIONS = "evictions";
+
+    /**
+     * Provider method (see {@link android.content.ContentResolver#call}) that returns the latency
+     * histograms and counters of the provider operations, per operation and URI pattern, in
+     * {@link #EXTRA_METRICS}, and writes them to the log. Pass {@link #ARG_RESET_METRICS} as the
+     * {@code arg} String to start over afterwards. The same report is printed by
+     * {@code adb shell dumpsys activity provider ProductProvider}.
+     * <p>
+     * The metrics are recorded in debuggable builds only; elsewhere the result is null.
+     */
+    public static final String METHOD_METRICS = "metrics";
+
+    /**
+     * Argument of {@link #METHOD_METRICS}: reset the metrics after reporting them.
+     */
+    public static final String ARG_RESET_METRICS = "reset";
+
+    /**
+     * Result key: the metrics report, one tab-separated line per operation and URI pattern after
+     * a header line naming the columns. Times are in microseconds. Type: String
+     */
+    public static final String EXTRA_METRICS = "metrics";
+
+    /**
+     * Provider method (see {@link android.content.ContentResolver#call}) that writes a snapshot of
+     * the inventory, the database and every image a Product refers to, into one archive. The URI
+     * of the archive to write is passed as the {@code arg} String; it must be writable by the
+     * provider. The database is copied consistently while the app keeps working; writes wait for
+     * the copy of the database file.
+     * <p>
+     * The result Bundle holds {@link #EXTRA_SNAPSHOT_BYTES}, {@link #EXTRA_SNAPSHOT_IMAGES} and
+     * {@link #EXTRA_SNAPSHOT_MILLIS}. An archive that can't be written throws
+     * IllegalArgumentException.
+     */
+    public static final String METHOD_BACKUP = "backup";
+
+    /**
+     * Provider method (see {@link android.content.ContentResolver#call}) that replaces the
+     * inventory with a snapshot written by {@link #METHOD_BACKUP}. The URI of the archive is
+     * passed as the {@code arg} String. The archive is checked in full before anything is
+     * replaced, and the database is swapped in one step, so the inventory is either the old one or
+     * the restored one. A snapshot of an older database version is upgraded on the next access.
+     * <p>
+     * The result Bundle holds the same keys as {@link #METHOD_BACKUP}. A damaged archive throws
+     * IllegalArgumentException and leaves the inventory as it was.
+     */
+    public static final String METHOD_RESTORE = "restore";
+
+    /**
+     * Result key: size of the snapshot archive in bytes. Type: long
+     */
+    public static final String EXTRA_SNAPSHOT_BYTES = "bytes";
+
+    /**
+     * Result key: number of images in the snapshot archive. Type: int
+     */
+    public static final String EXTRA_SNAPSHOT_IMAGES = "images";
+
+    /**
+     * Result key: time the backup or restore took, in milliseconds. Type: long
+     */
+    public static final String EXTRA_SNAPSHOT_MILLIS = "millis";
+
+    /**
+     * Provider method (see {@link android.content.ContentResolver#call}) that folds the stock
+     * movements into the quantities of their Products now and prunes them, see
+     * {@link StockMovementEntry}. The provider also does this on its own in the background, for
+     * the movements older than a few minutes. The quantities read from the provider don't change.
+     * <p>
+     * The result Bundle holds {@link #EXTRA_MOVEMENTS}.
+     */
+    public static final String METHOD_COMPACT = "compact";
+
+    /**
+     * Result key: number of stock movements folded into the quantities. Type: int
+     */
+    public static final String EXTRA_MOVEMENTS = "movements";
+
+    /**
+     * Provider method (see {@link android.content.ContentResolver#call}) that applies one update
+     * expression to a column of many Products at once, in a single transaction with a single
+     * change notification. The extras hold:
+     * <ul>
+     * <li>{@link #EXTRA_COLUMN}: {@link ProductEntry#COLUMN_PRODUCT_PRICE} or
+     * {@link ProductEntry#COLUMN_PRODUCT_QUANTITY}</li>
+     * <li>{@link #EXTRA_OPERATION}: one of the {@code OPERATION_*} values, with
+     * {@link #EXTRA_VALUE} or, for {@link #OPERATION_CLAMP}, {@link #EXTRA_MIN} and
+     * {@link #EXTRA_MAX}</li>
+     * <li>the Products: {@link #EXTRA_IDS}, or {@link #EXTRA_SELECTION} and
+     * {@link #EXTRA_SELECTION_ARGS}; all of them if neither is given</li>
+     * </ul>
+     * No value ends up below 0, and a missing value stays missing except with
+     * {@link #OPERATION_SET}. Updating the quantities folds the stock movements in first.
+     * <p>
+     * The result Bundle holds {@link #EXTRA_ROWS}. Invalid extras throw
+     * IllegalArgumentException.
+     */
+    public static final String METHOD_BULK_UPDATE = "bulkUpdate";
+
+    /**
+     * Extras key of {@link #METHOD_BULK_UPDATE}: the column to update. Type: String
+     */
+    public static final String EXTRA_COLUMN = "column";
+
+    /**
+     * Extras key of {@link #METHOD_BULK_UPDATE}: the update expression, one of the
+     * {@code OPERATION_*} values. Type: String
+     */
+    public static final String EXTRA_OPERATION = "operation";
+
+    /**
+     * Extras key of {@link #METHOD_BULK_UPDATE}: the operand of the update expression. Type: int
+     */
+    public static final String EXTRA_VALUE = "value";
+
+    /**
+     * Extras keys of {@link #METHOD_BULK_UPDATE}: the bounds of {@link #OPERATION_CLAMP}, either
+     * may be left out. Type: int
+     */
+    public static final String EXTRA_MIN = "min";
+    public static final String EXTRA_MAX = "max";
+
+    /**
+     * Extras key of {@link #METHOD_BULK_UPDATE}: the IDs of the Products to update. Type: long[]
+     */
+    public static final String EXTRA_IDS = "ids";
+
+    /**
+     * Extras keys of {@link #METHOD_BULK_UPDATE}: the selection of the Products to update, as
+     * for {@link android.content.ContentResolver#update}. It sees the current quantities, as a
+     * query does. Type: String and String[]
+     */
+    public static final String EXTRA_SELECTION = "selection";
+    public static final String EXTRA_SELECTION_ARGS = "selectionArgs";
+
+    /**
+     * Result key of {@link #METHOD_BULK_UPDATE}: the number of Products whose value changed. Of
+     * {@link #METHOD_IMPORT_BATCH}: the number of Products inserted. Type: int
+     */
+    public static final String EXTRA_ROWS = "rows";
+
+    /** Operation of {@link #METHOD_BULK_UPDATE}: set the column to {@link #EXTRA_VALUE} */
+    public static final String OPERATION_SET = "set";
+
+    /** Operation of {@link #METHOD_BULK_UPDATE}: add {@link #EXTRA_VALUE}, which may be negative */
+    public static final String OPERATION_ADD = "add";
+
+    /**
+     * Operation of {@link #METHOD_BULK_UPDATE}: scale the column to {@link #EXTRA_VALUE} percent,
+     * rounded; 90 takes 10% off.
+     */
+    public static final String OPERATION_SCALE = "scale";
+
+    /**
+     * Operation of {@link #METHOD_BULK_UPDATE}: raise the column to {@link #EXTRA_MIN} and lower
+     * it to {@link #EXTRA_MAX}.
+     */
+    public static final String OPERATION_CLAMP = "clamp";
+
+    /**
+     * Provider method (see {@link android.content.ContentResolver#call}) that inserts a batch of
+     * Products read by an import and saves how far the import got, in one transaction: the saved
+     * progress is never ahead of or behind the Products committed. The argument is the ID of the
+     * import, chosen by the importer; the provider keeps the progress of one import only. The
+     * extras hold:
+     * <ul>
+     * <li>{@link #EXTRA_VALUES}: the Products, checked like
+     * {@link android.content.ContentResolver#bulkInsert}</li>
+     * <li>{@link #EXTRA_LINES}: the lines read up to the end of the batch</li>
+     * <li>{@link #EXTRA_IMPORTED} and {@link #EXTRA_REJECTED}: the counts before the batch; the
+     * saved counts add the Products of the batch that were inserted and those that were not</li>
+     * </ul>
+     * The result Bundle holds {@link #EXTRA_ROWS}, the number of Products inserted.
+     */
+    public static final String METHOD_IMPORT_BATCH = "importBatch";
+
+    /**
+     * Provider method (see {@link android.content.ContentResolver#call}) that returns the
+     * progress saved by the last {@link #METHOD_IMPORT_BATCH} of the import with the ID given as
+     * the argument.
+     * <p>
+     * The result Bundle holds {@link #EXTRA_LINES}, {@link #EXTRA_IMPORTED} and
+     * {@link #EXTRA_REJECTED}, or is null if no batch of that import was committed.
+     */
+    public static final String METHOD_IMPORT_CHECKPOINT = "importCheckpoint";
+
+    /**
+     * Extras key of {@link #METHOD_IMPORT_BATCH}: the Products to insert. Type: ContentValues[]
+     */
+    public static final String EXTRA_VALUES = "values";
+
+    /**
+     * Extras and result keys of the import methods: the lines of the file read, the Products
+     * imported and the lines not imported. Type: long
+     */
+    public static final String EXTRA_LINES = "lines";
+    public static final String EXTRA_IMPORTED = "imported";
+    public static final String EXTRA_REJECTED = "rejected";
+
     /**
      * Inner class that defines constant values for the inventory database table.
      * Each entry in the table represents a single Product.
@@ -46,10 +335,37 @@ public final class ProductContract {
 
         /**
          * The content URI to access the product data in the provider.
+         * <p>
+         * Besides being queried, the URI can be opened as a stream of all the Products, as
+         * {@link #EXPORT_CSV_TYPE} or {@link #EXPORT_JSON_TYPE} (see
+         * {@link ContentResolver#openTypedAssetFileDescriptor}). Opened with
+         * {@link ContentResolver#openInputStream} it reads as CSV.
          */
         public static final Uri CONTENT_URI =
                 Uri.withAppendedPath(BASE_CONTENT_URI, PATH_INVENTORY);
 
+        /**
+         * The content URI to search the products by name, see {@link #buildSearchUri}.
+         */
+        public static final Uri SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * The content URI of the aggregate statistics of the products, see {@link #buildStatsUri}.
+         * The query returns a single row with the {@code COLUMN_STATS_*} columns. The projection
+         * is ignored; a selection narrows the Products that are counted.
+         */
+        public static final Uri STATS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_STATS);
+
+        /**
+         * The content URI of the restock order, see {@link #buildRestockUri}. It is opened as a
+         * stream of {@link #RESTOCK_ORDER_TYPE}, like the export of {@link #CONTENT_URI}; a query
+         * answers only its OpenableColumns, for the apps it is shared with. The order lists every
+         * Product with fewer units in stock than {@link #QUERY_PARAMETER_LOW_STOCK}, grouped by
+         * the units in stock, the emptiest first, with the units to order to bring it up to
+         * {@link #QUERY_PARAMETER_ORDER_UP_TO}.
+         */
+        public static final Uri RESTOCK_URI = Uri.withAppendedPath(CONTENT_URI, PATH_RESTOCK);
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of products.
          */
@@ -62,11 +378,47 @@ public final class ProductContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_INVENTORY;
 
+        /**
+         * The MIME type of the {@link #STATS_URI}.
+         */
+        public static final String CONTENT_STATS_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /**
+         * MIME type of the Products exported as CSV, see {@link #CONTENT_URI}. The first line
+         * names the columns; the import reads the same format.
+         */
+        public static final String EXPORT_CSV_TYPE = "text/csv";
+
+        /**
+         * MIME type of the Products exported as a JSON array of objects, see
+         * {@link #CONTENT_URI}.
+         */
+        public static final String EXPORT_JSON_TYPE = "application/json";
+
+        /**
+         * MIME type of the restock order, see {@link #RESTOCK_URI}: plain text, one line per
+         * Product, ready to be mailed to a supplier.
+         */
+        public static final String RESTOCK_ORDER_TYPE = "text/plain";
+
         /**
          * Name of database table for the inventory.
          */
         public final static String TABLE_NAME = "inventory";
 
+        /**
+         * Name of the full-text index over the product names. It is an external content FTS4
+         * table backed by {@link #TABLE_NAME}: its docid is the {@link #_ID} of the product.
+         */
+        public final static String SEARCH_TABLE_NAME = "inventory_search";
+
+        /**
+         * Name of the single-row table holding the running totals over {@link #TABLE_NAME}. It is
+         * kept up to date by triggers, so the unfiltered statistics never scan the inventory.
+         */
+        public final static String STATS_TABLE_NAME = "inventory_stats";
+
         /**
          * Unique ID number for the product (only for use in the database table).
          * <p>
@@ -102,8 +454,226 @@ public final class ProductContract {
          */
         public final static String COLUMN_PRODUCT_IMAGE = "image";
 
+        /**
+         * Key of the small version of the product image shown in the catalog. A new key is made
+         * whenever the image changes. May be null for products saved before thumbnails existed.
+         * <p>
+         * TYPE: TEXT
+         */
+        public final static String COLUMN_PRODUCT_THUMBNAIL = "thumbnail";
+
+        /**
+         * Statistics column: number of products.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_STATS_COUNT = "count";
+
+        /**
+         * Statistics column: number of units in stock over all products.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_STATS_UNITS = "units";
+
+        /**
+         * Statistics column: value of the stock, the sum of price times quantity.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_STATS_VALUE = "value";
+
+        /**
+         * Statistics column: number of products with fewer units in stock than the low-stock
+         * threshold, see {@link #QUERY_PARAMETER_LOW_STOCK}.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_STATS_LOW_STOCK = "low_stock";
+
+        /**
+         * Query parameter of {@link #STATS_URI}: products with fewer units than this are low on
+         * stock. Defaults to {@link #DEFAULT_LOW_STOCK_THRESHOLD}.
+         */
+        public static final String QUERY_PARAMETER_LOW_STOCK = "lowStock";
+
+        /**
+         * The low-stock threshold used when the stats URI doesn't give one.
+         */
+        public static final int DEFAULT_LOW_STOCK_THRESHOLD = 5;
+
+        /**
+         * Query parameter of {@link #RESTOCK_URI}: the units in stock each Product is ordered up
+         * to. Defaults to the low-stock threshold, and is never below it.
+         */
+        public static final String QUERY_PARAMETER_ORDER_UP_TO = "orderUpTo";
+
+        /**
+         * Query parameter for keyset paging on {@link #CONTENT_URI}: only Products with an
+         * {@link #_ID} greater than this value are returned.
+         */
+        public static final String QUERY_PARAMETER_AFTER = "after";
+
+        /**
+         * Query parameter for keyset paging on {@link #CONTENT_URI}: only Products with an
+         * {@link #_ID} less than or equal to this value are returned.
+         */
+        public static final String QUERY_PARAMETER_UP_TO = "upTo";
+
+        /**
+         * Query parameter for keyset paging on {@link #CONTENT_URI}: the maximum number of
+         * Products returned. Values above {@link #MAX_PAGE_SIZE} are capped.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameter of {@link #SEARCH_URI}: the text to search for. Every word of the text
+         * is matched as a prefix of a word in the product name.
+         */
+        public static final String QUERY_PARAMETER_SEARCH = "q";
+
+        /**
+         * The largest page the provider returns for a paged query.
+         */
+        public static final int MAX_PAGE_SIZE = 500;
+
         public static boolean quantityPositive(int quantity) {
             return quantity >= 0;
         }
+
+        /**
+         * Build the content URI for one page of Products, ordered by {@link #_ID}.
+         *
+         * @param afterId the ID of the last Product of the previous page, 0 for the first page
+         * @param upToId  the ID of the last Product of this page, or -1 if the page is open-ended
+         *                and only bounded by the limit
+         * @param limit   the maximum number of Products in the page
+         * @return the paged content URI
+         */
+        public static Uri buildPageUri(long afterId, long upToId, int limit) {
+            return buildPageUri(CONTENT_URI, afterId, upToId, limit);
+        }
+
+        /**
+         * Build the URI for one page of a list of Products, ordered by {@link #_ID}.
+         *
+         * @param baseUri the list to page through, {@link #CONTENT_URI} or a search URI
+         * @param afterId the ID of the last Product of the previous page, 0 for the first page
+         * @param upToId  the ID of the last Product of this page, or -1 if the page is open-ended
+         *                and only bounded by the limit
+         * @param limit   the maximum number of Products in the page
+         * @return the paged content URI
+         */
+        public static Uri buildPageUri(Uri baseUri, long afterId, long upToId, int limit) {
+            Uri.Builder builder = baseUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER, String.valueOf(afterId))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit));
+            if (upToId >= 0)
+                builder.appendQueryParameter(QUERY_PARAMETER_UP_TO, String.valueOf(upToId));
+            return builder.build();
+        }
+
+        /**
+         * Build the content URI of the aggregate statistics of the Products.
+         *
+         * @param lowStockThreshold products with fewer units than this are low on stock
+         * @return the statistics content URI
+         */
+        public static Uri buildStatsUri(int lowStockThreshold) {
+            return STATS_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LOW_STOCK,
+                            String.valueOf(lowStockThreshold))
+                    .build();
+        }
+
+        /**
+         * Build the content URI of the restock order.
+         *
+         * @param lowStockThreshold products with fewer units than this are ordered
+         * @param orderUpTo         the units in stock each product is ordered up to
+         * @return the restock order content URI
+         */
+        public static Uri buildRestockUri(int lowStockThreshold, int orderUpTo) {
+            return RESTOCK_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LOW_STOCK,
+                            String.valueOf(lowStockThreshold))
+                    .appendQueryParameter(QUERY_PARAMETER_ORDER_UP_TO, String.valueOf(orderUpTo))
+                    .build();
+        }
+
+        /**
+         * Build the content URI that searches the Products by name.
+         *
+         * @param searchText the text to search for, as typed by the user
+         * @return the search content URI
+         */
+        public static Uri buildSearchUri(String searchText) {
+            return SEARCH_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SEARCH, searchText)
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the stock movements table, the append-only
+     * ledger of changes to the stock. A sale appends a movement instead of updating its Product.
+     * The quantity the provider returns for a Product is the quantity stored in
+     * {@link ProductEntry#TABLE_NAME} plus the deltas of its movements; from time to time the
+     * movements are folded into the stored quantity and deleted, see
+     * {@link ProductContract#METHOD_COMPACT}. Setting the quantity of a Product outright appends
+     * its difference to the current quantity as an adjustment.
+     */
+    public static final class StockMovementEntry implements BaseColumns {
+
+        /**
+         * Name of database table for the stock movements.
+         */
+        public final static String TABLE_NAME = "stock_movements";
+
+        /**
+         * Unique ID number for the movement, in the order the movements were appended.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * {@link ProductEntry#_ID} of the Product whose stock changed.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_ID = "product_id";
+
+        /**
+         * Change of the quantity in stock, negative for units that left.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DELTA = "delta";
+
+        /**
+         * Why the stock changed, such as {@link #REASON_SALE}.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_REASON = "reason";
+
+        /**
+         * When the movement was appended, in milliseconds since the epoch.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TIMESTAMP = "timestamp";
+
+        /**
+         * Reason of the movements of {@link ProductContract#METHOD_SELL}.
+         */
+        public static final String REASON_SALE = "sale";
+
+        /**
+         * Reason of the movements of {@link ProductContract#METHOD_ADJUST}, and of the updates
+         * that set the quantity of a Product.
+         */
+        public static final String REASON_ADJUSTMENT = "adjustment";
     }
 }
\ No newline at end of file
@@ -3,8 +3,10 @@ package com.example.android.inventory.data;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
 import com.example.android.inventory.data.ProductContract.ProductEntry;
+import com.example.android.inventory.data.ProductContract.StockMovementEntry;
 
 /**
  * Database helper for the inventory app. Manages database creation and version management.
@@ -17,10 +19,124 @@ public class ProductDbHelper extends SQLiteOpenHelper {
     /** Name of the database file */
     private static final String DATABASE_NAME = "inventory.db";
 
+    /** Name of the index for sorting the catalog by name */
+    static final String NAME_INDEX = ProductEntry.TABLE_NAME + "_name_index";
+
+    /** Name of the index for sorting the catalog by price */
+    static final String PRICE_INDEX = ProductEntry.TABLE_NAME + "_price_index";
+
+    /** Name of the index for sorting the catalog by quantity and for low-stock lookups */
+    static final String QUANTITY_INDEX = ProductEntry.TABLE_NAME + "_quantity_index";
+
+    /** Name of the index for counting the references to a stored image, see {@link ImageStore} */
+    static final String IMAGE_INDEX = ProductEntry.TABLE_NAME + "_image_index";
+
+    /** Name of the index for summing up the stock movements of a Product */
+    static final String MOVEMENTS_INDEX = StockMovementEntry.TABLE_NAME + "_product_index";
+
+    /**
+     * Name of the view of the inventory with the current quantities, the stored quantity plus
+     * the stock movements not folded into it yet. Reads of the Products go through it. Its
+     * quantity is computed, so a filter on the quantity through the view uses no index: the
+     * provider filters the Products without movements on the table instead, and the restock
+     * order folds the movements in and reads the table.
+     */
+    static final String CURRENT_VIEW = ProductEntry.TABLE_NAME + "_current";
+
+    /**
+     * Name of the single-row table with the progress of the last CSV import, written in the
+     * transaction of each batch it inserts, see {@link ProductContract#METHOD_IMPORT_BATCH}.
+     */
+    static final String IMPORT_CHECKPOINT_TABLE = "import_checkpoint";
+
+    /** Columns of {@link #IMPORT_CHECKPOINT_TABLE}: the import, and its progress */
+    static final String COLUMN_IMPORT_ID = "import_id";
+    static final String COLUMN_IMPORT_LINES = "lines";
+    static final String COLUMN_IMPORT_IMPORTED = "imported";
+    static final String COLUMN_IMPORT_REJECTED = "rejected";
+
+    /**
+     * The steps from the first version of the schema to the current one, in order. To change the
+     * schema, append a step; never edit one that has shipped.
+     */
+    private static final Migration[] MIGRATIONS = {
+
+            // Version 2 adds the full-text index over the product names.
+            new Migration(1) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createSearchTable(db);
+                    db.execSQL("INSERT INTO " + ProductEntry.SEARCH_TABLE_NAME + "("
+                            + ProductEntry.SEARCH_TABLE_NAME + ") VALUES('rebuild')");
+                }
+            },
+
+            // Version 3 adds indexes for the catalog sort orders and the low-stock lookups.
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX " + NAME_INDEX + " ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE);");
+                    db.execSQL("CREATE INDEX " + PRICE_INDEX + " ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_PRODUCT_PRICE + ");");
+                    db.execSQL("CREATE INDEX " + QUANTITY_INDEX + " ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_PRODUCT_QUANTITY + ");");
+                }
+            },
+
+            // Version 4 adds the thumbnail key for the catalog images.
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                            + ProductEntry.COLUMN_PRODUCT_THUMBNAIL + " TEXT;");
+                }
+            },
+
+            // Version 5 indexes the images, so the image store can count their references.
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX " + IMAGE_INDEX + " ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_PRODUCT_IMAGE + ");");
+                }
+            },
+
+            // Version 6 keeps running totals for the catalog statistics.
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createStatsTable(db);
+                }
+            },
+
+            // Version 7 adds the ledger of stock movements and the view of the current stock.
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createMovementsTable(db);
+                }
+            },
+
+            // Version 8 keeps the progress of a CSV import next to the Products it imported.
+            new Migration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + IMPORT_CHECKPOINT_TABLE + " ("
+                            + ProductEntry._ID + " INTEGER PRIMARY KEY CHECK ("
+                            + ProductEntry._ID + " = 0), "
+                            + COLUMN_IMPORT_ID + " TEXT NOT NULL, "
+                            + COLUMN_IMPORT_LINES + " INTEGER NOT NULL, "
+                            + COLUMN_IMPORT_IMPORTED + " INTEGER NOT NULL, "
+                            + COLUMN_IMPORT_REJECTED + " INTEGER NOT NULL);");
+                }
+            }
+    };
+
     /**
-     * Database version. If you change the database schema, you must increment the database version.
+     * Database version. It follows from the migration steps: version 1 plus one per step.
      */
-    private static final int DATABASE_VERSION = 1;
+    static final int DATABASE_VERSION = 1 + MIGRATIONS.length;
 
     /**
      * constructs a new instance of {@link ProductDbHelper}
@@ -28,11 +144,26 @@ public class ProductDbHelper extends SQLiteOpenHelper {
      * @param context of the app
      */
     public ProductDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
     }
 
     /**
-     * This is called when the database is created for the first time.
+     * constructs a new instance of {@link ProductDbHelper} for the given database file
+     *
+     * @param context of the app
+     * @param name    of the database file
+     */
+    ProductDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+
+        // With write-ahead logging readers work on a snapshot and never wait for a writer.
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * This is called when the database is created for the first time. The first version of the
+     * schema is created and then upgraded step by step, so a new database always ends up exactly
+     * like an upgraded one.
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
@@ -48,13 +179,148 @@ public class ProductDbHelper extends SQLiteOpenHelper {
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_INVENTORY_TABLE);
 
+        onUpgrade(db, 1, DATABASE_VERSION);
     }
 
     /**
-     * This is called when the database needs to be upgraded.
+     * This is called when the database needs to be upgraded. Runs every migration step from the
+     * old version up to the new one. SQLiteOpenHelper calls this inside a transaction.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        for (Migration migration : MIGRATIONS) {
+            if (migration.fromVersion >= oldVersion && migration.fromVersion < newVersion) {
+                Log.i(LOG_TAG, "Migrating database from version " + migration.fromVersion);
+                migration.migrate(db);
+            }
+        }
+    }
+
+    /*
+     * Create the single-row table of running totals over the inventory, fill it from the rows
+     * that exist, and add the triggers that keep it up to date. A missing quantity or price counts
+     * as 0, like SUM() skipping it would. A sale touches one row of it, next to the Product.
+     */
+    private static void createStatsTable(SQLiteDatabase db) {
+        String units = "IFNULL(%1$s." + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", 0)";
+        String value = "IFNULL(%1$s." + ProductEntry.COLUMN_PRODUCT_PRICE + ", 0) * " + units;
+
+        db.execSQL("CREATE TABLE " + ProductEntry.STATS_TABLE_NAME + " ("
+                + ProductEntry._ID + " INTEGER PRIMARY KEY CHECK (" + ProductEntry._ID + " = 0), "
+                + ProductEntry.COLUMN_STATS_COUNT + " INTEGER NOT NULL, "
+                + ProductEntry.COLUMN_STATS_UNITS + " INTEGER NOT NULL, "
+                + ProductEntry.COLUMN_STATS_VALUE + " INTEGER NOT NULL);");
+
+        db.execSQL("INSERT INTO " + ProductEntry.STATS_TABLE_NAME + " SELECT 0, COUNT(*), "
+                + "IFNULL(SUM(" + String.format(units, ProductEntry.TABLE_NAME) + "), 0), "
+                + "IFNULL(SUM(" + String.format(value, ProductEntry.TABLE_NAME) + "), 0) "
+                + "FROM " + ProductEntry.TABLE_NAME + ";");
+
+        db.execSQL("CREATE TRIGGER " + ProductEntry.STATS_TABLE_NAME + "_insert AFTER INSERT ON "
+                + ProductEntry.TABLE_NAME + " BEGIN UPDATE " + ProductEntry.STATS_TABLE_NAME
+                + " SET " + ProductEntry.COLUMN_STATS_COUNT + " = "
+                + ProductEntry.COLUMN_STATS_COUNT + " + 1, "
+                + ProductEntry.COLUMN_STATS_UNITS + " = " + ProductEntry.COLUMN_STATS_UNITS
+                + " + " + String.format(units, "new") + ", "
+                + ProductEntry.COLUMN_STATS_VALUE + " = " + ProductEntry.COLUMN_STATS_VALUE
+                + " + " + String.format(value, "new") + "; END;");
+
+        db.execSQL("CREATE TRIGGER " + ProductEntry.STATS_TABLE_NAME + "_delete AFTER DELETE ON "
+                + ProductEntry.TABLE_NAME + " BEGIN UPDATE " + ProductEntry.STATS_TABLE_NAME
+                + " SET " + ProductEntry.COLUMN_STATS_COUNT + " = "
+                + ProductEntry.COLUMN_STATS_COUNT + " - 1, "
+                + ProductEntry.COLUMN_STATS_UNITS + " = " + ProductEntry.COLUMN_STATS_UNITS
+                + " - " + String.format(units, "old") + ", "
+                + ProductEntry.COLUMN_STATS_VALUE + " = " + ProductEntry.COLUMN_STATS_VALUE
+                + " - " + String.format(value, "old") + "; END;");
+
+        db.execSQL("CREATE TRIGGER " + ProductEntry.STATS_TABLE_NAME + "_update AFTER UPDATE OF "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " + ProductEntry.COLUMN_PRODUCT_PRICE
+                + " ON " + ProductEntry.TABLE_NAME + " BEGIN UPDATE "
+                + ProductEntry.STATS_TABLE_NAME + " SET "
+                + ProductEntry.COLUMN_STATS_UNITS + " = " + ProductEntry.COLUMN_STATS_UNITS
+                + " - " + String.format(units, "old") + " + " + String.format(units, "new") + ", "
+                + ProductEntry.COLUMN_STATS_VALUE + " = " + ProductEntry.COLUMN_STATS_VALUE
+                + " - " + String.format(value, "old") + " + " + String.format(value, "new")
+                + "; END;");
+    }
+
+    /*
+     * Create the stock movements table, its index by Product, the trigger that deletes the
+     * movements of a deleted Product, and the view of the current quantities. A movement is one
+     * insert and one index entry; the Product row, its indexes and the running totals are only
+     * touched when the movements are folded in. The view lists the columns of the inventory
+     * table one by one, so a migration that adds a column has to create it again.
+     */
+    private static void createMovementsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + StockMovementEntry.TABLE_NAME + " ("
+                + StockMovementEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + StockMovementEntry.COLUMN_PRODUCT_ID + " INTEGER NOT NULL, "
+                + StockMovementEntry.COLUMN_DELTA + " INTEGER NOT NULL, "
+                + StockMovementEntry.COLUMN_REASON + " TEXT NOT NULL, "
+                + StockMovementEntry.COLUMN_TIMESTAMP + " INTEGER NOT NULL);");
+
+        db.execSQL("CREATE INDEX " + MOVEMENTS_INDEX + " ON " + StockMovementEntry.TABLE_NAME
+                + " (" + StockMovementEntry.COLUMN_PRODUCT_ID + ", "
+                + StockMovementEntry.COLUMN_DELTA + ");");
+
+        db.execSQL("CREATE TRIGGER " + StockMovementEntry.TABLE_NAME + "_delete AFTER DELETE ON "
+                + ProductEntry.TABLE_NAME + " BEGIN DELETE FROM " + StockMovementEntry.TABLE_NAME
+                + " WHERE " + StockMovementEntry.COLUMN_PRODUCT_ID + " = old." + ProductEntry._ID
+                + "; END;");
+
+        db.execSQL("CREATE VIEW " + CURRENT_VIEW + " AS SELECT "
+                + ProductEntry._ID + ", "
+                + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + " + IFNULL((SELECT SUM("
+                + StockMovementEntry.COLUMN_DELTA + ") FROM " + StockMovementEntry.TABLE_NAME
+                + " WHERE " + StockMovementEntry.COLUMN_PRODUCT_ID + " = "
+                + ProductEntry.TABLE_NAME + "." + ProductEntry._ID + "), 0) AS "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                + ProductEntry.COLUMN_PRODUCT_IMAGE + ", "
+                + ProductEntry.COLUMN_PRODUCT_THUMBNAIL
+                + " FROM " + ProductEntry.TABLE_NAME + ";");
+    }
+
+    /*
+     * Create the full-text index over the product names, and the triggers that keep it in sync
+     * with the inventory table. The index is an external content table, so the names are not
+     * stored twice. Only a change of the name touches the index, a sale does not.
+     */
+    private static void createSearchTable(SQLiteDatabase db) {
+
+        db.execSQL("CREATE VIRTUAL TABLE " + ProductEntry.SEARCH_TABLE_NAME + " USING fts4("
+                + "content=\"" + ProductEntry.TABLE_NAME + "\", "
+                + "prefix=\"2,3\", "
+                + ProductEntry.COLUMN_PRODUCT_NAME + ");");
+
+        db.execSQL("CREATE TRIGGER " + ProductEntry.SEARCH_TABLE_NAME + "_insert"
+                + " AFTER INSERT ON " + ProductEntry.TABLE_NAME + " BEGIN "
+                + "INSERT INTO " + ProductEntry.SEARCH_TABLE_NAME
+                + "(docid, " + ProductEntry.COLUMN_PRODUCT_NAME + ")"
+                + " VALUES(new." + ProductEntry._ID + ", new." + ProductEntry.COLUMN_PRODUCT_NAME + ");"
+                + " END;");
+
+        db.execSQL("CREATE TRIGGER " + ProductEntry.SEARCH_TABLE_NAME + "_before_update"
+                + " BEFORE UPDATE OF " + ProductEntry.COLUMN_PRODUCT_NAME
+                + " ON " + ProductEntry.TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + ProductEntry.SEARCH_TABLE_NAME
+                + " WHERE docid=old." + ProductEntry._ID + ";"
+                + " END;");
+
+        db.execSQL("CREATE TRIGGER " + ProductEntry.SEARCH_TABLE_NAME + "_after_update"
+                + " AFTER UPDATE OF " + ProductEntry.COLUMN_PRODUCT_NAME
+                + " ON " + ProductEntry.TABLE_NAME + " BEGIN "
+                + "INSERT INTO " + ProductEntry.SEARCH_TABLE_NAME
+                + "(docid, " + ProductEntry.COLUMN_PRODUCT_NAME + ")"
+                + " VALUES(new." + ProductEntry._ID + ", new." + ProductEntry.COLUMN_PRODUCT_NAME + ");"
+                + " END;");
+
+        db.execSQL("CREATE TRIGGER " + ProductEntry.SEARCH_TABLE_NAME + "_delete"
+                + " BEFORE DELETE ON " + ProductEntry.TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + ProductEntry.SEARCH_TABLE_NAME
+                + " WHERE docid=old." + ProductEntry._ID + ";"
+                + " END;");
     }
 }
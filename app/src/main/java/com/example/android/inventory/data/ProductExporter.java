@@ -0,0 +1,252 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Writes the whole inventory table into the pipe of an export, as CSV or JSON (see
+ * {@link ProductEntry#EXPORT_CSV_TYPE} and {@link ProductEntry#EXPORT_JSON_TYPE}).
+ * <p>
+ * The table is read in windows of {@link #WINDOW_ROWS} rows, in ID order, one short query per
+ * window. Memory use stays the same however large the table is, and no read transaction is held
+ * open for the length of the export. Each window is its own snapshot, so Products changed while
+ * the export runs may be exported either way, but every Product that exists throughout is
+ * exported exactly once.
+ * <p>
+ * The database lock of the provider is held while a window is read only, so a restore waits for
+ * one query at most and the export carries on in the restored database.
+ */
+final class ProductExporter implements ContentProvider.PipeDataWriter<ProductDbHelper> {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = ProductExporter.class.getSimpleName();
+
+    /** Number of rows read per query; a window of this size fits into one CursorWindow */
+    static final int WINDOW_ROWS = 1000;
+
+    /** Charset of the export, by name for OutputStreamWriter on API 19 */
+    private static final String UTF_8 = "UTF-8";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Size of the buffer in front of the pipe */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The exported columns, in this order */
+    private static final String[] COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_IMAGE};
+
+    private static final int ID = 0;
+    private static final int NAME = 1;
+    private static final int QUANTITY = 2;
+    private static final int PRICE = 3;
+    private static final int IMAGE = 4;
+
+    /** Lock held for reading the database */
+    private final Lock lock;
+
+    /**
+     * @param lock the lock to hold while reading the database
+     */
+    ProductExporter(Lock lock) {
+        this.lock = lock;
+    }
+
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                Bundle opts, ProductDbHelper dbHelper) {
+        boolean json = ProductEntry.EXPORT_JSON_TYPE.equals(mimeType);
+
+        long rows = 0;
+        try {
+            // The pipe is closed by openPipeHelper() once this returns, not by the writer
+            Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(output.getFileDescriptor()), UTF_8), BUFFER_SIZE);
+
+            if (json)
+                writer.write('[');
+            else
+                writeCsvHeader(writer);
+
+            String[] lastId = {"0"};
+            while (true) {
+                Cursor cursor;
+                int count;
+                lock.lock();
+                try {
+                    cursor = dbHelper.getReadableDatabase().query(ProductDbHelper.CURRENT_VIEW,
+                            COLUMNS, ProductEntry._ID + ">?", lastId, null, null,
+                            ProductEntry._ID + " ASC", String.valueOf(WINDOW_ROWS));
+                    // Fills the cursor window: the rows are written without the lock
+                    count = cursor.getCount();
+                } finally {
+                    lock.unlock();
+                }
+
+                try {
+                    while (cursor.moveToNext()) {
+                        if (json)
+                            writeJsonRow(writer, cursor, rows == 0);
+                        else
+                            writeCsvRow(writer, cursor);
+                        rows++;
+                    }
+                    if (cursor.moveToLast())
+                        lastId[0] = String.valueOf(cursor.getLong(ID));
+                } finally {
+                    cursor.close();
+                }
+
+                if (count < WINDOW_ROWS)
+                    break;
+            }
+
+            if (json)
+                writer.write("\n]\n");
+            writer.flush();
+        } catch (IOException e) {
+            // Most likely the reader closed the pipe before the end: nothing left to do
+            Log.w(LOG_TAG, "Export of " + uri + " stopped after " + rows + " rows", e);
+        }
+    }
+
+    private static void writeCsvHeader(Writer writer) throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0)
+                writer.write(',');
+            writer.write(COLUMNS[i]);
+        }
+        writer.write('\n');
+    }
+
+    private static void writeCsvRow(Writer writer, Cursor cursor) throws IOException {
+        writer.write(Long.toString(cursor.getLong(ID)));
+        writer.write(',');
+        writeCsvText(writer, cursor.getString(NAME));
+        writer.write(',');
+        if (!cursor.isNull(QUANTITY))
+            writer.write(Integer.toString(cursor.getInt(QUANTITY)));
+        writer.write(',');
+        if (!cursor.isNull(PRICE))
+            writer.write(Integer.toString(cursor.getInt(PRICE)));
+        writer.write(',');
+        writeCsvText(writer, cursor.getString(IMAGE));
+        writer.write('\n');
+    }
+
+    /*
+     * A text field, quoted if it holds a comma, a quote or a line break. Null is written as an
+     * empty field.
+     */
+    private static void writeCsvText(Writer writer, String text) throws IOException {
+        if (text == null)
+            return;
+
+        boolean quote = false;
+        for (int i = 0; i < text.length() && !quote; i++) {
+            char c = text.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if (!quote) {
+            writer.write(text);
+            return;
+        }
+
+        writer.write('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"')
+                writer.write('"');
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    private static void writeJsonRow(Writer writer, Cursor cursor, boolean first)
+            throws IOException {
+        writer.write(first ? "\n{\"" : ",\n{\"");
+        writer.write(COLUMNS[ID]);
+        writer.write("\":");
+        writer.write(Long.toString(cursor.getLong(ID)));
+
+        writer.write(",\"");
+        writer.write(COLUMNS[NAME]);
+        writer.write("\":");
+        writeJsonText(writer, cursor.getString(NAME));
+
+        writer.write(",\"");
+        writer.write(COLUMNS[QUANTITY]);
+        writer.write("\":");
+        writer.write(cursor.isNull(QUANTITY)
+                ? "null" : Integer.toString(cursor.getInt(QUANTITY)));
+
+        writer.write(",\"");
+        writer.write(COLUMNS[PRICE]);
+        writer.write("\":");
+        writer.write(cursor.isNull(PRICE) ? "null" : Integer.toString(cursor.getInt(PRICE)));
+
+        writer.write(",\"");
+        writer.write(COLUMNS[IMAGE]);
+        writer.write("\":");
+        writeJsonText(writer, cursor.getString(IMAGE));
+        writer.write('}');
+    }
+
+    private static void writeJsonText(Writer writer, String text) throws IOException {
+        if (text == null) {
+            writer.write("null");
+            return;
+        }
+
+        writer.write('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        // Other control characters, as \u00XX
+                        writer.write("\\u00");
+                        writer.write(HEX_DIGITS[c >> 4]);
+                        writer.write(HEX_DIGITS[c & 0xf]);
+                    } else {
+                        writer.write(c);
+                    }
+                    break;
+            }
+        }
+        writer.write('"');
+    }
+}
@@ -0,0 +1,658 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Imports Products from a CSV file, such as a supplier catalog picked through the Storage Access
+ * Framework. The first line names the columns: {@code name} is required, {@code quantity} and
+ * {@code price} are optional, other columns are ignored.
+ * <p>
+ * The file is streamed, so its size doesn't matter. Every line is checked with the rules of
+ * {@link ProductProvider#insert}; a line that breaks them is reported with its line number and
+ * skipped, the rest is inserted in batches of one transaction each. The batch size is tuned while
+ * the import runs, so that a transaction holds the database for about
+ * {@link #TARGET_BATCH_MILLIS}: long enough to insert efficiently, short enough that a sale in
+ * the catalog doesn't wait noticeably.
+ * <p>
+ * Every batch saves how far the import got in its own transaction (see
+ * {@link ProductContract#METHOD_IMPORT_BATCH}), so the saved progress always matches the Products
+ * committed. A cancelled or killed import continues from there when the same file is imported
+ * again, without importing a line twice.
+ */
+public final class ProductImporter {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = ProductImporter.class.getSimpleName();
+
+    /** Names of the columns read from the CSV header, compared ignoring case */
+    public static final String COLUMN_NAME = "name";
+    public static final String COLUMN_QUANTITY = "quantity";
+    public static final String COLUMN_PRICE = "price";
+
+    /** Bounds of the batch size, in rows */
+    private static final int MIN_BATCH_SIZE = 64;
+    private static final int MAX_BATCH_SIZE = 8192;
+    private static final int INITIAL_BATCH_SIZE = 256;
+
+    /** The batch size is tuned so a batch transaction takes about this long */
+    private static final long TARGET_BATCH_MILLIS = 50;
+
+    /** Number of line errors kept for the report; the rest is only counted */
+    public static final int MAX_REPORTED_ERRORS = 100;
+
+    /**
+     * Shared preferences naming the import that can be resumed. Its progress is saved in the
+     * database, with the batches.
+     */
+    private static final String PREFERENCES = "product_import";
+
+    /** Keys of the resumable import: the file, its size, and the ID its batches are saved under */
+    private static final String KEY_SOURCE = "source";
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_IMPORT_ID = "importId";
+
+    /**
+     * Receives the progress of an import on the main thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called after every committed batch.
+         */
+        void onProgress(Progress progress);
+
+        /**
+         * Called when the whole file has been imported, or the import has been cancelled.
+         */
+        void onFinished(Progress progress);
+
+        /**
+         * @param e why the import stopped. What was imported before stays imported, and the
+         *          import can be resumed.
+         */
+        void onFailure(Exception e);
+    }
+
+    /**
+     * A line of the file that was not imported.
+     */
+    public static final class LineError {
+
+        /** Number of the line, counting from 1 */
+        public final long line;
+
+        /** What is wrong with the line */
+        public final String message;
+
+        LineError(long line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return "Line " + line + ": " + message;
+        }
+    }
+
+    /**
+     * Snapshot of the progress of an import.
+     */
+    public static final class Progress {
+
+        /** The file being imported */
+        public final Uri source;
+
+        /** Number of lines read, including the header */
+        public final long lines;
+
+        /** Number of Products imported, including those of a previous run that was resumed */
+        public final long imported;
+
+        /** Number of lines that were not imported */
+        public final long rejected;
+
+        /** Number of bytes of the file read so far */
+        public final long bytesRead;
+
+        /** Size of the file in bytes, or -1 if it is not known */
+        public final long totalBytes;
+
+        /** Number of Products imported per second in this run */
+        public final long rowsPerSecond;
+
+        /** True if the import was cancelled before the end of the file */
+        public final boolean cancelled;
+
+        /** The first {@link #MAX_REPORTED_ERRORS} lines of this run that were not imported */
+        public final List<LineError> errors;
+
+        Progress(Uri source, long lines, long imported, long rejected, long bytesRead,
+                 long totalBytes, long rowsPerSecond, boolean cancelled, List<LineError> errors) {
+            this.source = source;
+            this.lines = lines;
+            this.imported = imported;
+            this.rejected = rejected;
+            this.bytesRead = bytesRead;
+            this.totalBytes = totalBytes;
+            this.rowsPerSecond = rowsPerSecond;
+            this.cancelled = cancelled;
+            this.errors = errors;
+        }
+
+        /**
+         * @return how much of the file has been read, from 0 to 100, or -1 if the size of the
+         * file is not known
+         */
+        public int getPercent() {
+            if (totalBytes <= 0)
+                return -1;
+            return (int) Math.min(100, bytesRead * 100 / totalBytes);
+        }
+
+        @Override
+        public String toString() {
+            return lines + " lines, " + imported + " imported, " + rejected + " rejected, "
+                    + rowsPerSecond + " rows/s" + (cancelled ? ", cancelled" : "");
+        }
+    }
+
+    private static ProductImporter instance;
+
+    private final ContentResolver resolver;
+
+    private final SharedPreferences checkpoint;
+
+    /** Runs the imports, one at a time */
+    private final ExecutorService executor;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** The import running or queued, null if there is none */
+    private Future<Progress> running;
+
+    /**
+     * Set to stop the running import before its next line. A flag rather than an interrupt:
+     * waiting threads clear the interrupt, so it could be lost.
+     */
+    private volatile boolean cancelled;
+
+    /* Only used on the main thread: */
+    private Listener listener;
+    private Progress lastProgress;
+    private Progress undeliveredResult;
+
+    /**
+     * @param context of the app
+     * @return the importer of the app
+     */
+    public static synchronized ProductImporter getInstance(Context context) {
+        if (instance == null)
+            instance = new ProductImporter(context.getApplicationContext());
+        return instance;
+    }
+
+    private ProductImporter(Context context) {
+        resolver = context.getContentResolver();
+        checkpoint = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, LOG_TAG);
+            }
+        });
+    }
+
+    /**
+     * Import the Products in the given CSV file in the background. If an import of the same file
+     * was cancelled or interrupted and the file hasn't changed size since, it is resumed after
+     * the last batch it committed.
+     *
+     * @param source URI of the file, readable with {@link ContentResolver#openInputStream}
+     * @return the pending result of the import
+     * @throws IllegalStateException if an import is running already
+     */
+    public synchronized Future<Progress> importCsv(final Uri source) {
+        if (isRunning())
+            throw new IllegalStateException("An import is running already");
+
+        cancelled = false;
+        running = executor.submit(new Callable<Progress>() {
+            @Override
+            public Progress call() throws Exception {
+                try {
+                    Progress result = run(source);
+                    deliverFinished(result);
+                    return result;
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "Import of " + source + " failed", e);
+                    deliverFailure(e);
+                    throw e;
+                }
+            }
+        });
+        return running;
+    }
+
+    /**
+     * @return true while an import is running
+     */
+    public synchronized boolean isRunning() {
+        return running != null && !running.isDone();
+    }
+
+    /**
+     * Stop the running import after the batch it is committing. It can be resumed later. The
+     * result of the import is delivered as usual, {@link Progress#cancelled} set.
+     */
+    public synchronized void cancel() {
+        if (isRunning())
+            cancelled = true;
+    }
+
+    /**
+     * @return the file of an import that was cancelled or interrupted and can be resumed, or null
+     */
+    public Uri getResumableImport() {
+        String source = checkpoint.getString(KEY_SOURCE, null);
+        return source == null ? null : Uri.parse(source);
+    }
+
+    /**
+     * Set the listener that receives the progress of the imports, replacing the one set before.
+     * A new listener is told the current progress of a running import, or the result of an import
+     * that finished while there was no listener. Call it on the main thread.
+     *
+     * @param listener the listener, or null to stop listening
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+        if (listener == null)
+            return;
+
+        if (undeliveredResult != null) {
+            Progress result = undeliveredResult;
+            undeliveredResult = null;
+            listener.onFinished(result);
+        } else if (lastProgress != null && isRunning()) {
+            listener.onProgress(lastProgress);
+        }
+    }
+
+    /*
+     * Import the file on the import thread.
+     */
+    private Progress run(Uri source) throws IOException {
+        long totalBytes = sizeOf(source);
+
+        // Lines up to this one were committed by an earlier run
+        long resumeAfter = 0;
+        long imported = 0;
+        long rejected = 0;
+
+        String importId = checkpoint.getString(KEY_IMPORT_ID, null);
+        if (importId != null && source.toString().equals(checkpoint.getString(KEY_SOURCE, null))
+                && checkpoint.getLong(KEY_SIZE, -1) == totalBytes) {
+            Bundle saved = resolver.call(ProductEntry.CONTENT_URI,
+                    ProductContract.METHOD_IMPORT_CHECKPOINT, importId, null);
+            if (saved != null) {
+                resumeAfter = saved.getLong(ProductContract.EXTRA_LINES);
+                imported = saved.getLong(ProductContract.EXTRA_IMPORTED);
+                rejected = saved.getLong(ProductContract.EXTRA_REJECTED);
+            }
+            Log.i(LOG_TAG, "Resuming the import of " + source + " after line " + resumeAfter);
+        } else {
+            // A new ID, so the progress saved by any earlier import doesn't apply
+            importId = UUID.randomUUID().toString();
+            saveCheckpoint(source, totalBytes, importId);
+        }
+
+        InputStream in = resolver.openInputStream(source);
+        if (in == null)
+            throw new FileNotFoundException("Cannot open " + source);
+
+        CountingInputStream counting = new CountingInputStream(in);
+        CsvReader csv = new CsvReader(new InputStreamReader(counting, "UTF-8"));
+        try {
+            List<String> header = csv.readRecord();
+            if (header == null) {
+                clearCheckpoint();
+                return new Progress(source, 0, 0, 0, 0, totalBytes, 0, false,
+                        Collections.<LineError>emptyList());
+            }
+
+            int nameColumn = indexOf(header, COLUMN_NAME);
+            int quantityColumn = indexOf(header, COLUMN_QUANTITY);
+            int priceColumn = indexOf(header, COLUMN_PRICE);
+            if (nameColumn < 0)
+                throw new IOException("Line 1: there is no \"" + COLUMN_NAME + "\" column");
+
+            long lines = csv.getRecordLine();
+
+            // Skip what the earlier run committed already
+            while (lines < resumeAfter && csv.readRecord() != null)
+                lines = csv.getRecordLine();
+
+            ArrayList<LineError> errors = new ArrayList<>();
+            int batchSize = INITIAL_BATCH_SIZE;
+            ContentValues[] batch = new ContentValues[batchSize];
+            int pending = 0;
+
+            long startedAt = SystemClock.elapsedRealtime();
+            long importedThisRun = 0;
+            boolean stopped = false;
+
+            List<String> record;
+            while (true) {
+                if (cancelled) {
+                    stopped = true;
+                    break;
+                }
+
+                record = csv.readRecord();
+                if (record == null)
+                    break;
+                lines = csv.getRecordLine();
+
+                if (isBlank(record))
+                    continue;
+
+                if (batch[pending] == null)
+                    batch[pending] = new ContentValues(3);
+                ContentValues values = batch[pending];
+                values.clear();
+
+                String error = toValues(record, nameColumn, quantityColumn, priceColumn, values);
+                if (error != null) {
+                    rejected++;
+                    if (errors.size() < MAX_REPORTED_ERRORS) {
+                        LineError lineError = new LineError(lines, error);
+                        errors.add(lineError);
+                        Log.w(LOG_TAG, lineError.toString());
+                    }
+                    continue;
+                }
+
+                if (++pending < batchSize)
+                    continue;
+
+                long batchStart = SystemClock.elapsedRealtime();
+                int inserted = insertBatch(importId, batch, lines, imported, rejected);
+                long batchMillis = SystemClock.elapsedRealtime() - batchStart;
+
+                imported += inserted;
+                importedThisRun += inserted;
+                rejected += pending - inserted;
+                pending = 0;
+
+                int tuned = tuneBatchSize(batchSize, batchMillis);
+                if (tuned != batchSize) {
+                    batchSize = tuned;
+                    batch = Arrays.copyOf(batch, batchSize);
+                }
+
+                deliverProgress(new Progress(source, lines, imported, rejected,
+                        counting.getCount(), totalBytes,
+                        rowsPerSecond(importedThisRun, startedAt), false,
+                        new ArrayList<>(errors)));
+            }
+
+            // A cancelled import drops its partial batch, it is read again on resume
+            if (!stopped && pending != 0) {
+                int inserted = insertBatch(importId, Arrays.copyOf(batch, pending), lines,
+                        imported, rejected);
+                imported += inserted;
+                importedThisRun += inserted;
+                rejected += pending - inserted;
+            }
+
+            if (stopped)
+                Log.i(LOG_TAG, "Import of " + source + " cancelled at line " + lines);
+            else
+                clearCheckpoint();
+
+            Progress result = new Progress(source, lines, imported, rejected,
+                    counting.getCount(), totalBytes, rowsPerSecond(importedThisRun, startedAt),
+                    stopped, Collections.unmodifiableList(errors));
+            Log.i(LOG_TAG, "Import of " + source + ": " + result);
+            return result;
+        } finally {
+            csv.close();
+        }
+    }
+
+    /*
+     * Insert a batch of Products and save the progress up to its last line in one transaction.
+     * The counts are those before the batch. Returns the number of Products inserted.
+     */
+    private int insertBatch(String importId, ContentValues[] batch, long lines, long imported,
+                            long rejected) {
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(ProductContract.EXTRA_VALUES, batch);
+        extras.putLong(ProductContract.EXTRA_LINES, lines);
+        extras.putLong(ProductContract.EXTRA_IMPORTED, imported);
+        extras.putLong(ProductContract.EXTRA_REJECTED, rejected);
+        return resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_IMPORT_BATCH,
+                importId, extras).getInt(ProductContract.EXTRA_ROWS);
+    }
+
+    /*
+     * Double the batch size while batches are quick, halve it when they hold the database for too
+     * long.
+     */
+    private static int tuneBatchSize(int batchSize, long batchMillis) {
+        if (batchMillis < TARGET_BATCH_MILLIS / 2)
+            return Math.min(batchSize * 2, MAX_BATCH_SIZE);
+        if (batchMillis > TARGET_BATCH_MILLIS * 2)
+            return Math.max(batchSize / 2, MIN_BATCH_SIZE);
+        return batchSize;
+    }
+
+    /*
+     * Fill in the values of the Product on a line. Returns what is wrong with the line, or null if
+     * it is a valid Product.
+     */
+    private static String toValues(List<String> record, int nameColumn, int quantityColumn,
+                                   int priceColumn, ContentValues values) {
+        String name = field(record, nameColumn);
+        if (name != null)
+            values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+
+        String quantity = field(record, quantityColumn);
+        if (quantity != null) {
+            try {
+                values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, Integer.parseInt(quantity));
+            } catch (NumberFormatException e) {
+                return "Quantity is not a number: " + quantity;
+            }
+        }
+
+        String price = field(record, priceColumn);
+        if (price != null) {
+            try {
+                values.put(ProductEntry.COLUMN_PRODUCT_PRICE, Integer.parseInt(price));
+            } catch (NumberFormatException e) {
+                return "Price is not a number: " + price;
+            }
+        }
+
+        try {
+            ProductValidator.validateNewProduct(values);
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+        return null;
+    }
+
+    /*
+     * The trimmed field in the given column, or null if it is empty or missing.
+     */
+    private static String field(List<String> record, int column) {
+        if (column < 0 || column >= record.size())
+            return null;
+        String value = record.get(column).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static boolean isBlank(List<String> record) {
+        for (String value : record)
+            if (!value.trim().isEmpty())
+                return false;
+        return true;
+    }
+
+    private static int indexOf(List<String> header, String column) {
+        for (int i = 0; i < header.size(); i++)
+            if (header.get(i).trim().equalsIgnoreCase(column))
+                return i;
+        return -1;
+    }
+
+    private static long rowsPerSecond(long rows, long startedAt) {
+        long millis = SystemClock.elapsedRealtime() - startedAt;
+        return millis == 0 ? rows * 1000 : rows * 1000 / millis;
+    }
+
+    /*
+     * The size of the file in bytes, or -1 if it isn't known.
+     */
+    private long sizeOf(Uri source) {
+        if (ContentResolver.SCHEME_FILE.equals(source.getScheme()))
+            return new File(source.getPath()).length();
+
+        Cursor cursor = resolver.query(source, new String[]{OpenableColumns.SIZE},
+                null, null, null);
+        if (cursor == null)
+            return -1;
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void saveCheckpoint(Uri source, long size, String importId) {
+        // commit() rather than apply(): the ID has to be on disk before the first batch
+        checkpoint.edit()
+                .putString(KEY_SOURCE, source.toString())
+                .putLong(KEY_SIZE, size)
+                .putString(KEY_IMPORT_ID, importId)
+                .commit();
+    }
+
+    private void clearCheckpoint() {
+        checkpoint.edit().clear().commit();
+    }
+
+    private void deliverProgress(final Progress progress) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                lastProgress = progress;
+                if (listener != null)
+                    listener.onProgress(progress);
+            }
+        });
+    }
+
+    private void deliverFinished(final Progress result) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                lastProgress = null;
+                if (listener != null)
+                    listener.onFinished(result);
+                else
+                    undeliveredResult = result;
+            }
+        });
+    }
+
+    private void deliverFailure(final Exception e) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                lastProgress = null;
+                if (listener != null)
+                    listener.onFailure(e);
+            }
+        });
+    }
+
+    /*
+     * Counts the bytes read from the file, for the progress.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0)
+                count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
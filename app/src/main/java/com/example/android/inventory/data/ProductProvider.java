@@ -1,15 +1,43 @@
 package com.example.android.inventory.data;
 
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.pm.ApplicationInfo;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
+import android.os.SystemClock;
+import android.provider.OpenableColumns;
 import android.util.Log;
 
 import com.example.android.inventory.data.ProductContract.ProductEntry;
+import com.example.android.inventory.data.ProductContract.StockMovementEntry;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class ProductProvider extends ContentProvider {
 
@@ -22,6 +50,19 @@ public class ProductProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single Product in the table */
     private static final int PRODUCT_ID = 101;
 
+    /** URI matcher code for the content URI for a full-text search on the Products */
+    private static final int PRODUCT_SEARCH = 102;
+
+    /** URI matcher code for the content URI for the aggregate statistics of the Products */
+    private static final int PRODUCT_STATS = 103;
+
+    /** URI matcher code for the content URI for the restock order of the Products */
+    private static final int PRODUCT_RESTOCK = 104;
+
+    /** The MIME types the Products can be exported as, the default first */
+    private static final String[] EXPORT_TYPES = {
+            ProductEntry.EXPORT_CSV_TYPE, ProductEntry.EXPORT_JSON_TYPE};
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -53,21 +94,139 @@ public class ProductProvider extends ContentProvider {
          * doesn't match.
          */
         uriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_INVENTORY + "/#", PRODUCT_ID);
+
+        /*
+         * The content URI of the form "content://com.example.android.inventory/items/search?q=mug"
+         * will map to the integer code {@link #PRODUCT_SEARCH}. This URI is used to find the rows
+         * of the inventory table whose name matches the search text.
+         */
+        uriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_INVENTORY + "/" + ProductContract.PATH_SEARCH, PRODUCT_SEARCH);
+
+        /*
+         * The content URI of the form "content://com.example.android.inventory/items/stats" will
+         * map to the integer code {@link #PRODUCT_STATS}. This URI returns a single row of
+         * aggregates over the inventory table.
+         */
+        uriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_INVENTORY + "/" + ProductContract.PATH_STATS, PRODUCT_STATS);
+
+        /*
+         * The content URI of the form "content://com.example.android.inventory/items/restock"
+         * will map to the integer code {@link #PRODUCT_RESTOCK}. This URI is opened as a stream,
+         * the restock order of the Products low on stock.
+         */
+        uriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_INVENTORY + "/" + ProductContract.PATH_RESTOCK,
+                PRODUCT_RESTOCK);
     }
 
     /** Database helper object */
     private ProductDbHelper dbHelper;
 
+    /** Store of the product images, told when a Product lets go of its image */
+    private ImageStore imageStore;
+
+    /** Number of rows {@link #rowCache} holds at most */
+    private static final int ROW_CACHE_SIZE = 256;
+
+    /**
+     * The most recently read single Products. The editor and the detail screens keep reading
+     * the same few rows, and a hit is served without going to SQLite.
+     */
+    private final ProductRowCache rowCache = new ProductRowCache(ROW_CACHE_SIZE);
+
+    /**
+     * Held for reading by every operation on the database, and for writing while
+     * {@link ProductContract#METHOD_RESTORE} swaps the database file, so no operation finds the
+     * database closed under it.
+     */
+    private final ReentrantReadWriteLock databaseLock = new ReentrantReadWriteLock();
+
+    /**
+     * Names of the URI patterns in the metrics: the match codes from {@link #PRODUCTS} on, in
+     * order, then the URIs that match none.
+     */
+    private static final String[] METRICS_PATTERNS = {
+            ProductContract.PATH_INVENTORY,
+            ProductContract.PATH_INVENTORY + "/#",
+            ProductContract.PATH_INVENTORY + "/" + ProductContract.PATH_SEARCH,
+            ProductContract.PATH_INVENTORY + "/" + ProductContract.PATH_STATS,
+            ProductContract.PATH_INVENTORY + "/" + ProductContract.PATH_RESTOCK,
+            "unmatched"};
+
+    /** Latencies and counters of the operations, recorded in debuggable builds only */
+    private ProviderMetrics metrics;
+
+    /** Folds the stock movements into the quantities, in the background */
+    private MovementCompactor compactor;
+
+    /** Writes the restock orders into their pipes */
+    private RestockOrderWriter restockWriter;
+
+    /** Writes the exports of the Products into their pipes */
+    private final ProductExporter exporter = new ProductExporter(databaseLock.readLock());
+
+    /**
+     * Set while {@link #applyBatch(ArrayList)} runs on the calling binder thread. Change
+     * notifications raised by the individual operations are held back and a single notification
+     * is sent once the whole batch has been committed.
+     */
+    private final ThreadLocal<Boolean> applyingBatch = new ThreadLocal<>();
+
     @Override
     public boolean onCreate() {
 
         dbHelper = new ProductDbHelper(getContext());
+        imageStore = ImageStore.getInstance(getContext());
+        compactor = new MovementCompactor(dbHelper, databaseLock.readLock());
+        restockWriter = new RestockOrderWriter(databaseLock.readLock(), compactor);
+
+        // The provider is created on the main thread before any activity: the place to turn on
+        // the debug instrumentation of the process
+        boolean debuggable =
+                (getContext().getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        metrics = new ProviderMetrics(METRICS_PATTERNS, debuggable);
+        if (debuggable)
+            MainThreadIo.enable();
         return true;
     }
 
     @Override
     public Cursor query(Uri uri, String[] projection, String selection,
                         String[] selectionArgs, String sortOrder) {
+        long start = metrics.start();
+        long rows = -1;
+
+        // Figure out if the URI matcher can match the URI to a specific code.
+        int match = uriMatcher.match(uri);
+
+        Cursor cursor = null;
+        MainThreadIo.ViolationException violation;
+        databaseLock.readLock().lock();
+        try {
+            cursor = queryProducts(match, uri, projection, selection, selectionArgs, sortOrder);
+            // Counting fills the cursor window, which the caller would do anyway
+            rows = metrics.isEnabled() && cursor != null ? cursor.getCount() : 0;
+        } finally {
+            databaseLock.readLock().unlock();
+            violation = recordOperation(ProviderMetrics.QUERY, match, start, rows);
+        }
+
+        if (violation != null) {
+            if (cursor != null)
+                cursor.close();
+            throw violation;
+        }
+        return cursor;
+    }
+
+    /*
+     * Run a query on the URI with the given match code, see query(). The caller holds the
+     * database lock.
+     */
+    private Cursor queryProducts(int match, Uri uri, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder) {
 
         // Get readable database.
         SQLiteDatabase database = dbHelper.getReadableDatabase();
@@ -75,23 +234,92 @@ public class ProductProvider extends ContentProvider {
         // This cursor will hold the result of the query.
         Cursor cursor;
 
-        // Figure out if the URI matcher can match the URI to a specific code.
-        int match = uriMatcher.match(uri);
+        // The URI listeners of the cursor are notified for.
+        Uri notificationUri = uri;
 
         switch (match) {
+            case PRODUCT_SEARCH:
+                /*
+                 * For the PRODUCT_SEARCH code, narrow the selection to the Products whose name
+                 * matches the search text in the full-text index, then continue like PRODUCTS (a
+                 * search can be paged as well).
+                 */
+                String expression = matchExpression(
+                        uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_SEARCH));
+
+                if (expression == null) {
+                    // Nothing to search for matches nothing, rather than everything:
+                    selection = DatabaseUtils.concatenateWhere(selection, "0");
+                } else {
+                    selection = DatabaseUtils.concatenateWhere(selection, ProductEntry._ID
+                            + " IN (SELECT docid FROM " + ProductEntry.SEARCH_TABLE_NAME
+                            + " WHERE " + ProductEntry.SEARCH_TABLE_NAME + " MATCH ?)");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[]{expression});
+                }
+
+                // Search results change whenever any Product changes.
+                notificationUri = ProductEntry.CONTENT_URI;
+
+                // fall through
             case PRODUCTS:
                 /*
-                 * For the PRODUCTS code, query the inventory table directly with the given
+                 * For the PRODUCTS code, query the view of the current inventory with the given
                  * projection, selection, selection arguments, and sort order. The cursor could
-                 * contain multiple rows of the inventory table.
+                 * contain multiple rows of the inventory table, with their stock movements added
+                 * to the quantities.
+                 *
+                 * A paged URI (see {@link ProductEntry#buildPageUri}) narrows the selection to a
+                 * range of IDs and limits the number of rows. Keyset paging walks the primary key
+                 * index, so a page costs the same no matter how deep into the table it is.
                  */
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                String limit = null;
+
+                if (uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT) != null) {
+                    String after = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER);
+                    if (after != null) {
+                        selection = DatabaseUtils.concatenateWhere(selection,
+                                ProductEntry._ID + ">?");
+                        selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                                new String[]{String.valueOf(Long.parseLong(after))});
+                    }
+
+                    String upTo = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_UP_TO);
+                    if (upTo != null) {
+                        selection = DatabaseUtils.concatenateWhere(selection,
+                                ProductEntry._ID + "<=?");
+                        selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                                new String[]{String.valueOf(Long.parseLong(upTo))});
+                    }
+
+                    int pageSize = Integer.parseInt(
+                            uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT));
+                    if (pageSize <= 0)
+                        throw new IllegalArgumentException("Page size has to be positive: " + uri);
+
+                    limit = String.valueOf(Math.min(pageSize, ProductEntry.MAX_PAGE_SIZE));
+
+                    // The keyset only makes sense in ID order:
+                    sortOrder = ProductEntry._ID + " ASC";
+                }
+
+                /*
+                 * A filter reads the Products without movements from the table, so it can use
+                 * the indexes. A page stays on the view, which walks the IDs in order.
+                 */
+                if (limit == null && selection != null && !selection.isEmpty())
+                    cursor = database.query(currentRows(selection), projection, null,
+                            DatabaseUtils.appendSelectionArgs(selectionArgs, selectionArgs),
+                            null, null, sortOrder);
+                else
+                    cursor = database.query(ProductDbHelper.CURRENT_VIEW, projection, selection,
+                            selectionArgs, null, null, sortOrder, limit);
                 break;
 
             case PRODUCT_ID:
                 /*
-                 * For the PRODUCT_ID code, extract out the ID from the URI.
+                 * For the PRODUCT_ID code, extract out the ID from the URI and serve the row from
+                 * the row cache if it is there.
                  * For an example URI such as:
                  * "content://com.example.android.inventory/items/3", the selection will be
                  * "_id=?" and the selection argument will be a String array containing the actual
@@ -101,19 +329,54 @@ public class ProductProvider extends ContentProvider {
                  * arguments that will fill in the "?". Since we have 1 question mark in the
                  * selection, we have 1 String in the selection arguments' String array.
                  */
+                long id = ContentUris.parseId(uri);
+
+                cursor = rowCache.get(id, projection);
+                if (cursor != null)
+                    break;
+
                 selection = ProductEntry._ID + "=?";
 
                 selectionArgs = new String[]{
-                        String.valueOf(ContentUris.parseId(uri))
+                        String.valueOf(id)
                 };
 
                 /*
                  * This will perform a query on the inventory table where the _id equals 3 to return
-                 * a Cursor containing that row of the table.
+                 * a Cursor containing that row of the table. The whole row is read, so it can be
+                 * cached for any projection.
+                 */
+                long generation = rowCache.getGeneration();
+                Cursor row = database.query(ProductDbHelper.CURRENT_VIEW, null, selection,
+                        selectionArgs, null, null, null);
+                try {
+                    if (row.moveToFirst())
+                        cursor = rowCache.toCursor(rowCache.put(id, row, generation), projection);
+                } finally {
+                    row.close();
+                }
+
+                // No such Product, or a projection with expressions: let SQLite answer it.
+                if (cursor == null)
+                    cursor = database.query(ProductDbHelper.CURRENT_VIEW, projection, selection,
+                            selectionArgs, null, null, sortOrder);
+                break;
+
+            case PRODUCT_STATS:
+                cursor = queryStats(database, uri, selection, selectionArgs);
+
+                // The statistics change whenever any Product changes.
+                notificationUri = ProductEntry.CONTENT_URI;
+                break;
+
+            case PRODUCT_RESTOCK:
+                /*
+                 * The restock order is shared as a stream, and the apps it is shared with ask
+                 * for its name and size, as they would a FileProvider's.
                  */
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = queryRestockOrder(projection);
                 break;
+
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
@@ -122,23 +385,158 @@ public class ProductProvider extends ContentProvider {
          * Set notification URI on the Cursor, so we know what content URI the Cursor was created
          * for. If the data at this URI changes, then we know we need to update the Cursor.
          */
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
 
         // Return the cursor
         return cursor;
     }
 
+    /*
+     * The OpenableColumns of the restock order, in the order of the projection; the columns it
+     * doesn't know are left out. The size is null: the order is written while it is read.
+     */
+    private static Cursor queryRestockOrder(String[] projection) {
+        if (projection == null)
+            projection = new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+
+        ArrayList<String> columns = new ArrayList<>(projection.length);
+        ArrayList<Object> values = new ArrayList<>(projection.length);
+        for (String column : projection) {
+            if (OpenableColumns.DISPLAY_NAME.equals(column)) {
+                columns.add(column);
+                values.add(RestockOrderWriter.DISPLAY_NAME);
+            } else if (OpenableColumns.SIZE.equals(column)) {
+                columns.add(column);
+                values.add(null);
+            }
+        }
+
+        MatrixCursor cursor = new MatrixCursor(columns.toArray(new String[columns.size()]), 1);
+        cursor.addRow(values);
+        return cursor;
+    }
+
+    /*
+     * Compute the aggregate statistics of the Products in one query. Without a selection the
+     * totals come from the running totals table and only the low-stock count is counted, on the
+     * quantity index, so the cost doesn't grow with the size of the inventory. The stock
+     * movements not folded in yet are added on top; there are few of them. With a selection the
+     * matching rows of the current inventory are aggregated in a single pass, see currentRows().
+     */
+    private static Cursor queryStats(SQLiteDatabase database, Uri uri, String selection,
+                                     String[] selectionArgs) {
+        String threshold = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_LOW_STOCK);
+        threshold = String.valueOf(threshold == null
+                ? ProductEntry.DEFAULT_LOW_STOCK_THRESHOLD : Integer.parseInt(threshold));
+
+        String lowStock = ProductEntry.COLUMN_PRODUCT_QUANTITY + " < ?";
+
+        if (selection == null || selection.isEmpty()) {
+            // The Products with movements, joined with their summed up deltas
+            String moved = " FROM (SELECT " + StockMovementEntry.COLUMN_PRODUCT_ID + ", SUM("
+                    + StockMovementEntry.COLUMN_DELTA + ") AS " + StockMovementEntry.COLUMN_DELTA
+                    + " FROM " + StockMovementEntry.TABLE_NAME + " GROUP BY "
+                    + StockMovementEntry.COLUMN_PRODUCT_ID + ") AS m JOIN "
+                    + ProductEntry.TABLE_NAME + " AS i ON i." + ProductEntry._ID + " = m."
+                    + StockMovementEntry.COLUMN_PRODUCT_ID;
+
+            return database.rawQuery("SELECT "
+                    + ProductEntry.COLUMN_STATS_COUNT + ", "
+                    + ProductEntry.COLUMN_STATS_UNITS + " + (SELECT IFNULL(SUM(m."
+                    + StockMovementEntry.COLUMN_DELTA + "), 0)" + moved + ") AS "
+                    + ProductEntry.COLUMN_STATS_UNITS + ", "
+                    + ProductEntry.COLUMN_STATS_VALUE + " + (SELECT IFNULL(SUM(m."
+                    + StockMovementEntry.COLUMN_DELTA + " * IFNULL(i."
+                    + ProductEntry.COLUMN_PRODUCT_PRICE + ", 0)), 0)" + moved + ") AS "
+                    + ProductEntry.COLUMN_STATS_VALUE + ", "
+                    + "(SELECT COUNT(*) FROM " + ProductEntry.TABLE_NAME + " WHERE " + lowStock
+                    + ") + (SELECT IFNULL(SUM((i." + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                    + " + m." + StockMovementEntry.COLUMN_DELTA + " < ?) - (i."
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + " < ?)), 0)" + moved + ") AS "
+                    + ProductEntry.COLUMN_STATS_LOW_STOCK
+                    + " FROM " + ProductEntry.STATS_TABLE_NAME,
+                    new String[]{threshold, threshold, threshold});
+        }
+
+        return database.rawQuery("SELECT "
+                        + "COUNT(*) AS " + ProductEntry.COLUMN_STATS_COUNT + ", "
+                        + "IFNULL(SUM(" + ProductEntry.COLUMN_PRODUCT_QUANTITY + "), 0) AS "
+                        + ProductEntry.COLUMN_STATS_UNITS + ", "
+                        + "IFNULL(SUM(" + ProductEntry.COLUMN_PRODUCT_PRICE + " * "
+                        + ProductEntry.COLUMN_PRODUCT_QUANTITY + "), 0) AS "
+                        + ProductEntry.COLUMN_STATS_VALUE + ", "
+                        + "IFNULL(SUM(" + lowStock + "), 0) AS "
+                        + ProductEntry.COLUMN_STATS_LOW_STOCK
+                        + " FROM " + currentRows(selection),
+                DatabaseUtils.appendSelectionArgs(new String[]{threshold},
+                        DatabaseUtils.appendSelectionArgs(selectionArgs, selectionArgs)));
+    }
+
+    /*
+     * The rows of the current inventory in the selection, as a subquery to select from; its
+     * selection arguments are those of the selection twice. Through the view the quantity of
+     * every row is computed, so a filter on it scans the table. Here only the few Products with
+     * stock movements go through the view; the others are read from the table, where the
+     * selection can use the quantity index as it did before the movements.
+     */
+    private static String currentRows(String selection) {
+        String moved = ProductEntry._ID + " IN (SELECT " + StockMovementEntry.COLUMN_PRODUCT_ID
+                + " FROM " + StockMovementEntry.TABLE_NAME + ")";
+
+        // The view lists the columns of the table, in the same order
+        return "(SELECT * FROM " + ProductEntry.TABLE_NAME + " WHERE NOT " + moved + " AND ("
+                + selection + ") UNION ALL SELECT * FROM " + ProductDbHelper.CURRENT_VIEW
+                + " WHERE " + moved + " AND (" + selection + "))";
+    }
+
+    /*
+     * Turn the search text typed by the user into an FTS MATCH expression. Every word becomes a
+     * prefix query and all of them have to match, so "blue mu" finds "Blue Mugs". Characters the
+     * tokenizer would split on anyway are dropped, so user input can't form FTS operators.
+     * Returns null if there are no words to search for.
+     */
+    private static String matchExpression(String searchText) {
+        StringBuilder expression = new StringBuilder();
+
+        if (searchText != null) {
+            for (String word : searchText.split("[^\\p{L}\\p{N}]+")) {
+                if (word.isEmpty())
+                    continue;
+                if (expression.length() > 0)
+                    expression.append(' ');
+                expression.append(word).append('*');
+            }
+        }
+
+        return expression.length() == 0 ? null : expression.toString();
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
+        long start = metrics.start();
+        Uri productUri = null;
 
         final int match = uriMatcher.match(uri);
 
-        switch (match) {
-            case PRODUCTS:
-                return insertProduct(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        MainThreadIo.ViolationException violation;
+        databaseLock.readLock().lock();
+        try {
+            switch (match) {
+                case PRODUCTS:
+                    productUri = insertProduct(uri, contentValues);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            databaseLock.readLock().unlock();
+            violation = recordOperation(ProviderMetrics.INSERT, match, start,
+                    productUri == null ? -1 : 1);
         }
+
+        if (violation != null)
+            throw violation;
+        return productUri;
     }
 
     /*
@@ -147,89 +545,559 @@ public class ProductProvider extends ContentProvider {
      */
     private Uri insertProduct(Uri uri, ContentValues values) {
 
-        // Check that the name is not null:
-        String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
+        // Get writable database:
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
 
-        if (name == null)
-            throw new IllegalArgumentException("Product requires a name.");
+        // Validate and insert the new Product with the given values.
+        long id = insertProduct(database, values);
 
-        // Check that the quantity is not less than 0:
-        Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        // if the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
 
-        if (quantity != null && !ProductEntry.quantityPositive(quantity))
-            throw new IllegalArgumentException("Negative product quantity not allowed.");
+        // Return the new URI with the ID (of the newly inserted row) appended at the end
+        Uri productUri = ContentUris.withAppendedId(uri, id);
 
-        // Check that the price is valid:
-        Integer price = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE);
+        // Notify all listeners that the data has changed, naming the new Product
+        notifyChange(productUri);
 
-        if (price != null && !ProductEntry.quantityPositive(price))
-            throw new IllegalArgumentException("Negative product price not allowed.");
+        return productUri;
+    }
 
-        // Get writable database:
-        SQLiteDatabase database = dbHelper.getWritableDatabase();
+    /*
+     * Validate the given content values and insert them as a new row. Return the row ID of the
+     * new Product, or -1 if the insertion failed. Does not send any change notification.
+     */
+    private long insertProduct(SQLiteDatabase database, ContentValues values) {
 
-        // Insert the new Product with the given values.
-        long id = database.insert(ProductEntry.TABLE_NAME, null, values);
+        ProductValidator.validateNewProduct(values);
 
-        // if the ID is -1, then the insertion failed. Log an error and return null.
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+        return database.insert(ProductEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Insert all the given Products in a single transaction. Every row goes through the same
+     * validation as {@link #insert(Uri, ContentValues)}; if any row is rejected the whole batch is
+     * rolled back. Listeners are notified once, after the transaction has been committed.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long start = metrics.start();
+
+        // track the number of rows that were inserted, -1 until the batch is committed
+        int rowsInserted = -1;
+
+        final int match = uriMatcher.match(uri);
+
+        MainThreadIo.ViolationException violation;
+        databaseLock.readLock().lock();
+        try {
+            if (match != PRODUCTS)
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+
+            SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+            int inserted;
+
+            database.beginTransaction();
+            try {
+                inserted = insertProducts(database, uri, values);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            rowsInserted = inserted;
+
+            if (rowsInserted != 0)
+                notifyChange(uri);
+        } finally {
+            databaseLock.readLock().unlock();
+            violation = recordOperation(ProviderMetrics.BULK_INSERT, match, start, rowsInserted);
+        }
+
+        if (violation != null)
+            throw violation;
+        return rowsInserted;
+    }
+
+    /*
+     * Validate and insert the given Products, in the caller's transaction. Return the number of
+     * rows inserted. Does not send any change notification.
+     */
+    private int insertProducts(SQLiteDatabase database, Uri uri, ContentValues[] values) {
+        int inserted = 0;
+        for (ContentValues value : values) {
+            if (insertProduct(database, value) == -1)
+                Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            else
+                inserted++;
+        }
+        return inserted;
+    }
+
+    /**
+     * Apply all the given operations in a single transaction, so either all of them are committed
+     * or none is. The per-operation change notifications are collapsed into one notification on
+     * {@link ProductEntry#CONTENT_URI}, sent after the commit.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+
+        ContentProviderResult[] results;
+
+        databaseLock.readLock().lock();
+        try {
+            SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+            applyingBatch.set(Boolean.TRUE);
+            database.beginTransaction();
+            try {
+                results = super.applyBatch(operations);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+                applyingBatch.remove();
+            }
+        } finally {
+            databaseLock.readLock().unlock();
+
+            // The operations invalidated the rows they changed before the commit, so a reader
+            // may have cached the old rows again meanwhile.
+            rowCache.invalidateAll();
+        }
+
+        if (operations.size() != 0)
+            notifyChange(ProductEntry.CONTENT_URI);
+
+        return results;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        long start = MainThreadIo.start();
+        Bundle result;
+        MainThreadIo.ViolationException violation;
+        try {
+            result = callMethod(method, arg, extras);
+        } finally {
+            violation = MainThreadIo.record("call", method, start);
+        }
+
+        if (violation != null)
+            throw violation;
+        return result;
+    }
+
+    /*
+     * Run the provider method, see call().
+     */
+    private Bundle callMethod(String method, String arg, Bundle extras) {
+        if (ProductContract.METHOD_SELL.equals(method)) {
+            databaseLock.readLock().lock();
+            try {
+                return sellProduct(Long.parseLong(arg), extras == null
+                        ? 1 : extras.getInt(ProductContract.EXTRA_UNITS, 1));
+            } finally {
+                databaseLock.readLock().unlock();
+            }
+        }
+
+        if (ProductContract.METHOD_ADJUST.equals(method)) {
+            databaseLock.readLock().lock();
+            try {
+                return moveStock(Long.parseLong(arg), extras == null
+                        ? 0 : extras.getInt(ProductContract.EXTRA_UNITS),
+                        StockMovementEntry.REASON_ADJUSTMENT);
+            } finally {
+                databaseLock.readLock().unlock();
+            }
+        }
+
+        if (ProductContract.METHOD_BULK_UPDATE.equals(method)) {
+            databaseLock.readLock().lock();
+            try {
+                return bulkUpdate(extras);
+            } finally {
+                databaseLock.readLock().unlock();
+            }
+        }
+
+        if (ProductContract.METHOD_IMPORT_BATCH.equals(method)) {
+            databaseLock.readLock().lock();
+            try {
+                return importBatch(arg, extras);
+            } finally {
+                databaseLock.readLock().unlock();
+            }
+        }
+
+        if (ProductContract.METHOD_IMPORT_CHECKPOINT.equals(method)) {
+            databaseLock.readLock().lock();
+            try {
+                return importCheckpoint(arg);
+            } finally {
+                databaseLock.readLock().unlock();
+            }
+        }
+
+        if (ProductContract.METHOD_COMPACT.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(ProductContract.EXTRA_MOVEMENTS, compactor.compact());
+            return result;
+        }
+
+        if (ProductContract.METHOD_CACHE_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(ProductContract.EXTRA_CACHE_HITS, rowCache.getHits());
+            result.putLong(ProductContract.EXTRA_CACHE_MISSES, rowCache.getMisses());
+            result.putLong(ProductContract.EXTRA_CACHE_EVICTIONS, rowCache.getEvictions());
+            return result;
+        }
+
+        if (ProductContract.METHOD_METRICS.equals(method))
+            return reportMetrics(ProductContract.ARG_RESET_METRICS.equals(arg));
+
+        if (ProductContract.METHOD_BACKUP.equals(method))
+            return backup(Uri.parse(arg));
+
+        if (ProductContract.METHOD_RESTORE.equals(method))
+            return restore(Uri.parse(arg));
+
+        return super.call(method, arg, extras);
+    }
+
+    /*
+     * Return the metrics report, and write it to the log line by line. Null if the metrics are
+     * not recorded in this build.
+     */
+    private Bundle reportMetrics(boolean reset) {
+        if (!metrics.isEnabled())
             return null;
+
+        StringWriter report = new StringWriter();
+        metrics.report(new PrintWriter(report));
+        if (reset)
+            metrics.reset();
+
+        for (String line : report.toString().split("\n"))
+            Log.i(LOG_TAG, line);
+
+        Bundle result = new Bundle();
+        result.putString(ProductContract.EXTRA_METRICS, report.toString());
+        return result;
+    }
+
+    /**
+     * Print the metrics report, for "adb shell dumpsys activity provider" with the name of this
+     * provider.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (!metrics.isEnabled()) {
+            writer.println("Metrics are recorded in debuggable builds only.");
+            return;
         }
+        metrics.report(writer);
+    }
 
-        // Notify all listeners that the data has changed for the Product content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+    /*
+     * Record an operation on the URI with the given match code in the metrics, and report it to
+     * the main-thread I/O detector. rows is -1 if the operation failed.
+     */
+    private MainThreadIo.ViolationException recordOperation(int operation, int match, long start,
+                                                            long rows) {
+        int pattern = metricsPattern(match);
+        metrics.record(operation, pattern, start, rows);
+        return MainThreadIo.record(ProviderMetrics.getOperationName(operation),
+                METRICS_PATTERNS[pattern], start);
+    }
 
-        // Return the new URI with the ID (of the newly inserted row) appended at the end
-        return ContentUris.withAppendedId(uri, id);
+    /*
+     * Index of the URI pattern with the given match code in the metrics, see METRICS_PATTERNS.
+     */
+    private static int metricsPattern(int match) {
+        return match == UriMatcher.NO_MATCH ? METRICS_PATTERNS.length - 1 : match - PRODUCTS;
+    }
+
+    /*
+     * Write a snapshot of the database and its images into the archive at the given URI, see
+     * Snapshot.
+     */
+    private Bundle backup(Uri archive) {
+        long start = SystemClock.elapsedRealtime();
+
+        Snapshot.Result result;
+        databaseLock.readLock().lock();
+        try {
+            FileOutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(
+                    getContext().getContentResolver().openFileDescriptor(archive, "w"));
+            try {
+                FileChannel channel = out.getChannel();
+                // "w" does not truncate every kind of file
+                channel.truncate(0);
+                result = new Snapshot().backup(dbHelper.getWritableDatabase(), getDatabaseFile(),
+                        imageStore, channel);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot back up to " + archive + ": "
+                    + e.getMessage(), e);
+        } finally {
+            databaseLock.readLock().unlock();
+        }
+
+        return snapshotResult(result, start);
+    }
+
+    /*
+     * Replace the database with the one in the archive at the given URI. The archive is unpacked
+     * next to the database and checked while the app keeps using the old one; only then is the
+     * database closed and the restored file renamed over it, under the write lock. The images of
+     * the archive stay pinned until then, as the old database may not refer to them.
+     */
+    private Bundle restore(Uri archive) {
+        long start = SystemClock.elapsedRealtime();
+
+        File database = getDatabaseFile();
+        File restored = new File(database.getPath() + "-restore");
+
+        Snapshot snapshot = new Snapshot();
+        Snapshot.Result result;
+        try {
+            try {
+                FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(
+                        getContext().getContentResolver().openFileDescriptor(archive, "r"));
+                try {
+                    result = snapshot.restore(in.getChannel(), restored, imageStore);
+                } finally {
+                    in.close();
+                }
+                checkRestoredDatabase(restored);
+            } catch (IOException | SQLiteException e) {
+                SQLiteDatabase.deleteDatabase(restored);
+                throw new IllegalArgumentException("Cannot restore from " + archive + ": "
+                        + e.getMessage(), e);
+            }
+
+            databaseLock.writeLock().lock();
+            try {
+                // Closing the last connection checkpoints the log and deletes it
+                dbHelper.close();
+                new File(database.getPath() + "-wal").delete();
+                new File(database.getPath() + "-shm").delete();
+
+                // rename() replaces the old file in one step: either database is complete
+                if (!restored.renameTo(database)) {
+                    SQLiteDatabase.deleteDatabase(restored);
+                    throw new IllegalStateException("Cannot replace " + database);
+                }
+                rowCache.invalidateAll();
+            } finally {
+                databaseLock.writeLock().unlock();
+            }
+        } finally {
+            // The restored database refers to the images now, or was given up
+            imageStore.unpin(snapshot.getPinnedImages());
+        }
+
+        notifyChange(ProductEntry.CONTENT_URI);
+
+        return snapshotResult(result, start);
+    }
+
+    /*
+     * Open the unpacked database on its own, which replays its write-ahead log into the file, and
+     * check that it is intact and not newer than this app. Leaves a single file behind.
+     */
+    private static void checkRestoredDatabase(File file) throws IOException {
+        SQLiteDatabase restored = SQLiteDatabase.openDatabase(file.getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        try {
+            if (restored.getVersion() > ProductDbHelper.DATABASE_VERSION)
+                throw new IOException("The snapshot is of a newer version of the app");
+
+            String check = DatabaseUtils.stringForQuery(restored, "PRAGMA quick_check", null);
+            if (!"ok".equals(check))
+                throw new IOException("The snapshot database is damaged: " + check);
+        } finally {
+            restored.close();
+        }
+
+        // Without write-ahead logging the log was folded in when the database was opened
+        new File(file.getPath() + "-wal").delete();
+        new File(file.getPath() + "-shm").delete();
+        new File(file.getPath() + "-journal").delete();
+    }
+
+    private File getDatabaseFile() {
+        return getContext().getDatabasePath(dbHelper.getDatabaseName());
+    }
+
+    private static Bundle snapshotResult(Snapshot.Result snapshot, long start) {
+        Bundle result = new Bundle();
+        result.putLong(ProductContract.EXTRA_SNAPSHOT_BYTES, snapshot.bytes);
+        result.putInt(ProductContract.EXTRA_SNAPSHOT_IMAGES, snapshot.images);
+        result.putLong(ProductContract.EXTRA_SNAPSHOT_MILLIS,
+                SystemClock.elapsedRealtime() - start);
+        return result;
+    }
+
+    /*
+     * Sell up to the given units of the Product with the given ID, see moveStock(). A batch of
+     * taps is one movement; the Product row is left alone until the compactor folds the
+     * movements in.
+     */
+    private Bundle sellProduct(long id, int units) {
+        if (units < 1)
+            throw new IllegalArgumentException("Units to sell have to be positive: " + units);
+
+        Bundle result = moveStock(id, -units, StockMovementEntry.REASON_SALE);
+        if (result == null)
+            return null;
+
+        int unitsSold = -result.getInt(ProductContract.EXTRA_UNITS);
+        result.putBoolean(ProductContract.EXTRA_SOLD, unitsSold > 0);
+        result.putInt(ProductContract.EXTRA_UNITS, unitsSold);
+        return result;
+    }
+
+    /*
+     * Change the stock of the Product with the given ID by delta units, and record the change as
+     * a movement for the given reason. The read of the current stock and the append of the
+     * movement run in one transaction, so the quantity is clamped at 0 without a
+     * read-modify-write in the caller. The result holds the new quantity, the change made and
+     * when it was written, or is null if there is no such Product.
+     */
+    private Bundle moveStock(long id, int delta, String reason) {
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        String[] args = new String[]{String.valueOf(id)};
+
+        int quantity;
+        long writtenAt;
+
+        // The transaction is exclusive, so no other change runs between the read and the append
+        database.beginTransaction();
+        try {
+            Cursor cursor = database.rawQuery("SELECT IFNULL("
+                    + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", 0) FROM "
+                    + ProductDbHelper.CURRENT_VIEW + " WHERE " + ProductEntry._ID + "=?", args);
+            try {
+                // An unknown ID is not an error for the caller, there is simply nothing to change.
+                if (!cursor.moveToFirst()) {
+                    database.setTransactionSuccessful();
+                    return null;
+                }
+                quantity = cursor.getInt(0);
+            } finally {
+                cursor.close();
+            }
+
+            // Take out what is in stock, never below 0
+            delta = Math.max(delta, -Math.max(0, quantity));
+            if (delta != 0) {
+                SQLiteStatement append = database.compileStatement("INSERT INTO "
+                        + StockMovementEntry.TABLE_NAME + " ("
+                        + StockMovementEntry.COLUMN_PRODUCT_ID + ", "
+                        + StockMovementEntry.COLUMN_DELTA + ", "
+                        + StockMovementEntry.COLUMN_REASON + ", "
+                        + StockMovementEntry.COLUMN_TIMESTAMP + ") VALUES (?, ?, ?, ?)");
+                try {
+                    append.bindLong(1, id);
+                    append.bindLong(2, delta);
+                    append.bindString(3, reason);
+                    append.bindLong(4, System.currentTimeMillis());
+                    append.executeInsert();
+                } finally {
+                    append.close();
+                }
+                quantity += delta;
+            }
+
+            // Before the commit and the notification, so a reload that sees the change is later
+            writtenAt = SystemClock.uptimeMillis();
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (delta != 0) {
+            rowCache.invalidate(id);
+            notifyChange(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id));
+            compactor.schedule();
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(ProductContract.EXTRA_QUANTITY, quantity);
+        result.putInt(ProductContract.EXTRA_UNITS, delta);
+        result.putLong(ProductContract.EXTRA_WRITTEN_AT, writtenAt);
+        return result;
+    }
+
+    /*
+     * Notify all listeners that the data at the given URI has changed, unless this thread is in the
+     * middle of applyBatch(), which sends a single notification of its own when it is done.
+     */
+    private void notifyChange(Uri uri) {
+        if (applyingBatch.get() != null)
+            return;
+
+        getContext().getContentResolver().notifyChange(uri, null);
     }
 
     @Override
     public int update(Uri uri, ContentValues contentValues,
                       String selection, String[] selectionArgs) {
+        long start = metrics.start();
+        int rowsUpdated = -1;
+
         final int match = uriMatcher.match(uri);
-        switch (match) {
-            case PRODUCTS:
-                return updateProduct(uri, contentValues, selection, selectionArgs);
-            case PRODUCT_ID:
-                /*
-                 * for the PRODUCT_ID code, extract out the ID from the URI, so we know which row to
-                 * update. Selection will be "_id=?" and selection arguments will be a String array
-                 * containing the actual ID.
-                 */
-                selection = ProductEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                return updateProduct(uri, contentValues, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException("Update is not supported for " + uri);
+
+        MainThreadIo.ViolationException violation;
+        databaseLock.readLock().lock();
+        try {
+            switch (match) {
+                case PRODUCTS:
+                    rowsUpdated = updateProduct(uri, contentValues, selection, selectionArgs, -1);
+                    break;
+                case PRODUCT_ID:
+                    /*
+                     * for the PRODUCT_ID code, extract out the ID from the URI, so we know which
+                     * row to update. Selection will be "_id=?" and selection arguments will be a
+                     * String array containing the actual ID.
+                     */
+                    long id = ContentUris.parseId(uri);
+                    selection = ProductEntry._ID + "=?";
+                    selectionArgs = new String[]{String.valueOf(id)};
+                    rowsUpdated = updateProduct(uri, contentValues, selection, selectionArgs, id);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Update is not supported for " + uri);
+            }
+        } finally {
+            databaseLock.readLock().unlock();
+            violation = recordOperation(ProviderMetrics.UPDATE, match, start, rowsUpdated);
         }
+
+        if (violation != null)
+            throw violation;
+        return rowsUpdated;
     }
 
     /*
     * Update the products in the database with the given content values. Apply the changes
     * to the rows specified in the selection and selection arguments (which could be 0 or 1 or more
-    * products). Return the number of rows that were successfully updated.
+    * products). Return the number of rows that were successfully updated. The id is that of the
+    * single Product updated, or -1 if the selection can match any number of them.
     */
-    private int updateProduct(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        /*
-         * If the {@link ItemEntry#COLUMN_PRODUCT_NAME} key is present,
-         * check that the name value is not null:
-         */
-        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_NAME)) {
-            String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
-            if (name == null)
-                throw new IllegalArgumentException("Product name required.");
-        }
+    private int updateProduct(Uri uri, ContentValues values, String selection, String[] selectionArgs,
+                              long id) {
 
-        /*
-         * If the {@link ItemEntry#COLUMN_PRODUCT_PRICE} key is present,
-         * check that the price value is not negative:
-         */
-        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_PRICE)) {
-            Integer price = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE);
-            if (price != null && !ProductEntry.quantityPositive(price))
-                throw new IllegalArgumentException("Price has to be a positive value.");
-        }
+        ProductValidator.validateUpdate(values);
 
         // If there are no values to update, then don't try to update the database:
         if (values.size() == 0)
@@ -238,15 +1106,50 @@ public class ProductProvider extends ContentProvider {
         // Otherwise, get writable database to update the data.
         SQLiteDatabase database = dbHelper.getWritableDatabase();
 
+        // A new image replaces the old ones, which may now be unused:
+        ArrayList<String> oldImages = values.containsKey(ProductEntry.COLUMN_PRODUCT_IMAGE)
+                ? selectImages(database, selection, selectionArgs) : null;
+
+        // The quantity is not written to the row, it becomes a movement:
+        Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        if (quantity != null) {
+            values = new ContentValues(values);
+            values.remove(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        }
+
         // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(ProductEntry.TABLE_NAME, values, selection, selectionArgs);
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            // Before the update, which may change the columns the selection matches on
+            if (quantity != null)
+                appendAdjustments(database, quantity, selection, selectionArgs);
+
+            rowsUpdated = values.size() == 0
+                    ? (int) DatabaseUtils.queryNumEntries(database, ProductEntry.TABLE_NAME,
+                            selection, selectionArgs)
+                    : database.update(ProductEntry.TABLE_NAME, values, selection,
+                            selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (quantity != null)
+            compactor.schedule();
+
+        if (rowsUpdated != 0 && oldImages != null)
+            imageStore.release(oldImages);
+
+        if (rowsUpdated != 0)
+            invalidateRows(id);
 
         /*
          * If 1 or more rows were updated,
          * then notify all listeners that the data at the given URI has changed:
          */
         if (rowsUpdated != 0)
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
 
         //Return the number of rows updated
         return rowsUpdated;
@@ -255,49 +1158,395 @@ public class ProductProvider extends ContentProvider {
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        // Get writable database:
-        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        long start = metrics.start();
 
-        // track the number of rows that were deleted
-        int rowsDeleted;
+        // track the number of rows that were deleted, -1 until they are
+        int rowsDeleted = -1;
 
         final int match = uriMatcher.match(uri);
-        switch (match) {
-            case PRODUCTS:
-                // Delete all rows that match the selection and selection args:
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case PRODUCT_ID:
-                // Delete a single row given by the ID in the URI
-                selection = ProductEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+
+        MainThreadIo.ViolationException violation;
+        databaseLock.readLock().lock();
+        try {
+            // Get writable database:
+            SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+            // ID of the single Product deleted, -1 if the selection can match any number of them
+            long id = -1;
+
+            switch (match) {
+                case PRODUCTS:
+                    // Delete all rows that match the selection and selection args
+                    break;
+                case PRODUCT_ID:
+                    // Delete a single row given by the ID in the URI
+                    id = ContentUris.parseId(uri);
+                    selection = ProductEntry._ID + "=?";
+                    selectionArgs = new String[]{String.valueOf(id)};
+                    break;
+                default:
+                    throw new IllegalArgumentException("Deletion is not supported for " + uri);
+            }
+
+            ArrayList<String> images = selectImages(database, selection, selectionArgs);
+
+            rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+
+            // The images of the deleted Products may now be unused:
+            if (rowsDeleted != 0) {
+                imageStore.release(images);
+                invalidateRows(id);
+            }
+
+            /*
+             * If 1 or more rows were deleted,
+             * then notify all listeners that the data at the given URI was changed
+             */
+            if (rowsDeleted != 0)
+                notifyChange(uri);
+        } finally {
+            databaseLock.readLock().unlock();
+            violation = recordOperation(ProviderMetrics.DELETE, match, start, rowsDeleted);
         }
 
-        /*
-         * If 1 or more rows were deleted,
-         * then notify all listeners that the data at the given URI was changed
-         */
-        if (rowsDeleted != 0)
-            getContext().getContentResolver().notifyChange(uri, null);
+        if (violation != null)
+            throw violation;
 
         // Return the number of rows deleted:
         return rowsDeleted;
     }
 
+    /*
+     * Apply the update expression in the extras to the Products in them, see
+     * ProductContract.METHOD_BULK_UPDATE. A list of IDs is updated in chunks of
+     * BulkUpdate.CHUNK_SIZE, one statement per chunk, compiled once for all the full chunks. All
+     * of it is one transaction with one change notification, whatever the number of Products.
+     */
+    private Bundle bulkUpdate(Bundle extras) {
+        if (extras == null)
+            throw new IllegalArgumentException("Bulk update without an update expression");
+
+        BulkUpdate update = new BulkUpdate(extras.getString(ProductContract.EXTRA_COLUMN),
+                extras.getString(ProductContract.EXTRA_OPERATION),
+                extras.getInt(ProductContract.EXTRA_VALUE),
+                extras.containsKey(ProductContract.EXTRA_MIN)
+                        ? extras.getInt(ProductContract.EXTRA_MIN) : null,
+                extras.containsKey(ProductContract.EXTRA_MAX)
+                        ? extras.getInt(ProductContract.EXTRA_MAX) : null);
+
+        long[] ids = extras.getLongArray(ProductContract.EXTRA_IDS);
+        String selection = extras.getString(ProductContract.EXTRA_SELECTION);
+        String[] selectionArgs = extras.getStringArray(ProductContract.EXTRA_SELECTION_ARGS);
+        if (ids != null && selection != null)
+            throw new IllegalArgumentException("Bulk update of both IDs and a selection");
+
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        int rowsUpdated = 0;
+        database.beginTransaction();
+        try {
+            /*
+             * The expression works on the current quantities, and a selection is run on the
+             * table rather than on the view of the current inventory: both see the current
+             * quantities once the movements are folded in.
+             */
+            if (selection != null
+                    || ProductEntry.COLUMN_PRODUCT_QUANTITY.equals(update.column))
+                MovementCompactor.compact(database);
+
+            if (ids == null) {
+                SQLiteStatement statement = database.compileStatement(update.toSql(selection));
+                try {
+                    if (selectionArgs != null)
+                        statement.bindAllArgsAsStrings(selectionArgs);
+                    rowsUpdated = statement.executeUpdateDelete();
+                } finally {
+                    statement.close();
+                }
+            } else {
+                SQLiteStatement fullChunk = null;
+                try {
+                    for (int from = 0; from < ids.length; from += BulkUpdate.CHUNK_SIZE) {
+                        int count = Math.min(BulkUpdate.CHUNK_SIZE, ids.length - from);
+
+                        SQLiteStatement statement;
+                        if (count < BulkUpdate.CHUNK_SIZE) {
+                            statement = database.compileStatement(
+                                    update.toSql(BulkUpdate.idSelection(count)));
+                        } else {
+                            if (fullChunk == null)
+                                fullChunk = database.compileStatement(
+                                        update.toSql(BulkUpdate.idSelection(count)));
+                            statement = fullChunk;
+                        }
+
+                        try {
+                            for (int i = 0; i < count; i++)
+                                statement.bindLong(i + 1, ids[from + i]);
+                            rowsUpdated += statement.executeUpdateDelete();
+                        } finally {
+                            if (statement != fullChunk)
+                                statement.close();
+                        }
+                    }
+                } finally {
+                    if (fullChunk != null)
+                        fullChunk.close();
+                }
+            }
+
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (rowsUpdated != 0) {
+            rowCache.invalidateAll();
+            notifyChange(ProductEntry.CONTENT_URI);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(ProductContract.EXTRA_ROWS, rowsUpdated);
+        return result;
+    }
+
+    /*
+     * Insert a batch of Products read by the import with the given ID and save the progress of
+     * the import in the same transaction, see ProductContract.METHOD_IMPORT_BATCH. A process
+     * killed in between loses both or neither, so a resumed import never inserts a batch twice.
+     */
+    private Bundle importBatch(String importId, Bundle extras) {
+        if (importId == null || extras == null)
+            throw new IllegalArgumentException("Import batch without an import ID or Products");
+
+        // Parcelled across processes the array comes back as Parcelable[]
+        Parcelable[] parcelables = extras.getParcelableArray(ProductContract.EXTRA_VALUES);
+        if (parcelables == null)
+            throw new IllegalArgumentException("Import batch without Products");
+        ContentValues[] values = new ContentValues[parcelables.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = (ContentValues) parcelables[i];
+
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        int inserted;
+        database.beginTransaction();
+        try {
+            inserted = insertProducts(database, ProductEntry.CONTENT_URI, values);
+
+            ContentValues checkpoint = new ContentValues();
+            checkpoint.put(ProductEntry._ID, 0);
+            checkpoint.put(ProductDbHelper.COLUMN_IMPORT_ID, importId);
+            checkpoint.put(ProductDbHelper.COLUMN_IMPORT_LINES,
+                    extras.getLong(ProductContract.EXTRA_LINES));
+            checkpoint.put(ProductDbHelper.COLUMN_IMPORT_IMPORTED,
+                    extras.getLong(ProductContract.EXTRA_IMPORTED) + inserted);
+            checkpoint.put(ProductDbHelper.COLUMN_IMPORT_REJECTED,
+                    extras.getLong(ProductContract.EXTRA_REJECTED) + values.length - inserted);
+            database.replaceOrThrow(ProductDbHelper.IMPORT_CHECKPOINT_TABLE, null, checkpoint);
+
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (inserted != 0)
+            notifyChange(ProductEntry.CONTENT_URI);
+
+        Bundle result = new Bundle();
+        result.putInt(ProductContract.EXTRA_ROWS, inserted);
+        return result;
+    }
+
+    /*
+     * The progress saved by the last batch of the import with the given ID, see
+     * ProductContract.METHOD_IMPORT_CHECKPOINT. Null if the last batch saved was of another
+     * import, or there is none.
+     */
+    private Bundle importCheckpoint(String importId) {
+        if (importId == null)
+            throw new IllegalArgumentException("Import checkpoint without an import ID");
+
+        Cursor cursor = dbHelper.getReadableDatabase().query(
+                ProductDbHelper.IMPORT_CHECKPOINT_TABLE,
+                new String[]{ProductDbHelper.COLUMN_IMPORT_LINES,
+                        ProductDbHelper.COLUMN_IMPORT_IMPORTED,
+                        ProductDbHelper.COLUMN_IMPORT_REJECTED},
+                ProductDbHelper.COLUMN_IMPORT_ID + "=?", new String[]{importId},
+                null, null, null);
+        try {
+            if (!cursor.moveToFirst())
+                return null;
+
+            Bundle result = new Bundle();
+            result.putLong(ProductContract.EXTRA_LINES, cursor.getLong(0));
+            result.putLong(ProductContract.EXTRA_IMPORTED, cursor.getLong(1));
+            result.putLong(ProductContract.EXTRA_REJECTED, cursor.getLong(2));
+            return result;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+     * Set the quantity of the Products in the selection by appending the difference to their
+     * current quantities as adjustments. The movements not folded in yet stay in the ledger, and
+     * a Product that has the quantity already gets no movement.
+     */
+    private static void appendAdjustments(SQLiteDatabase database, int quantity, String selection,
+                                          String[] selectionArgs) {
+        String where = ProductEntry.COLUMN_PRODUCT_QUANTITY + " <> " + quantity;
+        if (selection != null && !selection.isEmpty())
+            where += " AND (" + selection + ")";
+
+        Object[] bindArgs = new Object[2 + (selectionArgs == null ? 0 : selectionArgs.length)];
+        bindArgs[0] = StockMovementEntry.REASON_ADJUSTMENT;
+        bindArgs[1] = System.currentTimeMillis();
+        if (selectionArgs != null)
+            System.arraycopy(selectionArgs, 0, bindArgs, 2, selectionArgs.length);
+
+        database.execSQL("INSERT INTO " + StockMovementEntry.TABLE_NAME + " ("
+                + StockMovementEntry.COLUMN_PRODUCT_ID + ", "
+                + StockMovementEntry.COLUMN_DELTA + ", "
+                + StockMovementEntry.COLUMN_REASON + ", "
+                + StockMovementEntry.COLUMN_TIMESTAMP + ") SELECT " + ProductEntry._ID + ", "
+                + quantity + " - " + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", ?, ? FROM "
+                + ProductDbHelper.CURRENT_VIEW + " WHERE " + where, bindArgs);
+    }
+
+    /*
+     * Drop the changed rows from the row cache: the row with the given ID, or all of them if the
+     * ID is -1. Within applyBatch() the change is not committed yet, the batch drops all rows
+     * once it is.
+     */
+    private void invalidateRows(long id) {
+        if (id == -1)
+            rowCache.invalidateAll();
+        else
+            rowCache.invalidate(id);
+    }
+
+    /*
+     * The distinct images of the Products in the selection. The image store checks whether they
+     * are still used in the background, against the committed data, so a rolled back batch never
+     * loses an image. An image checked before the commit is left to ImageStore.collectGarbage().
+     */
+    private static ArrayList<String> selectImages(SQLiteDatabase database, String selection,
+                                                  String[] selectionArgs) {
+        ArrayList<String> images = new ArrayList<>();
+        Cursor cursor = database.query(true, ProductEntry.TABLE_NAME,
+                new String[]{ProductEntry.COLUMN_PRODUCT_IMAGE}, selection, selectionArgs,
+                null, null, null, null);
+        try {
+            while (cursor.moveToNext())
+                if (!cursor.isNull(0))
+                    images.add(cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+        return images;
+    }
+
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        int match = uriMatcher.match(uri);
+        if (match == PRODUCT_RESTOCK)
+            return ClipDescription.compareMimeTypes(ProductEntry.RESTOCK_ORDER_TYPE,
+                    mimeTypeFilter) ? new String[]{ProductEntry.RESTOCK_ORDER_TYPE} : null;
+        if (match != PRODUCTS)
+            return null;
+
+        ArrayList<String> types = new ArrayList<>();
+        for (String type : EXPORT_TYPES)
+            if (ClipDescription.compareMimeTypes(type, mimeTypeFilter))
+                types.add(type);
+        return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+    }
+
+    /**
+     * Export all the Products, in the first of the {@link #EXPORT_TYPES} that matches the filter,
+     * or the restock order. The export is written into a pipe while the caller reads it, so
+     * nothing is buffered in memory or in a file.
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        String[] types = getStreamTypes(uri, mimeTypeFilter);
+        if (types == null)
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+
+        if (uriMatcher.match(uri) == PRODUCT_RESTOCK)
+            return restockOrder(uri);
+
+        return export(uri, types[0]);
+    }
+
+    /**
+     * Opening the list of Products for reading, as ContentResolver.openInputStream() does,
+     * exports them as CSV. Opening the restock URI reads the restock order.
+     */
+    @Override
+    public AssetFileDescriptor openAssetFile(Uri uri, String mode) throws FileNotFoundException {
+        if (uriMatcher.match(uri) == PRODUCTS && "r".equals(mode))
+            return export(uri, ProductEntry.EXPORT_CSV_TYPE);
+        if (uriMatcher.match(uri) == PRODUCT_RESTOCK && "r".equals(mode))
+            return restockOrder(uri);
+
+        return super.openAssetFile(uri, mode);
+    }
+
+    /*
+     * Start writing the export into a pipe, on a background thread, and return the end to read
+     * it from. The length of the export is not known up front.
+     */
+    private AssetFileDescriptor export(Uri uri, String mimeType) throws FileNotFoundException {
+        return new AssetFileDescriptor(openPipeHelper(uri, mimeType, null, dbHelper, exporter),
+                0, AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+    /*
+     * Start writing the restock order into a pipe, on a background thread, and return the end to
+     * read it from. The parameters are checked here, where the caller gets the exception, not on
+     * the pipe thread.
+     */
+    private AssetFileDescriptor restockOrder(Uri uri) throws FileNotFoundException {
+        Bundle options = RestockOrderWriter.options(uri);
+        return new AssetFileDescriptor(openPipeHelper(uri, ProductEntry.RESTOCK_ORDER_TYPE,
+                options, dbHelper, restockWriter), 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
     @Override
     public String getType(Uri uri) {
+        long start = metrics.start();
         final int match = uriMatcher.match(uri);
+
+        String type;
         switch (match) {
             case PRODUCTS:
-                return ProductEntry.CONTENT_LIST_TYPE;
+                type = ProductEntry.CONTENT_LIST_TYPE;
+                break;
             case PRODUCT_ID:
-                return ProductEntry.CONTENT_ITEM_TYPE;
+                type = ProductEntry.CONTENT_ITEM_TYPE;
+                break;
+            case PRODUCT_SEARCH:
+                type = ProductEntry.CONTENT_LIST_TYPE;
+                break;
+            case PRODUCT_STATS:
+                type = ProductEntry.CONTENT_STATS_TYPE;
+                break;
+            case PRODUCT_RESTOCK:
+                type = ProductEntry.RESTOCK_ORDER_TYPE;
+                break;
             default:
+                // The unknown URI is the failure to report, not the main thread
+                recordOperation(ProviderMetrics.GET_TYPE, match, start, -1);
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
+
+        MainThreadIo.ViolationException violation =
+                recordOperation(ProviderMetrics.GET_TYPE, match, start, 0);
+        if (violation != null)
+            throw violation;
+        return type;
     }
 }
@@ -0,0 +1,176 @@
+package com.example.android.inventory.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, least-recently-used cache of whole inventory rows by ID, used by
+ * {@link ProductProvider} to answer single-Product queries without SQLite.
+ * <p>
+ * All methods are safe to call from any binder thread. A row read from the database is only
+ * cached if nothing was invalidated while it was being read, so a reader that raced a write can
+ * never put the old row back: take {@link #getGeneration()} before the read and pass it to
+ * {@link #put}. Writers invalidate once their change has been committed.
+ */
+final class ProductRowCache {
+
+    private final int maxRows;
+
+    private final LinkedHashMap<Long, Object[]> rows;
+
+    /** Names of the columns of a cached row, the same for all rows */
+    private String[] columnNames;
+
+    /** Incremented by every invalidation */
+    private long generation;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxRows the number of rows the cache holds at most
+     */
+    ProductRowCache(int maxRows) {
+        this.maxRows = maxRows;
+        // access order, so the eldest entry is the least recently used one
+        rows = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Serve a single-row cursor with the given columns of a cached row.
+     *
+     * @param projection the columns to return, null for all of them
+     * @return the cursor, or null if the row is not cached or the projection asks for something
+     * other than plain columns
+     */
+    synchronized Cursor get(long id, String[] projection) {
+        Object[] row = rows.get(id);
+        Cursor cursor = row == null ? null : toCursor(row, projection);
+        if (cursor == null)
+            misses++;
+        else
+            hits++;
+        return cursor;
+    }
+
+    /**
+     * Make a single-row cursor with the given columns of a row.
+     *
+     * @param row        as returned by {@link #put}
+     * @param projection the columns to return, null for all of them
+     * @return the cursor, or null if the projection asks for something other than plain columns
+     */
+    synchronized Cursor toCursor(Object[] row, String[] projection) {
+        if (projection == null) {
+            MatrixCursor cursor = new MatrixCursor(columnNames, 1);
+            cursor.addRow(row);
+            return cursor;
+        }
+
+        Object[] values = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            int column = indexOf(projection[i]);
+            if (column < 0) {
+                // An expression, or a column we don't know about: let SQLite answer it
+                return null;
+            }
+            values[i] = row[column];
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(values);
+        return cursor;
+    }
+
+    /**
+     * @return the generation to pass to {@link #put} for a row about to be read
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Cache the row the cursor is on, unless an invalidation happened since the given generation.
+     *
+     * @param cursor     positioned on the row, with all the columns of the table
+     * @param generation as returned by {@link #getGeneration()} before the row was read
+     * @return the values of the row, whether it was cached or not
+     */
+    synchronized Object[] put(long id, Cursor cursor, long generation) {
+        if (columnNames == null)
+            columnNames = cursor.getColumnNames();
+
+        Object[] row = new Object[cursor.getColumnCount()];
+        for (int i = 0; i < row.length; i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row[i] = cursor.getLong(i);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    row[i] = cursor.getDouble(i);
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    row[i] = cursor.getString(i);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    row[i] = cursor.getBlob(i);
+                    break;
+                default:
+                    row[i] = null;
+                    break;
+            }
+        }
+
+        if (generation != this.generation)
+            return row;
+        rows.put(id, row);
+
+        Iterator<Map.Entry<Long, Object[]>> eldest = rows.entrySet().iterator();
+        while (rows.size() > maxRows) {
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+        return row;
+    }
+
+    /**
+     * Drop the row with the given ID, after it has been changed or deleted.
+     */
+    synchronized void invalidate(long id) {
+        generation++;
+        rows.remove(id);
+    }
+
+    /**
+     * Drop all rows, after a change to rows whose IDs are not known.
+     */
+    synchronized void invalidateAll() {
+        generation++;
+        rows.clear();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private int indexOf(String column) {
+        for (int i = 0; i < columnNames.length; i++)
+            if (columnNames[i].equalsIgnoreCase(column))
+                return i;
+        return -1;
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentValues;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+/**
+ * The checks {@link ProductProvider} runs on the values of the Products written to it. Kept apart
+ * from the provider so the importer can run them up front, and so they can be measured off the
+ * device.
+ */
+final class ProductValidator {
+
+    private ProductValidator() {
+    }
+
+    /**
+     * Check the values of a new Product, the way {@link ProductProvider#insert} does.
+     *
+     * @throws IllegalArgumentException if the values are not a valid Product
+     */
+    static void validateNewProduct(ContentValues values) {
+
+        // Check that the name is not null:
+        String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
+
+        if (name == null)
+            throw new IllegalArgumentException("Product requires a name.");
+
+        // Check that the quantity is not less than 0:
+        Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+
+        if (quantity != null && !ProductEntry.quantityPositive(quantity))
+            throw new IllegalArgumentException("Negative product quantity not allowed.");
+
+        // Check that the price is valid:
+        Integer price = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE);
+
+        if (price != null && !ProductEntry.quantityPositive(price))
+            throw new IllegalArgumentException("Negative product price not allowed.");
+    }
+
+    /**
+     * Check the values a Product is updated with, the way {@link ProductProvider#update} does.
+     * Only the attributes present are checked.
+     *
+     * @throws IllegalArgumentException if the values would make the Product invalid
+     */
+    static void validateUpdate(ContentValues values) {
+        /*
+         * If the {@link ItemEntry#COLUMN_PRODUCT_NAME} key is present,
+         * check that the name value is not null:
+         */
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_NAME)) {
+            String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
+            if (name == null)
+                throw new IllegalArgumentException("Product name required.");
+        }
+
+        /*
+         * If the {@link ItemEntry#COLUMN_PRODUCT_PRICE} key is present,
+         * check that the price value is not negative:
+         */
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_PRICE)) {
+            Integer price = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE);
+            if (price != null && !ProductEntry.quantityPositive(price))
+                throw new IllegalArgumentException("Price has to be a positive value.");
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs every change to the inventory on one dedicated writer thread, in the order the changes
+ * were submitted. Callers never wait for the database: each method returns a {@link Future} at
+ * once and, if a {@link Callback} is given, reports the result on the main thread.
+ * <p>
+ * The queue holds up to {@link #QUEUE_CAPACITY} writes. A write never runs on the submitting
+ * thread, which is usually the main thread, and never overtakes the writes queued before it. A
+ * write that finds the queue full is rejected instead: its Future fails with a
+ * {@link RejectedExecutionException} and its callback's {@link Callback#onFailure} is called.
+ * The writes come from user actions and are small, so the backlog stays short;
+ * {@link #getStats()} shows how long it is.
+ * <p>
+ * Saves of the same Product coalesce: a {@link #save} that finds an earlier save of the Product
+ * still waiting in the queue merges its values into that one, and both get the result of the
+ * single write.
+ */
+public final class ProductWriter {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = ProductWriter.class.getSimpleName();
+
+    /** Number of writes that may wait for the writer thread */
+    static final int QUEUE_CAPACITY = 256;
+
+    /** Writes that wait longer than this in the queue are logged */
+    private static final long SLOW_QUEUE_WAIT_MILLIS = 100;
+
+    /**
+     * Receives the result of a write on the main thread.
+     */
+    public interface Callback<T> {
+
+        /**
+         * @param result what the write returned
+         */
+        void onSuccess(T result);
+
+        /**
+         * @param e why the write failed
+         */
+        void onFailure(Exception e);
+    }
+
+    private static ProductWriter instance;
+
+    private final ContentResolver resolver;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** Saves that have not started yet, by the URI of their Product */
+    private final Map<Uri, PendingSave> pendingSaves = new HashMap<>();
+
+    /*
+     * Instrumentation: how many writes ran, how long they waited in the queue and how long they
+     * took on the writer thread.
+     */
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong totalQueueWaitNanos = new AtomicLong();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+    private final AtomicLong totalWriteNanos = new AtomicLong();
+    private final AtomicLong coalescedSaves = new AtomicLong();
+
+    /**
+     * @param context of the app
+     * @return the writer of the app
+     */
+    public static synchronized ProductWriter getInstance(Context context) {
+        if (instance == null)
+            instance = new ProductWriter(context.getApplicationContext().getContentResolver());
+        return instance;
+    }
+
+    private ProductWriter(ContentResolver resolver) {
+        this.resolver = resolver;
+
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, LOG_TAG);
+                    }
+                });
+    }
+
+    /**
+     * Insert a Product, see {@link ContentResolver#insert}.
+     */
+    public Future<Uri> insert(final ContentValues values, Callback<Uri> callback) {
+        return submit(new Callable<Uri>() {
+            @Override
+            public Uri call() {
+                return resolver.insert(ProductEntry.CONTENT_URI, values);
+            }
+        }, callback);
+    }
+
+    /**
+     * Update the Products at the given URI, see {@link ContentResolver#update}.
+     */
+    public Future<Integer> update(final Uri uri, final ContentValues values,
+                                  Callback<Integer> callback) {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return resolver.update(uri, values, null, null);
+            }
+        }, callback);
+    }
+
+    /**
+     * Save a Product: insert it if productUri is null, otherwise update it. An update of a
+     * Product that already has a save waiting in the queue is merged into that save, the later
+     * values winning, and does not write on its own.
+     *
+     * @param productUri the Product to update, or null to insert a new one
+     * @param callback   receives the URI of the Product, or null if nothing was written
+     * @return the pending URI of the Product, or null if nothing was written
+     */
+    public Future<Uri> save(Uri productUri, ContentValues values, Callback<Uri> callback) {
+        return save(productUri, values, 0, callback);
+    }
+
+    /**
+     * Save a Product as {@link #save(Uri, ContentValues, Callback)} does, and change its stock by
+     * the given units, see {@link ProductContract#METHOD_ADJUST}. The change of a save that joins
+     * an earlier one replaces the earlier change: both are counted from the stock the editor
+     * showed last.
+     *
+     * @param adjustment the units to add to the stock, negative to take them out; ignored for an
+     *                   insert
+     */
+    public Future<Uri> save(Uri productUri, final ContentValues values, int adjustment,
+                            Callback<Uri> callback) {
+        if (productUri == null) {
+            return submit(new Callable<Uri>() {
+                @Override
+                public Uri call() {
+                    return resolver.insert(ProductEntry.CONTENT_URI, values);
+                }
+            }, callback);
+        }
+
+        PendingSave pending;
+        synchronized (pendingSaves) {
+            pending = pendingSaves.get(productUri);
+            if (pending != null) {
+                pending.values.putAll(values);
+                pending.adjustment = adjustment;
+                pending.callbacks.add(callback);
+                coalescedSaves.incrementAndGet();
+                return pending.future;
+            }
+
+            pending = new PendingSave(productUri, values, adjustment, callback);
+            pending.future = newTask(pending, pending);
+            pendingSaves.put(productUri, pending);
+        }
+
+        // Queued outside the lock, which the write takes when it starts
+        try {
+            executor.execute(pending.future);
+        } catch (RejectedExecutionException e) {
+            // It never starts, so it has to leave on its own, before the saves that joined fail
+            synchronized (pendingSaves) {
+                pendingSaves.remove(productUri);
+            }
+            pending.future.reject(e);
+        }
+        return pending.future;
+    }
+
+    /**
+     * Delete the Products at the given URI, see {@link ContentResolver#delete}.
+     */
+    public Future<Integer> delete(final Uri uri, Callback<Integer> callback) {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return resolver.delete(uri, null, null);
+            }
+        }, callback);
+    }
+
+    /**
+     * Sell one unit of a Product, see {@link ProductContract#METHOD_SELL}.
+     */
+    public Future<Bundle> sell(long id, Callback<Bundle> callback) {
+        return sell(id, 1, callback);
+    }
+
+    /**
+     * Sell units of a Product in one write, see {@link ProductContract#METHOD_SELL}.
+     */
+    public Future<Bundle> sell(final long id, int units, Callback<Bundle> callback) {
+        final Bundle extras = new Bundle();
+        extras.putInt(ProductContract.EXTRA_UNITS, units);
+
+        return submit(new Callable<Bundle>() {
+            @Override
+            public Bundle call() {
+                return resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_SELL,
+                        String.valueOf(id), extras);
+            }
+        }, callback);
+    }
+
+    /**
+     * Apply an update expression to many Products in one write, see
+     * {@link ProductContract#METHOD_BULK_UPDATE}.
+     *
+     * @param extras the column, the operation and its operands, and the Products
+     */
+    public Future<Bundle> bulkUpdate(final Bundle extras, Callback<Bundle> callback) {
+        return submit(new Callable<Bundle>() {
+            @Override
+            public Bundle call() {
+                return resolver.call(ProductEntry.CONTENT_URI,
+                        ProductContract.METHOD_BULK_UPDATE, null, extras);
+            }
+        }, callback);
+    }
+
+    /**
+     * Queue any write for the writer thread.
+     *
+     * @param write    the write, run on the writer thread
+     * @param callback receives the result on the main thread, may be null
+     * @return the pending result of the write
+     */
+    public <T> Future<T> submit(Callable<T> write, Callback<T> callback) {
+        WriteTask<T> task = newTask(write, callback);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.reject(e);
+        }
+        return task;
+    }
+
+    /*
+     * Wrap a write for the writer thread: it records the instrumentation and reports to the
+     * callback. The task still has to be queued.
+     */
+    private <T> WriteTask<T> newTask(final Callable<T> write, final Callback<T> callback) {
+        final long queuedAt = System.nanoTime();
+
+        return new WriteTask<>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                long startedAt = System.nanoTime();
+                recordQueueWait(startedAt - queuedAt);
+                try {
+                    T result = write.call();
+                    deliverSuccess(callback, result);
+                    return result;
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "Write failed", e);
+                    deliverFailure(callback, e);
+                    throw e;
+                } finally {
+                    writes.incrementAndGet();
+                    totalWriteNanos.addAndGet(System.nanoTime() - startedAt);
+                }
+            }
+        }, callback);
+    }
+
+    /**
+     * @return a snapshot of the writer's instrumentation
+     */
+    public Stats getStats() {
+        return new Stats(writes.get(), executor.getQueue().size(), totalQueueWaitNanos.get(),
+                maxQueueWaitNanos.get(), totalWriteNanos.get(), coalescedSaves.get());
+    }
+
+    private void recordQueueWait(long nanos) {
+        totalQueueWaitNanos.addAndGet(nanos);
+
+        long max;
+        do {
+            max = maxQueueWaitNanos.get();
+        } while (nanos > max && !maxQueueWaitNanos.compareAndSet(max, nanos));
+
+        if (TimeUnit.NANOSECONDS.toMillis(nanos) >= SLOW_QUEUE_WAIT_MILLIS)
+            Log.w(LOG_TAG, "Write waited " + TimeUnit.NANOSECONDS.toMillis(nanos)
+                    + " ms in the queue");
+    }
+
+    private <T> void deliverSuccess(final Callback<T> callback, final T result) {
+        if (callback == null)
+            return;
+
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onSuccess(result);
+            }
+        });
+    }
+
+    private <T> void deliverFailure(final Callback<T> callback, final Exception e) {
+        if (callback == null)
+            return;
+
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onFailure(e);
+            }
+        });
+    }
+
+    /**
+     * A write queued for the writer thread, which fails like a write that threw if the queue
+     * rejects it.
+     */
+    private final class WriteTask<T> extends FutureTask<T> {
+
+        private final Callback<T> callback;
+
+        WriteTask(Callable<T> callable, Callback<T> callback) {
+            super(callable);
+            this.callback = callback;
+        }
+
+        /**
+         * The queue is full: the write never runs, its Future and its callback fail.
+         */
+        void reject(RejectedExecutionException e) {
+            Log.e(LOG_TAG, "Write rejected, " + QUEUE_CAPACITY + " writes are queued", e);
+            setException(e);
+            deliverFailure(callback, e);
+        }
+    }
+
+    /**
+     * An update of one Product waiting in the queue, which later saves of the Product join. It
+     * leaves {@link #pendingSaves} when it starts, so a save that comes after that writes again.
+     */
+    private final class PendingSave implements Callable<Uri>, Callback<Uri> {
+
+        private final Uri productUri;
+
+        /** The merged values, guarded by pendingSaves until the write starts */
+        private final ContentValues values;
+
+        /** The change of the stock, guarded by pendingSaves until the write starts */
+        private int adjustment;
+
+        /** Everyone waiting for the write, guarded by pendingSaves until the write starts */
+        private final List<Callback<Uri>> callbacks = new ArrayList<>(1);
+
+        /** The task of the write, set before the save can be joined */
+        private WriteTask<Uri> future;
+
+        PendingSave(Uri productUri, ContentValues values, int adjustment,
+                    Callback<Uri> callback) {
+            this.productUri = productUri;
+            this.values = new ContentValues(values);
+            this.adjustment = adjustment;
+            callbacks.add(callback);
+        }
+
+        @Override
+        public Uri call() {
+            synchronized (pendingSaves) {
+                pendingSaves.remove(productUri);
+            }
+
+            boolean saved = resolver.update(productUri, values, null, null) != 0;
+            if (adjustment != 0) {
+                Bundle extras = new Bundle();
+                extras.putInt(ProductContract.EXTRA_UNITS, adjustment);
+                saved |= resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_ADJUST,
+                        String.valueOf(ContentUris.parseId(productUri)), extras) != null;
+            }
+            return saved ? productUri : null;
+        }
+
+        @Override
+        public void onSuccess(Uri result) {
+            for (Callback<Uri> callback : callbacks) {
+                if (callback != null)
+                    callback.onSuccess(result);
+            }
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            for (Callback<Uri> callback : callbacks) {
+                if (callback != null)
+                    callback.onFailure(e);
+            }
+        }
+    }
+
+    /**
+     * Snapshot of the instrumentation of a {@link ProductWriter}.
+     */
+    public static final class Stats {
+
+        /** Number of writes that have run */
+        public final long writes;
+
+        /** Number of writes waiting in the queue */
+        public final int queued;
+
+        /** Total time the writes waited in the queue before they ran */
+        public final long totalQueueWaitNanos;
+
+        /** Longest time a write waited in the queue */
+        public final long maxQueueWaitNanos;
+
+        /** Total time the writes took on the writer thread */
+        public final long totalWriteNanos;
+
+        /** Number of saves merged into an earlier save of the same Product */
+        public final long coalescedSaves;
+
+        Stats(long writes, int queued, long totalQueueWaitNanos, long maxQueueWaitNanos,
+              long totalWriteNanos, long coalescedSaves) {
+            this.writes = writes;
+            this.queued = queued;
+            this.totalQueueWaitNanos = totalQueueWaitNanos;
+            this.maxQueueWaitNanos = maxQueueWaitNanos;
+            this.totalWriteNanos = totalWriteNanos;
+            this.coalescedSaves = coalescedSaves;
+        }
+
+        @Override
+        public String toString() {
+            long averageWait = writes == 0 ? 0 : totalQueueWaitNanos / writes;
+            long averageWrite = writes == 0 ? 0 : totalWriteNanos / writes;
+            return writes + " writes, " + queued + " queued, queue wait avg "
+                    + TimeUnit.NANOSECONDS.toMicros(averageWait) + " us / max "
+                    + TimeUnit.NANOSECONDS.toMicros(maxQueueWaitNanos) + " us, write avg "
+                    + TimeUnit.NANOSECONDS.toMicros(averageWrite) + " us, "
+                    + coalescedSaves + " saves coalesced";
+        }
+    }
+}
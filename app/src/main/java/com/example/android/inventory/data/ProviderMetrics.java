@@ -0,0 +1,137 @@
+package com.example.android.inventory.data;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms and counters of the operations of {@link ProductProvider}, one set per
+ * operation and URI pattern. Everything is allocated up front; recording an operation takes
+ * a few atomic increments and allocates nothing.
+ * <p>
+ * A disabled instance records nothing and holds no histograms; the provider only enables the
+ * metrics in debuggable builds.
+ */
+final class ProviderMetrics {
+
+    /* Operations */
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+    static final int GET_TYPE = 5;
+
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "bulkInsert", "update", "delete", "getType"};
+
+    /** Header of the report, the names of its tab-separated columns */
+    static final String REPORT_HEADER =
+            "operation\tpattern\tcount\terrors\trows\tmean_us\tp50_us\tp90_us\tp99_us\tmax_us";
+
+    private final boolean enabled;
+
+    private final String[] patterns;
+
+    private final LatencyHistogram[] histograms;
+
+    private final AtomicLong[] rows;
+
+    private final AtomicLong[] errors;
+
+    /**
+     * @param patterns the names of the URI patterns, indexed as passed to {@link #record}
+     * @param enabled  false to record nothing
+     */
+    ProviderMetrics(String[] patterns, boolean enabled) {
+        this.enabled = enabled;
+        this.patterns = patterns;
+
+        int slots = enabled ? OPERATION_NAMES.length * patterns.length : 0;
+        histograms = new LatencyHistogram[slots];
+        rows = new AtomicLong[slots];
+        errors = new AtomicLong[slots];
+        for (int i = 0; i < slots; i++) {
+            histograms[i] = new LatencyHistogram();
+            rows[i] = new AtomicLong();
+            errors[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * @return the name of the given operation constant, as in the report
+     */
+    static String getOperationName(int operation) {
+        return OPERATION_NAMES[operation];
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the start time to pass to {@link #record}
+     */
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record an operation that ran from the given start time until now.
+     *
+     * @param operation one of the operation constants
+     * @param pattern   index of the URI pattern the operation was on
+     * @param start     what {@link #start()} returned before the operation
+     * @param rowCount  the rows returned or affected, or -1 if the operation failed
+     */
+    void record(int operation, int pattern, long start, long rowCount) {
+        if (!enabled)
+            return;
+
+        int slot = operation * patterns.length + pattern;
+        histograms[slot].record(System.nanoTime() - start);
+        if (rowCount < 0)
+            errors[slot].incrementAndGet();
+        else
+            rows[slot].addAndGet(rowCount);
+    }
+
+    /**
+     * Write one line per operation and pattern that was used, after {@link #REPORT_HEADER}.
+     * Times are in microseconds.
+     */
+    void report(PrintWriter writer) {
+        writer.println(REPORT_HEADER);
+        for (int slot = 0; slot < histograms.length; slot++) {
+            LatencyHistogram histogram = histograms[slot];
+            if (histogram.getCount() == 0)
+                continue;
+
+            writer.println(String.format(Locale.US, "%s\t%s\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d",
+                    OPERATION_NAMES[slot / patterns.length], patterns[slot % patterns.length],
+                    histogram.getCount(), errors[slot].get(), rows[slot].get(),
+                    micros(histogram.getMean()),
+                    micros(histogram.getValueAtPercentile(50)),
+                    micros(histogram.getValueAtPercentile(90)),
+                    micros(histogram.getValueAtPercentile(99)),
+                    micros(histogram.getMax())));
+        }
+        writer.flush();
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    void reset() {
+        for (int slot = 0; slot < histograms.length; slot++) {
+            histograms[slot].reset();
+            rows[slot].set(0);
+            errors[slot].set(0);
+        }
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
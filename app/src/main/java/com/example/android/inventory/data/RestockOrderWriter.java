@@ -0,0 +1,236 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Writes the restock order of the Products low on stock into a pipe, as plain text (see
+ * {@link ProductEntry#RESTOCK_URI}).
+ * <p>
+ * The stock movements are folded in first, so the stored quantities are the current ones and
+ * the Products low on stock are found on the quantity index alone. The order is grouped by the
+ * units in stock: the lowest quantity under the threshold is one seek on the index, and the
+ * Products of a group are read in windows of {@link #WINDOW_ROWS}, each a range of the index
+ * continuing after the last ID read. No query scans the table or sorts, however large it is, and
+ * memory use stays the same however long the order is.
+ * <p>
+ * As in {@link ProductExporter}, the database lock is held while a query runs only, and each
+ * window is its own snapshot. The parameters of the order are checked by {@link #options(Uri)}
+ * before the pipe is opened; a failure while writing ends the order early, it never reaches the
+ * pipe thread.
+ */
+final class RestockOrderWriter implements ContentProvider.PipeDataWriter<ProductDbHelper> {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = RestockOrderWriter.class.getSimpleName();
+
+    /** Number of rows read per query */
+    static final int WINDOW_ROWS = 1000;
+
+    /** Charset of the order, by name for OutputStreamWriter on API 19 */
+    private static final String UTF_8 = "UTF-8";
+
+    /** Size of the buffer in front of the pipe */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Name of the order, as shared with other apps */
+    static final String DISPLAY_NAME = "restock-order.txt";
+
+    /** Keys of the options of the order, see {@link #options(Uri)} */
+    private static final String OPTION_THRESHOLD = "threshold";
+    private static final String OPTION_ORDER_UP_TO = "orderUpTo";
+
+    /** The columns read for a line of the order, in this order */
+    private static final String[] COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE};
+
+    private static final int ID = 0;
+    private static final int NAME = 1;
+    private static final int PRICE = 2;
+
+    /** Lock held for reading the database */
+    private final Lock lock;
+
+    /** Folds the stock movements in before the quantities are read */
+    private final MovementCompactor compactor;
+
+    /**
+     * @param lock      the lock to hold while reading the database
+     * @param compactor the compactor of the stock movements
+     */
+    RestockOrderWriter(Lock lock, MovementCompactor compactor) {
+        this.lock = lock;
+        this.compactor = compactor;
+    }
+
+    /**
+     * Read the parameters of the restock URI, to pass to {@link #writeDataToPipe} as its options.
+     *
+     * @throws IllegalArgumentException if a parameter is not a number of units
+     */
+    static Bundle options(Uri uri) {
+        int threshold = units(uri, ProductEntry.QUERY_PARAMETER_LOW_STOCK,
+                ProductEntry.DEFAULT_LOW_STOCK_THRESHOLD);
+
+        Bundle options = new Bundle();
+        options.putInt(OPTION_THRESHOLD, threshold);
+        options.putInt(OPTION_ORDER_UP_TO, Math.max(threshold,
+                units(uri, ProductEntry.QUERY_PARAMETER_ORDER_UP_TO, threshold)));
+        return options;
+    }
+
+    /*
+     * The units in the query parameter, or the default if it is missing.
+     */
+    private static int units(Uri uri, String name, int defaultUnits) {
+        String parameter = uri.getQueryParameter(name);
+        if (parameter == null)
+            return defaultUnits;
+
+        try {
+            int units = Integer.parseInt(parameter);
+            if (units >= 0)
+                return units;
+        } catch (NumberFormatException e) {
+            // Same as a negative number
+        }
+        throw new IllegalArgumentException("Not a number of units: " + name + " in " + uri);
+    }
+
+    /**
+     * @param opts the options of the order, from {@link #options(Uri)}
+     */
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                Bundle opts, ProductDbHelper dbHelper) {
+        int threshold = opts.getInt(OPTION_THRESHOLD);
+        int orderUpTo = opts.getInt(OPTION_ORDER_UP_TO);
+
+        long products = 0;
+        long units = 0;
+        long value = 0;
+        try {
+            // The pipe is closed by openPipeHelper() once this returns, not by the writer
+            Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(output.getFileDescriptor()), UTF_8), BUFFER_SIZE);
+
+            writer.write("Restock order\n");
+            writer.write("Products with fewer than " + threshold + " units in stock, ordered up to "
+                    + orderUpTo + " units\n");
+
+            compactor.compact();
+
+            String[] group = {String.valueOf(threshold)};
+            String lowest = ProductEntry.COLUMN_PRODUCT_QUANTITY + " < ?";
+            while (true) {
+                Long quantity = lowestQuantity(dbHelper, lowest, group);
+                if (quantity == null)
+                    break;
+
+                writer.write(quantity == 0 ? "\nOut of stock\n" : "\n" + quantity + " in stock\n");
+                long ordered = orderUpTo - quantity;
+
+                String[] window = {String.valueOf(quantity), "0"};
+                while (true) {
+                    Cursor cursor;
+                    int count;
+                    lock.lock();
+                    try {
+                        cursor = dbHelper.getReadableDatabase().query(ProductEntry.TABLE_NAME,
+                                COLUMNS, ProductEntry.COLUMN_PRODUCT_QUANTITY + " = ? AND "
+                                        + ProductEntry._ID + " > ?", window, null, null,
+                                ProductEntry._ID + " ASC", String.valueOf(WINDOW_ROWS));
+                        // Fills the cursor window: the lines are written without the lock
+                        count = cursor.getCount();
+                    } finally {
+                        lock.unlock();
+                    }
+
+                    try {
+                        while (cursor.moveToNext()) {
+                            writeLine(writer, ordered, cursor.getString(NAME));
+                            products++;
+                            units += ordered;
+                            value += ordered * cursor.getLong(PRICE);
+                        }
+                        if (cursor.moveToLast())
+                            window[1] = String.valueOf(cursor.getLong(ID));
+                    } finally {
+                        cursor.close();
+                    }
+
+                    if (count < WINDOW_ROWS)
+                        break;
+                }
+
+                // The next group has more units in stock, and still fewer than the threshold
+                lowest = ProductEntry.COLUMN_PRODUCT_QUANTITY + " > ? AND "
+                        + ProductEntry.COLUMN_PRODUCT_QUANTITY + " < ?";
+                group = new String[]{String.valueOf(quantity), String.valueOf(threshold)};
+            }
+
+            writer.write(products == 0 ? "\nNo products to restock.\n"
+                    : "\n" + products + " products, " + units + " units, value " + value + "\n");
+            writer.flush();
+        } catch (IOException e) {
+            // Most likely the reader closed the pipe before the end: nothing left to do
+            Log.w(LOG_TAG, "Restock order " + uri + " stopped after " + products + " products",
+                    e);
+        } catch (RuntimeException e) {
+            // The database failed: the reader sees the order end early, the app keeps running
+            Log.e(LOG_TAG, "Restock order " + uri + " failed after " + products + " products",
+                    e);
+        }
+    }
+
+    /*
+     * The lowest quantity of the Products in the selection, one seek on the quantity index; null
+     * if no Product is in it.
+     */
+    private Long lowestQuantity(ProductDbHelper dbHelper, String selection, String[] args) {
+        lock.lock();
+        try {
+            SQLiteDatabase database = dbHelper.getReadableDatabase();
+            Cursor cursor = database.rawQuery("SELECT MIN(" + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                    + ") FROM " + ProductEntry.TABLE_NAME + " WHERE " + selection, args);
+            try {
+                return !cursor.moveToFirst() || cursor.isNull(0) ? null : cursor.getLong(0);
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * One line of the order: the units to order, then the name. Line breaks in the name would
+     * break the layout of the order, so they become spaces.
+     */
+    private static void writeLine(Writer writer, long ordered, String name) throws IOException {
+        String units = Long.toString(ordered);
+        for (int i = units.length(); i < 6; i++)
+            writer.write(' ');
+        writer.write(units);
+        writer.write("  ");
+        if (name != null)
+            writer.write(name.replace('\n', ' ').replace('\r', ' '));
+        writer.write('\n');
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.android.inventory.data;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.LongSparseArray;
+
+import java.util.ArrayList;
+
+/**
+ * Collects rapid sale taps per Product and sells them with one write per Product through
+ * {@link ProductWriter}. The taps are flushed once none has come for {@link #DEBOUNCE_MILLIS},
+ * but never later than {@link #MAX_DELAY_MILLIS} after the first tap of the batch, and on
+ * {@link #flush()}, which the catalog calls from onPause.
+ * <p>
+ * Until the write is done the list shows the stock minus the {@link #getPendingUnits pending
+ * units}. The units of a write stay pending for the data loaded before the write: the list
+ * reloads after it, and until then shows the old stock, so taking them off any earlier would
+ * show the old quantity again for a moment. If the write sells fewer units than were tapped,
+ * because the stock ran out in the meantime, the {@link Listener} hears about it and only the
+ * units sold stay pending.
+ * <p>
+ * Not thread-safe: call it, and receive the callbacks, on the main thread.
+ */
+public final class SaleBatcher {
+
+    /** Quiet time after a tap before the pending taps are sold */
+    public static final long DEBOUNCE_MILLIS = 300;
+
+    /** Longest a tap waits for its write while the taps keep coming */
+    public static final long MAX_DELAY_MILLIS = 1000;
+
+    /**
+     * Receives the outcome of the writes, on the main thread.
+     */
+    public interface Listener {
+
+        /**
+         * The pending units of the Product changed, its shown quantity has to be updated.
+         */
+        void onPendingChanged(long id);
+
+        /**
+         * Fewer units were sold than tapped, the Product ran out of stock.
+         *
+         * @param unsold the tapped units that were not sold
+         */
+        void onOutOfStock(long id, int unsold);
+
+        /**
+         * The write failed and none of its units were sold.
+         */
+        void onFailure(long id, Exception e);
+    }
+
+    /**
+     * The taps of one Product that are not reflected in the database yet, or may not be reflected
+     * in the data the list shows.
+     */
+    private static final class Pending {
+
+        /** Units tapped since the last flush */
+        int queued;
+
+        /** Units flushed whose write has not reported back */
+        int inFlight;
+
+        /** The writes that reported back, oldest first, until data loaded after them is shown */
+        final ArrayList<Write> written = new ArrayList<>(1);
+
+        boolean isEmpty() {
+            return queued == 0 && inFlight == 0 && written.isEmpty();
+        }
+    }
+
+    /**
+     * Units sold by a write, and when it was written.
+     */
+    private static final class Write {
+
+        final int units;
+
+        /** {@link ProductContract#EXTRA_WRITTEN_AT} of the write */
+        final long writtenAt;
+
+        Write(int units, long writtenAt) {
+            this.units = units;
+            this.writtenAt = writtenAt;
+        }
+    }
+
+    private final ProductWriter writer;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final LongSparseArray<Pending> pending = new LongSparseArray<>();
+
+    private Listener listener;
+
+    /** When the first tap of the next flush came, 0 if no tap is queued */
+    private long firstQueuedAt;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public SaleBatcher(ProductWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * @param listener receives the outcome of the writes, null for none
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queue the sale of one unit of a Product.
+     */
+    public void sell(long id) {
+        Pending units = pending.get(id);
+        if (units == null) {
+            units = new Pending();
+            pending.put(id, units);
+        }
+        units.queued++;
+
+        // Restart the quiet period, within the longest delay of the batch
+        long now = SystemClock.uptimeMillis();
+        if (firstQueuedAt == 0)
+            firstQueuedAt = now;
+        handler.removeCallbacks(flushRunnable);
+        handler.postAtTime(flushRunnable,
+                Math.min(now + DEBOUNCE_MILLIS, firstQueuedAt + MAX_DELAY_MILLIS));
+    }
+
+    /**
+     * @return the units of the Product that were tapped but are not sold in the database yet
+     */
+    public int getPendingUnits(long id) {
+        Pending units = pending.get(id);
+        return units == null ? 0 : units.queued + units.inFlight;
+    }
+
+    /**
+     * The units of the Product that data loaded at the given time does not reflect: those not
+     * sold in the database yet, and those sold by writes that were written after the load
+     * started. The writes the data reflects are forgotten, so pass the time of the newest data
+     * of the Product.
+     *
+     * @param loadedAt {@link SystemClock#uptimeMillis()} when the query of the data started
+     */
+    public int getPendingUnits(long id, long loadedAt) {
+        Pending units = pending.get(id);
+        if (units == null)
+            return 0;
+
+        // The writes are in order: drop those from before the load, count the rest
+        while (!units.written.isEmpty() && units.written.get(0).writtenAt <= loadedAt)
+            units.written.remove(0);
+
+        int unreflected = units.queued + units.inFlight;
+        for (Write write : units.written)
+            unreflected += write.units;
+
+        if (units.isEmpty())
+            pending.remove(id);
+        return unreflected;
+    }
+
+    /**
+     * Hand all the queued taps to the writer now, one write per Product.
+     */
+    public void flush() {
+        handler.removeCallbacks(flushRunnable);
+        firstQueuedAt = 0;
+
+        for (int i = 0; i < pending.size(); i++) {
+            final Pending units = pending.valueAt(i);
+            if (units.queued == 0)
+                continue;
+
+            final long id = pending.keyAt(i);
+            final int flushed = units.queued;
+            units.queued = 0;
+            units.inFlight += flushed;
+
+            writer.sell(id, flushed, new ProductWriter.Callback<Bundle>() {
+                @Override
+                public void onSuccess(Bundle result) {
+                    // A Product that is gone sold nothing
+                    int sold = result == null ? 0 : result.getInt(ProductContract.EXTRA_UNITS);
+                    done(id, units, flushed, sold, result == null
+                            ? 0 : result.getLong(ProductContract.EXTRA_WRITTEN_AT));
+
+                    if (sold < flushed && listener != null)
+                        listener.onOutOfStock(id, flushed - sold);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    done(id, units, flushed, 0, 0);
+                    if (listener != null)
+                        listener.onFailure(id, e);
+                }
+            });
+        }
+    }
+
+    /*
+     * The write of the given units of the Product reported back, having sold the given units.
+     * Those stay pending for the data loaded before the write.
+     */
+    private void done(long id, Pending units, int flushed, int sold, long writtenAt) {
+        units.inFlight -= flushed;
+        if (sold > 0)
+            units.written.add(new Write(sold, writtenAt));
+        if (units.isEmpty() && pending.get(id) == units)
+            pending.remove(id);
+
+        if (listener != null)
+            listener.onPendingChanged(id);
+    }
+}
@@ -0,0 +1,388 @@
+package com.example.android.inventory.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Snapshot archives of the inventory: the database plus the images its Products refer to, in
+ * one file.
+ * <p>
+ * The archive starts with {@link #MAGIC}, the archive format and the database version, followed
+ * by entries, each of them: a type byte, the length of the name, the name in UTF-8, the length of
+ * the contents, the contents and the CRC-32 of the contents. An entry of type {@link #END} ends
+ * the archive. All numbers are big-endian.
+ * <p>
+ * SQLite on API 19 has neither VACUUM INTO nor an online backup API that Java can reach. A
+ * consistent copy is taken by copying the database file and its write-ahead log while holding
+ * the write lock: readers carry on, writers wait for the copy, and the log holds committed pages
+ * only. Opening the copy replays the log. The images are copied after the lock is released; they
+ * are content-addressed and never change.
+ * <p>
+ * Archives are written through a FileChannel with one reused buffer and read back through
+ * memory-mapped regions of the archive, one per entry.
+ */
+final class Snapshot {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = Snapshot.class.getSimpleName();
+
+    /** First bytes of every archive */
+    private static final byte[] MAGIC = {'I', 'N', 'V', 'S', 'N', 'A', 'P', 0};
+
+    /** Version of the archive format */
+    private static final int FORMAT = 1;
+
+    /* Entry types */
+    private static final byte END = 0;
+    private static final byte DATABASE = 1;
+    private static final byte DATABASE_LOG = 2;
+    private static final byte IMAGE = 3;
+
+    /** Size of the buffer the archive is written through */
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /** Entries are mapped in regions of up to this size */
+    private static final long MAP_SIZE = 64 * 1024 * 1024;
+
+    /** Mapped entries are checked and written in chunks of this size */
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    /** Longest entry name that is accepted */
+    private static final int MAX_NAME_LENGTH = 255;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * What was written or read.
+     */
+    static final class Result {
+
+        /** Size of the archive in bytes */
+        final long bytes;
+
+        /** Number of images in the archive */
+        final int images;
+
+        Result(long bytes, int images) {
+            this.bytes = bytes;
+            this.images = images;
+        }
+    }
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private final CRC32 crc = new CRC32();
+
+    /** Database version of the snapshot last restored */
+    private int version;
+
+    /** Names of the images pinned by restore() */
+    private final ArrayList<String> pinnedImages = new ArrayList<>();
+
+    /**
+     * Write a snapshot of the database and the images it refers to.
+     *
+     * @param database   the open database, its write lock is taken while its files are copied
+     * @param file       the file of the database
+     * @param imageStore the store of the images
+     * @param out        the archive, written from its current position
+     */
+    Result backup(SQLiteDatabase database, File file, ImageStore imageStore, FileChannel out)
+            throws IOException {
+        long start = out.position();
+        ArrayList<File> images = new ArrayList<>();
+
+        // No writer gets in while the database files are copied
+        database.beginTransaction();
+        try {
+            Cursor cursor = database.query(true, ProductEntry.TABLE_NAME,
+                    new String[]{ProductEntry.COLUMN_PRODUCT_IMAGE},
+                    ProductEntry.COLUMN_PRODUCT_IMAGE + " IS NOT NULL", null,
+                    null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    File image = imageStore.getFile(cursor.getString(0));
+                    if (image != null)
+                        images.add(image);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            buffer.clear();
+            buffer.put(MAGIC).putInt(FORMAT).putInt(database.getVersion());
+            flush(out);
+
+            writeEntry(out, DATABASE, file.getName(), file);
+
+            File log = new File(file.getPath() + "-wal");
+            if (log.length() > 0)
+                writeEntry(out, DATABASE_LOG, log.getName(), log);
+        } finally {
+            // Nothing was written, so there is nothing to commit
+            database.endTransaction();
+        }
+
+        int written = 0;
+        for (File image : images) {
+            // Deleted since, if the Product was changed or deleted in the meantime
+            if (!image.isFile()) {
+                Log.w(LOG_TAG, "Image " + image + " is gone, left out of the snapshot");
+                continue;
+            }
+            writeEntry(out, IMAGE, image.getName(), image);
+            written++;
+        }
+
+        buffer.clear();
+        buffer.put(END);
+        flush(out);
+        out.force(true);
+
+        return new Result(out.position() - start, written);
+    }
+
+    /**
+     * Unpack a snapshot: the database is unpacked to the given file, the images go into the image
+     * store right away. Every entry is checked against its CRC.
+     * <p>
+     * The old database may not refer to the images of the snapshot, so each of them is
+     * {@link ImageStore#pin pinned} before it is looked for in the store or written there. The
+     * caller unpins the {@link #getPinnedImages() pinned images} once the restored database is in
+     * place or has been given up, even if this throws.
+     *
+     * @param in         the archive
+     * @param database   the file to unpack the database to; its write-ahead log, if there is
+     *                   one, is unpacked next to it
+     * @param imageStore the store to put the images into
+     * @return what was read, and the database version the snapshot was taken at in
+     * {@link #getVersion()}
+     * @throws IOException if the archive can't be read or is damaged
+     */
+    Result restore(FileChannel in, File database, ImageStore imageStore) throws IOException {
+        long size = in.size();
+        long position = 0;
+
+        ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 8);
+        position += readFully(in, header, position);
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(magic, MAGIC))
+            throw new IOException("Not a snapshot");
+        int format = header.getInt();
+        if (format != FORMAT)
+            throw new IOException("Unknown snapshot format " + format);
+        version = header.getInt();
+
+        boolean hasDatabase = false;
+        int images = 0;
+
+        ByteBuffer entryHeader = ByteBuffer.allocate(3);
+        while (true) {
+            entryHeader.clear().limit(1);
+            position += readFully(in, entryHeader, position);
+            byte type = entryHeader.get();
+            if (type == END)
+                break;
+
+            entryHeader.clear().limit(2);
+            position += readFully(in, entryHeader, position);
+            int nameLength = entryHeader.getShort() & 0xffff;
+            if (nameLength == 0 || nameLength > MAX_NAME_LENGTH)
+                throw new IOException("Damaged snapshot at " + position);
+
+            ByteBuffer name = ByteBuffer.allocate(nameLength + 8);
+            position += readFully(in, name, position);
+            String entryName = new String(name.array(), 0, nameLength, UTF_8);
+            name.position(nameLength);
+            long length = name.getLong();
+            if (length < 0 || position + length + 4 > size)
+                throw new IOException("Damaged snapshot at " + position);
+
+            File target;
+            switch (type) {
+                case DATABASE:
+                    target = database;
+                    hasDatabase = true;
+                    break;
+                case DATABASE_LOG:
+                    target = new File(database.getPath() + "-wal");
+                    break;
+                case IMAGE:
+                    // Only names of stored images, so an archive can't write anywhere else
+                    target = imageStore.getFileForName(entryName);
+                    if (target == null)
+                        throw new IOException("Bad image name in snapshot: " + entryName);
+                    imageStore.pin(entryName);
+                    pinnedImages.add(entryName);
+                    images++;
+                    break;
+                default:
+                    throw new IOException("Unknown entry type " + type + " in snapshot");
+            }
+
+            if (type == IMAGE && target.length() == length) {
+                // The same image is stored already, its name is the hash of its contents
+                position += length + 4;
+                continue;
+            }
+
+            readEntry(in, position, length, target);
+            position += length + 4;
+        }
+
+        if (!hasDatabase)
+            throw new IOException("The snapshot holds no database");
+
+        return new Result(position, images);
+    }
+
+    /**
+     * @return the database version of the snapshot last read by {@link #restore}
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the names of the images {@link #restore} pinned, to unpin
+     */
+    List<String> getPinnedImages() {
+        return pinnedImages;
+    }
+
+    /*
+     * Copy a file into the archive, with its entry header and CRC, through the buffer.
+     */
+    private void writeEntry(FileChannel out, byte type, String name, File file)
+            throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            // The length is fixed here: the file can't grow while it is copied (the database is
+            // locked, images never change)
+            long length = channel.size();
+            byte[] nameBytes = name.getBytes(UTF_8);
+
+            buffer.clear();
+            buffer.put(type).putShort((short) nameBytes.length).put(nameBytes).putLong(length);
+
+            crc.reset();
+            long remaining = length;
+            while (remaining > 0) {
+                if (!buffer.hasRemaining())
+                    flush(out);
+
+                int start = buffer.position();
+                if (remaining < buffer.remaining())
+                    buffer.limit(start + (int) remaining);
+                int read = channel.read(buffer);
+                if (read < 0)
+                    throw new IOException(file + " is shorter than " + length + " bytes");
+                crc.update(buffer.array(), start, read);
+                remaining -= read;
+                buffer.limit(buffer.capacity());
+            }
+
+            if (buffer.remaining() < 4)
+                flush(out);
+            buffer.putInt((int) crc.getValue());
+            flush(out);
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+     * Copy an entry out of the archive into the target file, through a temporary file that is
+     * renamed once the CRC has been checked.
+     */
+    private void readEntry(FileChannel in, long position, long length, File target)
+            throws IOException {
+        File directory = target.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create " + directory);
+
+        File temporary = new File(target.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temporary);
+        boolean complete = false;
+        try {
+            FileChannel channel = out.getChannel();
+            byte[] chunk = new byte[(int) Math.min(CHUNK_SIZE, Math.max(length, 1))];
+
+            crc.reset();
+            for (long mapped = 0; mapped < length; ) {
+                long regionSize = Math.min(MAP_SIZE, length - mapped);
+                MappedByteBuffer region = in.map(FileChannel.MapMode.READ_ONLY,
+                        position + mapped, regionSize);
+
+                while (region.hasRemaining()) {
+                    int size = Math.min(chunk.length, region.remaining());
+                    region.get(chunk, 0, size);
+                    crc.update(chunk, 0, size);
+                    ByteBuffer write = ByteBuffer.wrap(chunk, 0, size);
+                    while (write.hasRemaining())
+                        channel.write(write);
+                }
+                mapped += regionSize;
+            }
+
+            ByteBuffer stored = ByteBuffer.allocate(4);
+            readFully(in, stored, position + length);
+            if (stored.getInt() != (int) crc.getValue())
+                throw new IOException("Damaged snapshot: CRC mismatch in " + target.getName());
+
+            out.getFD().sync();
+            complete = true;
+        } finally {
+            out.close();
+            if (!complete)
+                temporary.delete();
+        }
+
+        if (!temporary.renameTo(target)) {
+            temporary.delete();
+            throw new IOException("Cannot restore " + target);
+        }
+    }
+
+    private void flush(FileChannel out) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            out.write(buffer);
+        buffer.clear();
+    }
+
+    /*
+     * Fill the buffer from the given position, and flip it for reading. Returns the number of
+     * bytes read.
+     */
+    private static int readFully(FileChannel in, ByteBuffer buffer, long position)
+            throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = in.read(buffer, position + total);
+            if (read < 0)
+                throw new IOException("Snapshot ends early");
+            total += read;
+        }
+        buffer.flip();
+        return total;
+    }
+}
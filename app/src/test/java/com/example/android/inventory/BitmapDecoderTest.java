@@ -0,0 +1,35 @@
+package com.example.android.inventory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the size calculations of {@link BitmapDecoder}.
+ */
+public class BitmapDecoderTest {
+
+    @Test
+    public void fitWidth_keepsAspectRatio() {
+        // 12MP landscape photo into a 1080 x 450 view: the height is the limit
+        assertEquals(600, BitmapDecoder.fitWidth(4000, 3000, 1080, 450));
+        // portrait photo into a wide view
+        assertEquals(337, BitmapDecoder.fitWidth(3000, 4000, 1080, 450));
+        // wide panorama: the width is the limit
+        assertEquals(1080, BitmapDecoder.fitWidth(8000, 1000, 1080, 450));
+    }
+
+    @Test
+    public void fitWidth_neverScalesUp() {
+        assertEquals(300, BitmapDecoder.fitWidth(300, 200, 1080, 450));
+        assertEquals(300, BitmapDecoder.fitWidth(300, 200, 0, 0));
+    }
+
+    @Test
+    public void calculateInSampleSize_staysAtLeastTargetWide() {
+        assertEquals(4, BitmapDecoder.calculateInSampleSize(4000, 600));
+        assertEquals(2, BitmapDecoder.calculateInSampleSize(4000, 1080));
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(4000, 2001));
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(300, 300));
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.android.inventory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link IntChars}.
+ */
+public class IntCharsTest {
+
+    private final char[] buffer = new char[IntChars.MAX_LENGTH];
+
+    @Test
+    public void format_matchesIntegerToString() {
+        int[] values = {0, 7, 10, 99, 100, 12345, -1, -450, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (int value : values)
+            assertEquals(Integer.toString(value), format(value));
+    }
+
+    @Test
+    public void format_overwritesLongerPreviousValue() {
+        format(123456);
+        assertEquals("8", format(8));
+    }
+
+    private String format(int value) {
+        return new String(buffer, 0, IntChars.format(value, buffer));
+    }
+}
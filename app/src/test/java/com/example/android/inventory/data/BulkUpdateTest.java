@@ -0,0 +1,79 @@
+package com.example.android.inventory.data;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link BulkUpdate}.
+ */
+public class BulkUpdateTest {
+
+    @Test
+    public void set_writesTheValue() {
+        BulkUpdate update = new BulkUpdate(ProductEntry.COLUMN_PRODUCT_PRICE,
+                ProductContract.OPERATION_SET, 12, null, null);
+
+        assertEquals("UPDATE inventory SET price = 12 WHERE price IS NOT 12", update.toSql(null));
+    }
+
+    @Test
+    public void add_neverGoesBelowZero() {
+        BulkUpdate update = new BulkUpdate(ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                ProductContract.OPERATION_ADD, -3, null, null);
+
+        assertEquals("MAX(quantity + -3, 0)", update.expression);
+    }
+
+    @Test
+    public void scale_roundsThePercentage() {
+        BulkUpdate update = new BulkUpdate(ProductEntry.COLUMN_PRODUCT_PRICE,
+                ProductContract.OPERATION_SCALE, 90, null, null);
+
+        assertEquals("CAST(ROUND(price * 90 / 100.0) AS INTEGER)", update.expression);
+    }
+
+    @Test
+    public void clamp_takesEitherBound() {
+        assertEquals("MIN(MAX(quantity, 2), 8)", new BulkUpdate(
+                ProductEntry.COLUMN_PRODUCT_QUANTITY, ProductContract.OPERATION_CLAMP, 0, 2, 8)
+                .expression);
+        assertEquals("MIN(quantity, 8)", new BulkUpdate(ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                ProductContract.OPERATION_CLAMP, 0, null, 8).expression);
+    }
+
+    @Test
+    public void toSql_keepsTheSelectionApart() {
+        BulkUpdate update = new BulkUpdate(ProductEntry.COLUMN_PRODUCT_PRICE,
+                ProductContract.OPERATION_SET, 5, null, null);
+
+        assertEquals("UPDATE inventory SET price = 5 WHERE (name = ? OR price < ?)"
+                + " AND price IS NOT 5", update.toSql("name = ? OR price < ?"));
+        assertEquals("_id IN (?, ?, ?)", BulkUpdate.idSelection(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownColumn_throws() {
+        new BulkUpdate(ProductEntry.COLUMN_PRODUCT_NAME, ProductContract.OPERATION_SET, 1,
+                null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownOperation_throws() {
+        new BulkUpdate(ProductEntry.COLUMN_PRODUCT_PRICE, "multiply", 2, null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeSet_throws() {
+        new BulkUpdate(ProductEntry.COLUMN_PRODUCT_PRICE, ProductContract.OPERATION_SET, -1,
+                null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyClampRange_throws() {
+        new BulkUpdate(ProductEntry.COLUMN_PRODUCT_QUANTITY, ProductContract.OPERATION_CLAMP, 0,
+                9, 3);
+    }
+}
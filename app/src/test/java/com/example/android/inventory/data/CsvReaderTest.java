@@ -0,0 +1,78 @@
+package com.example.android.inventory.data;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for {@link CsvReader}.
+ */
+public class CsvReaderTest {
+
+    @Test
+    public void readRecord_plainFields() throws IOException {
+        CsvReader csv = reader("name,quantity,price\nMugs,3,8\r\nPlates,,5");
+
+        assertRecord(csv, 1, "name", "quantity", "price");
+        assertRecord(csv, 2, "Mugs", "3", "8");
+        assertRecord(csv, 3, "Plates", "", "5");
+        assertNull(csv.readRecord());
+    }
+
+    @Test
+    public void readRecord_quotedFields() throws IOException {
+        CsvReader csv = reader("\"Mugs, blue\",3\n\"The \"\"big\"\" one\",\"\"\n"
+                + "\"Two\nlines\",1\nLast,2\n");
+
+        assertRecord(csv, 1, "Mugs, blue", "3");
+        assertRecord(csv, 2, "The \"big\" one", "");
+        assertRecord(csv, 3, "Two\nlines", "1");
+        assertRecord(csv, 5, "Last", "2");
+        assertNull(csv.readRecord());
+    }
+
+    @Test
+    public void readRecord_skipsByteOrderMark() throws IOException {
+        assertRecord(reader("\uFEFFname,price"), 1, "name", "price");
+    }
+
+    @Test
+    public void readRecord_emptyLine() throws IOException {
+        CsvReader csv = reader("a\n\nb");
+
+        assertRecord(csv, 1, "a");
+        assertRecord(csv, 2, "");
+        assertRecord(csv, 3, "b");
+    }
+
+    @Test
+    public void readRecord_longRecordAcrossBuffers() throws IOException {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 20000; i++)
+            name.append((char) ('a' + i % 26));
+
+        assertRecord(reader("\"" + name + "\",1"), 1, name.toString(), "1");
+    }
+
+    @Test(expected = IOException.class)
+    public void readRecord_unclosedQuote() throws IOException {
+        reader("\"Mugs,3\n").readRecord();
+    }
+
+    private static CsvReader reader(String csv) {
+        return new CsvReader(new StringReader(csv));
+    }
+
+    private static void assertRecord(CsvReader csv, long line, String... fields)
+            throws IOException {
+        List<String> record = csv.readRecord();
+        assertEquals(Arrays.asList(fields), record);
+        assertEquals(line, csv.getRecordLine());
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.android.inventory.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketOf_isContinuousAndWithinPrecision() {
+        int previous = LatencyHistogram.bucketOf(0);
+        for (long value = 1; value < 1 << 20; value++) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(bucket == previous || bucket == previous + 1);
+            previous = bucket;
+
+            long highest = LatencyHistogram.highestValueOf(bucket);
+            assertTrue(value <= highest);
+            assertTrue(highest - value <= value / LatencyHistogram.SUB_BUCKETS);
+        }
+    }
+
+    @Test
+    public void bucketOf_clampsLargeValues() {
+        int last = LatencyHistogram.bucketOf(LatencyHistogram.MAX_VALUE);
+        assertEquals(last, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+        assertEquals(LatencyHistogram.MAX_VALUE, LatencyHistogram.highestValueOf(last));
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++)
+            histogram.record(micros * 1000);
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500500, histogram.getMean());
+        assertWithinPrecision(500000, histogram.getValueAtPercentile(50));
+        assertWithinPrecision(990000, histogram.getValueAtPercentile(99));
+        assertEquals(1000000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void reset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(12345);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue(actual + " is not " + expected, actual >= expected
+                && actual - expected <= expected / LatencyHistogram.SUB_BUCKETS);
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.android.inventory.data;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ProviderMetrics}.
+ */
+public class ProviderMetricsTest {
+
+    private static final String[] PATTERNS = {"items", "items/#"};
+
+    @Test
+    public void report_listsTheUsedOperations() {
+        ProviderMetrics metrics = new ProviderMetrics(PATTERNS, true);
+        long start = metrics.start();
+        metrics.record(ProviderMetrics.QUERY, 1, start, 1);
+        metrics.record(ProviderMetrics.QUERY, 1, start, 1);
+        metrics.record(ProviderMetrics.DELETE, 0, start, -1);
+
+        String[] lines = report(metrics);
+
+        assertEquals(3, lines.length);
+        assertEquals(ProviderMetrics.REPORT_HEADER, lines[0]);
+        assertTrue(lines[1], lines[1].startsWith("query\titems/#\t2\t0\t2\t"));
+        assertTrue(lines[2], lines[2].startsWith("delete\titems\t1\t1\t0\t"));
+    }
+
+    @Test
+    public void reset() {
+        ProviderMetrics metrics = new ProviderMetrics(PATTERNS, true);
+        metrics.record(ProviderMetrics.INSERT, 0, metrics.start(), 1);
+        metrics.reset();
+
+        assertEquals(1, report(metrics).length);
+    }
+
+    @Test
+    public void disabled_recordsNothing() {
+        ProviderMetrics metrics = new ProviderMetrics(PATTERNS, false);
+        metrics.record(ProviderMetrics.UPDATE, 1, metrics.start(), 3);
+
+        assertEquals(1, report(metrics).length);
+    }
+
+    private static String[] report(ProviderMetrics metrics) {
+        StringWriter report = new StringWriter();
+        metrics.report(new PrintWriter(report));
+        return report.toString().split("\n");
+    }
+}
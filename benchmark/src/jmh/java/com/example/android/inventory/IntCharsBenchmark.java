@@ -0,0 +1,36 @@
+package com.example.android.inventory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting the numbers of the catalog rows with {@link IntChars}, against the String it
+ * replaces.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IntCharsBenchmark {
+
+    private final char[] buffer = new char[IntChars.MAX_LENGTH];
+
+    private int value = 1;
+
+    @Benchmark
+    public int format() {
+        value = value * 31 + 7;
+        return IntChars.format(value % 100000, buffer);
+    }
+
+    @Benchmark
+    public String toStringBaseline() {
+        value = value * 31 + 7;
+        return Integer.toString(value % 100000);
+    }
+}
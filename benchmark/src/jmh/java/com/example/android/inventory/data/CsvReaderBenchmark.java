@@ -0,0 +1,61 @@
+package com.example.android.inventory.data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a supplier catalog with {@link CsvReader}, from memory so only the parser is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CsvReaderBenchmark {
+
+    private static final int LINES = 10000;
+
+    /** Whether the text fields are quoted, with quotes and commas in them */
+    @Param({"false", "true"})
+    public boolean quoted;
+
+    private String csv;
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder(LINES * 40);
+        builder.append("name,quantity,price,supplier\n");
+        for (int i = 0; i < LINES; i++) {
+            if (quoted)
+                builder.append("\"Product \"\"").append(i).append("\"\", blue\"");
+            else
+                builder.append("Product ").append(i);
+            builder.append(',').append(i % 50).append(',').append(i % 100).append(",ACME\n");
+        }
+        csv = builder.toString();
+    }
+
+    /** Returns the number of fields read */
+    @Benchmark
+    public int readAll() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader(csv));
+        try {
+            int fields = 0;
+            List<String> record;
+            while ((record = reader.readRecord()) != null)
+                fields += record.size();
+            return fields;
+        } finally {
+            reader.close();
+        }
+    }
+}
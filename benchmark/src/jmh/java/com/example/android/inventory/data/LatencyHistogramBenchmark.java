@@ -0,0 +1,34 @@
+package com.example.android.inventory.data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The overhead the provider metrics add to every operation: recording one latency, from one
+ * thread and from several binder threads at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LatencyHistogramBenchmark {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Benchmark
+    public void record() {
+        histogram.record(System.nanoTime() & 0xfffff);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void record_contended() {
+        histogram.record(System.nanoTime() & 0xfffff);
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentValues;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping between rows and Products: reading a Product from a cursor, the way
+ * Database.getProduct() and the catalog pages do, and building the ContentValues the
+ * editor writes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProductBenchmark {
+
+    /** Rows of the cursor, the size of a large catalog page */
+    private static final int ROWS = 500;
+
+    /** The editor's projection */
+    private static final String[] COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_IMAGE,
+            ProductEntry.COLUMN_PRODUCT_THUMBNAIL};
+
+    private RowCursor cursor;
+
+    private Product product;
+
+    private final ContentValues values = new ContentValues();
+
+    private int row;
+
+    @Setup
+    public void setUp() {
+        Object[][] rows = new Object[ROWS][];
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = new Object[]{(long) i + 1, "Product " + i, (long) i % 100, (long) i % 50,
+                    i % 3 == 0 ? null : "content://com.example.android.inventory.images/images/"
+                    + Integer.toHexString(i) + ".jpg",
+                    i % 3 == 0 ? null : Integer.toHexString(i * 31)};
+        }
+        cursor = new RowCursor(COLUMNS, rows);
+
+        cursor.moveToPosition(1);
+        product = Product.fromCursor(cursor);
+    }
+
+    /** One Product, looking the columns up each time, as a single-row query does */
+    @Benchmark
+    public Product fromCursor() {
+        cursor.moveToPosition(row++ % ROWS);
+        return Product.fromCursor(cursor);
+    }
+
+    /** A whole page, looking the columns up once */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void readPage(Blackhole blackhole) {
+        Product.Columns columns = new Product.Columns(cursor);
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext())
+            blackhole.consume(columns.read(cursor));
+    }
+
+    @Benchmark
+    public ContentValues toContentValues() {
+        return product.toContentValues();
+    }
+
+    /** Reusing one ContentValues, as a batch insert does */
+    @Benchmark
+    public ContentValues writeTo() {
+        product.writeTo(values);
+        return values;
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentValues;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The checks the provider runs on every insert and update.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProductValidatorBenchmark {
+
+    /** A new Product as the editor writes it */
+    private ContentValues newProduct;
+
+    /** A new Product as the CSV importer writes it, the numbers still text */
+    private ContentValues importedProduct;
+
+    /** A price change */
+    private ContentValues update;
+
+    /** A new Product with a negative quantity */
+    private ContentValues invalidProduct;
+
+    @Setup
+    public void setUp() {
+        newProduct = new Product(Product.NO_ID, "Mugs", 8, 3, null, null).toContentValues();
+
+        importedProduct = new ContentValues();
+        importedProduct.put(ProductEntry.COLUMN_PRODUCT_NAME, "Mugs");
+        importedProduct.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, "3");
+        importedProduct.put(ProductEntry.COLUMN_PRODUCT_PRICE, "8");
+
+        update = new ContentValues();
+        update.put(ProductEntry.COLUMN_PRODUCT_PRICE, 9);
+
+        invalidProduct = new Product(Product.NO_ID, "Mugs", 8, -3, null, null).toContentValues();
+    }
+
+    @Benchmark
+    public ContentValues validateNewProduct() {
+        ProductValidator.validateNewProduct(newProduct);
+        return newProduct;
+    }
+
+    @Benchmark
+    public ContentValues validateNewProduct_text() {
+        ProductValidator.validateNewProduct(importedProduct);
+        return importedProduct;
+    }
+
+    @Benchmark
+    public ContentValues validateUpdate() {
+        ProductValidator.validateUpdate(update);
+        return update;
+    }
+
+    /** The cost of a rejected row, exception included */
+    @Benchmark
+    public String validateNewProduct_rejected() {
+        try {
+            ProductValidator.validateNewProduct(invalidProduct);
+            return null;
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.android.inventory.data;
+
+import android.database.Cursor;
+
+/**
+ * Stand-in for the cursors the provider returns: rows held in memory, read by column index, like
+ * a filled CursorWindow. Numbers are stored as Long and text as String, as SQLite returns them.
+ */
+final class RowCursor implements Cursor {
+
+    private final String[] columns;
+
+    private final Object[][] rows;
+
+    private int position = -1;
+
+    RowCursor(String[] columns, Object[][] rows) {
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    @Override
+    public int getCount() {
+        return rows.length;
+    }
+
+    @Override
+    public int getPosition() {
+        return position;
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+        if (position < 0 || position >= rows.length) {
+            this.position = position < 0 ? -1 : rows.length;
+            return false;
+        }
+        this.position = position;
+        return true;
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return moveToPosition(position + 1);
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        for (int i = 0; i < columns.length; i++)
+            if (columns[i].equalsIgnoreCase(columnName))
+                return i;
+        return -1;
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) {
+        int index = getColumnIndex(columnName);
+        if (index < 0)
+            throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+        return index;
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        Object value = rows[position][columnIndex];
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return (int) getLong(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        Object value = rows[position][columnIndex];
+        if (value == null)
+            return 0;
+        if (value instanceof Number)
+            return ((Number) value).longValue();
+        return Long.parseLong(value.toString());
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return rows[position][columnIndex] == null;
+    }
+
+    @Override
+    public void close() {
+    }
+}
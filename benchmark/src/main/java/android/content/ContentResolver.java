@@ -0,0 +1,13 @@
+package android.content;
+
+/**
+ * Stand-in for the Android class, for the benchmarks: the constants only.
+ */
+public abstract class ContentResolver {
+
+    public static final String SCHEME_CONTENT = "content";
+
+    public static final String CURSOR_ITEM_BASE_TYPE = "vnd.android.cursor.item";
+
+    public static final String CURSOR_DIR_BASE_TYPE = "vnd.android.cursor.dir";
+}
@@ -0,0 +1,82 @@
+package android.content;
+
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * Stand-in for the Android class, for the benchmarks. Backed by a HashMap and converting values
+ * the way the platform does on API 19 to 25.
+ */
+public final class ContentValues {
+
+    private final HashMap<String, Object> values;
+
+    public ContentValues() {
+        values = new HashMap<>(8);
+    }
+
+    public ContentValues(int size) {
+        values = new HashMap<>(size, 1.0f);
+    }
+
+    public void put(String key, String value) {
+        values.put(key, value);
+    }
+
+    public void put(String key, Integer value) {
+        values.put(key, value);
+    }
+
+    public void put(String key, Long value) {
+        values.put(key, value);
+    }
+
+    public void putNull(String key) {
+        values.put(key, null);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public void remove(String key) {
+        values.remove(key);
+    }
+
+    public void clear() {
+        values.clear();
+    }
+
+    public boolean containsKey(String key) {
+        return values.containsKey(key);
+    }
+
+    public Object get(String key) {
+        return values.get(key);
+    }
+
+    public String getAsString(String key) {
+        Object value = values.get(key);
+        return value != null ? value.toString() : null;
+    }
+
+    public Integer getAsInteger(String key) {
+        Object value = values.get(key);
+        try {
+            return value != null ? ((Number) value).intValue() : null;
+        } catch (ClassCastException e) {
+            if (value instanceof CharSequence) {
+                try {
+                    return Integer.valueOf(value.toString());
+                } catch (NumberFormatException e2) {
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+
+    public Set<String> keySet() {
+        return values.keySet();
+    }
+}
@@ -0,0 +1,32 @@
+package android.database;
+
+/**
+ * Stand-in for the Android interface, for the benchmarks: the methods the data layer reads rows
+ * with.
+ */
+public interface Cursor {
+
+    int getCount();
+
+    int getPosition();
+
+    boolean moveToPosition(int position);
+
+    boolean moveToFirst();
+
+    boolean moveToNext();
+
+    int getColumnIndex(String columnName);
+
+    int getColumnIndexOrThrow(String columnName) throws IllegalArgumentException;
+
+    String getString(int columnIndex);
+
+    int getInt(int columnIndex);
+
+    long getLong(int columnIndex);
+
+    boolean isNull(int columnIndex);
+
+    void close();
+}
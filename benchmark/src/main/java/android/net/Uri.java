@@ -0,0 +1,69 @@
+package android.net;
+
+/**
+ * Stand-in for the Android class, for the benchmarks: just enough to build the URIs of the
+ * contract.
+ */
+public final class Uri {
+
+    private final String uri;
+
+    private Uri(String uri) {
+        this.uri = uri;
+    }
+
+    public static Uri parse(String uriString) {
+        return new Uri(uriString);
+    }
+
+    public static Uri withAppendedPath(Uri baseUri, String pathSegment) {
+        String base = baseUri.uri;
+        return new Uri(base.endsWith("/") ? base + pathSegment : base + "/" + pathSegment);
+    }
+
+    public Builder buildUpon() {
+        return new Builder(uri);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Uri && uri.equals(((Uri) o).uri);
+    }
+
+    @Override
+    public int hashCode() {
+        return uri.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return uri;
+    }
+
+    public static final class Builder {
+
+        private final StringBuilder uri;
+
+        private boolean hasQuery;
+
+        Builder(String uri) {
+            this.uri = new StringBuilder(uri);
+            hasQuery = uri.indexOf('?') >= 0;
+        }
+
+        public Builder appendPath(String segment) {
+            uri.append('/').append(segment);
+            return this;
+        }
+
+        public Builder appendQueryParameter(String key, String value) {
+            uri.append(hasQuery ? '&' : '?').append(key).append('=').append(value);
+            hasQuery = true;
+            return this;
+        }
+
+        public Uri build() {
+            return new Uri(uri.toString());
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package android.provider;
+
+/**
+ * Stand-in for the Android interface, for the benchmarks.
+ */
+public interface BaseColumns {
+
+    String _ID = "_id";
+
+    String _COUNT = "_count";
+}